@@ -0,0 +1,156 @@
+package jb.engine.core;
+
+import jb.engine.reporting.CacheMetrics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Least-recently-used cache for the checksum maps of {@link SnapshotInfo} objects belonging to one context.
+ * <p>The cache keeps the estimated heap size of all resident maps below a configurable byte budget. Maps that are not
+ * resident are reloaded transparently with the loader given upon construction.</p>
+ */
+public class ChecksumMapCache {
+
+    private static final Logger logger = Logger.getLogger(ChecksumMapCache.class.getName());
+
+    private static final String BUDGET_PROPERTY_KEY = "checksum_map_cache_budget_mb";
+    private static final long DEFAULT_BUDGET_MB = 256;
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+
+    // rough heap costs of a HashMap<String, byte[]> entry on a 64 bit vm with compressed oops
+    private static final long ENTRY_OVERHEAD_BYTES = 32 + 8;  // HashMap.Node and its slot in the table
+    private static final long STRING_OVERHEAD_BYTES = 24 + 16;  // String object and its backing array header
+    private static final long ARRAY_OVERHEAD_BYTES = 16;
+
+    private final Function<String, HashMap<String, byte[]>> loader;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long byteBudget;
+    private long residentBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Creates a cache with the byte budget declared in the application properties.
+     * @param loader function loading the checksum map of the snapshot info with the given id from persistent storage.
+     */
+    public static ChecksumMapCache withDefaultBudget(Function<String, HashMap<String, byte[]>> loader) {
+        return new ChecksumMapCache(CoreInfo.getLongProperty(BUDGET_PROPERTY_KEY, DEFAULT_BUDGET_MB) * BYTES_PER_MB, loader);
+    }
+
+    public ChecksumMapCache(long byteBudget, Function<String, HashMap<String, byte[]>> loader) {
+        if(byteBudget < 0) {
+            throw new IllegalArgumentException("Byte budget can not be negative: " + byteBudget);
+        }
+        this.byteBudget = byteBudget;
+        this.loader = loader;
+    }
+
+    /**
+     * Estimates the heap size of the given checksum map in bytes.
+     */
+    public static long estimateSizeInBytes(Map<String, byte[]> checksumMap) {
+        long size = ARRAY_OVERHEAD_BYTES;
+        for(Map.Entry<String, byte[]> entry : checksumMap.entrySet()) {
+            size += ENTRY_OVERHEAD_BYTES
+                    + STRING_OVERHEAD_BYTES + entry.getKey().length()
+                    + ARRAY_OVERHEAD_BYTES + entry.getValue().length;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the checksum map of the snapshot info with the given id. If the map is not resident, it is loaded and
+     * possibly cached.
+     */
+    public HashMap<String, byte[]> get(String snapshotInfoId) {
+        synchronized (this) {
+            Entry entry = entries.get(snapshotInfoId);
+            if(entry != null) {
+                hitCount++;
+                return entry.checksumMap;
+            }
+            missCount++;
+        }
+        // load outside of the lock since loading may take a while
+        HashMap<String, byte[]> loadedMap = loader.apply(snapshotInfoId);
+        put(snapshotInfoId, loadedMap);
+        return loadedMap;
+    }
+
+    /**
+     * Registers the given map as the checksum map of the snapshot info with the given id. Least recently used maps are
+     * evicted until the budget is respected. Maps exceeding the budget on their own are not cached at all.
+     */
+    public synchronized void put(String snapshotInfoId, HashMap<String, byte[]> checksumMap) {
+        invalidate(snapshotInfoId);
+        long estimatedSize = estimateSizeInBytes(checksumMap);
+        if(estimatedSize > byteBudget) {
+            logger.fine("Checksum map of snapshot " + snapshotInfoId + " exceeds the cache budget: " + estimatedSize + " > " + byteBudget);
+            return;
+        }
+        entries.put(snapshotInfoId, new Entry(checksumMap, estimatedSize));
+        residentBytes += estimatedSize;
+        evictUntilWithinBudget();
+    }
+
+    /**
+     * Removes the map of the given snapshot info id from this cache if present.
+     */
+    public synchronized void invalidate(String snapshotInfoId) {
+        Entry removed = entries.remove(snapshotInfoId);
+        if(removed != null) {
+            residentBytes -= removed.estimatedSize;
+        }
+    }
+
+    /**
+     * Removes all maps from this cache. Counters are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        residentBytes = 0;
+    }
+
+    /**
+     * Sets a new byte budget and evicts maps if needed.
+     */
+    public synchronized void setByteBudget(long byteBudget) {
+        if(byteBudget < 0) {
+            throw new IllegalArgumentException("Byte budget can not be negative: " + byteBudget);
+        }
+        this.byteBudget = byteBudget;
+        evictUntilWithinBudget();
+    }
+
+    public synchronized CacheMetrics getMetrics() {
+        return new CacheMetrics(hitCount, missCount, evictionCount, entries.size(), residentBytes, byteBudget);
+    }
+
+    private void evictUntilWithinBudget() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while(residentBytes > byteBudget && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            residentBytes -= eldest.getValue().estimatedSize;
+            evictionCount++;
+            logger.fine("Evicted checksum map of snapshot " + eldest.getKey() + " from cache (" + eldest.getValue().estimatedSize + " bytes)");
+        }
+    }
+
+    private static class Entry {
+        private final HashMap<String, byte[]> checksumMap;
+        private final long estimatedSize;
+
+        private Entry(HashMap<String, byte[]> checksumMap, long estimatedSize) {
+            this.checksumMap = checksumMap;
+            this.estimatedSize = estimatedSize;
+        }
+    }
+}
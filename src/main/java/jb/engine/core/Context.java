@@ -1,11 +1,24 @@
 package jb.engine.core;
 
 import jb.engine.core.data.*;
+import jb.engine.core.filter.FilterRules;
+import jb.engine.core.filter.PathFilter;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.DigestFilter;
+import jb.engine.core.manifest.DigestIndex;
+import jb.engine.core.manifest.FilteredDigestLookup;
+import jb.engine.core.manifest.ManifestBuilder;
+import jb.engine.core.manifest.ManifestReference;
 import jb.engine.exceptions.*;
+import jb.engine.reporting.CacheMetrics;
+import jb.engine.reporting.DigestFilterMetrics;
 import jb.engine.reporting.CopyProgress;
 import jb.engine.reporting.ProblemReport;
+import jb.engine.reporting.RunStatistics;
 import jb.engine.services.CopyService;
+import jb.engine.services.DigestLookup;
 import jb.engine.services.HashService;
+import jb.engine.services.SnapshotCopyPipeline;
 import jb.engine.utils.PathUtils;
 
 import java.io.FileNotFoundException;
@@ -14,16 +27,23 @@ import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Central Class for creating copies and snapshots as well as loading and saving information about this context's snapshots.
@@ -53,6 +73,11 @@ public class Context {
 
     private static final String TIME_PATTERN = "yyyy-MM-dd-HH-mm-ss-SSSS";
 
+    private static final String SNAPSHOT_COPY_QUEUE_SIZE_PROPERTY_KEY = "snapshot_copy_queue_size";
+    private static final long DEFAULT_SNAPSHOT_COPY_QUEUE_SIZE = 1024;
+    private static final String CHECKSUM_MEMORY_BUDGET_PROPERTY_KEY = "checksum_memory_budget_mb";
+    private static final long DEFAULT_CHECKSUM_MEMORY_BUDGET_MB = 256;
+
     // ------------------------- Database Fields
 
     /**
@@ -76,6 +101,12 @@ public class Context {
     @DataField(sqliteType = SQLiteType.TEXT, sqliteConstraints = {SQLiteConstraint.PRIMARY_KEY}, constructorArgumentPositionIndex = 4)
     private final String id;
 
+    /**
+     * Text of the {@link FilterRules} excluding paths of the source directory from runs. {@code null} if there are none.
+     */
+    @DataField(sqliteType = SQLiteType.TEXT, constructorArgumentPositionIndex = 5)
+    private String filterRules;
+
     /**
      * Map from keys to paths representing all important places of this context.
      */
@@ -86,25 +117,55 @@ public class Context {
 
     private final List<SnapshotInfo> snapshotInfoList = new LinkedList<>();
 
+    /**
+     * Holds the checksum maps of this context's snapshot info objects within a limited memory budget.
+     */
+    private final ChecksumMapCache checksumMapCache = ChecksumMapCache.withDefaultBudget(this::loadRedirectedChecksumMap);
+    private volatile DigestFilterMetrics lastDigestFilterMetrics = null;
+
     // -------------------- Create and load Context
 
     public static List<ContextInfoContainer> getStoredContextInfo() throws DatabaseCommunicationException {
         return DatabaseManager.getInstance().getInfoOfAllContext();
     }
 
+    /**
+     * Lists information about all stored contexts without blocking the calling thread.
+     */
+    public static CompletableFuture<List<ContextInfoContainer>> getStoredContextInfoAsync() {
+        return DatabaseManager.getInstance().getInfoOfAllContextAsync();
+    }
+
     public static Context loadContextById(String contextId) throws NotFoundException, DatabaseCommunicationException {
         Context loadedContext = DatabaseManager.getInstance()
                 .loadContext(contextId).orElseThrow(() -> new NotFoundException("Could not find any stored Context with id " + contextId));
         loadedContext.checkAndRestoreIntegrityOfLoadedPaths();
+        loadedContext.resumeIndexingAsync();
         return loadedContext;
     }
 
+    /**
+     * Loads the context with the given id without blocking the calling thread. The future fails with a
+     * {@link NotFoundException} if there is no such context.
+     */
+    public static CompletableFuture<Context> loadContextByIdAsync(String contextId) {
+        return DatabaseManager.getInstance().loadContextAsync(contextId)
+                .thenApply(contextOpt -> {
+                    Context loadedContext = contextOpt.orElseThrow(() -> new CompletionException(new NotFoundException("Could not find any stored Context with id " + contextId)));
+                    loadedContext.checkAndRestoreIntegrityOfLoadedPaths();
+                    loadedContext.resumeIndexingAsync();
+                    return loadedContext;
+                });
+    }
+
     /**
      * Loads the latest loaded or saved context from the database. returns an empty Optional, if there is no such
      * latest context.
      */
     public static Optional<Context> loadLatestUsedContext() throws DatabaseCommunicationException {
-        return DatabaseManager.getInstance().loadLastUsedContext();
+        Optional<Context> loadedContext = DatabaseManager.getInstance().loadLastUsedContext();
+        loadedContext.ifPresent(Context::resumeIndexingAsync);
+        return loadedContext;
     }
 
     /**
@@ -153,6 +214,7 @@ public class Context {
                 throw new IllegalArgumentException("Found context in database with matching home path " + homePath + " but unequal source paths: (given source) " + sourcePath + ", (encountered source) " + foundContext.getSourcePath());
             }
             percentageConsumer.accept(BigDecimal.ONE);
+            foundContext.resumeIndexingAsync();
             return foundContext;
         }
         // restore context from data on disk
@@ -166,6 +228,8 @@ public class Context {
         } catch (DatabaseCommunicationException e) {
             throw new ContextException("Could not save restored context to database: " + e, e);
         }
+        contextToRestore.snapshotInfoList.forEach(contextToRestore::indexFileNamesAsync);
+        contextToRestore.snapshotInfoList.forEach(contextToRestore::indexFileVersionsAsync);
         return contextToRestore;
     }
 
@@ -176,12 +240,9 @@ public class Context {
     private static Optional<Context> restoreContextFromDatabase(Path homePath) {
         Optional<Context> foundContextOpt;
         try {
-            Optional<ContextInfoContainer> ciOpt = DatabaseManager.getInstance().getInfoOfAllContext()
-                    .stream()
-                    .filter(ci -> ci.getHomePath().equals(homePath))
-                    .findAny();
-            if(ciOpt.isPresent()) {
-                foundContextOpt = DatabaseManager.getInstance().loadContext(ciOpt.get().getId());
+            Optional<String> contextIdOpt = DatabaseManager.getInstance().findContextIdByHomePath(homePath);
+            if(contextIdOpt.isPresent()) {
+                foundContextOpt = DatabaseManager.getInstance().loadContext(contextIdOpt.get());
             } else {
                 foundContextOpt = Optional.empty();
             }
@@ -212,9 +273,11 @@ public class Context {
             if(!Files.isDirectory(actualPathForChecksum)) {
                 logger.warning("Expected directory at " + actualPathForChecksum + ": Skipping reconstruction of snapshot info at path " + targetPath);
             }
-            try {
-                HashMap<Path, ByteBuffer> targetChecksumMap = HashService.computeChecksumMap(actualPathForChecksum);
-                contextToInjectInto.addSnapshotInfoOfRun(targetPath.getFileName() + "_restored", targetPath, targetChecksumMap, CopyType.RESTORED, false);
+            try (ManifestBuilder manifestBuilder = contextToInjectInto.createManifestBuilder()) {
+                // paths already are located within the run target directory
+                HashService.computeChecksums(actualPathForChecksum, CopyProgress.withoutConsumer(), addingTo(manifestBuilder, path -> path));
+                contextToInjectInto.addSnapshotInfoOfRun(targetPath.getFileName() + "_restored", targetPath, manifestBuilder, CopyType.RESTORED,
+                        null, null, null);
             } catch (Exception e) {
                 logger.warning("Could not compute checksum map: Skipping reconstruction of snapshot info at path " + targetPath);
             }
@@ -226,11 +289,20 @@ public class Context {
      * Creates a new Context instance containing no SnapshotInfo.
      */
     protected Context(Path sourcePath, Path homePath, String contextName, Instant createdTime, String id) {
+        this(sourcePath, homePath, contextName, createdTime, id, null);
+    }
+
+    /**
+     * Creates a new Context instance containing no SnapshotInfo.
+     * @param filterRules the text of this context's {@link FilterRules} or {@code null} if there are none.
+     */
+    protected Context(Path sourcePath, Path homePath, String contextName, Instant createdTime, String id, String filterRules) {
         this.sourcePath = sourcePath;
         this.homePath = homePath;
         this.name = contextName;
         this.createdTime = createdTime;
         this.id = id;
+        this.filterRules = filterRules;
         this.allPaths = createInternalPathMapOfContext(sourcePath, homePath);
         this.backupContents = generateBackupFileContent();
     }
@@ -316,11 +388,28 @@ public class Context {
             throw new IllegalArgumentException(String.format("The given snapshot %s does not exist within this context (%s)", snapshotInfo.getName(), this.name));
         }
         try {
-            // delete resources
-            PathUtils.deleteFileOrDirectory(snapshotInfo.getRunTargetDirectory());
+            // the snapshot stays accounted if its files can not be deleted, so that deleting it can be retried
+            if(Files.exists(snapshotInfo.getRunTargetDirectory(), LinkOption.NOFOLLOW_LINKS)) {
+                PathUtils.deleteFileOrDirectory(snapshotInfo.getRunTargetDirectory());
+            }
+            // the checksums are read from the digest index, which is deleted last. A retry after a failed save
+            // continues releasing where it stopped
+            releaseSpace(snapshotInfo);
             // save updated snapshotinfo list
-            snapshotInfoList.remove(snapshotInfo);
-            save();
+            Optional<SnapshotInfo> nextSnapshotInfo = findNextSnapshotInfo(snapshotInfo);
+            int index = snapshotInfoList.indexOf(snapshotInfo);
+            snapshotInfoList.remove(index);
+            checksumMapCache.invalidate(snapshotInfo.getId());
+            try {
+                save();
+            } catch (DatabaseCommunicationException e) {
+                // still listed in the database, hence deleting it can be retried
+                snapshotInfoList.add(index, snapshotInfo);
+                throw e;
+            }
+            deleteRunIndexFilesIfExist(snapshotInfo.getRunTargetDirectory());
+            // changes of the next snapshot now refer to the snapshot before the deleted one
+            nextSnapshotInfo.ifPresent(this::indexFileVersionsAsync);
         } catch (Exception e) {
             throw new UnresolvableFileException("Could not delete snapshot " + snapshotInfo.getName() + ": " + e, e);
         }
@@ -330,20 +419,79 @@ public class Context {
 
     private ProblemReport createPlainCopy(String runName, Path runTargetDirectory, Consumer<CopyProgress> copyProgressConsumer) throws DatabaseCommunicationException {
         CopyProgress copyProgress = CopyProgress.withProgressConsumer(copyProgressConsumer);  // new empty progress
-        HashMap<Path, ByteBuffer> currentSourceChecksumMap = computeCurrentSourceChecksumMap(copyProgress);
-        ProblemReport problemReport = getCopyServiceForRun(runTargetDirectory).plainCopy();
-        addSnapshotInfoOfRun(runName, runTargetDirectory, currentSourceChecksumMap, CopyType.PLAIN_COPY);
-        save();
+        CopiedFileLog copiedFileLog = new CopiedFileLog(allPaths.get(INTERNAL_KEY));
+        RunStatistics.Recorder recorder = new RunStatistics.Recorder(copiedFileLog);
+        FilterRules runFilterRules = getFilterRules();
+        PathFilter pathFilter = PathFilter.of(sourcePath, runFilterRules);
+        CopyService copyService = getCopyServiceForRun(runTargetDirectory, pathFilter);
+        SnapshotInfo snapshotInfo;
+        ProblemReport problemReport;
+        try {
+            try (ManifestBuilder manifestBuilder = createManifestBuilder()) {
+                long startNanos = System.nanoTime();
+                hashSourceDirectory(pathFilter, copyProgress, addingTo(manifestBuilder, copyService::toTargetPath));
+                recorder.setHashDuration(Duration.ofNanos(System.nanoTime() - startNanos));
+                startNanos = System.nanoTime();
+                problemReport = copyService.plainCopy(recorder);
+                recorder.setCopyDuration(Duration.ofNanos(System.nanoTime() - startNanos));
+                snapshotInfo = addSnapshotInfoOfRun(runName, runTargetDirectory, manifestBuilder, CopyType.PLAIN_COPY, copyProgress, recorder, runFilterRules);
+            }
+            save();
+        } catch (RuntimeException | DatabaseCommunicationException e) {
+            copiedFileLog.close();
+            throw e;
+        }
+        indexFileNamesAsync(snapshotInfo);
+        indexFileVersionsAsync(snapshotInfo);
+        accountSpaceAsync(snapshotInfo, copyService, copiedFileLog);
         return problemReport;
     }
 
+    /**
+     * Hashes the source directory and copies it at the same time: each path is compared with the latest snapshot as soon
+     * as its checksum is final and queued for copying or linking, see {@link SnapshotCopyPipeline}. The checksums are
+     * collected by a {@link ManifestBuilder}, which keeps heap use bounded regardless of the size of the source.
+     */
     private ProblemReport createSnapshot(String runName, Path runTargetDirectory, Consumer<CopyProgress> progressConsumer) throws NotFoundException, DatabaseCommunicationException {
         CopyProgress copyProgress = CopyProgress.withProgressConsumer(progressConsumer);  // new empty progress
-        HashMap<ByteBuffer, Path> comparisonMapInverted = loadLatestChecksumMapInverted();
-        HashMap<Path, ByteBuffer> currentSourceChecksumMap = computeCurrentSourceChecksumMap(copyProgress);
-        ProblemReport problemReport = getCopyServiceForRun(runTargetDirectory).createSnapshotCopy(currentSourceChecksumMap, comparisonMapInverted, copyProgress);  // TODO: Save problem reports to database
-        addSnapshotInfoOfRun(runName, runTargetDirectory, currentSourceChecksumMap, CopyType.SNAPSHOT);
-        save();
+        int queueSize = (int) Math.max(1, CoreInfo.getLongProperty(SNAPSHOT_COPY_QUEUE_SIZE_PROPERTY_KEY, DEFAULT_SNAPSHOT_COPY_QUEUE_SIZE));
+        FilterRules runFilterRules = getFilterRules();
+        PathFilter pathFilter = PathFilter.of(sourcePath, runFilterRules);
+        CopyService copyService = getCopyServiceForRun(runTargetDirectory, pathFilter);
+        SnapshotInfo snapshotInfo;
+        ProblemReport problemReport;
+        SnapshotInfo latestInfo = getLatestSnapshotInfo();
+        CopiedFileLog copiedFileLog = new CopiedFileLog(allPaths.get(INTERNAL_KEY));
+        RunStatistics.Recorder recorder = new RunStatistics.Recorder(copiedFileLog);
+        try {
+            try (DigestLookup comparisonLookup = openLatestDigestLookup(); ChecksumManifest comparisonManifest = openManifestOrNull(latestInfo);
+                 ManifestBuilder manifestBuilder = createManifestBuilder()) {
+                Predicate<Path> comparisonContains = comparisonManifest == null
+                        ? relativePath -> latestInfo.getRedirectedChecksumMap().containsKey(latestInfo.getRunTargetDirectory().resolve(relativePath).toString())
+                        : relativePath -> comparisonManifest.indexOf(latestInfo.getRunTargetDirectory().resolve(relativePath).toString()) >= 0;
+                long startNanos = System.nanoTime();
+                try (SnapshotCopyPipeline pipeline = copyService.startSnapshotCopyPipeline(comparisonLookup, comparisonContains,
+                        copyProgress, recorder, queueSize)) {
+                    hashSourceDirectory(pathFilter, copyProgress, pipeline.andThen(addingTo(manifestBuilder, copyService::toTargetPath)));
+                    Duration hashDuration = Duration.ofNanos(System.nanoTime() - startNanos);
+                    problemReport = pipeline.finish();  // TODO: Save problem reports to database
+                    recorder.setHashDuration(hashDuration);
+                    recorder.setCopyDuration(pipeline.getCopyDuration());
+                }
+                if(comparisonLookup instanceof FilteredDigestLookup) {
+                    lastDigestFilterMetrics = ((FilteredDigestLookup) comparisonLookup).getMetrics();
+                    logger.info("Digest filter of run " + runName + ": " + lastDigestFilterMetrics);
+                }
+                snapshotInfo = addSnapshotInfoOfRun(runName, runTargetDirectory, manifestBuilder, CopyType.SNAPSHOT, copyProgress, recorder, runFilterRules);
+            }
+            save();
+        } catch (RuntimeException | NotFoundException | DatabaseCommunicationException e) {
+            copiedFileLog.close();
+            throw e;
+        }
+        indexFileNamesAsync(snapshotInfo);
+        indexFileVersionsAsync(snapshotInfo);
+        accountSpaceAsync(snapshotInfo, copyService, copiedFileLog);
         return problemReport;
     }
 
@@ -362,16 +510,75 @@ public class Context {
         if(latestInfo != null) {
             // delete snapshot info
             snapshotInfoList.remove(latestInfo);
+            checksumMapCache.invalidate(latestInfo.getId());
         }
         // Try to delete target directory
         try {
             save();
             PathUtils.deleteFileOrDirectory(runTargetPath);
+            deleteRunIndexFilesIfExist(runTargetPath);
         } catch (IOException | UncheckedIOException | IllegalArgumentException | DatabaseCommunicationException e) {
             throw new RollbackException("Could not delete target directory", e);
         }
     }
 
+    /**
+     * Searches the names of all files and directories within all snapshots of this context. Each word of the given query
+     * needs to start a word of a match's name or directory, e.g. "report 2025" matches "docs/report_2025.xlsx".
+     * @return at most the given number of matches, best matches first.
+     */
+    public List<FileNameMatch> searchFileNames(String query, int limit) throws DatabaseCommunicationException {
+        return DatabaseManager.getInstance().searchFileNames(this, query, limit);
+    }
+
+    /**
+     * @param relativePath a path relative to the run target directories, e.g. "Source/docs/report.txt".
+     * @return one entry per snapshot of this context in which the file or directory at the given path was created,
+     * changed or deleted, oldest first.
+     */
+    public List<FileVersion> getFileHistory(Path relativePath) throws DatabaseCommunicationException {
+        return DatabaseManager.getInstance().getFileHistory(this, relativePath.toString());
+    }
+
+    /**
+     * Reads the disk space used by the given snapshot of this context without blocking the calling thread. The usage is
+     * empty for snapshots created before space was accounted, for restored snapshots and while the snapshot is still
+     * being accounted.
+     */
+    public CompletableFuture<Optional<SpaceUsage>> getSpaceUsageAsync(SnapshotInfo snapshotInfo) {
+        return DatabaseManager.getInstance().getSpaceUsageAsync(this, snapshotInfo);
+    }
+
+    /**
+     * Reads the disk space used by all accounted snapshots of this context without blocking the calling thread. The
+     * usage is empty if none of them is accounted.
+     */
+    public CompletableFuture<Optional<SpaceUsage>> getSpaceUsageAsync() {
+        return DatabaseManager.getInstance().getSpaceUsageAsync(this);
+    }
+
+    /**
+     * Streams the differences between the given snapshots of this context: added, removed, modified and moved files and
+     * directories with their sizes where known. Only the stored manifests and digest indexes are read, the run target
+     * directories are not touched. Differences are computed while the stream is consumed, unchanged directories are
+     * skipped as a whole.
+     * <p>The returned stream holds opened files and needs to be closed.</p>
+     * @param previous the earlier snapshot, compared against.
+     * @param current the later snapshot.
+     */
+    public Stream<SnapshotDifference> diff(SnapshotInfo previous, SnapshotInfo current) {
+        SnapshotDiff snapshotDiff = new SnapshotDiff(this, previous, current);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(snapshotDiff, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(snapshotDiff::close);
+    }
+
+    /**
+     * @return the snapshot info of this context with the given id.
+     */
+    public Optional<SnapshotInfo> findSnapshotInfo(String snapshotInfoId) {
+        return snapshotInfoList.stream().filter(si -> si.getId().equals(snapshotInfoId)).findFirst();
+    }
+
     // -------------------- Internal Methods
 
     private static Map<String, String> readContextInfoFileContent(Path homePath) {
@@ -399,7 +606,7 @@ public class Context {
         allPaths.put(Context.HOME_KEY, homePath);
         allPaths.put(Context.SOURCE_KEY, sourcePath);
 
-        Path internalPath = homePath.resolve(DIRECTORY_NAME_INTERNAL_DATA);
+        Path internalPath = getInternalDirectoryPath(homePath);
         allPaths.put(Context.TARGET_KEY, homePath.resolve(DIRECTORY_NAME_TARGET));
         allPaths.put(Context.INTERNAL_KEY, internalPath);
         allPaths.put(Context.CONTEXT_INFO_KEY, internalPath.resolve(FILE_NAME_CONTEXT_INFO));
@@ -431,10 +638,24 @@ public class Context {
     }
 
     /**
-     * Saves this context and all attached SnapshotInfo items to the database.
+     * Saves this context and all attached SnapshotInfo items to the database. Returns after the changes were committed,
+     * which makes this method the durability barrier at the end of each run.
      */
     public void save() throws DatabaseCommunicationException {
         DatabaseManager.getInstance().safeOrUpdateContext(this);
+        // persisted checksum maps do not need to be held by their snapshot info objects anymore
+        snapshotInfoList.forEach(SnapshotInfo::handOverChecksumMapToCache);
+    }
+
+    /**
+     * Queues saving this context and all attached SnapshotInfo items without blocking the calling thread. Saves queued
+     * in quick succession are written only once.
+     * @return a future completing after the changes were committed.
+     */
+    public CompletableFuture<Void> saveAsync() {
+        List<SnapshotInfo> savedSnapshotInfoList = new ArrayList<>(snapshotInfoList);
+        return DatabaseManager.getInstance().safeOrUpdateContextAsync(this)
+                .thenRun(() -> savedSnapshotInfoList.forEach(SnapshotInfo::handOverChecksumMapToCache));
     }
 
     /**
@@ -460,45 +681,314 @@ public class Context {
     }
 
     /**
-     * Loads the map given in the latest-record-info-file. If there is no latest info, null is returned.
-     * Throws SnapshotException if loading is not possible.
+     * @return the opened manifest of the given snapshot or {@code null} if it has none or it can not be read.
      */
-    private HashMap<ByteBuffer, Path> loadLatestChecksumMapInverted() throws NotFoundException {
+    private static ChecksumManifest openManifestOrNull(SnapshotInfo snapshotInfo) {
+        Optional<ManifestReference> manifestReference = snapshotInfo.getManifestReference();
+        if(manifestReference.isEmpty()) {
+            return null;
+        }
+        try {
+            return ChecksumManifest.open(manifestReference.get());
+        } catch (ManifestException e) {
+            logger.warning("Could not open manifest of snapshot " + snapshotInfo.getName() + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the digest index of the latest snapshot behind its digest filter, see {@link #openDigestLookup(SnapshotInfo)}.
+     * @throws NotFoundException if there is no latest snapshot.
+     */
+    private DigestLookup openLatestDigestLookup() throws NotFoundException {
         SnapshotInfo latestInfo = getLatestSnapshotInfo();
         if(latestInfo == null) {
             throw new NotFoundException("Could not find an earlier checksum map since there is no earlier SnapshotInfo registered for this context");
         }
-        return latestInfo.getInverseChecksumMap();
+        return openDigestLookup(latestInfo);
+    }
+
+    /**
+     * Opens the digest index of the given snapshot behind its digest filter. Missing or corrupt files are rebuilt from
+     * the snapshot's manifest within the checksum memory budget. For snapshots created before manifests were
+     * introduced, a lookup backed by the inverted checksum map is returned.
+     */
+    DigestLookup openDigestLookup(SnapshotInfo snapshotInfo) {
+        Optional<ManifestReference> manifestReference = snapshotInfo.getManifestReference();
+        if(manifestReference.isEmpty()) {
+            return DigestLookup.of(snapshotInfo.getInverseChecksumMap());
+        }
+        try {
+            return openDigestLookup(snapshotInfo.getRunTargetDirectory());
+        } catch (ManifestException e) {
+            logger.info("Rebuilding digest index and filter of snapshot " + snapshotInfo.getName() + ": " + e);
+        }
+        try (ChecksumManifest manifest = ChecksumManifest.open(manifestReference.get())) {
+            ManifestBuilder.writeIndexAndFilter(manifest, DigestIndex.getIndexPathFor(snapshotInfo.getRunTargetDirectory()),
+                    DigestFilter.getFilterPathFor(snapshotInfo.getRunTargetDirectory()), allPaths.get(INTERNAL_KEY), getChecksumMemoryBudget());
+        }
+        return openDigestLookup(snapshotInfo.getRunTargetDirectory());
+    }
+
+    private static DigestLookup openDigestLookup(Path runTargetDirectory) {
+        DigestIndex index = DigestIndex.open(DigestIndex.getIndexPathFor(runTargetDirectory));
+        try {
+            return new FilteredDigestLookup(DigestFilter.open(DigestFilter.getFilterPathFor(runTargetDirectory)), index);
+        } catch (ManifestException e) {
+            index.close();
+            throw e;
+        }
     }
 
     /**
-     * Adds a new SnapshotInfo Object to this context's SnapshotInfo list. The given source checksum map wil be redirected.
+     * Adds a new SnapshotInfo Object to this context's SnapshotInfo list. Its manifest, digest index and digest filter
+     * are written from the given builder beside the run target directory.
+     * @param recorder the statistics recorded during the run or {@code null} if the snapshot was not created by a run.
+     *                 The given copy progress may be {@code null} in that case.
+     * @param filterRules the rules applied by the run or {@code null} if the snapshot was not created by a run.
+     * @return the added SnapshotInfo.
      */
-    private void addSnapshotInfoOfRun(String runName, Path runTargetDirectory, HashMap<Path, ByteBuffer> sourceChecksumMap, CopyType copyType) {
-        addSnapshotInfoOfRun(runName, runTargetDirectory, sourceChecksumMap, copyType, true);
+    private SnapshotInfo addSnapshotInfoOfRun(String runName, Path runTargetDirectory, ManifestBuilder manifestBuilder, CopyType copyType,
+                                              CopyProgress copyProgress, RunStatistics.Recorder recorder, FilterRules filterRules) {
+        long startNanos = System.nanoTime();
+        ManifestReference manifestReference = manifestBuilder.write(ChecksumManifest.getManifestPathFor(runTargetDirectory),
+                DigestIndex.getIndexPathFor(runTargetDirectory), DigestFilter.getFilterPathFor(runTargetDirectory));
+        if(manifestBuilder.getSpilledRunCount() > 0) {
+            logger.info("Checksums of run " + runName + " exceeded the memory budget and were merged from " + manifestBuilder.getSpilledRunCount() + " spilled runs");
+        }
+        RunStatistics runStatistics = recorder == null ? null : recorder.toStatistics(copyProgress, Duration.ofNanos(System.nanoTime() - startNanos));
+        SnapshotInfo snapshotInfo = SnapshotInfoFactory.createNew(this.id, runName, runTargetDirectory, manifestReference, copyType, runStatistics,
+                filterRules);
+        addSnapshotInfo(snapshotInfo);
+        return snapshotInfo;
     }
 
     /**
-     * Adds a new SnapshotInfo Object to this context's SnapshotInfo list.
+     * Queues indexing the file names of all snapshots of this context that are not indexed completely, e.g. because
+     * indexing failed or the application stopped before it was done. Called after this context was loaded.
      */
-    private void addSnapshotInfoOfRun(String runName, Path runTargetDirectory, HashMap<Path, ByteBuffer> checksumMap, CopyType copyType, boolean redirectChecksumMap) {
-        addSnapshotInfo(
-                SnapshotInfoFactory.createNew(this.id,
-                        runName,
-                        runTargetDirectory,
-                        redirectChecksumMap ? HashService.redirectChecksumMap(checksumMap, runTargetDirectory) : checksumMap,
-                        copyType)
-        );
+    private void resumeIndexingAsync() {
+        // the snapshots are looked up in the background, hence the list is copied on the calling thread
+        List<SnapshotInfo> snapshotInfos = new ArrayList<>(snapshotInfoList);
+        DatabaseManager.getInstance().findSnapshotsWithoutFileNamesAsync(this)
+                .thenAccept(unindexed -> unindexed.forEach(this::indexFileNamesAsync))
+                .exceptionally(e -> {
+                    logger.warning("Could not resume indexing file names of context " + name + ": " + e);
+                    return null;
+                });
+        DatabaseManager.getInstance().findSnapshotsWithoutFileVersionsAsync(this)
+                .thenAccept(unindexed -> unindexed.forEach(snapshotInfo ->
+                        indexFileVersionsAsync(snapshotInfo, findPreviousSnapshotInfo(snapshotInfos, snapshotInfo))))
+                .exceptionally(e -> {
+                    logger.warning("Could not resume indexing file versions of context " + name + ": " + e);
+                    return null;
+                });
     }
 
-    private HashMap<Path, ByteBuffer> computeCurrentSourceChecksumMap(CopyProgress copyProgress) {
+    /**
+     * Queues indexing the file names of the given saved snapshot for {@link #searchFileNames(String, int)}. Paths are
+     * read from the snapshot's manifest. Failures are only logged: the snapshot is not recorded as indexed then and is
+     * indexed again when this context is loaded next, see {@link #resumeIndexingAsync()}.
+     */
+    private CompletableFuture<Integer> indexFileNamesAsync(SnapshotInfo snapshotInfo) {
+        Optional<ManifestReference> manifestReference = snapshotInfo.getManifestReference();
+        if(manifestReference.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        ChecksumManifest manifest;
+        try {
+            manifest = ChecksumManifest.open(manifestReference.get());
+        } catch (ManifestException e) {
+            logger.warning("Could not index file names of snapshot " + snapshotInfo.getName() + ": " + e);
+            return CompletableFuture.completedFuture(0);
+        }
+        // paths are read from the mapped manifest while they are written
+        return DatabaseManager.getInstance().indexFileNamesAsync(this, snapshotInfo, manifest.getPaths())
+                .whenComplete((count, e) -> manifest.close())
+                .exceptionally(e -> {
+                    logger.warning("Could not index file names of snapshot " + snapshotInfo.getName() + ": " + e);
+                    return 0;
+                });
+    }
+
+    /**
+     * Queues indexing the changes of the given saved snapshot compared to the snapshot created right before it for
+     * {@link #getFileHistory(Path)}. Failures are only logged and retried like those of
+     * {@link #indexFileNamesAsync(SnapshotInfo)}.
+     */
+    private CompletableFuture<Integer> indexFileVersionsAsync(SnapshotInfo snapshotInfo) {
+        return indexFileVersionsAsync(snapshotInfo, findPreviousSnapshotInfo(snapshotInfoList, snapshotInfo));
+    }
+
+    private CompletableFuture<Integer> indexFileVersionsAsync(SnapshotInfo snapshotInfo, SnapshotInfo previousSnapshotInfo) {
+        return DatabaseManager.getInstance().indexFileVersionsAsync(this, snapshotInfo, previousSnapshotInfo)
+                .exceptionally(e -> {
+                    logger.warning("Could not index file versions of snapshot " + snapshotInfo.getName() + ": " + e);
+                    return 0;
+                });
+    }
+
+    /**
+     * Queues accounting the disk space of the given saved snapshot. The sizes of the files copied by the run are read
+     * from the given log and recorded by their checksums while they are written. Checksums are read from the snapshot's
+     * manifest and digest index. The log is deleted once the snapshot is accounted. Failures are only logged.
+     * @param copyService the copy service of the run, mapping source paths to the paths within the snapshot.
+     */
+    private CompletableFuture<Boolean> accountSpaceAsync(SnapshotInfo snapshotInfo, CopyService copyService, CopiedFileLog copiedFileLog) {
+        Optional<ManifestReference> manifestReference = snapshotInfo.getManifestReference();
+        if(manifestReference.isEmpty()) {
+            copiedFileLog.close();
+            return CompletableFuture.completedFuture(false);
+        }
+        List<AutoCloseable> resources = new ArrayList<>();
+        Runnable closeResources = () -> {
+            for(AutoCloseable resource : resources) {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    logger.warning("Could not close resource after accounting space of snapshot " + snapshotInfo.getName() + ": " + e);
+                }
+            }
+            copiedFileLog.close();
+        };
+        Iterator<Map.Entry<ByteBuffer, Long>> storedDigestSizes;
+        DigestIndex index;
+        try {
+            ChecksumManifest manifest = ChecksumManifest.open(manifestReference.get());
+            resources.add(manifest);
+            Stream<Map.Entry<Path, Long>> copiedFiles = copiedFileLog.read();
+            resources.add(copiedFiles);
+            storedDigestSizes = copiedFiles
+                    .map(copiedFile -> {
+                        int manifestIndex = manifest.indexOf(copyService.toTargetPath(copiedFile.getKey()).toString());
+                        return manifestIndex < 0 ? null : Map.entry(ByteBuffer.wrap(manifest.getDigest(manifestIndex)), copiedFile.getValue());
+                    })
+                    .filter(Objects::nonNull)
+                    .iterator();
+            index = DigestIndex.open(DigestIndex.getIndexPathFor(snapshotInfo.getRunTargetDirectory()));
+            resources.add(index);
+        } catch (ManifestException | IOException e) {
+            closeResources.run();
+            logger.warning("Could not account space of snapshot " + snapshotInfo.getName() + ": " + e);
+            return CompletableFuture.completedFuture(false);
+        }
+        // the distinct checksums are read from the mapped index while they are written
+        return DatabaseManager.getInstance().accountSpaceAsync(this, snapshotInfo, index.getDigests(), storedDigestSizes)
+                .whenComplete((accounted, e) -> closeResources.run())
+                .exceptionally(e -> {
+                    logger.warning("Could not account space of snapshot " + snapshotInfo.getName() + ": " + e);
+                    return false;
+                });
+    }
+
+    /**
+     * Removes the given snapshot from the space accounting. The checksums are read from the snapshot's digest index in
+     * the order they were accounted in, see {@link #accountSpaceAsync(SnapshotInfo, CopyService, CopiedFileLog)}.
+     */
+    private void releaseSpace(SnapshotInfo snapshotInfo) throws DatabaseCommunicationException {
+        DigestIndex index;
+        try {
+            index = DigestIndex.open(DigestIndex.getIndexPathFor(snapshotInfo.getRunTargetDirectory()));
+        } catch (ManifestException e) {
+            // checksums of other snapshots then stay referenced, hence their exclusive bytes are underestimated
+            logger.warning("Could not read checksums of snapshot " + snapshotInfo.getName() + ": " + e);
+            DatabaseManager.getInstance().releaseSpace(this, snapshotInfo, List.of());
+            return;
+        }
+        try {
+            DatabaseManager.getInstance().releaseSpace(this, snapshotInfo, index.getDigests());
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * @return the snapshot among the given ones created right before the given snapshot or {@code null} if there is none.
+     */
+    private static SnapshotInfo findPreviousSnapshotInfo(Collection<SnapshotInfo> snapshotInfos, SnapshotInfo snapshotInfo) {
+        return snapshotInfos.stream()
+                .filter(si -> si.compareTo(snapshotInfo) < 0)
+                .max(SnapshotInfo::compareTo)
+                .orElse(null);
+    }
+
+    private Optional<SnapshotInfo> findNextSnapshotInfo(SnapshotInfo snapshotInfo) {
+        return snapshotInfoList.stream()
+                .filter(si -> si.compareTo(snapshotInfo) > 0)
+                .min(SnapshotInfo::compareTo);
+    }
+
+    /**
+     * Loads the checksum map of the snapshot info with the given id from its manifest or, for snapshots created before
+     * manifests were introduced, from the database. Used by this context's {@link ChecksumMapCache}.
+     */
+    private HashMap<String, byte[]> loadRedirectedChecksumMap(String snapshotInfoId) {
+        Optional<ManifestReference> manifestReference = findSnapshotInfo(snapshotInfoId).flatMap(SnapshotInfo::getManifestReference);
+        if(manifestReference.isEmpty()) {
+            // the map might have been moved to a manifest after the snapshot info was loaded
+            try {
+                manifestReference = DatabaseManager.getInstance().findManifestReference(this, snapshotInfoId);
+            } catch (DatabaseCommunicationException e) {
+                throw new ContextException("Could not load checksum map of snapshot " + snapshotInfoId + ": " + e, e);
+            }
+        }
+        if(manifestReference.isPresent()) {
+            try (ChecksumManifest manifest = ChecksumManifest.open(manifestReference.get())) {
+                return manifest.toChecksumMap();
+            } catch (ManifestException e) {
+                throw new ContextException("Could not load checksum map of snapshot " + snapshotInfoId + ": " + e, e);
+            }
+        }
         try {
-            return HashService.computeChecksumMap(sourcePath, copyProgress);
+            return DatabaseManager.getInstance().loadRedirectedChecksumMap(this, snapshotInfoId)
+                    .orElseThrow(() -> new ContextException("Could not find checksum map of snapshot " + snapshotInfoId + " in the database"));
+        } catch (DatabaseCommunicationException e) {
+            throw new ContextException("Could not load checksum map of snapshot " + snapshotInfoId + ": " + e, e);
+        }
+    }
+
+    /**
+     * Deletes the manifest, the digest index and the digest filter written beside the given run target directory.
+     * Snapshots created before manifests were introduced have none.
+     */
+    private static void deleteRunIndexFilesIfExist(Path runTargetDirectory) throws IOException {
+        Files.deleteIfExists(ChecksumManifest.getManifestPathFor(runTargetDirectory));
+        Files.deleteIfExists(DigestIndex.getIndexPathFor(runTargetDirectory));
+        Files.deleteIfExists(DigestFilter.getFilterPathFor(runTargetDirectory));
+    }
+
+    private void hashSourceDirectory(PathFilter pathFilter, CopyProgress copyProgress, HashService.HashListener hashListener) {
+        try {
+            HashService.computeChecksums(sourcePath, pathFilter, copyProgress, hashListener);
         } catch (FileNotFoundException e) {
             throw new SnapshotException("Could not compute source checksums", e);
         }
     }
 
+    /**
+     * @return a new builder collecting the checksums of one run. Beyond the configured memory budget, checksums are
+     * spilled to this context's internal directory.
+     */
+    private ManifestBuilder createManifestBuilder() {
+        return new ManifestBuilder(allPaths.get(INTERNAL_KEY), getChecksumMemoryBudget());
+    }
+
+    /**
+     * @return the configured number of bytes a sort of checksums holds in memory before spilling.
+     */
+    private static long getChecksumMemoryBudget() {
+        long memoryBudgetMegabytes = Math.max(1, CoreInfo.getLongProperty(CHECKSUM_MEMORY_BUDGET_PROPERTY_KEY, DEFAULT_CHECKSUM_MEMORY_BUDGET_MB));
+        return memoryBudgetMegabytes * 1024 * 1024;
+    }
+
+    /**
+     * @param toRecordedPath maps each hashed path to the path its checksum is recorded for.
+     * @return a listener adding each checksum to the given builder.
+     */
+    private static HashService.HashListener addingTo(ManifestBuilder manifestBuilder, UnaryOperator<Path> toRecordedPath) {
+        return (path, checksum, directory) -> manifestBuilder.add(toRecordedPath.apply(path).toString(), checksum.array());
+    }
+
     /**
      * Returns a Path to a File with name returned by {@link #getDateString()} located in this context target directory.
      */
@@ -509,10 +999,11 @@ public class Context {
     /**
      * Returns a new CopyService with this contexts sourcePath and targetPath consisting of this context's general target
      * directory and the given dirName, where the ContextService's resulting copies and snapshots will be located.
+     * @param pathFilter the filter of the run, applied to plain copies.
      * @see jb.engine.services.CopyService
      */
-    private CopyService getCopyServiceForRun(Path runTargetDirectoryPath) {
-        return CopyService.createCopyService(runTargetDirectoryPath, sourcePath);
+    private CopyService getCopyServiceForRun(Path runTargetDirectoryPath, PathFilter pathFilter) {
+        return CopyService.createCopyService(runTargetDirectoryPath, sourcePath, pathFilter);
     }
 
     /**
@@ -524,6 +1015,13 @@ public class Context {
         return now.format(DateTimeFormatter.ofPattern(TIME_PATTERN));
     }
 
+    /**
+     * @return the location of the directory holding internal data of the context with the given home path.
+     */
+    public static Path getInternalDirectoryPath(Path homePath) {
+        return homePath.resolve(DIRECTORY_NAME_INTERNAL_DATA);
+    }
+
     static String getContextName(Path sourcePath) {
         return "Context - " + sourcePath.getFileName().toString();
     }
@@ -531,6 +1029,7 @@ public class Context {
     // Setter
 
     private void addSnapshotInfo(SnapshotInfo snapshotInfo) {
+        snapshotInfo.attachChecksumMapCache(checksumMapCache);
         snapshotInfoList.add(snapshotInfo);
     }
 
@@ -548,6 +1047,8 @@ public class Context {
                 });
         snapshotInfoList.clear();
         snapshotInfoList.addAll(snapshotInfoListToSet);
+        checksumMapCache.clear();
+        snapshotInfoList.forEach(si -> si.attachChecksumMapCache(checksumMapCache));
     }
 
     // Getter
@@ -576,7 +1077,44 @@ public class Context {
         return createdTime;
     }
 
+    /**
+     * @return the rules excluding paths of the source directory from runs of this context.
+     */
+    public FilterRules getFilterRules() {
+        return FilterRules.parse(filterRules);
+    }
+
+    /**
+     * Replaces the rules excluding paths of the source directory. They apply to the next run, existing snapshots keep
+     * the rules they were created with. The change needs to be saved.
+     */
+    public void setFilterRules(FilterRules filterRules) {
+        this.filterRules = filterRules.getText().isEmpty() ? null : filterRules.getText();
+    }
+
+    /**
+     * @return the persisted text of this context's filter rules or {@code null} if there are none.
+     */
+    String getFilterRulesText() {
+        return filterRules;
+    }
+
     public Map<String, Path> getAllPaths() {
         return allPaths;
     }
+
+    /**
+     * @return the current hit, miss and eviction counters of the cache holding this context's checksum maps.
+     */
+    public CacheMetrics getChecksumMapCacheMetrics() {
+        return checksumMapCache.getMetrics();
+    }
+
+    /**
+     * @return the counters of the digest filter used by the latest snapshot run of this context. Empty if there was no
+     * such run since this context was loaded or the compared snapshot had no filter.
+     */
+    public Optional<DigestFilterMetrics> getLastDigestFilterMetrics() {
+        return Optional.ofNullable(lastDigestFilterMetrics);
+    }
 }
@@ -1,14 +1,20 @@
 package jb.engine.core;
 
 import jb.engine.core.data.DatabaseManager;
+import jb.engine.core.data.EntityRow;
 import jb.engine.exceptions.NotADirectoryException;
 import jb.engine.exceptions.ObjectCreatorException;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.util.List;
 
-public class ContextFactory implements ObjectCreator<Context> {
+public class ContextFactory implements ObjectCreator<Context>, EntityMapper<Context> {
+
+    private static final int FILTER_RULES_ARGUMENT_POSITION = 5;
+    private static final List<String> COLUMN_NAMES = List.of("source_path", "home_path", "name", "created_time", "id", "filter_rules");
 
     /**
      * Creates a new context instance. This context is not yet initialised on disc and not saved.
@@ -30,14 +36,17 @@ public class ContextFactory implements ObjectCreator<Context> {
 
     @Override
     public Context createFromArgs(Object[] args) throws ObjectCreatorException {
-        Class<?>[] requiredTypes = {Path.class, Path.class, String.class, Instant.class, String.class};  // 6 args
+        Class<?>[] requiredTypes = {Path.class, Path.class, String.class, Instant.class, String.class, String.class};
         if(args.length != requiredTypes.length) {
             throw new ObjectCreatorException("Could not create Context instance: got " + args.length + "arguments but expected " + requiredTypes.length);
         }
         // check types
         for(int i = 0; i < requiredTypes.length; i++) {
             Object arg = args[i];
-            if(arg == null) {
+            if(arg == null && i == FILTER_RULES_ARGUMENT_POSITION) {
+                // contexts without filter rules
+                continue;
+            } else if(arg == null) {
                 throw new ObjectCreatorException("Could not create Context instance: the given required argument at position " + i + " was null");
             } else if(!requiredTypes[i].isAssignableFrom(args[i].getClass())) {
                 throw new ObjectCreatorException("Could not create Context instance: the argument at position " + i + " of type " + arg.getClass() + " can not be assigned to the required type " + requiredTypes[i]);
@@ -50,7 +59,8 @@ public class ContextFactory implements ObjectCreator<Context> {
                     (Path) args[1],
                     (String) args[2],
                     (Instant) args[3],
-                    (String) args[4]
+                    (String) args[4],
+                    (String) args[5]
             );
         } catch (ClassCastException e) {
             throw new ObjectCreatorException("Could not create Context instance: Error while calling constructor: " + e, e);
@@ -58,4 +68,27 @@ public class ContextFactory implements ObjectCreator<Context> {
         return createdContext;
     }
 
+    @Override
+    public List<String> getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
+    @Override
+    public Object[] getFieldValues(Context context) {
+        return new Object[] {context.getSourcePath(), context.getHomePath(), context.getName(), context.getCreatedTime(), context.getId(),
+                context.getFilterRulesText()};
+    }
+
+    @Override
+    public Context createFromRow(EntityRow row) throws SQLException {
+        return new Context(
+                row.getPath("source_path"),
+                row.getPath("home_path"),
+                row.getString("name"),
+                row.getInstant("created_time"),
+                row.getString("id"),
+                row.getString("filter_rules")
+        );
+    }
+
 }
@@ -0,0 +1,140 @@
+package jb.engine.core;
+
+import jb.engine.reporting.RunStatistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Log of the files copied by one run, appended to a temporary file in a spill directory while the run is executed. It
+ * is read afterwards to account the sizes of the stored files, hence the heap used does not grow with the number of
+ * copied files. Writing failures are logged once and make the log unreadable instead of failing the run.
+ */
+class CopiedFileLog implements RunStatistics.CopiedFileListener, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(CopiedFileLog.class.getName());
+
+    private final Path path;
+    /**
+     * {@code null} once writing failed or the log was read.
+     */
+    private DataOutputStream out;
+    private boolean failed = false;
+
+    /**
+     * Creates an empty log in the given directory. Failures are logged, the log is unreadable then.
+     */
+    CopiedFileLog(Path spillDirectory) {
+        Path createdPath = null;
+        try {
+            createdPath = Files.createTempFile(spillDirectory, "copied-", ".log");
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(createdPath)));
+        } catch (IOException e) {
+            fail(e);
+        }
+        this.path = createdPath;
+    }
+
+    @Override
+    public void copied(Path sourcePath, long byteCount) {
+        if(out == null) {
+            return;
+        }
+        byte[] encodedPath = sourcePath.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            out.writeInt(encodedPath.length);
+            out.write(encodedPath);
+            out.writeLong(byteCount);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Finishes writing and reads all logged files in the order they were copied. Reading failures are thrown as
+     * {@link UncheckedIOException}. The returned stream needs to be closed.
+     * @return the size of each copied file by its source path.
+     * @throws IOException if writing the log failed before.
+     */
+    Stream<Map.Entry<Path, Long>> read() throws IOException {
+        if(out != null) {
+            out.close();
+            out = null;
+        }
+        if(failed) {
+            throw new IOException("Copied files could not be logged to " + path);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        Spliterator<Map.Entry<Path, Long>> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Map.Entry<Path, Long>> action) {
+                try {
+                    int pathLength;
+                    try {
+                        pathLength = in.readInt();
+                    } catch (EOFException e) {
+                        return false;
+                    }
+                    byte[] encodedPath = in.readNBytes(pathLength);
+                    long byteCount = in.readLong();
+                    action.accept(Map.entry(Path.of(new String(encodedPath, StandardCharsets.UTF_8)), byteCount));
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Deletes the log. Streams returned by {@link #read()} need to be closed before.
+     */
+    @Override
+    public void close() {
+        try {
+            if(out != null) {
+                out.close();
+                out = null;
+            }
+            if(path != null) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            logger.warning("Could not delete log of copied files at " + path + ": " + e);
+        }
+    }
+
+    private void fail(IOException e) {
+        logger.warning("Could not log copied files, disk space of the snapshot will not be accounted: " + e);
+        failed = true;
+        if(out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+    }
+}
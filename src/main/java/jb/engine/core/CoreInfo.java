@@ -27,6 +27,23 @@ public class CoreInfo {
     public static final String VERSION = PROPERTIES.getOrDefault(VERSION_KEY, "");
     public static final String AUTHOR = PROPERTIES.getOrDefault(AUTHOR_KEY, "");
 
+    /**
+     * Returns the property of the given key as long value. If there is no such property or it can not be parsed, the given
+     * default value is returned.
+     */
+    public static long getLongProperty(String key, long defaultValue) {
+        String value = PROPERTIES.get(key.toLowerCase());
+        if(value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warning("Could not read property " + key + " as long value: " + value);
+            return defaultValue;
+        }
+    }
+
     private static Map<String, String> getPropertiesFromPropertiesFile() {
         Map<String, String> propertiesMap = new HashMap<>();
         String fileContent = loadPropertiesFileContentAsString();
@@ -0,0 +1,33 @@
+package jb.engine.core;
+
+import jb.engine.core.data.DataField;
+import jb.engine.core.data.EntityRow;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Typed counterpart of {@link ObjectCreator} that maps objects to rows and back without reflection. A
+ * {@link jb.engine.core.data.DatabaseToolkit} created with a mapper compares {@link #getColumnNames()} with the fields
+ * annotated with {@link DataField} upon its construction, so a mapper that does not match its class fails right away.
+ * @param <T> The class type this EntityMapper maps.
+ */
+public interface EntityMapper<T> {
+
+    /**
+     * @return the names of all columns of the mapped type in the declaration order of their data fields.
+     */
+    List<String> getColumnNames();
+
+    /**
+     * @return the values of all data fields of the given object in the order of {@link #getColumnNames()}. Values are
+     * returned as they are held by the object. Fields loaded on demand may be {@code null}.
+     */
+    Object[] getFieldValues(T object);
+
+    /**
+     * Creates an instance from the given row. Columns declared with {@link DataField#loadOnDemand()} are not part of the row.
+     */
+    T createFromRow(EntityRow row) throws SQLException;
+
+}
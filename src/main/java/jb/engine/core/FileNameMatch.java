@@ -0,0 +1,32 @@
+package jb.engine.core;
+
+import java.nio.file.Path;
+
+/**
+ * Simple container class for a file or directory of a snapshot found by a file name search.
+ */
+public class FileNameMatch {
+    private final String snapshotInfoId;
+    private final Path relativePath;
+
+    public FileNameMatch(String snapshotInfoId, Path relativePath) {
+        this.snapshotInfoId = snapshotInfoId;
+        this.relativePath = relativePath;
+    }
+
+    public String getSnapshotInfoId() {
+        return snapshotInfoId;
+    }
+
+    /**
+     * @return the path of the match relative to the run target directory of its snapshot.
+     */
+    public Path getRelativePath() {
+        return relativePath;
+    }
+
+    @Override
+    public String toString() {
+        return snapshotInfoId + "; " + relativePath;
+    }
+}
@@ -0,0 +1,46 @@
+package jb.engine.core;
+
+import java.time.Instant;
+
+/**
+ * Simple container class for one version of a file or directory: the snapshot in which its digest changed or it
+ * disappeared.
+ */
+public class FileVersion {
+    private final String snapshotInfoId;
+    private final Instant createdTime;
+    private final byte[] digest;
+
+    public FileVersion(String snapshotInfoId, Instant createdTime, byte[] digest) {
+        this.snapshotInfoId = snapshotInfoId;
+        this.createdTime = createdTime;
+        this.digest = digest;
+    }
+
+    public String getSnapshotInfoId() {
+        return snapshotInfoId;
+    }
+
+    /**
+     * @return the creation time of the snapshot of this version.
+     */
+    public Instant getCreatedTime() {
+        return createdTime;
+    }
+
+    /**
+     * @return the digest of this version or {@code null} if the path does not exist in the snapshot of this version.
+     */
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    public boolean isDeleted() {
+        return digest == null;
+    }
+
+    @Override
+    public String toString() {
+        return snapshotInfoId + "; " + createdTime + "; " + (isDeleted() ? "deleted" : "changed");
+    }
+}
@@ -1,10 +1,14 @@
 package jb.engine.core;
 
 import jb.engine.core.data.DataField;
+import jb.engine.core.data.EntityRow;
 import jb.engine.core.data.SQLiteConstraint;
 import jb.engine.core.data.SQLiteType;
 import jb.engine.exceptions.ObjectCreatorException;
 
+import java.sql.SQLException;
+import java.util.List;
+
 /**
  * Class representing the latest state CopySnap was used with
  */
@@ -30,4 +34,27 @@ public class LatestState {
     public String getLastUsedContextId() {
         return lastUsedContextId;
     }
+
+    /**
+     * Maps latest states to rows of the database and back.
+     */
+    public static class Mapper implements EntityMapper<LatestState> {
+
+        private static final List<String> COLUMN_NAMES = List.of("state_id", "last_used_context_id");
+
+        @Override
+        public List<String> getColumnNames() {
+            return COLUMN_NAMES;
+        }
+
+        @Override
+        public Object[] getFieldValues(LatestState latestState) {
+            return new Object[] {STATE_ID, latestState.lastUsedContextId};
+        }
+
+        @Override
+        public LatestState createFromRow(EntityRow row) throws SQLException {
+            return new LatestState(row.getString("last_used_context_id"));
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package jb.engine.core;
+
+import jb.engine.core.data.DatabaseManager;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.ManifestDiff;
+import jb.engine.exceptions.DatabaseCommunicationException;
+import jb.engine.exceptions.ManifestException;
+import jb.engine.services.DigestLookup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+/**
+ * Lazily computed differences between two snapshots of a context, read from their manifests and digest indexes only.
+ * The manifests are compared top-down with {@link ManifestDiff}. A path that was added in the later snapshot and
+ * removed from the earlier one with the same digest, i.e. the same name and content, is reported once as moved.
+ * <p>Differences are computed in batches. The byte counts of all files of a batch are read with one database read.</p>
+ */
+class SnapshotDiff implements Iterator<SnapshotDifference>, AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SnapshotDiff.class.getName());
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Context context;
+    private final SnapshotInfo previousInfo;
+    private final SnapshotInfo currentInfo;
+    private final List<Path> temporaryFiles = new ArrayList<>();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private final ChecksumManifest previousManifest;
+    private final ChecksumManifest currentManifest;
+    private final DigestLookup previousLookup;
+    private final DigestLookup currentLookup;
+    private final ManifestDiff manifestDiff;
+    private final Deque<SnapshotDifference> batch = new ArrayDeque<>();
+
+    /**
+     * Opens the manifests and digest indexes of both snapshots. Manifests of snapshots created before manifests were
+     * introduced are written to temporary files, which are deleted upon closing.
+     */
+    SnapshotDiff(Context context, SnapshotInfo previousInfo, SnapshotInfo currentInfo) {
+        this.context = context;
+        this.previousInfo = previousInfo;
+        this.currentInfo = currentInfo;
+        try {
+            this.previousManifest = register(openManifest(previousInfo));
+            this.currentManifest = register(openManifest(currentInfo));
+            this.previousLookup = register(context.openDigestLookup(previousInfo));
+            this.currentLookup = register(context.openDigestLookup(currentInfo));
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.manifestDiff = new ManifestDiff(previousManifest, currentManifest, false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(batch.isEmpty()) {
+            computeNextBatch();
+        }
+        return !batch.isEmpty();
+    }
+
+    @Override
+    public SnapshotDifference next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return batch.poll();
+    }
+
+    @Override
+    public void close() {
+        for(AutoCloseable resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                logger.warning("Could not close " + resource + ": " + e);
+            }
+        }
+        for(Path temporaryFile : temporaryFiles) {
+            try {
+                Files.deleteIfExists(temporaryFile);
+            } catch (IOException e) {
+                logger.warning("Could not delete temporary manifest " + temporaryFile + ": " + e);
+            }
+        }
+    }
+
+    private void computeNextBatch() {
+        List<ManifestDiff.Entry> entries = new ArrayList<>();
+        List<Path> previousPathsOfMoves = new ArrayList<>();
+        List<ByteBuffer> digests = new ArrayList<>();
+        while(entries.size() < BATCH_SIZE && manifestDiff.hasNext()) {
+            ManifestDiff.Entry entry = manifestDiff.next();
+            Path previousPathOfMove = null;
+            if(entry.getType() == ManifestDiff.Type.REMOVED) {
+                if(findCounterpart(Path.of(entry.getRelativePath()), entry.getPreviousDigest(), previousInfo, previousManifest, previousLookup,
+                        currentInfo, currentLookup) != null) {
+                    // reported as moved together with the added path
+                    continue;
+                }
+            } else if(entry.getType() == ManifestDiff.Type.ADDED) {
+                previousPathOfMove = findCounterpart(Path.of(entry.getRelativePath()), entry.getCurrentDigest(), currentInfo, currentManifest,
+                        currentLookup, previousInfo, previousLookup);
+            }
+            entries.add(entry);
+            previousPathsOfMoves.add(previousPathOfMove);
+            if(!entry.isDirectory()) {
+                digests.add(ByteBuffer.wrap(getDigest(entry)));
+            }
+        }
+        Map<ByteBuffer, Long> byteCounts = Map.of();
+        if(!digests.isEmpty()) {
+            try {
+                byteCounts = DatabaseManager.getInstance().findStoredByteCounts(context, digests);
+            } catch (DatabaseCommunicationException e) {
+                logger.warning("Could not read file sizes of snapshot differences: " + e);
+            }
+        }
+        for(int i = 0; i < entries.size(); i++) {
+            ManifestDiff.Entry entry = entries.get(i);
+            Path previousPathOfMove = previousPathsOfMoves.get(i);
+            Long byteCount = entry.isDirectory() ? null : byteCounts.get(ByteBuffer.wrap(getDigest(entry)));
+            batch.add(new SnapshotDifference(toType(entry.getType(), previousPathOfMove != null), Path.of(entry.getRelativePath()),
+                    previousPathOfMove, entry.isDirectory(), byteCount));
+        }
+    }
+
+    /**
+     * Finds the other end of a move: given a path reported as only existing in one snapshot, finds the path holding the
+     * same digest that is reported as only existing in the other snapshot. Each path needs to be the one the digest
+     * index of its snapshot finds for the digest. Thereby, both ends agree on being a move and each path is part of one
+     * move at most.
+     * @return the relative path of the other end or {@code null} if the given path was not moved.
+     */
+    private static Path findCounterpart(Path relativePath, byte[] digest, SnapshotInfo info, ChecksumManifest manifest, DigestLookup lookup,
+                                        SnapshotInfo otherInfo, DigestLookup otherLookup) {
+        ByteBuffer digestBuffer = ByteBuffer.wrap(digest);
+        Path path = lookup.findPath(digestBuffer);
+        if(path == null || !info.getRunTargetDirectory().relativize(path).equals(relativePath)) {
+            return null;
+        }
+        Path otherPath = otherLookup.findPath(digestBuffer);
+        if(otherPath == null) {
+            return null;
+        }
+        Path otherRelativePath = otherInfo.getRunTargetDirectory().relativize(otherPath);
+        Path otherPathInThis = info.getRunTargetDirectory().resolve(otherRelativePath);
+        // the other end is reported by itself only if it is missing here while its parent is not
+        if(manifest.indexOf(otherPathInThis.toString()) >= 0 || manifest.indexOf(otherPathInThis.getParent().toString()) < 0) {
+            return null;
+        }
+        return otherRelativePath;
+    }
+
+    private static byte[] getDigest(ManifestDiff.Entry entry) {
+        return entry.getType() == ManifestDiff.Type.REMOVED ? entry.getPreviousDigest() : entry.getCurrentDigest();
+    }
+
+    private static SnapshotDifference.Type toType(ManifestDiff.Type type, boolean moved) {
+        if(moved) {
+            return SnapshotDifference.Type.MOVED;
+        }
+        switch(type) {
+            case ADDED:
+                return SnapshotDifference.Type.ADDED;
+            case REMOVED:
+                return SnapshotDifference.Type.REMOVED;
+            default:
+                return SnapshotDifference.Type.MODIFIED;
+        }
+    }
+
+    private ChecksumManifest openManifest(SnapshotInfo snapshotInfo) {
+        if(snapshotInfo.getManifestReference().isPresent()) {
+            try {
+                return ChecksumManifest.open(snapshotInfo.getManifestReference().get());
+            } catch (ManifestException e) {
+                logger.warning("Could not open manifest of snapshot " + snapshotInfo.getName() + ", using its checksum map: " + e);
+            }
+        }
+        Path temporaryManifestPath;
+        try {
+            temporaryManifestPath = Files.createTempFile("copysnap-diff-", ChecksumManifest.FILE_EXTENSION);
+        } catch (IOException e) {
+            throw new ManifestException("Could not create temporary manifest of snapshot " + snapshotInfo.getName() + ": " + e, e);
+        }
+        temporaryFiles.add(temporaryManifestPath);
+        return ChecksumManifest.open(ChecksumManifest.write(snapshotInfo.getRedirectedChecksumMap(), temporaryManifestPath));
+    }
+
+    private <T extends AutoCloseable> T register(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+}
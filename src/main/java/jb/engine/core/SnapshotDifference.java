@@ -0,0 +1,65 @@
+package jb.engine.core;
+
+import java.nio.file.Path;
+import java.util.OptionalLong;
+
+/**
+ * Simple container class for one difference between two snapshots of a context. Paths are relative to the run target
+ * directories, e.g. "Source/docs/report.txt". Added or removed directories are reported once, without their contents.
+ */
+public class SnapshotDifference {
+
+    public enum Type {
+        ADDED, REMOVED, MODIFIED, MOVED
+    }
+
+    private final Type type;
+    private final Path relativePath;
+    private final Path previousRelativePath;
+    private final boolean directory;
+    private final Long byteCount;
+
+    public SnapshotDifference(Type type, Path relativePath, Path previousRelativePath, boolean directory, Long byteCount) {
+        this.type = type;
+        this.relativePath = relativePath;
+        this.previousRelativePath = previousRelativePath;
+        this.directory = directory;
+        this.byteCount = byteCount;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the path in the later snapshot or, if the path was removed, in the earlier snapshot.
+     */
+    public Path getRelativePath() {
+        return relativePath;
+    }
+
+    /**
+     * @return the path in the earlier snapshot a moved file or directory was found at or {@code null} if it was not
+     * moved.
+     */
+    public Path getPreviousRelativePath() {
+        return previousRelativePath;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the size of the file in the later snapshot or, if it was removed, in the earlier snapshot. Empty for
+     * directories and for files of snapshots whose space was not accounted.
+     */
+    public OptionalLong getByteCount() {
+        return byteCount == null ? OptionalLong.empty() : OptionalLong.of(byteCount);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + (type == Type.MOVED ? previousRelativePath + " -> " : "") + relativePath;
+    }
+}
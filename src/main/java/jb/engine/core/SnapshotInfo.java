@@ -4,12 +4,17 @@ import jb.engine.core.data.CopyType;
 import jb.engine.core.data.DataField;
 import jb.engine.core.data.SQLiteConstraint;
 import jb.engine.core.data.SQLiteType;
+import jb.engine.core.filter.FilterRules;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.reporting.RunStatistics;
 import jb.engine.services.HashService;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.Optional;
 
 /**
  * Container for Information about one specific snapshot that has been created by CopySnap.
@@ -21,46 +26,194 @@ public class SnapshotInfo implements Comparable<SnapshotInfo> {
      */
     public static final String CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME = "associated_context_id";
 
-    @DataField(sqliteType = SQLiteType.TEXT, sqliteConstraints = {SQLiteConstraint.NOT_NULL}, constructorArgumentPositionIndex = 0)
+    /**
+     * Database column name of the field {@link #redirectedChecksumMap}
+     */
+    public static final String CHECKSUM_MAP_COLUMN_NAME = "redirected_checksum_map";
+
+    @DataField(sqliteType = SQLiteType.TEXT, sqliteConstraints = {SQLiteConstraint.NOT_NULL}, constructorArgumentPositionIndex = 0,
+            indexes = {@DataField.Index})
     private final String associatedContextId;
     @DataField(sqliteType = SQLiteType.TEXT, sqliteConstraints = {SQLiteConstraint.NOT_NULL}, constructorArgumentPositionIndex = 1)
     private String name;
     @DataField(sqliteType = SQLiteType.TEXT, sqliteConstraints = {SQLiteConstraint.NOT_NULL, SQLiteConstraint.UNIQUE}, constructorArgumentPositionIndex = 2)
     private final Path runTargetDirectory;
-    @DataField(sqliteType = SQLiteType.BLOB, sqliteConstraints = {SQLiteConstraint.NOT_NULL}, constructorArgumentPositionIndex = 3)
-    private final HashMap<String, byte[]> redirectedChecksumMap;
+    /**
+     * Only held by this object until it was handed to a {@link ChecksumMapCache}. Afterwards, the map is retrieved from that cache.
+     * Snapshots with a manifest never hold their map. Their column only holds an empty map.
+     */
+    @DataField(sqliteType = SQLiteType.BLOB, sqliteConstraints = {SQLiteConstraint.NOT_NULL}, constructorArgumentPositionIndex = 3, loadOnDemand = true)
+    private HashMap<String, byte[]> redirectedChecksumMap;
     @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 4)
     private final CopyType copyType;
     @DataField(sqliteType = SQLiteType.INTEGER, sqliteConstraints = {SQLiteConstraint.NOT_NULL}, constructorArgumentPositionIndex = 5)
     private final Instant createdTime;
     @DataField(sqliteType = SQLiteType.TEXT, sqliteConstraints = {SQLiteConstraint.PRIMARY_KEY}, constructorArgumentPositionIndex = 6)
     private final String id;
+    /**
+     * Location of the {@link ChecksumManifest} holding the checksum map of this snapshot. {@code null} for snapshots whose
+     * map is stored in the database.
+     */
+    @DataField(sqliteType = SQLiteType.TEXT, constructorArgumentPositionIndex = 7)
+    private final Path manifestPath;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 8)
+    private final Long manifestLength;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 9)
+    private final Integer manifestChecksum;
+    /*
+     * Statistics recorded by the run of this snapshot, see RunStatistics. null for snapshots created before they were
+     * recorded and for restored snapshots.
+     */
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 10)
+    private final Long scannedFileCount;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 11)
+    private final Long newFileCount;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 12)
+    private final Long changedFileCount;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 13)
+    private final Long linkedCount;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 14)
+    private final Long copiedByteCount;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 15)
+    private final Long linkedByteCount;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 16)
+    private final Long hashDurationMillis;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 17)
+    private final Long copyDurationMillis;
+    @DataField(sqliteType = SQLiteType.INTEGER, constructorArgumentPositionIndex = 18)
+    private final Long indexDurationMillis;
+    /**
+     * Text of the {@link FilterRules} the run of this snapshot applied, empty if it applied none. {@code null} for
+     * snapshots created before they were recorded and for restored snapshots.
+     */
+    @DataField(sqliteType = SQLiteType.TEXT, constructorArgumentPositionIndex = 19)
+    private final String filterRules;
+
+    private ChecksumMapCache checksumMapCache = null;
 
-    protected SnapshotInfo(String associatedContextId, String name, Path runTargetDirectory, HashMap<Path, ByteBuffer> redirectedChecksumMap, CopyType copyType, Instant createdTime, String id) {
+    /**
+     * @param redirectedChecksumMap the checksum map of this snapshot. May be {@code null} if this snapshot info was loaded from the
+     *                              database or if its map is stored in a manifest. In that case the map is loaded on demand via the
+     *                              attached {@link ChecksumMapCache}.
+     * @param manifestReference the manifest holding the checksum map of this snapshot or {@code null} if the map is stored in
+     *                          the database.
+     * @param runStatistics the statistics recorded by the run of this snapshot or {@code null} if there are none.
+     * @param filterRules the text of the filter rules applied by the run of this snapshot or {@code null} if unknown.
+     */
+    protected SnapshotInfo(String associatedContextId, String name, Path runTargetDirectory, HashMap<Path, ByteBuffer> redirectedChecksumMap, CopyType copyType, Instant createdTime, String id,
+                           ManifestReference manifestReference, RunStatistics runStatistics, String filterRules) {
         this.associatedContextId = associatedContextId;
         this.name = name;
         this.runTargetDirectory = runTargetDirectory;
-        this.redirectedChecksumMap = HashService.toSerializableChecksumMap(redirectedChecksumMap);
+        this.redirectedChecksumMap = redirectedChecksumMap == null ? null : HashService.toSerializableChecksumMap(redirectedChecksumMap);
         this.copyType = copyType;
         this.createdTime = createdTime;
         this.id = id;
+        this.manifestPath = manifestReference == null ? null : manifestReference.getPath();
+        this.manifestLength = manifestReference == null ? null : manifestReference.getLength();
+        this.manifestChecksum = manifestReference == null ? null : manifestReference.getChecksum();
+        this.scannedFileCount = runStatistics == null ? null : runStatistics.getScannedFileCount();
+        this.newFileCount = runStatistics == null ? null : runStatistics.getNewFileCount();
+        this.changedFileCount = runStatistics == null ? null : runStatistics.getChangedFileCount();
+        this.linkedCount = runStatistics == null ? null : runStatistics.getLinkedCount();
+        this.copiedByteCount = runStatistics == null ? null : runStatistics.getCopiedByteCount();
+        this.linkedByteCount = runStatistics == null ? null : runStatistics.getLinkedByteCount();
+        this.hashDurationMillis = runStatistics == null ? null : runStatistics.getHashDuration().toMillis();
+        this.copyDurationMillis = runStatistics == null ? null : runStatistics.getCopyDuration().toMillis();
+        this.indexDurationMillis = runStatistics == null ? null : runStatistics.getIndexDuration().toMillis();
+        this.filterRules = filterRules;
     }
 
     /**
      * @return the key-value inverted checksum map of this snapshot where every {@code byte[]} was wrapped in a {@link ByteBuffer} and
-     * String values were mapped to {@link Path} objects.
+     * String values were mapped to {@link Path} objects. If this snapshot has a manifest and its map is not held, the map
+     * is read directly from the manifest.
      */
     public HashMap<ByteBuffer, Path> getInverseChecksumMap() {
-        return HashService.invertHashMap(HashService.toCopySnapInternalChecksumMap(redirectedChecksumMap));
+        Optional<ManifestReference> manifestReference = getManifestReference();
+        if(redirectedChecksumMap == null && manifestReference.isPresent()) {
+            try (ChecksumManifest manifest = ChecksumManifest.open(manifestReference.get())) {
+                return manifest.toInverseChecksumMap();
+            }
+        }
+        return HashService.invertHashMap(HashService.toCopySnapInternalChecksumMap(getRedirectedChecksumMap()));
     }
 
     /**
-     * Returns the serializable version of this snapshot's checksum map.
+     * Returns the serializable version of this snapshot's checksum map. If this map is not held by this object, it is
+     * requested from the attached {@link ChecksumMapCache}.
      */
     public HashMap<String, byte[]> getRedirectedChecksumMap() {
+        HashMap<String, byte[]> heldMap = redirectedChecksumMap;
+        if(heldMap != null) {
+            return heldMap;
+        }
+        if(checksumMapCache == null) {
+            throw new IllegalStateException("The checksum map of snapshot " + name + " is not loaded and there is no cache attached to load it from");
+        }
+        return checksumMapCache.get(id);
+    }
+
+    /**
+     * @return the checksum map held by this object or {@code null} if it was not loaded or was handed over to the cache.
+     */
+    HashMap<String, byte[]> getHeldChecksumMap() {
         return redirectedChecksumMap;
     }
 
+    /**
+     * Attaches the given cache to this snapshot info. Checksum maps not held by this object are requested from that cache.
+     */
+    void attachChecksumMapCache(ChecksumMapCache checksumMapCache) {
+        this.checksumMapCache = checksumMapCache;
+    }
+
+    /**
+     * If this object still holds its checksum map, the map is handed over to the attached cache. This should only be done
+     * after this snapshot info has been persisted since the map is not held by this object afterwards.
+     */
+    void handOverChecksumMapToCache() {
+        if(checksumMapCache != null && redirectedChecksumMap != null) {
+            checksumMapCache.put(id, redirectedChecksumMap);
+            redirectedChecksumMap = null;
+        }
+    }
+
+    /**
+     * @return the manifest holding the checksum map of this snapshot. Empty if the map is stored in the database.
+     */
+    public Optional<ManifestReference> getManifestReference() {
+        if(manifestPath == null || manifestLength == null || manifestChecksum == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new ManifestReference(manifestPath, manifestLength, manifestChecksum));
+    }
+
+    /**
+     * @return the statistics recorded by the run of this snapshot. Empty for snapshots created before statistics were
+     * recorded and for restored snapshots.
+     */
+    public Optional<RunStatistics> getRunStatistics() {
+        return Optional.ofNullable(SnapshotInfoFactory.toRunStatistics(scannedFileCount, newFileCount, changedFileCount, linkedCount,
+                copiedByteCount, linkedByteCount, hashDurationMillis, copyDurationMillis, indexDurationMillis));
+    }
+
+    /**
+     * @return the filter rules applied by the run of this snapshot. Rules of {@value FilterRules#IGNORE_FILE_NAME} files
+     * are not included since these files are part of the snapshot. Empty for snapshots created before the rules were
+     * recorded and for restored snapshots.
+     */
+    public Optional<FilterRules> getFilterRules() {
+        return Optional.ofNullable(filterRules).map(FilterRules::parse);
+    }
+
+    /**
+     * @return the persisted text of the filter rules applied by the run of this snapshot or {@code null} if unknown.
+     */
+    String getFilterRulesText() {
+        return filterRules;
+    }
+
     // Getter
 
     public String getAssociatedContextId() {
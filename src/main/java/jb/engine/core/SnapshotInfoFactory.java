@@ -2,29 +2,81 @@ package jb.engine.core;
 
 import jb.engine.core.data.CopyType;
 import jb.engine.core.data.DatabaseManager;
+import jb.engine.core.data.EntityRow;
+import jb.engine.core.filter.FilterRules;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.exceptions.IntegrityException;
 import jb.engine.exceptions.ObjectCreatorException;
+import jb.engine.reporting.RunStatistics;
+import jb.engine.services.HashService;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
 
-public class SnapshotInfoFactory implements ObjectCreator<SnapshotInfo> {
+public class SnapshotInfoFactory implements ObjectCreator<SnapshotInfo>, EntityMapper<SnapshotInfo> {
+
+    private static final int CHECKSUM_MAP_ARGUMENT_POSITION = 3;
+    private static final int FIRST_MANIFEST_ARGUMENT_POSITION = 7;
+    private static final List<String> COLUMN_NAMES = List.of(SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, "name",
+            "run_target_directory", SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, "copy_type", "created_time", "id",
+            "manifest_path", "manifest_length", "manifest_checksum",
+            "scanned_file_count", "new_file_count", "changed_file_count", "linked_count", "copied_byte_count", "linked_byte_count",
+            "hash_duration_millis", "copy_duration_millis", "index_duration_millis", "filter_rules");
+    /**
+     * Stored in place of the checksum map of snapshots whose map is held by a manifest. Being empty, it is stored as an
+     * empty blob. Must not be modified.
+     */
+    private static final HashMap<String, byte[]> MANIFEST_PLACEHOLDER_CHECKSUM_MAP = new HashMap<>();
 
     public static SnapshotInfo createNew(String associatedContextId, String name, Path runTargetDirectory, HashMap<Path, ByteBuffer> redirectedChecksumMap, CopyType copyType) {
-        return new SnapshotInfo(associatedContextId, name, runTargetDirectory, redirectedChecksumMap, copyType, Instant.now(), DatabaseManager.getNewIdValue());
+        return new SnapshotInfo(associatedContextId, name, runTargetDirectory, redirectedChecksumMap, copyType, Instant.now(), DatabaseManager.getNewIdValue(), null, null,
+                null);
+    }
+
+    /**
+     * Creates a new snapshot info whose checksum map is held by the given manifest.
+     * @param runStatistics the statistics recorded by the run of the snapshot or {@code null} if there are none.
+     */
+    public static SnapshotInfo createNew(String associatedContextId, String name, Path runTargetDirectory, ManifestReference manifestReference, CopyType copyType,
+                                         RunStatistics runStatistics) {
+        return createNew(associatedContextId, name, runTargetDirectory, manifestReference, copyType, runStatistics, null);
+    }
+
+    /**
+     * Same as {@link #createNew(String, String, Path, ManifestReference, CopyType, RunStatistics)} but records the filter
+     * rules applied by the run of the snapshot.
+     * @param filterRules the applied rules or {@code null} if the snapshot was not created by a run.
+     */
+    public static SnapshotInfo createNew(String associatedContextId, String name, Path runTargetDirectory, ManifestReference manifestReference, CopyType copyType,
+                                         RunStatistics runStatistics, FilterRules filterRules) {
+        return new SnapshotInfo(associatedContextId, name, runTargetDirectory, null, copyType, Instant.now(), DatabaseManager.getNewIdValue(), manifestReference,
+                runStatistics, filterRules == null ? null : filterRules.getText());
     }
 
     @Override
     public SnapshotInfo createFromArgs(Object[] args) throws ObjectCreatorException {
-        Class<?>[] requiredTypes = {String.class, String.class, Path.class, HashMap.class, CopyType.class, Instant.class, String.class};
+        Class<?>[] requiredTypes = {String.class, String.class, Path.class, HashMap.class, CopyType.class, Instant.class, String.class,
+                Path.class, Long.class, Integer.class,
+                Long.class, Long.class, Long.class, Long.class, Long.class, Long.class, Long.class, Long.class, Long.class, String.class};
         if(args.length != requiredTypes.length) {
             throw new ObjectCreatorException("Could not create SnapshotInfo instance: got " + args.length + "arguments but expected " + requiredTypes.length);
         }
         // check types
         for(int i = 0; i < requiredTypes.length; i++) {
             Object arg = args[i];
-            if(arg == null) {
+            if(arg == null && i == CHECKSUM_MAP_ARGUMENT_POSITION) {
+                // the checksum map is loaded on demand
+                continue;
+            } else if(arg == null && i >= FIRST_MANIFEST_ARGUMENT_POSITION) {
+                // snapshots whose checksum map is stored in the database have no manifest, older snapshots have no statistics and filter rules
+                continue;
+            } else if(arg == null) {
                 throw new ObjectCreatorException("Could not create SnapshotInfo instance: the given required argument at position " + i + " was null");
             } else if(!requiredTypes[i].isAssignableFrom(args[i].getClass())) {
                 throw new ObjectCreatorException("Could not create SnapshotInfo instance: the argument at position " + i + " of type " + arg.getClass() + " can not be assigned to the required type " + requiredTypes[i]);
@@ -35,14 +87,91 @@ public class SnapshotInfoFactory implements ObjectCreator<SnapshotInfo> {
                     (String) args[0],
                     (String) args[1],
                     (Path) args[2],
-                    (HashMap<Path, ByteBuffer>) args[3],
+                    args[3] == null ? null : HashService.asChecksumMap(args[3]),
                     (CopyType) args[4],
                     (Instant) args[5],
-                    (String) args[6]
+                    (String) args[6],
+                    toManifestReference((Path) args[7], (Long) args[8], (Integer) args[9]),
+                    toRunStatistics((Long) args[10], (Long) args[11], (Long) args[12], (Long) args[13], (Long) args[14], (Long) args[15],
+                            (Long) args[16], (Long) args[17], (Long) args[18]),
+                    (String) args[19]
             );
-        } catch (ClassCastException e) {
+        } catch (ClassCastException | IntegrityException e) {
             throw new ObjectCreatorException("Could not create SnapshotInfo instance: Error while calling constructor: " + e, e);
         }
     }
 
+    @Override
+    public List<String> getColumnNames() {
+        return COLUMN_NAMES;
+    }
+
+    @Override
+    public Object[] getFieldValues(SnapshotInfo snapshotInfo) {
+        Optional<ManifestReference> manifestReference = snapshotInfo.getManifestReference();
+        Optional<RunStatistics> runStatistics = snapshotInfo.getRunStatistics();
+        return new Object[] {snapshotInfo.getAssociatedContextId(), snapshotInfo.getName(), snapshotInfo.getRunTargetDirectory(),
+                getPersistedChecksumMap(snapshotInfo), snapshotInfo.getCopyType(), snapshotInfo.getCreatedTime(), snapshotInfo.getId(),
+                manifestReference.map(ManifestReference::getPath).orElse(null),
+                manifestReference.map(ManifestReference::getLength).orElse(null),
+                manifestReference.map(ManifestReference::getChecksum).orElse(null),
+                runStatistics.map(RunStatistics::getScannedFileCount).orElse(null),
+                runStatistics.map(RunStatistics::getNewFileCount).orElse(null),
+                runStatistics.map(RunStatistics::getChangedFileCount).orElse(null),
+                runStatistics.map(RunStatistics::getLinkedCount).orElse(null),
+                runStatistics.map(RunStatistics::getCopiedByteCount).orElse(null),
+                runStatistics.map(RunStatistics::getLinkedByteCount).orElse(null),
+                runStatistics.map(rs -> rs.getHashDuration().toMillis()).orElse(null),
+                runStatistics.map(rs -> rs.getCopyDuration().toMillis()).orElse(null),
+                runStatistics.map(rs -> rs.getIndexDuration().toMillis()).orElse(null),
+                snapshotInfo.getFilterRulesText()};
+    }
+
+    @Override
+    public SnapshotInfo createFromRow(EntityRow row) throws SQLException {
+        return new SnapshotInfo(
+                row.getString(SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME),
+                row.getString("name"),
+                row.getPath("run_target_directory"),
+                null,  // the checksum map is loaded on demand
+                row.getCopyType("copy_type"),
+                row.getInstant("created_time"),
+                row.getString("id"),
+                toManifestReference(row.getPath("manifest_path"), row.getLong("manifest_length"), row.getInteger("manifest_checksum")),
+                toRunStatistics(row.getLong("scanned_file_count"), row.getLong("new_file_count"), row.getLong("changed_file_count"),
+                        row.getLong("linked_count"), row.getLong("copied_byte_count"), row.getLong("linked_byte_count"),
+                        row.getLong("hash_duration_millis"), row.getLong("copy_duration_millis"), row.getLong("index_duration_millis")),
+                row.getString("filter_rules")
+        );
+    }
+
+    /**
+     * @return the map to store in the checksum map column: the held map or the placeholder map if the snapshot has a
+     * manifest. {@code null} if the map is not held and hence was stored before.
+     */
+    private static HashMap<String, byte[]> getPersistedChecksumMap(SnapshotInfo snapshotInfo) {
+        return snapshotInfo.getManifestReference().isPresent() ? MANIFEST_PLACEHOLDER_CHECKSUM_MAP : snapshotInfo.getHeldChecksumMap();
+    }
+
+    /**
+     * @return the statistics held by the given columns or {@code null} if any of them is {@code null}.
+     */
+    static RunStatistics toRunStatistics(Long scannedFileCount, Long newFileCount, Long changedFileCount, Long linkedCount,
+                                                 Long copiedByteCount, Long linkedByteCount, Long hashDurationMillis, Long copyDurationMillis,
+                                                 Long indexDurationMillis) {
+        if(scannedFileCount == null || newFileCount == null || changedFileCount == null || linkedCount == null || copiedByteCount == null
+                || linkedByteCount == null || hashDurationMillis == null || copyDurationMillis == null || indexDurationMillis == null) {
+            return null;
+        }
+        return new RunStatistics(scannedFileCount, newFileCount, changedFileCount, linkedCount, copiedByteCount, linkedByteCount,
+                Duration.ofMillis(hashDurationMillis), Duration.ofMillis(copyDurationMillis), Duration.ofMillis(indexDurationMillis));
+    }
+
+    private static ManifestReference toManifestReference(Path manifestPath, Long manifestLength, Integer manifestChecksum) {
+        if(manifestPath == null || manifestLength == null || manifestChecksum == null) {
+            return null;
+        }
+        return new ManifestReference(manifestPath, manifestLength, manifestChecksum);
+    }
+
 }
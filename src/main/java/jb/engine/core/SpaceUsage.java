@@ -0,0 +1,55 @@
+package jb.engine.core;
+
+/**
+ * Simple container class for the disk space used by one snapshot or by all accounted snapshots of a context.
+ */
+public class SpaceUsage {
+    private final long logicalByteCount;
+    private final long storedByteCount;
+    private final long exclusiveByteCount;
+
+    public SpaceUsage(long logicalByteCount, long storedByteCount, long exclusiveByteCount) {
+        this.logicalByteCount = logicalByteCount;
+        this.storedByteCount = storedByteCount;
+        this.exclusiveByteCount = exclusiveByteCount;
+    }
+
+    /**
+     * @return the size of all files as seen through the snapshots, counting linked files as if they were copied.
+     */
+    public long getLogicalByteCount() {
+        return logicalByteCount;
+    }
+
+    /**
+     * @return the size of all files physically stored in the run target directories. This space is freed by deleting
+     * them.
+     */
+    public long getStoredByteCount() {
+        return storedByteCount;
+    }
+
+    /**
+     * @return the size of the stored files that are not linked by any other snapshot. Deleting a snapshot frees this
+     * space without breaking links of other snapshots.
+     */
+    public long getExclusiveByteCount() {
+        return exclusiveByteCount;
+    }
+
+    /**
+     * @return the ratio of logical to stored bytes, e.g. 4.0 if each stored byte is seen by four snapshots on average.
+     * Returns 1 if nothing is stored.
+     */
+    public double getDeduplicationRatio() {
+        return storedByteCount == 0 ? 1.0 : (double) logicalByteCount / storedByteCount;
+    }
+
+    @Override
+    public String toString() {
+        return "logicalBytes=" + logicalByteCount +
+                ", storedBytes=" + storedByteCount +
+                ", exclusiveBytes=" + exclusiveByteCount +
+                ", deduplicationRatio=" + getDeduplicationRatio();
+    }
+}
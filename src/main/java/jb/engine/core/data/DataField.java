@@ -32,4 +32,40 @@ public @interface DataField {
      */
     int constructorArgumentPositionIndex() default -1;
 
+    /**
+     * Declares that this column is not part of regular select queries since its values are potentially large. Such values
+     * have to be requested explicitly via {@link DatabaseToolkit#findColumnValueById}. Objects created from database rows
+     * receive {@code null} at this field's constructor position. Values of such columns are only written upon insertion.
+     */
+    boolean loadOnDemand() default false;
+
+    /**
+     * Declares the indexes this column is part of. Missing indexes are created upon startup.
+     */
+    Index[] indexes() default {};
+
+    /**
+     * Declares an index on the annotated column. Fields of the same class declaring indexes of the same name form one
+     * composite index.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({})
+    @interface Index {
+        /**
+         * Declares the name of this index. Defaults to "idx_" followed by the table name and the column name.
+         */
+        String name() default "";
+
+        /**
+         * Declares this index to be unique. All columns of a composite index need to agree on this value.
+         */
+        boolean unique() default false;
+
+        /**
+         * Declares the position of the annotated column within a composite index. Columns of equal position are ordered
+         * by their declaration.
+         */
+        int position() default 0;
+    }
+
 }
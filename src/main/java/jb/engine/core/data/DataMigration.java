@@ -0,0 +1,34 @@
+package jb.engine.core.data;
+
+import jb.engine.core.SnapshotInfo;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Conversion of existing rows that runs in batches in the background after the schema was migrated. Each batch is
+ * committed together with the position reached, hence an interrupted migration continues where it stopped.
+ */
+public interface DataMigration {
+
+    /**
+     * @return the unique name the progress of this migration is stored under.
+     */
+    String getName();
+
+    /**
+     * Converts at most the given number of rows following the given position without committing.
+     * @param position position returned by the previous batch or null for the first batch.
+     * @return the position reached or an empty Optional if there was nothing left to convert.
+     */
+    Optional<String> migrateBatch(Connection connection, String position, int batchSize) throws SQLException;
+
+    /**
+     * @return a migration moving the checksum maps of snapshots created before manifests were introduced to manifests.
+     * @see LegacyManifestMigration
+     */
+    static DataMigration writeManifestsOfLegacySnapshots(DatabaseToolkit<SnapshotInfo> toolkit) {
+        return new LegacyManifestMigration(toolkit);
+    }
+}
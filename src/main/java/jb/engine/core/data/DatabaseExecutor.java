@@ -0,0 +1,270 @@
+package jb.engine.core.data;
+
+import jb.engine.core.CoreInfo;
+import jb.engine.exceptions.DatabaseCommunicationException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs all database work off the calling threads. Writes are queued and executed by one single writer thread owning
+ * the writer connection of a {@link SqliteDatabase}. Reads are executed by a small pool of threads using the reader
+ * connections.
+ * <p>Writes submitted with a coalescing key replace a still queued write of the same key. Such writes are delayed for
+ * a short time so that bursts of them (e.g. repeated renames) end up in one single write. All writes queued at the time
+ * the writer thread starts working are executed within one transaction.</p>
+ */
+class DatabaseExecutor implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(DatabaseExecutor.class.getName());
+
+    private static final String WRITE_DELAY_PROPERTY_KEY = "database_write_delay_ms";
+    private static final long DEFAULT_WRITE_DELAY_MS = 50;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private static final AtomicInteger EXECUTOR_COUNT = new AtomicInteger();
+
+    private final SqliteDatabase database;
+    private final TransactionRunner transactionRunner;
+    private final long writeDelayNanos;
+    /**
+     * Queued writes in order of submission. Guarded by this executor's monitor.
+     */
+    private final LinkedHashMap<Object, PendingWrite<?>> pendingWrites = new LinkedHashMap<>();
+    private final Thread writerThread;
+    private final ExecutorService readerThreads;
+    private boolean closed = false;
+
+    /**
+     * @param transactionRunner runs a batch of writes on the writer connection and commits them or rolls them back.
+     */
+    DatabaseExecutor(SqliteDatabase database, int readerCount, TransactionRunner transactionRunner) {
+        this.database = database;
+        this.transactionRunner = transactionRunner;
+        this.writeDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, CoreInfo.getLongProperty(WRITE_DELAY_PROPERTY_KEY, DEFAULT_WRITE_DELAY_MS)));
+        int executorNumber = EXECUTOR_COUNT.incrementAndGet();
+        AtomicInteger readerThreadCount = new AtomicInteger();
+        this.readerThreads = Executors.newFixedThreadPool(readerCount, runnable -> {
+            Thread thread = new Thread(runnable, "database-reader-" + executorNumber + "-" + readerThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writerThread = new Thread(this::processWrites, "database-writer-" + executorNumber);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Queues the given write. The returned future completes after the transaction containing the write was committed.
+     * @param coalescingKey if not null, a queued write of the same key is replaced by the given one. Futures of replaced
+     *                      writes complete together with the replacing write.
+     */
+    <X> CompletableFuture<X> submitWrite(Object coalescingKey, SqliteDatabase.SqlAction<X> action) {
+        PendingWrite<X> write = new PendingWrite<>(action, coalescingKey == null ? System.nanoTime() : System.nanoTime() + writeDelayNanos);
+        synchronized (this) {
+            if(closed) {
+                return CompletableFuture.failedFuture(new DatabaseCommunicationException("Database executor is closed"));
+            }
+            Object key = coalescingKey == null ? new Object() : coalescingKey;
+            // the replacing write takes the position of the newest write
+            PendingWrite<?> replacedWrite = pendingWrites.remove(key);
+            pendingWrites.put(key, write);
+            if(replacedWrite != null) {
+                completeWith(replacedWrite, write.result);
+            }
+            notifyAll();
+        }
+        return write.result;
+    }
+
+    /**
+     * @return a future completing after all writes submitted before were committed or have failed.
+     */
+    CompletableFuture<Void> flush() {
+        return submitWrite(null, writer -> null);
+    }
+
+    /**
+     * Executes the given action with a reader connection on a reader thread.
+     */
+    <X> CompletableFuture<X> submitRead(SqliteDatabase.SqlAction<X> action) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return database.read(action);
+            } catch (DatabaseCommunicationException e) {
+                throw new CompletionException(e);
+            }
+        }, readerThreads);
+    }
+
+    /**
+     * Waits for the given future and rethrows its failure in the form thrown by the database methods.
+     */
+    static <X> X await(CompletableFuture<X> future) throws DatabaseCommunicationException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseCommunicationException("Interrupted while waiting for the database", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof DatabaseCommunicationException) {
+                throw (DatabaseCommunicationException) cause;
+            } else if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DatabaseCommunicationException("Database operation failed: " + cause, cause);
+        }
+    }
+
+    /**
+     * Stops accepting work, executes all queued writes and waits for the writer thread to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        readerThreads.shutdown();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+            readerThreads.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(writerThread.isAlive()) {
+            logger.warning("Database writer thread did not finish within " + CLOSE_TIMEOUT_SECONDS + " seconds");
+        }
+    }
+
+    private void processWrites() {
+        while(true) {
+            List<PendingWrite<?>> batch;
+            try {
+                batch = awaitNextBatch();
+            } catch (InterruptedException e) {
+                batch = drainPendingWrites();
+                executeBatch(batch);
+                return;
+            }
+            if(batch.isEmpty()) {
+                // closed and drained
+                return;
+            }
+            executeBatch(batch);
+        }
+    }
+
+    /**
+     * Waits until some queued write is due. Delayed writes become due early as soon as an undelayed write is queued.
+     * @return all queued writes or an empty list if this executor was closed and there are no more writes.
+     */
+    private synchronized List<PendingWrite<?>> awaitNextBatch() throws InterruptedException {
+        while(true) {
+            if(closed || pendingWrites.values().stream().anyMatch(write -> write.dueTime <= System.nanoTime())) {
+                return drainPendingWrites();
+            }
+            if(pendingWrites.isEmpty()) {
+                wait();
+            } else {
+                long earliestDueTime = pendingWrites.values().stream().mapToLong(write -> write.dueTime).min().orElseThrow();
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, earliestDueTime - System.nanoTime()));
+            }
+        }
+    }
+
+    private synchronized List<PendingWrite<?>> drainPendingWrites() {
+        List<PendingWrite<?>> batch = new ArrayList<>(pendingWrites.values());
+        pendingWrites.clear();
+        return batch;
+    }
+
+    /**
+     * Executes all given writes within one transaction. If that fails, each write is retried in its own transaction so
+     * that a failing write does not affect the others.
+     */
+    private void executeBatch(List<PendingWrite<?>> batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+        Object[] results = new Object[batch.size()];
+        try {
+            transactionRunner.runInTransaction(writer -> {
+                for(int i = 0; i < batch.size(); i++) {
+                    results[i] = batch.get(i).action.execute(writer);
+                }
+            });
+        } catch (DatabaseCommunicationException | RuntimeException e) {
+            if(batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            logger.fine("Batch of " + batch.size() + " writes failed, retrying them one by one: " + e);
+            batch.forEach(write -> executeBatch(List.of(write)));
+            return;
+        }
+        for(int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), results[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <X> void complete(PendingWrite<X> write, Object result) {
+        write.result.complete((X) result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <X> void completeWith(PendingWrite<X> replacedWrite, CompletableFuture<?> replacingResult) {
+        replacingResult.whenComplete((result, failure) -> {
+            if(failure != null) {
+                replacedWrite.result.completeExceptionally(failure);
+            } else {
+                replacedWrite.result.complete((X) result);
+            }
+        });
+    }
+
+    private static class PendingWrite<X> {
+        private final SqliteDatabase.SqlAction<X> action;
+        private final long dueTime;
+        private final CompletableFuture<X> result = new CompletableFuture<>();
+
+        private PendingWrite(SqliteDatabase.SqlAction<X> action, long dueTime) {
+            this.action = action;
+            this.dueTime = dueTime;
+        }
+    }
+
+    /**
+     * Some writes executed on the writer connection.
+     */
+    @FunctionalInterface
+    interface WriteBatch {
+        void execute(Connection writer) throws SQLException;
+    }
+
+    /**
+     * Runs a batch of writes within one transaction.
+     */
+    @FunctionalInterface
+    interface TransactionRunner {
+        void runInTransaction(WriteBatch batch) throws DatabaseCommunicationException;
+    }
+}
@@ -1,39 +1,91 @@
 package jb.engine.core.data;
 
 import jb.engine.core.*;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.ManifestReference;
 import jb.engine.exceptions.DatabaseCommunicationException;
 import jb.engine.exceptions.DatabaseInitialisationException;
 import jb.engine.exceptions.DatabaseUnexpectedSituationException;
+import jb.engine.exceptions.ManifestException;
+import jb.engine.reporting.RunStatistics;
+import jb.engine.reporting.WriteStatistics;
+import jb.engine.services.HashService;
 import jb.engine.utils.PathUtils;
+import jb.engine.utils.SerDeUtils;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Class for managing the connection and execution of queries to the sqlite database.
  */
 public class DatabaseManager {
 
+    private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
+
     private static final String DATABASE_DRIVER_NAME = "jdbc:sqlite";
+    /**
+     * Connection property of the sqlite driver holding the flags passed to sqlite3_open_v2.
+     */
+    private static final String OPEN_MODE_PROPERTY_KEY = "open_mode";
+    private static final int SQLITE_OPEN_READONLY = 0x1;
     private static final String DATABASE_DIR_NAME = ".data";
     private static final String DATABASE_NAME = "copysnap.db";
     private static final String DEFAULT_MANAGER_NAME = "DefaultManager";
+    private static final String CONTEXT_DATABASE_NAME = "context.db";
+    private static final String DATABASE_PER_CONTEXT_PROPERTY_KEY = "database_per_context";
+    /**
+     * Maximum number of rows of the file name and file version index written by a single write.
+     */
+    private static final int FILE_NAME_INDEX_WRITE_SIZE = 50_000;
+    private static final int SPACE_ACCOUNTING_WRITE_SIZE = 20_000;
 
     // ----------------- Db Tools
 
-    private static final DatabaseToolkit<Context> CONTEXT_DATABASE_TOOLKIT = DatabaseToolkit.forType(Context.class, new ContextFactory());
-    private static final DatabaseToolkit<SnapshotInfo> SNAPSHOT_INFO_DATABASE_TOOLKIT = DatabaseToolkit.forType(SnapshotInfo.class, new SnapshotInfoFactory());
-    private static final DatabaseToolkit<LatestState> LATEST_STATE_DATABASE_TOOLKIT = DatabaseToolkit.forType(LatestState.class, LatestState::createFromArgs);
+    private static final DatabaseToolkit<Context> CONTEXT_DATABASE_TOOLKIT = DatabaseToolkit.forMappedType(Context.class, new ContextFactory());
+    private static final DatabaseToolkit<SnapshotInfo> SNAPSHOT_INFO_DATABASE_TOOLKIT = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+    private static final DatabaseToolkit<LatestState> LATEST_STATE_DATABASE_TOOLKIT = DatabaseToolkit.forMappedType(LatestState.class, new LatestState.Mapper());
+    // contexts are written to the catalog and to their own database, hence the states persisted to the latter are tracked separately
+    private static final DatabaseToolkit<Context> LOCAL_CONTEXT_DATABASE_TOOLKIT = DatabaseToolkit.forMappedType(Context.class, new ContextFactory());
+    private static final DatabaseToolkit<SnapshotInfo> LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+
+    // ----------------- Migrations
+
+    /**
+     * Schema steps and data conversions of the application database. New steps are appended with the next version.
+     */
+    private static final MigrationRunner CATALOG_MIGRATION_RUNNER = createMigrationRunner(
+            CONTEXT_DATABASE_TOOLKIT, SNAPSHOT_INFO_DATABASE_TOOLKIT, LATEST_STATE_DATABASE_TOOLKIT);
+    /**
+     * Schema steps and data conversions of the databases of single contexts.
+     */
+    private static final MigrationRunner CONTEXT_MIGRATION_RUNNER = createMigrationRunner(
+            LOCAL_CONTEXT_DATABASE_TOOLKIT, LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT);
+
+    private static final Projection<ContextInfoContainer> CONTEXT_INFO_PROJECTION = Projection.of(row -> new ContextInfoContainer(
+                    row.getString("id"),
+                    row.getPath("home_path"),
+                    row.getString("name"),
+                    row.getInstant("created_time"),
+                    row.getInteger(DatabaseToolkit.CHILD_COUNT_COLUMN_NAME)),
+            "id", "home_path", "name", "created_time");
+    private static final Projection<String> CONTEXT_ID_PROJECTION = Projection.of(row -> row.getString("id"), "id");
 
     // ----------------- Error message prefixes
 
@@ -84,6 +136,17 @@ public class DatabaseManager {
         DATABASE_MANAGER = new DatabaseManager(databaseName, managerName);
     }
 
+    /**
+     * Like {@link #initializeCustomManager(String, String)}, but stores snapshot info objects in one database per context
+     * if the given flag is set regardless of the property {@value #DATABASE_PER_CONTEXT_PROPERTY_KEY}.
+     */
+    static void initializeCustomManager(String databaseName, String managerName, boolean databasePerContext) {
+        if(allowReinitialization && DATABASE_MANAGER != null) {
+            throw new IllegalStateException("There is an already initialized database manger in place and reinitialization is not allowed: " + DATABASE_MANAGER.managerName);
+        }
+        DATABASE_MANAGER = new DatabaseManager(databaseName, managerName, databasePerContext);
+    }
+
     /**
      * Returns the default instance that is created upon application startup.
      */
@@ -104,8 +167,15 @@ public class DatabaseManager {
     /**
      * Creates a singelton-Style instance while trying to establish a connection to an existing database at the expected location.
      * If that databse-file does not exist, it will be created and initialised.
+     * <p>If the property {@value #DATABASE_PER_CONTEXT_PROPERTY_KEY} is set to true, this database only serves as a catalog
+     * of all contexts and the latest state. Snapshot info objects are then stored in one database per context located in
+     * that context's internal directory.</p>
      */
     private DatabaseManager(String databaseName, String managerName) {
+        this(databaseName, managerName, Boolean.parseBoolean(CoreInfo.PROPERTIES.getOrDefault(DATABASE_PER_CONTEXT_PROPERTY_KEY, "false")));
+    }
+
+    private DatabaseManager(String databaseName, String managerName, boolean databasePerContext) {
         Path basePath = PathUtils.findApplicationBasePath();
         try {
             // create database dir if needed
@@ -120,10 +190,13 @@ public class DatabaseManager {
         this.databaseLocation = basePath.resolve(DATABASE_DIR_NAME).resolve(databaseName);
         this.databaseConnectionName = DATABASE_DRIVER_NAME + ":" + databaseLocation;
         this.managerName = managerName;
+        this.databasePerContext = databasePerContext;
         try {
             renewConnection(databaseConnectionName);
             printCurrentConnectionMetadata();
             initializeMissingTables();
+            // objects tracked by the shared toolkits may stem from another database
+            forgetAllPersistedStates();
         } catch (SQLException e) {
             throw new DatabaseUnexpectedSituationException(INITIALISATION_DATABASE_ERROR_PREFIX + e, e);
         }
@@ -142,50 +215,130 @@ public class DatabaseManager {
         System.out.println("\tDriver: " + databaseMetaData.getDriverName());
         System.out.println("\tVersion: " + databaseMetaData.getDatabaseProductVersion());
         System.out.println("\tlocation: " + databaseMetaData.getURL());
+        logger.info("Journal mode of database " + databaseMetaData.getURL() + ": " + catalog.getDatabase().getJournalMode());
+        logger.info("Database per context: " + databasePerContext);
     }
 
+    /**
+     * Brings the catalog database to the latest schema version and starts converting existing data in the background.
+     */
     private void initializeMissingTables() throws DatabaseInitialisationException {
         if(c == null) {
             throw new DatabaseInitialisationException(INITIALISATION_TABLES_ERROR_PREFIX + "connection is null");
         }
-        CONTEXT_DATABASE_TOOLKIT.createTableIfNotExists(c);
-        SNAPSHOT_INFO_DATABASE_TOOLKIT.createTableIfNotExists(c);
-        LATEST_STATE_DATABASE_TOOLKIT.createTableIfNotExists(c);
+        CATALOG_MIGRATION_RUNNER.migrateSchema(c);
+        dataMigrations.put(catalog, CATALOG_MIGRATION_RUNNER.startDataMigrations(catalog));
+    }
+
+    /**
+     * Creates missing tables, columns and indexes of the given toolkits.
+     */
+    /**
+     * The catalog and the databases of single contexts share all steps, they only differ in the tables created first.
+     * @param otherToolkits toolkits of further tables created by the first step.
+     */
+    private static MigrationRunner createMigrationRunner(DatabaseToolkit<Context> contextToolkit, DatabaseToolkit<SnapshotInfo> snapshotInfoToolkit,
+                                                         DatabaseToolkit<?>... otherToolkits) {
+        List<DatabaseToolkit<?>> toolkits = new ArrayList<>(List.of(contextToolkit, snapshotInfoToolkit));
+        toolkits.addAll(List.of(otherToolkits));
+        return new MigrationRunner(
+                List.of(
+                        // databases created before versions were recorded are brought to this state as well, all calls are idempotent
+                        Migration.of(1, "Create tables of contexts and snapshot infos", connection ->
+                                initializeTables(connection, toolkits.toArray(new DatabaseToolkit<?>[0]))),
+                        Migration.of(2, "Create file name search index", FileNameIndex::createIfNotExists),
+                        Migration.of(3, "Create file version index", FileVersionIndex::createIfNotExists),
+                        Migration.of(4, "Add run statistics columns to snapshot infos", snapshotInfoToolkit::addMissingColumns),
+                        Migration.of(5, "Create space accounting tables", SpaceAccounting::createIfNotExists),
+                        Migration.of(6, "Add filter rule columns to contexts and snapshot infos", connection -> {
+                            contextToolkit.addMissingColumns(connection);
+                            snapshotInfoToolkit.addMissingColumns(connection);
+                        })
+                ),
+                List.of(DataMigration.writeManifestsOfLegacySnapshots(snapshotInfoToolkit),
+                        new FileNameIndexMigration(snapshotInfoToolkit),
+                        new FileVersionIndexMigration(snapshotInfoToolkit))
+        );
+    }
+
+    private static void initializeTables(Connection connection, DatabaseToolkit<?>... toolkits) throws DatabaseInitialisationException {
+        for(DatabaseToolkit<?> toolkit : toolkits) {
+            toolkit.createTableIfNotExists(connection);
+            toolkit.addMissingColumns(connection);
+            toolkit.createIndexesIfNotExist(connection);
+        }
     }
+
     // ----------------- Object Fields
 
     private final Path databaseLocation;
     private final String databaseConnectionName;
     private final String managerName;
+    private final boolean databasePerContext;
+    /**
+     * The database holding all contexts. Also holds all snapshot info objects unless {@link #databasePerContext} is set.
+     */
+    private DatabaseStore catalog;
+    /**
+     * The writer connection of {@link #catalog}. It must only be used by the writer thread of the catalog's executor.
+     */
     private Connection c;
+    /**
+     * Databases of single contexts by context id. Only used if {@link #databasePerContext} is set. Opened upon first use.
+     */
+    private final Map<String, DatabaseStore> contextStores = new ConcurrentHashMap<>();
+    /**
+     * The background data migrations of each open store, see {@link MigrationRunner#startDataMigrations(DatabaseStore)}.
+     */
+    private final Map<DatabaseStore, CompletableFuture<Void>> dataMigrations = new ConcurrentHashMap<>();
+    private volatile WriteStatistics lastSaveStatistics = WriteStatistics.EMPTY;
 
     // ----------------- Usable methods
 
+    /**
+     * Closes all current connections and opens a writer connection and a pool of read-only connections to the database
+     * at the given location.
+     */
     public void renewConnection(String databaseConnectionName) throws SQLException {
-        Connection connection = DriverManager.getConnection(databaseConnectionName);
-        connection.setAutoCommit(false);
-        c = connection;
+        if(catalog != null) {
+            closeContextStores();
+            dataMigrations.remove(catalog);
+            catalog.close();
+        }
+        catalog = new DatabaseStore(databaseConnectionName, DatabaseManager::forgetAllPersistedStates);
+        c = catalog.getWriter();
     }
 
+    /**
+     * @return the writer connection of the catalog database.
+     */
     public Connection getConnection() {
         return c;
     }
 
     public boolean isConnected() {
-        try {
-            return c != null && c.isValid(10);
-        } catch (SQLException e) {
-            return false;
-        }
+        return catalog != null && catalog.isValid();
     }
 
     /**
-     * Rolls back the current connection, closes the connection, sets this manager's connection to null.
+     * @return true, if snapshot info objects are stored in one database per context.
+     */
+    public boolean isDatabasePerContext() {
+        return databasePerContext;
+    }
+
+    /**
+     * Executes all queued writes, closes all connections, sets this manager's connections to null.
      */
     public void disconnect() throws DatabaseCommunicationException {
+        if(catalog == null) {
+            return;
+        }
         try {
-            c.rollback();
-            c.close();
+            closeContextStores();
+            dataMigrations.remove(catalog);
+            catalog.close();
+            catalog = null;
             c = null;
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Could not close connection: " + e, e);
@@ -206,7 +359,7 @@ public class DatabaseManager {
     }
 
     /**
-     * Disconnects from the database and deletes the database file on disc.
+     * Disconnects from the database and deletes the database file on disc. Databases of single contexts are kept.
      */
     public void deleteDatabase() throws DatabaseCommunicationException {
         disconnect();
@@ -221,63 +374,150 @@ public class DatabaseManager {
      * Loads and returns the latest used context.
      */
     public Optional<Context> loadLastUsedContext() throws DatabaseCommunicationException {
-        Optional<LatestState> latestStateOpt = LATEST_STATE_DATABASE_TOOLKIT.findById(c, LatestState.STATE_ID);
-        if(latestStateOpt.isPresent()) {
-            return loadContext(latestStateOpt.get().getLastUsedContextId());
-        } else {
-            return Optional.empty();
-        }
+        return DatabaseExecutor.await(loadLastUsedContextAsync());
+    }
+
+    /**
+     * Loads the latest used context without blocking the calling thread.
+     */
+    public CompletableFuture<Optional<Context>> loadLastUsedContextAsync() {
+        return catalog.flush()
+                .thenCompose(ignored -> catalog.submitRead(reader -> LATEST_STATE_DATABASE_TOOLKIT.findById(reader, LatestState.STATE_ID)))
+                .thenCompose(latestStateOpt -> latestStateOpt
+                        .map(latestState -> loadContextAsync(latestState.getLastUsedContextId()))
+                        .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty())));
     }
 
     /**
      * Saves the given LatestState as the new latest state.
      */
     public void saveOrUpdateLatestState(LatestState latestState) throws DatabaseCommunicationException{
-        if(LATEST_STATE_DATABASE_TOOLKIT.exists(c, latestState)) {
-            LATEST_STATE_DATABASE_TOOLKIT.update(c, latestState);
-        } else {
-            LATEST_STATE_DATABASE_TOOLKIT.insert(c, latestState);
-        }
+        CompletableFuture<WriteStatistics> result = saveOrUpdateLatestStateAsync(latestState);
+        // do not wait for the coalescing delay
+        catalog.flush();
+        DatabaseExecutor.await(result);
     }
 
     /**
-     * Returns a list of information about all stored contexts.
+     * Queues saving the given LatestState as the new latest state. Since there is only one latest state, a still queued
+     * save is replaced by this one.
+     */
+    public CompletableFuture<WriteStatistics> saveOrUpdateLatestStateAsync(LatestState latestState) {
+        return catalog.submitWrite(LatestState.class, writer -> LATEST_STATE_DATABASE_TOOLKIT.upsertAll(writer, List.of(latestState)));
+    }
+
+    /**
+     * Returns a list of information about all stored contexts. Snapshots are counted within the same query.
      */
     public List<ContextInfoContainer> getInfoOfAllContext() throws DatabaseCommunicationException {
-        List<ContextInfoContainer> out = new LinkedList<>();
-        for(Context context : CONTEXT_DATABASE_TOOLKIT.findAll(c)) {
-            out.add(new ContextInfoContainer(
-                    context.getId(),
-                    context.getHomePath(),
-                    context.getName(),
-                    context.getCreatedTime(),
-                    SNAPSHOT_INFO_DATABASE_TOOLKIT.countByColumn(c, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, context.getId())
-            ));
+        return DatabaseExecutor.await(getInfoOfAllContextAsync());
+    }
+
+    /**
+     * Lists information about all stored contexts without blocking the calling thread. Queued writes are executed
+     * beforehand. Snapshots stored in databases of single contexts are counted in these databases without opening them
+     * as stores, see {@link #countSnapshotsOfContextDatabase(ContextInfoContainer)}.
+     */
+    public CompletableFuture<List<ContextInfoContainer>> getInfoOfAllContextAsync() {
+        CompletableFuture<List<ContextInfoContainer>> catalogInfo = catalog.flush().thenCompose(ignored -> catalog.submitRead(reader ->
+                CONTEXT_DATABASE_TOOLKIT.findAllWithChildCount(reader, CONTEXT_INFO_PROJECTION, SNAPSHOT_INFO_DATABASE_TOOLKIT, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME)));
+        if(!databasePerContext) {
+            return catalogInfo;
         }
-        return out;
+        return catalogInfo.thenCompose(infoList -> {
+            List<CompletableFuture<ContextInfoContainer>> countedInfoList = new ArrayList<>();
+            infoList.forEach(info -> countedInfoList.add(countSnapshotsOfContextDatabase(info)));
+            return CompletableFuture.allOf(countedInfoList.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignored -> countedInfoList.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        });
+    }
+
+    /**
+     * @return the id of the context with the given home path. The Optional is empty if there is no such context. If
+     * the catalog does not know the home path but there is a context database at that location, e.g. because the
+     * context was moved, that database is adopted.
+     */
+    public Optional<String> findContextIdByHomePath(Path homePath) throws DatabaseCommunicationException {
+        // home paths are unique and therefore indexed
+        Optional<String> contextId = catalog.read(reader -> CONTEXT_DATABASE_TOOLKIT.findByColumn(reader, CONTEXT_ID_PROJECTION, "home_path", homePath.toString()))
+                .stream()
+                .findAny();
+        if(contextId.isEmpty() && databasePerContext && Files.isRegularFile(getContextDatabasePath(homePath))) {
+            return adoptContextDatabase(homePath);
+        }
+        return contextId;
     }
 
     /**
      * Loads the context with the given id from the database.
      */
     public Optional<Context> loadContext(String contextId) throws DatabaseCommunicationException {
+        return DatabaseExecutor.await(loadContextAsync(contextId));
+    }
+
+    /**
+     * Loads the context with the given id without blocking the calling thread. Queued writes are executed beforehand.
+     * The loaded context becomes the latest used context in the background.
+     */
+    public CompletableFuture<Optional<Context>> loadContextAsync(String contextId) {
         if(contextId == null) {
             throw new IllegalArgumentException("Context id can not be null");
         }
-        Optional<Context> storedContextOpt = CONTEXT_DATABASE_TOOLKIT.findById(c, contextId);
-        // fill with snapshot info if present
-        if(storedContextOpt.isPresent()) {
-            storedContextOpt.get().setSnapshotInfoList(
-                    SNAPSHOT_INFO_DATABASE_TOOLKIT.findByColumn(c, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, contextId)
-            );
-            saveOrUpdateLatestState(new LatestState(storedContextOpt.get().getId()));
+        CompletableFuture<Optional<Context>> loadedContext;
+        if(databasePerContext) {
+            loadedContext = catalog.flush()
+                    .thenCompose(ignored -> catalog.submitRead(reader -> CONTEXT_DATABASE_TOOLKIT.findById(reader, contextId)))
+                    .thenCompose(contextOpt -> contextOpt
+                            .map(context -> loadSnapshotInfoFromContextDatabase(context).thenApply(Optional::of))
+                            .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty())));
+        } else {
+            loadedContext = catalog.flush()
+                    .thenCompose(ignored -> catalog.submitRead(reader -> {
+                        Optional<Context> contextOpt = CONTEXT_DATABASE_TOOLKIT.findById(reader, contextId);
+                        // fill with snapshot info if present
+                        if(contextOpt.isPresent()) {
+                            contextOpt.get().setSnapshotInfoList(
+                                    SNAPSHOT_INFO_DATABASE_TOOLKIT.findByColumn(reader, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, contextId)
+                            );
+                        }
+                        return contextOpt;
+                    }));
         }
-        return storedContextOpt;
+        return loadedContext.thenApply(storedContextOpt -> {
+            storedContextOpt.ifPresent(context -> saveOrUpdateLatestStateAsync(new LatestState(context.getId()))
+                    .exceptionally(e -> {
+                        logger.warning("Could not save latest state: " + e);
+                        return null;
+                    }));
+            return storedContextOpt;
+        });
+    }
+
+    /**
+     * Loads the checksum map of the snapshot info with the given id belonging to the given context. Since these maps
+     * are potentially large, they are not loaded together with their snapshot info objects. The map is deserialized in
+     * its stored representation, hence it is not converted back and forth.
+     */
+    public Optional<HashMap<String, byte[]>> loadRedirectedChecksumMap(Context context, String snapshotInfoId) throws DatabaseCommunicationException {
+        DatabaseStore store = getStoreOfContext(context);
+        DatabaseToolkit<SnapshotInfo> toolkit = databasePerContext ? LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT : SNAPSHOT_INFO_DATABASE_TOOLKIT;
+        return store.read(reader -> toolkit.readBlobColumnById(reader, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfoId,
+                inputStream -> HashService.asSerializableChecksumMap(SerDeUtils.deserializeFrom(inputStream, HashMap.class))));
+    }
+
+    /**
+     * @return the manifest reference stored for the snapshot info with the given id. Snapshots loaded before their
+     * checksum map was moved to a manifest by a data migration do not know it yet.
+     */
+    public Optional<ManifestReference> findManifestReference(Context context, String snapshotInfoId) throws DatabaseCommunicationException {
+        DatabaseStore store = getStoreOfContext(context);
+        DatabaseToolkit<SnapshotInfo> toolkit = databasePerContext ? LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT : SNAPSHOT_INFO_DATABASE_TOOLKIT;
+        return store.read(reader -> toolkit.findById(reader, snapshotInfoId)).flatMap(SnapshotInfo::getManifestReference);
     }
 
     /**
      * Inserts or updates the given context in the database. This will also cause inserts, updates or deletes on all
-     * associated snapshot info objects.
+     * associated snapshot info objects. All changes are committed within one single transaction per database.
      */
     public void safeOrUpdateContext(Context contextToSafe) throws DatabaseCommunicationException {
         if(contextToSafe == null) {
@@ -285,58 +525,705 @@ public class DatabaseManager {
         } else if (c == null) {
             throw new DatabaseCommunicationException(INSERT_CONTEXT_ERROR_PREFIX + "Connection is null");
         }
-        // search for existing context
-        if(CONTEXT_DATABASE_TOOLKIT.exists(c, contextToSafe)) {
-            // update context
-            CONTEXT_DATABASE_TOOLKIT.update(c, contextToSafe);
+        CompletableFuture<WriteStatistics> result = safeOrUpdateContextAsync(contextToSafe);
+        // do not wait for the coalescing delay
+        flushAllStores();
+        DatabaseExecutor.await(result);
+    }
+
+    /**
+     * Queues inserting or updating the given context like {@link #safeOrUpdateContext(Context)}. A still queued save of
+     * the same context is replaced by this one. The snapshot info list of the context is captured upon calling this method.
+     * @return a future completing after the changes were committed.
+     */
+    public CompletableFuture<WriteStatistics> safeOrUpdateContextAsync(Context contextToSafe) {
+        List<SnapshotInfo> snapshotInfoList = contextToSafe.getSnapshotInfoList() == null ? null : new ArrayList<>(contextToSafe.getSnapshotInfoList());
+        LatestState latestState = new LatestState(contextToSafe.getId());
+        Object coalescingKey = List.of(Context.class, contextToSafe.getId());
+        CompletableFuture<WriteStatistics> result;
+        if(databasePerContext) {
+            DatabaseStore contextStore;
+            try {
+                contextStore = getContextStore(contextToSafe.getId(), contextToSafe.getHomePath());
+            } catch (DatabaseCommunicationException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            // both databases are written independently, the catalog only needs the context itself
+            CompletableFuture<WriteStatistics> contextResult = contextStore.submitWrite(coalescingKey, writer ->
+                    LOCAL_CONTEXT_DATABASE_TOOLKIT.upsertAll(writer, List.of(contextToSafe))
+                            .plus(safeUpdateOrDeleteSnapshotInfo(LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT, writer, contextToSafe.getId(), snapshotInfoList)));
+            CompletableFuture<WriteStatistics> catalogResult = catalog.submitWrite(coalescingKey, writer ->
+                    CONTEXT_DATABASE_TOOLKIT.upsertAll(writer, List.of(contextToSafe))
+                            .plus(LATEST_STATE_DATABASE_TOOLKIT.upsertAll(writer, List.of(latestState))));
+            result = contextResult.thenCombine(catalogResult, WriteStatistics::plus);
         } else {
-            CONTEXT_DATABASE_TOOLKIT.insert(c, contextToSafe);
+            result = catalog.submitWrite(coalescingKey, writer -> {
+                return CONTEXT_DATABASE_TOOLKIT.upsertAll(writer, List.of(contextToSafe))
+                        // save, update or delete associated SnapshotInfo objects
+                        .plus(safeUpdateOrDeleteSnapshotInfo(SNAPSHOT_INFO_DATABASE_TOOLKIT, writer, contextToSafe.getId(), snapshotInfoList))
+                        .plus(LATEST_STATE_DATABASE_TOOLKIT.upsertAll(writer, List.of(latestState)));
+            });
         }
-        // save, update or delete associated SnapshotInfo objects
-        safeUpdateOrDeleteSnapshotInfo(contextToSafe.getId(), contextToSafe.getSnapshotInfoList());
-        saveOrUpdateLatestState(new LatestState(contextToSafe.getId()));
+        return result.thenApply(statistics -> {
+            lastSaveStatistics = statistics;
+            logger.fine("Saved context " + contextToSafe.getId() + ": " + statistics);
+            return statistics;
+        });
     }
 
+    /**
+     * Waits until all writes queued so far were committed.
+     */
+    public void flush() throws DatabaseCommunicationException {
+        DatabaseExecutor.await(flushAllStores());
+    }
 
     /**
-     * Determines objects that need to be updated, inserted or deleted and commits these changes to the database.
+     * @return statistics about the rows written by the last successful call of {@link #safeOrUpdateContext(Context)}.
      */
-    private void safeUpdateOrDeleteSnapshotInfo(String associatedContextId, List<SnapshotInfo> snapshotInfoList) throws DatabaseCommunicationException {
+    public WriteStatistics getLastSaveStatistics() {
+        return lastSaveStatistics;
+    }
+
+
+    /**
+     * Determines objects that need to be updated, inserted or deleted and sends these changes to the database without committing.
+     */
+    private static WriteStatistics safeUpdateOrDeleteSnapshotInfo(DatabaseToolkit<SnapshotInfo> toolkit, Connection writer, String associatedContextId,
+                                                                  List<SnapshotInfo> snapshotInfoList) throws SQLException {
         if(snapshotInfoList == null) {
+            return WriteStatistics.EMPTY;
+        }
+        Set<Object> snapshotIdsToDelete
+                = new HashSet<>(toolkit.findAllIdsByValue(writer, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, associatedContextId));
+        snapshotInfoList.forEach(si -> snapshotIdsToDelete.remove(si.getId()));
+        FileNameIndex.deleteAll(writer, snapshotIdsToDelete);
+        FileVersionIndex.deleteAll(writer, snapshotIdsToDelete);
+        SpaceAccounting.deleteAll(writer, snapshotIdsToDelete);
+        return toolkit.upsertAll(writer, snapshotInfoList)
+                .plus(toolkit.deleteAllByIds(writer, snapshotIdsToDelete));
+    }
+
+    /**
+     * Removes the given Context from the database. The database of the context is closed afterwards but not deleted.
+     */
+    public void deleteContext(Context context) throws DatabaseCommunicationException {
+        if(context == null) {
             return;
-        } else if (c == null) {
-            throw new DatabaseCommunicationException(INSERT_CONTEXT_ERROR_PREFIX + "Connection is null");
         }
-        List<Object> alreadyExistingSnapshots
-                = SNAPSHOT_INFO_DATABASE_TOOLKIT.findAllIdsByValue(c, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, associatedContextId);
-        // insert or update
-        for(SnapshotInfo si : snapshotInfoList) {
-            if(SNAPSHOT_INFO_DATABASE_TOOLKIT.exists(c, si)) {
-                alreadyExistingSnapshots.remove(si.getId());
-                SNAPSHOT_INFO_DATABASE_TOOLKIT.update(c, si);
-            } else {
-                SNAPSHOT_INFO_DATABASE_TOOLKIT.insert(c, si);
+        List<SnapshotInfo> snapshotInfoList = new ArrayList<>(context.getSnapshotInfoList());
+        List<String> snapshotInfoIds = snapshotInfoList.stream().map(SnapshotInfo::getId).collect(Collectors.toList());
+        if(databasePerContext) {
+            DatabaseStore contextStore = getContextStore(context.getId(), context.getHomePath());
+            DatabaseExecutor.await(contextStore.submitWrite(null, writer -> {
+                LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT.deleteAll(writer, snapshotInfoList);
+                FileNameIndex.deleteAll(writer, snapshotInfoIds);
+                FileVersionIndex.deleteAll(writer, snapshotInfoIds);
+                SpaceAccounting.deleteContext(writer, context.getId());
+                return LOCAL_CONTEXT_DATABASE_TOOLKIT.deleteAll(writer, List.of(context));
+            }));
+            closeContextStore(context.getId());
+        }
+        DatabaseExecutor.await(catalog.submitWrite(null, writer -> {
+            // delete snapshot info
+            SNAPSHOT_INFO_DATABASE_TOOLKIT.deleteAll(writer, snapshotInfoList);
+            FileNameIndex.deleteAll(writer, snapshotInfoIds);
+            FileVersionIndex.deleteAll(writer, snapshotInfoIds);
+            SpaceAccounting.deleteContext(writer, context.getId());
+            // delete context itself
+            return CONTEXT_DATABASE_TOOLKIT.deleteAll(writer, List.of(context));
+        }));
+    }
+
+    /**
+     * Queues indexing the given paths of the given saved snapshot for {@link #searchFileNames(Context, String, int)}.
+     * Entries indexed for that snapshot before are replaced. Large snapshots are indexed by several consecutive writes
+     * so that other writes are not held up. The snapshot is recorded as indexed by the last write.
+     * @param paths absolute paths located in the run target directory of the given snapshot.
+     * @return a future completing with the number of indexed paths after all writes were committed.
+     */
+    public CompletableFuture<Integer> indexFileNamesAsync(Context context, SnapshotInfo snapshotInfo, List<Path> paths) {
+        DatabaseStore store;
+        try {
+            store = getStoreOfContext(context);
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        List<CompletableFuture<Integer>> counts = new ArrayList<>();
+        counts.add(store.submitWrite(null, writer -> {
+            FileNameIndex.deleteAll(writer, List.of(snapshotInfo.getId()));
+            return 0;
+        }));
+        for(int start = 0; start < paths.size(); start += FILE_NAME_INDEX_WRITE_SIZE) {
+            List<Path> pathsOfWrite = paths.subList(start, Math.min(paths.size(), start + FILE_NAME_INDEX_WRITE_SIZE));
+            counts.add(store.submitWrite(null, writer ->
+                    FileNameIndex.insertAll(writer, context.getId(), snapshotInfo.getId(), snapshotInfo.getRunTargetDirectory(), pathsOfWrite)));
+        }
+        counts.add(store.submitWrite(null, writer -> {
+            FileNameIndex.markIndexed(writer, snapshotInfo.getId());
+            return 0;
+        }));
+        return CompletableFuture.allOf(counts.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> counts.stream().mapToInt(CompletableFuture::join).sum());
+    }
+
+    /**
+     * Searches the names of all files and directories of all snapshots of the given context. A match needs to contain
+     * words starting with each word of the given query in its name or directory. Reads on the calling thread.
+     * @return at most the given number of matches, best matches first.
+     */
+    public List<FileNameMatch> searchFileNames(Context context, String query, int limit) throws DatabaseCommunicationException {
+        return getStoreOfContext(context).read(reader -> FileNameIndex.search(reader, context.getId(), query, limit));
+    }
+
+    /**
+     * Queues indexing the changes of the given saved snapshot compared to the given previous snapshot for
+     * {@link #getFileHistory(Context, String)}. Entries indexed for that snapshot before are replaced, hence this method
+     * is also used to repair the index after the previous snapshot of a snapshot was deleted. The changes are determined
+     * in the background while they are written by several consecutive writes if needed.
+     * @param previousSnapshotInfo the snapshot of the same context created right before the given one or {@code null}
+     *                             if there is none.
+     * @return a future completing with the number of indexed changes after all writes were committed.
+     */
+    public CompletableFuture<Integer> indexFileVersionsAsync(Context context, SnapshotInfo snapshotInfo, SnapshotInfo previousSnapshotInfo) {
+        DatabaseStore store;
+        try {
+            store = getStoreOfContext(context);
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // checksum maps of snapshots without manifest are loaded by the cache of the context, which reads from the store
+        return CompletableFuture.supplyAsync(() -> computeFileVersionChanges(snapshotInfo, previousSnapshotInfo))
+                .thenCompose(changes -> writeFileVersionChanges(store, context, snapshotInfo, changes));
+    }
+
+    /**
+     * Writes the given changes by consecutive writes. Each write is submitted once the previous one is committed, its
+     * changes are taken from the stream beforehand on a thread of the common pool. The stream is closed afterwards.
+     */
+    private static CompletableFuture<Integer> writeFileVersionChanges(DatabaseStore store, Context context, SnapshotInfo snapshotInfo,
+                                                                      Stream<FileVersionIndex.Change> changes) {
+        Iterator<FileVersionIndex.Change> changeIterator = changes.iterator();
+        return store.submitWrite(null, writer -> {
+                    FileVersionIndex.deleteAll(writer, List.of(snapshotInfo.getId()));
+                    return 0;
+                })
+                .thenComposeAsync(ignored -> writeFileVersionChanges(store, context, snapshotInfo, changeIterator, 0))
+                .whenComplete((count, e) -> changes.close());
+    }
+
+    /**
+     * @param writtenCount the number of changes written by the previous writes.
+     */
+    private static CompletableFuture<Integer> writeFileVersionChanges(DatabaseStore store, Context context, SnapshotInfo snapshotInfo,
+                                                                      Iterator<FileVersionIndex.Change> changes, int writtenCount) {
+        List<FileVersionIndex.Change> changesOfWrite = new ArrayList<>();
+        while(changesOfWrite.size() < FILE_NAME_INDEX_WRITE_SIZE && changes.hasNext()) {
+            changesOfWrite.add(changes.next());
+        }
+        if(changesOfWrite.isEmpty()) {
+            return store.submitWrite(null, writer -> {
+                FileVersionIndex.markIndexed(writer, snapshotInfo.getId());
+                return writtenCount;
+            });
+        }
+        return store.submitWrite(null, writer ->
+                        FileVersionIndex.insertAll(writer, context.getId(), snapshotInfo.getId(), snapshotInfo.getCreatedTime(), changesOfWrite))
+                .thenComposeAsync(count -> writeFileVersionChanges(store, context, snapshotInfo, changes, writtenCount + count));
+    }
+
+    /**
+     * Compares the manifests of the given snapshots top-down if both have one, see
+     * {@link FileVersionIndex#streamDiff(ChecksumManifest, ChecksumManifest)}. The manifests are closed with the returned
+     * stream. Otherwise, their full checksum maps are compared.
+     */
+    private static Stream<FileVersionIndex.Change> computeFileVersionChanges(SnapshotInfo snapshotInfo, SnapshotInfo previousSnapshotInfo) {
+        Optional<ManifestReference> previousReference = previousSnapshotInfo == null ? Optional.empty() : previousSnapshotInfo.getManifestReference();
+        if(snapshotInfo.getManifestReference().isPresent() && (previousSnapshotInfo == null || previousReference.isPresent())) {
+            List<ChecksumManifest> manifests = new ArrayList<>();
+            try {
+                ChecksumManifest current = ChecksumManifest.open(snapshotInfo.getManifestReference().get());
+                manifests.add(current);
+                ChecksumManifest previous = previousReference.isPresent() ? ChecksumManifest.open(previousReference.get()) : null;
+                if(previous != null) {
+                    manifests.add(previous);
+                }
+                return FileVersionIndex.streamDiff(previous, current).onClose(() -> manifests.forEach(ChecksumManifest::close));
+            } catch (ManifestException e) {
+                manifests.forEach(ChecksumManifest::close);
+                logger.warning("Could not compare manifests of snapshot " + snapshotInfo.getName() + ", comparing checksum maps instead: " + e);
             }
         }
-        // delete remaining
-        for(Object id : alreadyExistingSnapshots) {
-            SNAPSHOT_INFO_DATABASE_TOOLKIT.deleteById(c, id);
+        Map<String, byte[]> previous = previousSnapshotInfo == null ? Map.of()
+                : FileVersionIndex.toRelativeChecksumMap(previousSnapshotInfo.getRedirectedChecksumMap(), previousSnapshotInfo.getRunTargetDirectory());
+        return FileVersionIndex.diff(previous,
+                FileVersionIndex.toRelativeChecksumMap(snapshotInfo.getRedirectedChecksumMap(), snapshotInfo.getRunTargetDirectory())).stream();
+    }
+
+    /**
+     * Finds the snapshots of the given context whose file names are not indexed completely for
+     * {@link #searchFileNames(Context, String, int)}, e.g. because indexing failed or the application stopped before.
+     * Waits for the data migrations of the context's database since those index older snapshots themselves.
+     */
+    public CompletableFuture<List<SnapshotInfo>> findSnapshotsWithoutFileNamesAsync(Context context) {
+        return findUnindexedSnapshotsAsync(context, FileNameIndex.INDEXED_SNAPSHOT_TABLE_NAME);
+    }
+
+    /**
+     * Same as {@link #findSnapshotsWithoutFileNamesAsync(Context)} for {@link #getFileHistory(Context, String)}.
+     */
+    public CompletableFuture<List<SnapshotInfo>> findSnapshotsWithoutFileVersionsAsync(Context context) {
+        return findUnindexedSnapshotsAsync(context, FileVersionIndex.INDEXED_SNAPSHOT_TABLE_NAME);
+    }
+
+    private CompletableFuture<List<SnapshotInfo>> findUnindexedSnapshotsAsync(Context context, String indexedSnapshotTableName) {
+        DatabaseStore store;
+        try {
+            store = getStoreOfContext(context);
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
         }
+        List<SnapshotInfo> snapshotInfoList = new ArrayList<>(context.getSnapshotInfoList());
+        return dataMigrations.getOrDefault(store, CompletableFuture.completedFuture(null))
+                .thenCompose(ignored -> store.submitRead(reader -> {
+                    Set<String> indexedIds = new HashSet<>();
+                    try (PreparedStatement statement = reader.prepareStatement("SELECT snapshot_info_id FROM " + indexedSnapshotTableName);
+                         ResultSet resultSet = statement.executeQuery()) {
+                        while(resultSet.next()) {
+                            indexedIds.add(resultSet.getString(1));
+                        }
+                    }
+                    return snapshotInfoList.stream()
+                            .filter(snapshotInfo -> !indexedIds.contains(snapshotInfo.getId()))
+                            .collect(Collectors.toList());
+                }));
     }
 
     /**
-     * Removes the given Context from the database.
+     * Reads all versions of the file or directory at the given path, relative to the run target directories, within the
+     * given context on the calling thread.
+     * @return one entry per snapshot in which the path was created, changed or deleted, oldest first.
      */
-    public void deleteContext(Context context) throws DatabaseCommunicationException {
-        if(context == null) {
+    public List<FileVersion> getFileHistory(Context context, String relativePath) throws DatabaseCommunicationException {
+        return getStoreOfContext(context).read(reader -> FileVersionIndex.findHistory(reader, context.getId(), relativePath));
+    }
+
+    /**
+     * Queues accounting the disk space of the given saved snapshot, see {@link #getSpaceUsage(Context, SnapshotInfo)}.
+     * Snapshots without run statistics are not accounted. Large snapshots are accounted by several consecutive writes so
+     * that other writes are not held up. Accounting a partially accounted snapshot again continues where it stopped.
+     * The stored sizes are staged by consecutive writes as well and read while they are written.
+     * @param digests the distinct checksums of all files and directories of the snapshot, in the same order each time
+     *                the snapshot is accounted or released.
+     * @param storedDigestSizes the size of each file copied into the snapshot's run target directory by its checksum.
+     * @return a future completing with true after all checksums of the snapshot were accounted or false if it is not
+     * accounted.
+     */
+    public CompletableFuture<Boolean> accountSpaceAsync(Context context, SnapshotInfo snapshotInfo, List<ByteBuffer> digests,
+                                                        Iterator<Map.Entry<ByteBuffer, Long>> storedDigestSizes) {
+        Optional<RunStatistics> runStatistics = snapshotInfo.getRunStatistics();
+        if(runStatistics.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        long storedByteCount = runStatistics.get().getCopiedByteCount();
+        long logicalByteCount = storedByteCount + runStatistics.get().getLinkedByteCount();
+        DatabaseStore store;
+        try {
+            store = getStoreOfContext(context);
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return stageStoredSizes(store, context, snapshotInfo, storedDigestSizes).thenCompose(ignored -> {
+            List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+            writes.add(store.submitWrite(null, writer ->
+                    SpaceAccounting.begin(writer, context.getId(), snapshotInfo.getId(), logicalByteCount, storedByteCount, digests.size())));
+            // each write continues with the checksums not accounted yet, the last one tells whether all are accounted
+            for(int start = 0; start < digests.size() || writes.size() == 1; start += SPACE_ACCOUNTING_WRITE_SIZE) {
+                writes.add(store.submitWrite(null, writer -> SpaceAccounting.accountBatch(writer, snapshotInfo.getId(), digests,
+                        SPACE_ACCOUNTING_WRITE_SIZE)));
+            }
+            return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(done -> writes.get(writes.size() - 1).join());
+        });
+    }
+
+    /**
+     * Stages the given sizes by consecutive writes. Each write is submitted once the previous one is committed, its
+     * sizes are taken from the iterator beforehand so that the write can be repeated, see {@link DatabaseExecutor}.
+     */
+    private static CompletableFuture<Void> stageStoredSizes(DatabaseStore store, Context context, SnapshotInfo snapshotInfo,
+                                                            Iterator<Map.Entry<ByteBuffer, Long>> storedDigestSizes) {
+        List<Map.Entry<ByteBuffer, Long>> sizesOfWrite = new ArrayList<>();
+        while(sizesOfWrite.size() < SPACE_ACCOUNTING_WRITE_SIZE && storedDigestSizes.hasNext()) {
+            sizesOfWrite.add(storedDigestSizes.next());
+        }
+        if(sizesOfWrite.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return store.submitWrite(null, writer -> {
+                    SpaceAccounting.stageStoredSizes(writer, context.getId(), snapshotInfo.getId(), sizesOfWrite);
+                    return null;
+                })
+                .thenComposeAsync(ignored -> stageStoredSizes(store, context, snapshotInfo, storedDigestSizes));
+    }
+
+    /**
+     * Removes the given snapshot from the space accounting before it is deleted. Snapshots sharing its checksums are
+     * updated accordingly. Large snapshots are released by several consecutive writes. Returns after all changes were
+     * committed.
+     * @param digests the checksums the snapshot was accounted with, see
+     *                {@link #accountSpaceAsync(Context, SnapshotInfo, List, Iterator)}, or an empty list if they can not be
+     *                read. The snapshot then keeps referencing the checksums of other snapshots.
+     * @return false, if the snapshot was not accounted.
+     */
+    public boolean releaseSpace(Context context, SnapshotInfo snapshotInfo, List<ByteBuffer> digests) throws DatabaseCommunicationException {
+        DatabaseStore store = getStoreOfContext(context);
+        List<CompletableFuture<Boolean>> releases = new ArrayList<>();
+        // each write releases the last checksums still accounted, the last one forgets the snapshot
+        for(int end = digests.size(); end > 0 || releases.isEmpty(); end -= SPACE_ACCOUNTING_WRITE_SIZE) {
+            releases.add(store.submitWrite(null, writer -> SpaceAccounting.releaseBatch(writer, snapshotInfo.getId(), digests,
+                    SPACE_ACCOUNTING_WRITE_SIZE)));
+        }
+        DatabaseExecutor.await(CompletableFuture.allOf(releases.toArray(new CompletableFuture<?>[0])));
+        return releases.get(0).join();
+    }
+
+    /**
+     * Reads the disk space used by the given snapshot without blocking the calling thread.
+     * @return a future completing with the space used by the snapshot. Empty if it is not accounted (yet).
+     */
+    public CompletableFuture<Optional<SpaceUsage>> getSpaceUsageAsync(Context context, SnapshotInfo snapshotInfo) {
+        try {
+            return getStoreOfContext(context).submitRead(reader -> SpaceAccounting.findSnapshotUsage(reader, snapshotInfo.getId()));
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Reads the disk space used by all accounted snapshots of the given context without blocking the calling thread.
+     * @return a future completing with the space used by the context. Empty if none of its snapshots is accounted.
+     */
+    public CompletableFuture<Optional<SpaceUsage>> getSpaceUsageAsync(Context context) {
+        try {
+            return getStoreOfContext(context).submitRead(reader -> SpaceAccounting.findContextUsage(reader, context.getId()));
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Reads the disk space used by the given snapshot on the calling thread.
+     * @return the space used by the snapshot. Empty if it is not accounted (yet).
+     */
+    public Optional<SpaceUsage> getSpaceUsage(Context context, SnapshotInfo snapshotInfo) throws DatabaseCommunicationException {
+        return getStoreOfContext(context).read(reader -> SpaceAccounting.findSnapshotUsage(reader, snapshotInfo.getId()));
+    }
+
+    /**
+     * Reads the disk space used by all accounted snapshots of the given context on the calling thread.
+     * @return the space used by the context. Empty if none of its snapshots is accounted.
+     */
+    public Optional<SpaceUsage> getSpaceUsage(Context context) throws DatabaseCommunicationException {
+        return getStoreOfContext(context).read(reader -> SpaceAccounting.findContextUsage(reader, context.getId()));
+    }
+
+    /**
+     * Reads the size of each of the given checksums on the calling thread, as recorded by accounting the snapshot that
+     * copied it, see {@link #accountSpaceAsync(Context, SnapshotInfo, List, Iterator)}.
+     * @return the sizes of all given checksums that are known within the given context.
+     */
+    public Map<ByteBuffer, Long> findStoredByteCounts(Context context, Collection<ByteBuffer> digests) throws DatabaseCommunicationException {
+        return getStoreOfContext(context).read(reader -> SpaceAccounting.findByteCounts(reader, context.getId(), digests));
+    }
+
+    // ----------------- Databases of single contexts
+
+    /**
+     * @return the database holding the snapshot info objects of the given context.
+     */
+    private DatabaseStore getStoreOfContext(Context context) throws DatabaseCommunicationException {
+        return databasePerContext ? getContextStore(context.getId(), context.getHomePath()) : catalog;
+    }
+
+    /**
+     * @return the location of the database of the context with the given home path.
+     */
+    public static Path getContextDatabasePath(Path homePath) {
+        return Context.getInternalDirectoryPath(homePath).resolve(CONTEXT_DATABASE_NAME);
+    }
+
+    /**
+     * Returns the open database of the given context. If it is not open yet, it is opened or created. Snapshot info
+     * objects of the context still stored in the catalog are moved to it.
+     */
+    private synchronized DatabaseStore getContextStore(String contextId, Path homePath) throws DatabaseCommunicationException {
+        DatabaseStore store = contextStores.get(contextId);
+        if(store != null) {
+            return store;
+        }
+        store = openContextStore(homePath);
+        try {
+            moveSnapshotInfoFromCatalog(contextId, store);
+        } catch (DatabaseCommunicationException | RuntimeException e) {
+            try {
+                store.close();
+            } catch (SQLException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+        contextStores.put(contextId, store);
+        // rows moved from the catalog may still hold their values inline
+        dataMigrations.put(store, CONTEXT_MIGRATION_RUNNER.startDataMigrations(store));
+        return store;
+    }
+
+    private static DatabaseStore openContextStore(Path homePath) throws DatabaseCommunicationException {
+        Path databasePath = getContextDatabasePath(homePath);
+        if(!Files.isDirectory(databasePath.getParent())) {
+            throw new DatabaseCommunicationException("Could not open context database: there is no internal directory at " + databasePath.getParent());
+        }
+        DatabaseStore store;
+        try {
+            store = new DatabaseStore(DATABASE_DRIVER_NAME + ":" + databasePath, DatabaseManager::forgetAllPersistedStates);
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not open context database at " + databasePath + ": " + e, e);
+        }
+        try {
+            // the store is not shared yet, hence its writer can be used directly
+            CONTEXT_MIGRATION_RUNNER.migrateSchema(store.getWriter());
+        } catch (DatabaseInitialisationException e) {
+            try {
+                store.close();
+            } catch (SQLException e2) {
+                e.addSuppressed(e2);
+            }
+            throw new DatabaseCommunicationException("Could not initialize context database at " + databasePath + ": " + e, e);
+        }
+        return store;
+    }
+
+    /**
+     * Copies all rows of snapshot info objects of the given context together with their space accounting from the
+     * catalog to the given, not yet shared context database and deletes them from the catalog afterwards.
+     */
+    private void moveSnapshotInfoFromCatalog(String contextId, DatabaseStore contextStore) throws DatabaseCommunicationException {
+        List<Object> snapshotInfoIds = catalog.read(reader ->
+                SNAPSHOT_INFO_DATABASE_TOOLKIT.findAllIdsByValue(reader, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, contextId));
+        if(snapshotInfoIds.isEmpty()) {
+            return;
+        }
+        String snapshotInfoTable = SNAPSHOT_INFO_DATABASE_TOOLKIT.getTableName();
+        catalog.read(reader -> contextStore.getDatabase().runExclusively(writer -> {
+            try {
+                copyRows(reader, "SELECT * FROM " + snapshotInfoTable + " WHERE " + SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME + " = ?",
+                        List.of(contextId), writer, snapshotInfoTable);
+                for(String spaceTable : List.of(SpaceAccounting.DIGEST_TABLE_NAME, SpaceAccounting.SNAPSHOT_TABLE_NAME, SpaceAccounting.CONTEXT_TABLE_NAME)) {
+                    copyRows(reader, "SELECT * FROM " + spaceTable + " WHERE context_id = ?", List.of(contextId), writer, spaceTable);
+                }
+                writer.commit();
+            } catch (SQLException | RuntimeException e) {
+                writer.rollback();
+                throw e;
+            }
+            return null;
+        }));
+        DatabaseExecutor.await(catalog.submitWrite(null, writer -> {
+            // file names and versions are indexed anew within the context database
+            FileNameIndex.deleteAll(writer, snapshotInfoIds);
+            FileVersionIndex.deleteAll(writer, snapshotInfoIds);
+            SpaceAccounting.deleteContext(writer, contextId);
+            return SNAPSHOT_INFO_DATABASE_TOOLKIT.deleteAllByIds(writer, snapshotInfoIds);
+        }));
+        logger.info("Moved " + snapshotInfoIds.size() + " snapshot info objects of context " + contextId + " to " + contextStore.getUrl());
+    }
+
+    /**
+     * Inserts all rows selected by the given query into the table of the same name within the target connection. Rows
+     * are streamed one by one. Rows already present in the target table are skipped.
+     */
+    private static void copyRows(Connection source, String selectQuery, List<Object> parameters, Connection target, String targetTable) throws SQLException {
+        try (PreparedStatement select = source.prepareStatement(selectQuery)) {
+            for(int i = 0; i < parameters.size(); i++) {
+                select.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet resultSet = select.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                List<String> columnNames = new ArrayList<>();
+                for(int i = 1; i <= metaData.getColumnCount(); i++) {
+                    columnNames.add(metaData.getColumnName(i));
+                }
+                String insertQuery = "INSERT OR IGNORE INTO " + targetTable + " (" + String.join(", ", columnNames) + ") VALUES ("
+                        + columnNames.stream().map(name -> "?").collect(Collectors.joining(", ")) + ")";
+                try (PreparedStatement insert = target.prepareStatement(insertQuery)) {
+                    while(resultSet.next()) {
+                        for(int i = 1; i <= columnNames.size(); i++) {
+                            insert.setObject(i, resultSet.getObject(i));
+                        }
+                        insert.execute();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the context database at the given home path in the catalog. The home path stored in that database is
+     * updated if the context was moved.
+     * @return the id of the adopted context or an empty Optional if the database holds no context.
+     */
+    private Optional<String> adoptContextDatabase(Path homePath) throws DatabaseCommunicationException {
+        DatabaseStore store = openContextStore(homePath);
+        try {
+            List<Context> contexts = store.read(reader -> LOCAL_CONTEXT_DATABASE_TOOLKIT.findAll(reader));
+            if(contexts.isEmpty()) {
+                store.close();
+                return Optional.empty();
+            } else if(contexts.size() > 1) {
+                logger.warning("Context database at " + homePath + " holds " + contexts.size() + " contexts, adopting the first one");
+            }
+            String contextId = contexts.get(0).getId();
+            if(!homePath.equals(contexts.get(0).getHomePath())) {
+                DatabaseExecutor.await(store.submitWrite(null, writer -> {
+                    try (PreparedStatement statement = writer.prepareStatement("UPDATE " + LOCAL_CONTEXT_DATABASE_TOOLKIT.getTableName() + " SET home_path = ? WHERE id = ?")) {
+                        statement.setString(1, homePath.toString());
+                        statement.setString(2, contextId);
+                        return statement.executeUpdate();
+                    }
+                }));
+                LOCAL_CONTEXT_DATABASE_TOOLKIT.forgetAllPersistedStates();
+            }
+            Context adoptedContext = store.read(reader -> LOCAL_CONTEXT_DATABASE_TOOLKIT.findById(reader, contextId)).orElseThrow();
+            DatabaseExecutor.await(catalog.submitWrite(null, writer -> CONTEXT_DATABASE_TOOLKIT.upsertAll(writer, List.of(adoptedContext))));
+            synchronized (this) {
+                DatabaseStore replacedStore = contextStores.put(contextId, store);
+                if(replacedStore != null) {
+                    dataMigrations.remove(replacedStore);
+                    replacedStore.close();
+                }
+            }
+            dataMigrations.put(store, CONTEXT_MIGRATION_RUNNER.startDataMigrations(store));
+            logger.info("Adopted context database of context " + contextId + " at " + homePath);
+            return Optional.of(contextId);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                store.close();
+            } catch (SQLException e2) {
+                e.addSuppressed(e2);
+            }
+            if(e instanceof DatabaseCommunicationException) {
+                throw (DatabaseCommunicationException) e;
+            } else if(e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new DatabaseCommunicationException("Could not adopt context database at " + homePath + ": " + e, e);
+        }
+    }
+
+    private CompletableFuture<Context> loadSnapshotInfoFromContextDatabase(Context context) {
+        DatabaseStore store;
+        try {
+            store = getContextStore(context.getId(), context.getHomePath());
+        } catch (DatabaseCommunicationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return store.flush()
+                .thenCompose(ignored -> store.submitRead(reader ->
+                        LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT.findByColumn(reader, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, context.getId())))
+                .thenApply(snapshotInfoList -> {
+                    context.setSnapshotInfoList(snapshotInfoList);
+                    return context;
+                });
+    }
+
+    /**
+     * Counts the snapshots of the given context held by its context database or still held by the catalog. Snapshots
+     * held by both, e.g. because moving them was interrupted, are counted once. If the store of the context is not
+     * open, its database is read with a short-lived read-only connection, hence listing contexts neither moves
+     * snapshots nor starts migrations. If the database can not be read, the info is returned unchanged.
+     */
+    private CompletableFuture<ContextInfoContainer> countSnapshotsOfContextDatabase(ContextInfoContainer info) {
+        Path databasePath = getContextDatabasePath(info.getHomePath());
+        if(!Files.isRegularFile(databasePath)) {
+            return CompletableFuture.completedFuture(info);
+        }
+        CompletableFuture<List<Object>> catalogIds = catalog.submitRead(reader ->
+                SNAPSHOT_INFO_DATABASE_TOOLKIT.findAllIdsByValue(reader, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, info.getId()));
+        DatabaseStore store;
+        synchronized (this) {
+            store = contextStores.get(info.getId());
+        }
+        CompletableFuture<List<Object>> localIds;
+        if(store != null) {
+            localIds = store.flush().thenCompose(ignored -> store.submitRead(reader ->
+                    LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT.findAllIdsByValue(reader, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, info.getId())));
+        } else {
+            // the catalog's reader threads only run the read, its reader connection stays unused
+            localIds = catalog.submitRead(ignored -> findSnapshotIdsReadOnly(databasePath, info.getId()));
+        }
+        return catalogIds.thenCombine(localIds, (catalogIdList, localIdList) -> {
+                    Set<Object> ids = new HashSet<>(catalogIdList);
+                    ids.addAll(localIdList);
+                    return new ContextInfoContainer(info.getId(), info.getHomePath(), info.getName(), info.getCreatedTime(), ids.size());
+                })
+                .exceptionally(e -> {
+                    logger.warning("Could not count snapshots of context " + info.getId() + ": " + e);
+                    return info;
+                });
+    }
+
+    /**
+     * @return the ids of the snapshots of the given context held by the context database at the given location, read
+     * via a connection that is closed afterwards.
+     */
+    private static List<Object> findSnapshotIdsReadOnly(Path databasePath, String contextId) throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty(OPEN_MODE_PROPERTY_KEY, String.valueOf(SQLITE_OPEN_READONLY));
+        try (Connection connection = DriverManager.getConnection(DATABASE_DRIVER_NAME + ":" + databasePath, properties)) {
+            try {
+                return LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT.findAllIdsByValue(connection, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, contextId);
+            } finally {
+                StatementCache.closeAll(connection);
+            }
+        }
+    }
+
+    /**
+     * @return a future completing after all writes queued in any database so far were committed.
+     */
+    private CompletableFuture<Void> flushAllStores() {
+        List<CompletableFuture<Void>> flushes = new ArrayList<>();
+        flushes.add(catalog.flush());
+        contextStores.values().forEach(store -> flushes.add(store.flush()));
+        return CompletableFuture.allOf(flushes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private synchronized void closeContextStore(String contextId) throws DatabaseCommunicationException {
+        DatabaseStore store = contextStores.remove(contextId);
+        if(store == null) {
             return;
         }
-        // delete snapshot info
-        for(SnapshotInfo si : context.getSnapshotInfoList()) {
-            SNAPSHOT_INFO_DATABASE_TOOLKIT.delete(c, si);
+        dataMigrations.remove(store);
+        try {
+            store.close();
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not close context database " + store.getUrl() + ": " + e, e);
+        }
+    }
+
+    private synchronized void closeContextStores() throws DatabaseCommunicationException {
+        for(String contextId : new ArrayList<>(contextStores.keySet())) {
+            closeContextStore(contextId);
         }
-        // delete context itself
-        CONTEXT_DATABASE_TOOLKIT.delete(c, context);
+    }
+
+    private static void forgetAllPersistedStates() {
+        CONTEXT_DATABASE_TOOLKIT.forgetAllPersistedStates();
+        SNAPSHOT_INFO_DATABASE_TOOLKIT.forgetAllPersistedStates();
+        LATEST_STATE_DATABASE_TOOLKIT.forgetAllPersistedStates();
+        LOCAL_CONTEXT_DATABASE_TOOLKIT.forgetAllPersistedStates();
+        LOCAL_SNAPSHOT_INFO_DATABASE_TOOLKIT.forgetAllPersistedStates();
     }
 
 }
@@ -0,0 +1,121 @@
+package jb.engine.core.data;
+
+import jb.engine.exceptions.DatabaseCommunicationException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One SQLite database file together with the executor running all work on it. Writes submitted to one store are
+ * serialized while stores of different files are written independently of each other.
+ */
+class DatabaseStore implements AutoCloseable {
+
+    private final String url;
+    private final SqliteDatabase database;
+    private final DatabaseExecutor executor;
+    private final Runnable rollbackListener;
+
+    /**
+     * Opens all connections to the database at the given url.
+     * @param rollbackListener called whenever a transaction of this store was rolled back.
+     */
+    DatabaseStore(String url, Runnable rollbackListener) throws SQLException {
+        this.url = url;
+        this.database = new SqliteDatabase(url);
+        this.rollbackListener = rollbackListener;
+        this.executor = new DatabaseExecutor(database, database.getReaderCount(), this::executeInTransaction);
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    SqliteDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return the writer connection. It must only be used by the writer thread of this store's executor or during
+     * initialisation.
+     */
+    Connection getWriter() {
+        return database.getWriter();
+    }
+
+    DatabaseExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @see DatabaseExecutor#submitWrite(Object, SqliteDatabase.SqlAction)
+     */
+    <X> CompletableFuture<X> submitWrite(Object coalescingKey, SqliteDatabase.SqlAction<X> action) {
+        return executor.submitWrite(coalescingKey, action);
+    }
+
+    /**
+     * @see DatabaseExecutor#submitRead(SqliteDatabase.SqlAction)
+     */
+    <X> CompletableFuture<X> submitRead(SqliteDatabase.SqlAction<X> action) {
+        return executor.submitRead(action);
+    }
+
+    /**
+     * Reads on the calling thread.
+     * @see SqliteDatabase#read(SqliteDatabase.SqlAction)
+     */
+    <X> X read(SqliteDatabase.SqlAction<X> action) throws DatabaseCommunicationException {
+        return database.read(action);
+    }
+
+    CompletableFuture<Void> flush() {
+        return executor.flush();
+    }
+
+    boolean isValid() {
+        return database.isValid();
+    }
+
+    /**
+     * Executes all queued writes and closes all connections.
+     */
+    @Override
+    public void close() throws SQLException {
+        executor.close();
+        database.close();
+    }
+
+    /**
+     * Executes the given writes and commits all changes made by them. If the writes fail, the current transaction is
+     * rolled back. Transactions of different threads are serialized.
+     */
+    private void executeInTransaction(DatabaseExecutor.WriteBatch writes) throws DatabaseCommunicationException {
+        try {
+            database.runExclusively(writer -> {
+                try {
+                    writes.execute(writer);
+                    writer.commit();
+                } catch (SQLException | RuntimeException e) {
+                    rollbackAfterFailure(writer, e);
+                    throw e;
+                }
+                return null;
+            });
+        } catch (DatabaseCommunicationException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not commit transaction: " + e, e);
+        }
+    }
+
+    private void rollbackAfterFailure(Connection writer, Exception cause) {
+        rollbackListener.run();
+        try {
+            writer.rollback();
+        } catch (SQLException rollbackException) {
+            cause.addSuppressed(rollbackException);
+        }
+    }
+}
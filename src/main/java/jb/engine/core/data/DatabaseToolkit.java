@@ -1,15 +1,28 @@
 package jb.engine.core.data;
 
+import jb.engine.core.CoreInfo;
+import jb.engine.core.EntityMapper;
 import jb.engine.core.ObjectCreator;
 import jb.engine.exceptions.DatabaseCommunicationException;
 import jb.engine.exceptions.DatabaseInitialisationException;
 import jb.engine.exceptions.DatabaseUnexpectedSituationException;
 import jb.engine.exceptions.ObjectCreatorException;
+import jb.engine.exceptions.SerDeException;
+import jb.engine.reporting.WriteStatistics;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Abstract representation of a toolkit used for searching and storing objects to a database.
@@ -38,25 +51,116 @@ public class DatabaseToolkit<T> {
     private final String tableName;
     private final List<DataFieldInfo> dataFieldList;
     private final ObjectCreator<T> objectCreator;
+    private final EntityMapper<T> entityMapper;
     private final DataFieldInfo primaryKeyField;
+    private final List<DataFieldInfo> eagerlyLoadedDataFields;
+    private final List<DataFieldInfo> updatableDataFields;
+    private final List<DataFieldInfo> constructorRelevantDataFields;
+    private final Map<String, DataFieldInfo> dataFieldsByColumnName;
+    private final List<IndexInfo> indexInfoList;
+    /**
+     * For each constructor argument, the index of its value within rows read by select queries or -1 if it is not selected.
+     */
+    private final int[] constructorArgumentRowIndexes;
+    /**
+     * Positions of all eagerly loaded columns within rows read by select queries, starting with 1.
+     */
+    private final Map<String, Integer> rowColumnPositions;
+
+    // ----------------- Precomputed sql
+
+    private final String insertTemplate;
+    private final String upsertTemplate;
+    private final String updateTemplate;
+    private final String deleteByIdTemplate;
+    private final String findAllQuery;
+    private final String findAllIdQuery;
+    private final Map<String, String> selectByColumnTemplates = new HashMap<>();
+    private final Map<String, String> selectIdByColumnTemplates = new HashMap<>();
+    private final Map<String, String> selectColumnByIdTemplates = new HashMap<>();
+    private final Map<String, String> countByColumnTemplates = new HashMap<>();
+    private final Map<BitSet, String> partialUpdateTemplates = new ConcurrentHashMap<>();
+
+    private final int defaultFetchSize = (int) CoreInfo.getLongProperty(FETCH_SIZE_PROPERTY_KEY, DEFAULT_FETCH_SIZE);
+
+    /**
+     * Values of the updatable columns of all objects as they were last loaded from or written to the database. Objects are
+     * tracked by identity since none of the entity classes overrides {@link Object#equals(Object)}.
+     */
+    private final Map<T, Object[]> persistedStates = Collections.synchronizedMap(new WeakHashMap<>());
 
+    /**
+     * Name of the column holding the number of child rows in queries created by
+     * {@link #generateProjectionWithChildCountQuery(Projection, DatabaseToolkit, String)}.
+     */
+    public static final String CHILD_COUNT_COLUMN_NAME = "child_count";
+
+    private static final String FETCH_SIZE_PROPERTY_KEY = "database_fetch_size";
+    private static final long DEFAULT_FETCH_SIZE = 256;
+
+    /**
+     * Creates a toolkit that reads data fields via reflection and creates objects with the given {@link ObjectCreator}.
+     */
     public static <X> DatabaseToolkit<X> forType(Class<X> classType, ObjectCreator<X> objectCreator) {
-        return new DatabaseToolkit<>(classType, objectCreator);
+        return new DatabaseToolkit<>(classType, objectCreator, null);
+    }
+
+    /**
+     * Creates a toolkit that reads data fields and creates objects with the given {@link EntityMapper}.
+     * @throws IllegalArgumentException if the mapper's columns do not match the data fields of the given class type.
+     */
+    public static <X> DatabaseToolkit<X> forMappedType(Class<X> classType, EntityMapper<X> entityMapper) {
+        return new DatabaseToolkit<>(classType, null, entityMapper);
     }
 
-    private DatabaseToolkit(Class<T> classType, ObjectCreator<T> objectCreator) {
+    private DatabaseToolkit(Class<T> classType, ObjectCreator<T> objectCreator, EntityMapper<T> entityMapper) {
         this.classType = classType;
         this.tableName = toSnakeCase(classType.getSimpleName());
         this.dataFieldList = DataFieldInfo.forType(classType);
         this.objectCreator = objectCreator;
+        this.entityMapper = entityMapper;
         if(dataFieldList.isEmpty()) {
             throw new IllegalArgumentException("Class type " + classType + " does not posses any data fields");
         }
+        if(entityMapper != null && !entityMapper.getColumnNames().equals(getColumnNames())) {
+            throw new IllegalArgumentException("The columns " + entityMapper.getColumnNames() + " of the entity mapper for class type " + classType
+                    + " do not match its data fields " + getColumnNames());
+        }
         List<DataFieldInfo> pkDfi = dataFieldList.stream().filter(dfi -> Arrays.asList(dfi.getSqliteConstraints()).contains(SQLiteConstraint.PRIMARY_KEY)).collect(Collectors.toList());
         if(pkDfi.size() != 1) {
             throw new IllegalArgumentException("Class type " + classType + " does not declare exactly one primary key field");
         }
         primaryKeyField = pkDfi.get(0);
+        eagerlyLoadedDataFields = dataFieldList.stream().filter(dfi -> !dfi.loadOnDemand).collect(Collectors.toUnmodifiableList());
+        updatableDataFields = dataFieldList.stream().filter(dfi -> !dfi.equals(primaryKeyField) && !dfi.loadOnDemand).collect(Collectors.toUnmodifiableList());
+        constructorRelevantDataFields = dataFieldList.stream()
+                .filter(dfi -> dfi.constructorIndex >= 0)
+                .sorted(Comparator.comparing(DataFieldInfo::getConstructorIndex))
+                .collect(Collectors.toUnmodifiableList());
+        dataFieldsByColumnName = new LinkedHashMap<>();
+        dataFieldList.forEach(dfi -> dataFieldsByColumnName.put(dfi.columnName, dfi));
+        indexInfoList = IndexInfo.forDataFields(tableName, dataFieldList);
+        constructorArgumentRowIndexes = constructorRelevantDataFields.stream().mapToInt(eagerlyLoadedDataFields::indexOf).toArray();
+        Map<String, Integer> positions = new HashMap<>();
+        for(int i = 0; i < eagerlyLoadedDataFields.size(); i++) {
+            positions.put(eagerlyLoadedDataFields.get(i).columnName, i + 1);
+        }
+        rowColumnPositions = Collections.unmodifiableMap(positions);
+        if(primaryKeyField.loadOnDemand) {
+            throw new IllegalArgumentException("The primary key field of class type " + classType + " can not be loaded on demand");
+        }
+        insertTemplate = generateInsertTemplate();
+        upsertTemplate = generateUpsertTemplate();
+        updateTemplate = generateUpdateTemplate();
+        deleteByIdTemplate = generateDeleteByIdTemplate();
+        findAllQuery = generateFindAllQuery();
+        findAllIdQuery = generateFindAllIdQuery();
+        for(String columnName : dataFieldsByColumnName.keySet()) {
+            selectByColumnTemplates.put(columnName, generateSelectByColumnTemplate(columnName));
+            selectIdByColumnTemplates.put(columnName, generateSelectIdByColumnTemplate(columnName));
+            selectColumnByIdTemplates.put(columnName, generateSelectColumnByIdTemplate(columnName));
+            countByColumnTemplates.put(columnName, generateCountByColumnTemplate(columnName));
+        }
     }
 
     // ------------------------------
@@ -93,6 +197,13 @@ public class DatabaseToolkit<T> {
         return dataFieldList.stream().filter(dfi -> !Arrays.asList(dfi.getSqliteConstraints()).contains(SQLiteConstraint.PRIMARY_KEY)).map(DataFieldInfo::getColumnName).collect(Collectors.toList());
     }
 
+    /**
+     * @return list of column names associated with this toolkits object that are neither primary keys nor loaded on demand.
+     */
+    public List<String> getUpdatableColumnNames() {
+        return getUpdatableDataFields().stream().map(DataFieldInfo::getColumnName).collect(Collectors.toList());
+    }
+
     /**
      * @return String of column names associated with this toolkits object separated by ", "
      */
@@ -100,11 +211,32 @@ public class DatabaseToolkit<T> {
         return dataFieldList.stream().map(DataFieldInfo::getColumnName).collect(Collectors.joining(", "));
     }
 
+    /**
+     * @return String of column names that are part of regular select queries separated by ", "
+     */
+    public String getEagerlyLoadedColumnNamesCommaSeparated() {
+        return getEagerlyLoadedDataFields().stream().map(DataFieldInfo::getColumnName).collect(Collectors.joining(", "));
+    }
+
     /**
      * @return all DataFieldObjects that posses constructorIndex value of 0 or greater.
      */
     public List<DataFieldInfo> getConstructorRelevantDataFields() {
-        return dataFieldList.stream().filter(dfi -> dfi.constructorIndex >= 0).collect(Collectors.toList());
+        return constructorRelevantDataFields;
+    }
+
+    /**
+     * @return all DataFieldObjects that are not declared to be loaded on demand.
+     */
+    private List<DataFieldInfo> getEagerlyLoadedDataFields() {
+        return eagerlyLoadedDataFields;
+    }
+
+    /**
+     * @return all DataFieldObjects whose values are written by update queries.
+     */
+    private List<DataFieldInfo> getUpdatableDataFields() {
+        return updatableDataFields;
     }
 
     /**
@@ -127,6 +259,23 @@ public class DatabaseToolkit<T> {
                 ")";
     }
 
+    /**
+     * @return one "CREATE [UNIQUE] INDEX IF NOT EXISTS i ON t (c1, ..., cN)" query for each index declared via {@link DataField#indexes()}
+     */
+    public final List<String> generateCreateIndexQueries() {
+        return indexInfoList.stream()
+                .map(index -> "CREATE " + (index.unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + index.name +
+                        " ON " + getTableName() + " (" + String.join(", ", index.columnNames) + ")")
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the names of all indexes declared via {@link DataField#indexes()}
+     */
+    public List<String> getIndexNames() {
+        return indexInfoList.stream().map(index -> index.name).collect(Collectors.toList());
+    }
+
     /**
      * @return INSERT INTO t (c1, c2, ..., cN) VALUES (?, ?, ..., ?)
      */
@@ -136,12 +285,26 @@ public class DatabaseToolkit<T> {
                 ") VALUES (" + "?" + ", ?".repeat(Integer.max(0, getColumnCount() - 1))+ ")";
     }
 
+    /**
+     * @return INSERT INTO t (c1, c2, ..., cN) VALUES (?, ?, ..., ?) ON CONFLICT (cId) DO UPDATE SET c1 = excluded.c1, ..., cN = excluded.cN
+     * <p>Columns that are loaded on demand are not part of the update clause.</p>
+     */
+    public final String generateUpsertTemplate() {
+        List<String> updatableColumnNames = getUpdatableColumnNames();
+        return generateInsertTemplate() +
+                " ON CONFLICT (" + primaryKeyField.columnName + ") DO " +
+                (updatableColumnNames.isEmpty()
+                        ? "NOTHING"
+                        : "UPDATE SET " + updatableColumnNames.stream().map(name -> name + " = excluded." + name).collect(Collectors.joining(", ")));
+    }
+
     /**
      * @return UPDATE t SET c1 = ?, c2 = ?, ..., cN = ? WHERE cId = ?
+     * <p>Columns that are loaded on demand are not part of this update.</p>
      */
     public final String generateUpdateTemplate() {
         return "UPDATE " + getTableName() + " SET " +
-                getNonPrimaryKeyColumnNames().stream().map(name -> name + " = ?").collect(Collectors.joining(", ")) + " WHERE " +
+                getUpdatableColumnNames().stream().map(name -> name + " = ?").collect(Collectors.joining(", ")) + " WHERE " +
                 primaryKeyField.columnName + " = ?";
     }
 
@@ -150,7 +313,7 @@ public class DatabaseToolkit<T> {
      */
     public final String generateSelectByIdTemplate() {
         return "SELECT " +
-                getColumnNamesCommaSeparated() +
+                getEagerlyLoadedColumnNamesCommaSeparated() +
                 " FROM " + getTableName() +
                 " WHERE " + primaryKeyField.columnName + " = ?";
     }
@@ -160,11 +323,29 @@ public class DatabaseToolkit<T> {
      */
     public final String generateSelectByColumnTemplate(String columnName) {
         return "SELECT " +
-                getColumnNamesCommaSeparated() +
+                getEagerlyLoadedColumnNamesCommaSeparated() +
+                " FROM " + getTableName() +
+                " WHERE " + columnName + " = ?";
+    }
+
+    /**
+     * @return SELECT id FROM t WHERE col = ?
+     */
+    public final String generateSelectIdByColumnTemplate(String columnName) {
+        return "SELECT " + primaryKeyField.columnName +
                 " FROM " + getTableName() +
                 " WHERE " + columnName + " = ?";
     }
 
+    /**
+     * @return SELECT col FROM t WHERE id = ?
+     */
+    public final String generateSelectColumnByIdTemplate(String columnName) {
+        return "SELECT " + columnName +
+                " FROM " + getTableName() +
+                " WHERE " + primaryKeyField.columnName + " = ?";
+    }
+
     /**
      * @return SELECT count(c1) FROM t WHERE col = ?
      */
@@ -185,7 +366,7 @@ public class DatabaseToolkit<T> {
     }
 
     public String generateFindAllQuery() {
-        return "SELECT " + String.join(", ", getColumnNames()) +
+        return "SELECT " + getEagerlyLoadedColumnNamesCommaSeparated() +
                 " FROM " + getTableName();
     }
 
@@ -198,20 +379,52 @@ public class DatabaseToolkit<T> {
         return "DELETE FROM " + tableName;
     }
 
+    /**
+     * @return SELECT p1, p2, ..., pN FROM t
+     */
+    public String generateProjectionQuery(Projection<?> projection) {
+        return "SELECT " + getProjectedColumnNamesCommaSeparated(projection, "") +
+                " FROM " + tableName;
+    }
+
+    /**
+     * @return SELECT p1, p2, ..., pN FROM t WHERE col = ?
+     */
+    public String generateProjectionByColumnTemplate(Projection<?> projection, String columnName) {
+        return generateProjectionQuery(projection) +
+                " WHERE " + columnName + " = ?";
+    }
+
+    /**
+     * @return SELECT t.p1, ..., t.pN, count(c.cId) AS child_count FROM t LEFT JOIN c ON c.fk = t.id GROUP BY t.id ORDER BY t.rowid
+     */
+    public String generateProjectionWithChildCountQuery(Projection<?> projection, DatabaseToolkit<?> childToolkit, String childColumnName) {
+        return "SELECT " + getProjectedColumnNamesCommaSeparated(projection, "t.") +
+                ", count(c." + childToolkit.primaryKeyField.columnName + ") AS " + CHILD_COUNT_COLUMN_NAME +
+                " FROM " + tableName + " t" +
+                " LEFT JOIN " + childToolkit.getTableName() + " c" +
+                " ON c." + childColumnName + " = t." + primaryKeyField.columnName +
+                " GROUP BY t." + primaryKeyField.columnName +
+                " ORDER BY t.rowid";
+    }
+
+    private String getProjectedColumnNamesCommaSeparated(Projection<?> projection, String prefix) {
+        projection.getColumnNames().forEach(this::getDataFieldByColumnName);
+        return projection.getColumnNames().stream().map(name -> prefix + name).collect(Collectors.joining(", "));
+    }
+
     // ----------------- Explicit query methods
 
     /**
      * Inserts and commits the given object to the table associated with this toolkits class via the given connection.
      */
     public final void insert(Connection connection, T objectToInsert) throws DatabaseCommunicationException {
-        try (PreparedStatement statement = connection.prepareStatement(generateInsertTemplate())) {
-            int pointer = 0;  // will start with 1
-            for(DataFieldInfo dfi : dataFieldList) {
-                pointer++;
-                statement.setObject(pointer, dfi.getFieldValueForDatabase(objectToInsert), dfi.getSqliteType().getJavaSqlType());
-            }
-            statement.execute();
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, insertTemplate)) {
+            Object[] fieldValues = getFieldValues(objectToInsert);
+            bindInsertValues(lease.getStatement(), fieldValues);
+            lease.getStatement().execute();
             connection.commit();
+            persistedStates.put(objectToInsert, getPersistableState(fieldValues));
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Could not insert object " + objectToInsert.getClass() + ": " + e, e);
         }
@@ -222,36 +435,134 @@ public class DatabaseToolkit<T> {
      * It is assumed that the given object exists in the database.
      */
     public final void update(Connection connection, T objectToUpdate) throws DatabaseCommunicationException {
-        try (PreparedStatement statement = connection.prepareStatement(generateUpdateTemplate())) {
-            int pointer = 1;
-            // set set-values
-            for(DataFieldInfo dfi : dataFieldList) {
-                if(dfi.equals(primaryKeyField)) {
-                    // SET values only for non-primary key fields.
-                    continue;
-                }
-                statement.setObject(pointer++, dfi.getFieldValueForDatabase(objectToUpdate), dfi.sqliteType.getJavaSqlType());
-            }
-            // set where-values at the last indexes
-            statement.setObject(pointer,
-                    primaryKeyField.getFieldValueForDatabase(objectToUpdate),
-                    primaryKeyField.sqliteType.getJavaSqlType()
-            );
-            statement.execute();
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, updateTemplate)) {
+            Object[] fieldValues = getFieldValues(objectToUpdate);
+            bindUpdateValues(lease.getStatement(), updatableDataFields, fieldValues);
+            lease.getStatement().execute();
             connection.commit();
+            persistedStates.put(objectToUpdate, getPersistableState(fieldValues));
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Could not update object " + objectToUpdate.getClass() + ": " + e, e);
         }
     }
 
-    public void deleteById(Connection connection, Object id) throws DatabaseCommunicationException {
-        try (PreparedStatement statement = connection.prepareStatement(generateDeleteByIdTemplate())) {
-            if(!primaryKeyField.field.getType().isInstance(id)) {
-                throw new IllegalArgumentException("id value is of type " + id.getClass() + " but needs to be of type " + primaryKeyField.field.getType());
+    /**
+     * Inserts or updates all given objects within batches and returns statistics about the rows written.
+     * <ul>
+     *     <li>Objects that were loaded or written by this toolkit before are only written if at least one of their
+     *     updatable columns changed since then. In that case, only the changed columns are updated.</li>
+     *     <li>Other objects that lack values for columns declared with {@link DataField#loadOnDemand()} are known to be
+     *     persisted already and are updated without touching these columns.</li>
+     *     <li>All remaining objects are upserted.</li>
+     * </ul>
+     * <p>This method does not commit. The caller is responsible for committing or rolling back the current transaction
+     * and for calling {@link #forgetAllPersistedStates()} after a rollback.</p>
+     */
+    public final WriteStatistics upsertAll(Connection connection, Collection<T> objectsToUpsert) throws DatabaseCommunicationException {
+        if(objectsToUpsert.isEmpty()) {
+            return WriteStatistics.EMPTY;
+        }
+        Map<BitSet, List<T>> changedObjectsByChangedColumns = new HashMap<>();
+        Map<T, Object[]> newStates = new IdentityHashMap<>();
+        long skippedCount = 0;
+        long bytesWritten = 0;
+        try (StatementCache.Lease upsertLease = StatementCache.borrow(connection, upsertTemplate);
+             StatementCache.Lease updateLease = StatementCache.borrow(connection, updateTemplate)) {
+            PreparedStatement upsertStatement = upsertLease.getStatement();
+            PreparedStatement updateStatement = updateLease.getStatement();
+            int upsertCount = 0;
+            int updateCount = 0;
+            for(T objectToUpsert : objectsToUpsert) {
+                Object[] fieldValues = getFieldValues(objectToUpsert);
+                Object[] currentState = getPersistableState(fieldValues);
+                Object[] persistedState = persistedStates.get(objectToUpsert);
+                if(persistedState != null) {
+                    BitSet changedColumns = getChangedColumns(persistedState, currentState);
+                    if(changedColumns.isEmpty()) {
+                        skippedCount++;
+                    } else {
+                        changedObjectsByChangedColumns.computeIfAbsent(changedColumns, key -> new ArrayList<>()).add(objectToUpsert);
+                    }
+                } else if(hasMissingOnDemandValues(fieldValues)) {
+                    bytesWritten += bindUpdateValues(updateStatement, updatableDataFields, fieldValues);
+                    updateStatement.addBatch();
+                    updateCount++;
+                } else {
+                    bytesWritten += bindInsertValues(upsertStatement, fieldValues);
+                    upsertStatement.addBatch();
+                    upsertCount++;
+                }
+                newStates.put(objectToUpsert, currentState);
+            }
+            if(upsertCount > 0) {
+                upsertStatement.executeBatch();
+            }
+            if(updateCount > 0) {
+                updateStatement.executeBatch();
+            }
+            long partialUpdateCount = 0;
+            for(Map.Entry<BitSet, List<T>> entry : changedObjectsByChangedColumns.entrySet()) {
+                bytesWritten += updateColumns(connection, entry.getKey(), entry.getValue());
+                partialUpdateCount += entry.getValue().size();
+            }
+            persistedStates.putAll(newStates);
+            return new WriteStatistics(upsertCount, updateCount + partialUpdateCount, skippedCount, 0, bytesWritten);
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not upsert " + objectsToUpsert.size() + " objects into " + tableName + ": " + e, e);
+        }
+    }
+
+    /**
+     * Deletes all rows holding one of the given id values within one batch.
+     * <p>This method does not commit. The caller is responsible for committing or rolling back the current transaction.</p>
+     */
+    public final WriteStatistics deleteAllByIds(Connection connection, Collection<?> ids) throws DatabaseCommunicationException {
+        if(ids.isEmpty()) {
+            return WriteStatistics.EMPTY;
+        }
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, deleteByIdTemplate)) {
+            PreparedStatement statement = lease.getStatement();
+            for(Object id : ids) {
+                checkIdType(id);
+                statement.setObject(1, id, primaryKeyField.sqliteType.getJavaSqlType());
+                statement.addBatch();
             }
-            statement.setObject(1, id, primaryKeyField.sqliteType.getJavaSqlType());
-            statement.execute();
+            statement.executeBatch();
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not delete " + ids.size() + " rows from " + tableName + ": " + e, e);
+        }
+        forgetPersistedStatesOfIds(ids);
+        return new WriteStatistics(0, 0, 0, ids.size(), 0);
+    }
+
+    /**
+     * Deletes all given objects within one batch.
+     * <p>This method does not commit. The caller is responsible for committing or rolling back the current transaction.</p>
+     */
+    public final WriteStatistics deleteAll(Connection connection, Collection<T> objectsToDelete) throws DatabaseCommunicationException {
+        List<Object> ids = new ArrayList<>(objectsToDelete.size());
+        for(T objectToDelete : objectsToDelete) {
+            ids.add(getIdValue(objectToDelete));
+        }
+        return deleteAllByIds(connection, ids);
+    }
+
+    /**
+     * Forgets the states of all objects that were loaded or written by this toolkit so that these objects are written
+     * completely upon their next upsert. This needs to be called whenever a transaction containing writes of this toolkit
+     * is rolled back.
+     */
+    public void forgetAllPersistedStates() {
+        persistedStates.clear();
+    }
+
+    public void deleteById(Connection connection, Object id) throws DatabaseCommunicationException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, deleteByIdTemplate)) {
+            checkIdType(id);
+            lease.getStatement().setObject(1, id, primaryKeyField.sqliteType.getJavaSqlType());
+            lease.getStatement().execute();
             connection.commit();
+            forgetPersistedStatesOfIds(List.of(id));
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Could not delete from  " + tableName + " where column " + primaryKeyField.columnName + " equals " + id + ": " + e, e);
         }
@@ -261,10 +572,12 @@ public class DatabaseToolkit<T> {
      * Deletes the given object from the table. It is assumed, that this object exists in the database.
      */
     public void delete(Connection connection, T objectToDelete) throws DatabaseCommunicationException {
-        try (PreparedStatement statement = connection.prepareStatement(generateDeleteByIdTemplate())) {
-            statement.setObject(1, primaryKeyField.getFieldValueForDatabase(objectToDelete), primaryKeyField.sqliteType.getJavaSqlType());
-            statement.execute();
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, deleteByIdTemplate)) {
+            Object id = getIdValue(objectToDelete);
+            lease.getStatement().setObject(1, id, primaryKeyField.sqliteType.getJavaSqlType());
+            lease.getStatement().execute();
             connection.commit();
+            persistedStates.remove(objectToDelete);
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Could not delete object " + objectToDelete.getClass() + ": " + e, e);
         }
@@ -274,12 +587,14 @@ public class DatabaseToolkit<T> {
      * Determines if the given object exists in the database or not using the given connection.
      */
     public final boolean exists(Connection connection, T objectToCheckExistenceOf) throws DatabaseCommunicationException {
-        try (PreparedStatement statement = connection.prepareStatement(generateSelectByIdTemplate())) {
-            statement.setObject(1,
-                    primaryKeyField.getFieldValueForDatabase(objectToCheckExistenceOf),
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, selectIdByColumnTemplates.get(primaryKeyField.columnName))) {
+            lease.getStatement().setObject(1,
+                    getIdValue(objectToCheckExistenceOf),
                     primaryKeyField.getSqliteType().getJavaSqlType()
             );
-            return statement.executeQuery().next();
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                return resultSet.next();
+            }
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Could not determine existence of object " + objectToCheckExistenceOf.getClass() + ": " + e, e);
         }
@@ -302,69 +617,95 @@ public class DatabaseToolkit<T> {
        return out;
     }
 
+    /**
+     * Selects the value of a single column of the row that holds the given id value. This is the only way to retrieve values of
+     * columns declared with {@link DataField#loadOnDemand()}.
+     * @return the transformed column value. The Optional is empty if there is no such row.
+     */
+    public Optional<Object> findColumnValueById(Connection connection, String columnName, Object id) throws DatabaseCommunicationException {
+        DataFieldInfo dfi = getDataFieldByColumnName(columnName);
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, selectColumnByIdTemplates.get(columnName))) {
+            lease.getStatement().setObject(1, id, primaryKeyField.sqliteType.getJavaSqlType());
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return Optional.ofNullable(resultSet.getObject(1)).map(value -> dfi.getTransformer().fromDb(value));
+            }
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Error while selecting column " + columnName + " of row with id " + id + ": " + e, e);
+        }
+    }
+
     /**
      * @return the number of rows where the column of given name holds the given value.
      */
     public int countByColumn(Connection connection, String columnName, Object valueToCount) throws DatabaseCommunicationException {
-        try (PreparedStatement statement = connection.prepareStatement(generateCountByColumnTemplate(columnName))){
-            statement.setObject(1, valueToCount);
-            return statement.executeQuery().getInt(1);
+        getDataFieldByColumnName(columnName);
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, countByColumnTemplates.get(columnName))) {
+            lease.getStatement().setObject(1, valueToCount);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                return resultSet.getInt(1);
+            }
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Error while counting values in column " + columnName + ": " + e, e);
         }
     }
 
     /**
-     * Returns a {@link LinkedList} of id values from the database where the given column matches the given value.
+     * Returns a list of objects from the database where the given column matches the given value.
      */
     public List<T> findByColumn(Connection connection, String columnName, Object valueToSearchFor) throws DatabaseCommunicationException {
-        if(!getColumnNames().contains(columnName)) {
-            throw new IllegalArgumentException("The requested column name " + columnName + " is not registered for this toolkit");
-        }
-        List<T> out = new LinkedList<>();
-        try (PreparedStatement statement = connection.prepareStatement(generateSelectByColumnTemplate(columnName))){
-            statement.setObject(1, valueToSearchFor);
-            ResultSet resultSet = statement.executeQuery();
-            for(Map<String, Object> row : getRowsAsMap(resultSet)) {
-                out.add(createObjectFromRow(row));
-            }
-        } catch (SQLException e) {
-            throw new DatabaseCommunicationException("Error while searching for ids by column " + columnName + ": " + e, e);
-        }
-        return out;
+        return collect(streamByColumn(connection, columnName, valueToSearchFor));
+    }
+
+    /**
+     * Same as {@link #streamByColumn(Connection, String, Object, int)} with the default fetch size.
+     */
+    public Stream<T> streamByColumn(Connection connection, String columnName, Object valueToSearchFor) throws DatabaseCommunicationException {
+        return streamByColumn(connection, columnName, valueToSearchFor, defaultFetchSize);
+    }
+
+    /**
+     * Returns a lazily populated stream of all objects where the given column matches the given value. The stream reads
+     * directly from the underlying result set and needs to be closed after usage.
+     * @param fetchSize number of rows the driver is asked to fetch at once.
+     */
+    public Stream<T> streamByColumn(Connection connection, String columnName, Object valueToSearchFor, int fetchSize) throws DatabaseCommunicationException {
+        getDataFieldByColumnName(columnName);
+        return streamQuery(connection, selectByColumnTemplates.get(columnName), rowColumnPositions, valueToSearchFor, fetchSize, this::createObjectFromRow);
     }
 
     /**
-     * @return a {@link LinkedList} of values from the primary key column. The actual type of these id values is equal to the
+     * @return a list of values from the primary key column. The actual type of these id values is equal to the
      * field type of this toolbox primary field type.
      */
     public List<Object> findAllIds(Connection connection) throws DatabaseCommunicationException {
-        List<Object> out = new LinkedList<>();
-        try (Statement statement = connection.createStatement()) {
-            ResultSet resultSet = statement.executeQuery(generateFindAllIdQuery());
+        List<Object> out = new ArrayList<>();
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, findAllIdQuery);
+             ResultSet resultSet = lease.getStatement().executeQuery()) {
             while(resultSet.next()) {
                 out.add(primaryKeyField.getTransformer().fromDb(resultSet.getObject(1, primaryKeyField.getField().getType())));
             }
         } catch (SQLException e) {
-            throw new DatabaseCommunicationException("Error while executing " + generateFindAllQuery() + ": " + e, e);
+            throw new DatabaseCommunicationException("Error while executing " + findAllIdQuery + ": " + e, e);
         }
         return out;
     }
 
     /**
-     * @return a {@link LinkedList} of values from the primary key column where the requested column contains the specified value.
+     * @return a list of values from the primary key column where the requested column contains the specified value.
      * The actual type of the returned id values is equal to the field type of this toolbox primary field type.
      */
     public List<Object> findAllIdsByValue(Connection connection, String columnName, Object valueToSearchFor) throws DatabaseCommunicationException {
-        if(!getColumnNames().contains(columnName)) {
-            throw new IllegalArgumentException("The requested column name " + columnName + " is not registered for this toolkit");
-        }
-        List<Object> out = new LinkedList<>();
-        try (PreparedStatement statement = connection.prepareStatement(generateSelectByColumnTemplate(columnName))){
-            statement.setObject(1, valueToSearchFor);
-            ResultSet resultSet = statement.executeQuery();
-            while(resultSet.next()) {
-                out.add(primaryKeyField.getTransformer().fromDb(primaryKeyField.getField().getType().cast(resultSet.getObject(primaryKeyField.columnName))));
+        getDataFieldByColumnName(columnName);
+        List<Object> out = new ArrayList<>();
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, selectIdByColumnTemplates.get(columnName))) {
+            lease.getStatement().setObject(1, valueToSearchFor);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                while(resultSet.next()) {
+                    out.add(primaryKeyField.getTransformer().fromDb(primaryKeyField.getField().getType().cast(resultSet.getObject(1))));
+                }
             }
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Error while searching for ids by column " + columnName + ": " + e, e);
@@ -373,25 +714,150 @@ public class DatabaseToolkit<T> {
     }
 
     /**
-     * @return all objects belonging to this toolkit via the given connection as a {@link LinkedList}
+     * @return all objects belonging to this toolkit via the given connection
      */
     public List<T> findAll(Connection connection) throws DatabaseCommunicationException {
-        List<T> out = new LinkedList<>();
-        try (Statement statement = connection.createStatement()) {
-            ResultSet resultSet = statement.executeQuery(generateFindAllQuery());
-            for(Map<String, Object> row : getRowsAsMap(resultSet)) {
-                out.add(createObjectFromRow(row));
+        return collect(streamAll(connection));
+    }
+
+    /**
+     * Same as {@link #streamAll(Connection, int)} with the default fetch size.
+     */
+    public Stream<T> streamAll(Connection connection) throws DatabaseCommunicationException {
+        return streamAll(connection, defaultFetchSize);
+    }
+
+    /**
+     * Returns a lazily populated stream of all objects belonging to this toolkit. The stream reads directly from the
+     * underlying result set, so arbitrarily large tables are processed in constant memory. The stream needs to be closed
+     * after usage.
+     * @param fetchSize number of rows the driver is asked to fetch at once.
+     */
+    public Stream<T> streamAll(Connection connection, int fetchSize) throws DatabaseCommunicationException {
+        return streamQuery(connection, findAllQuery, rowColumnPositions, null, fetchSize, this::createObjectFromRow);
+    }
+
+    /**
+     * @return the given projection of all rows of this toolkit's table.
+     */
+    public <R> List<R> findAll(Connection connection, Projection<R> projection) throws DatabaseCommunicationException {
+        return collect(streamAll(connection, projection));
+    }
+
+    /**
+     * Returns a lazily populated stream of the given projection of all rows of this toolkit's table. The stream needs to
+     * be closed after usage.
+     */
+    public <R> Stream<R> streamAll(Connection connection, Projection<R> projection) throws DatabaseCommunicationException {
+        return streamQuery(connection, generateProjectionQuery(projection), getResultColumnPositions(projection, List.of()), null, defaultFetchSize, projection::map);
+    }
+
+    /**
+     * @return the given projection of all rows where the column of the given name holds the given value.
+     */
+    public <R> List<R> findByColumn(Connection connection, Projection<R> projection, String columnName, Object valueToSearchFor) throws DatabaseCommunicationException {
+        getDataFieldByColumnName(columnName);
+        return collect(streamQuery(connection, generateProjectionByColumnTemplate(projection, columnName), getResultColumnPositions(projection, List.of()),
+                valueToSearchFor, defaultFetchSize, projection::map));
+    }
+
+    /**
+     * Selects the given projection of all rows together with the number of rows of the child toolkit's table that
+     * reference them in the given column. All values are retrieved by one single aggregate query. The count is readable
+     * from the rows via {@link #CHILD_COUNT_COLUMN_NAME}.
+     */
+    public <R> List<R> findAllWithChildCount(Connection connection, Projection<R> projection, DatabaseToolkit<?> childToolkit, String childColumnName) throws DatabaseCommunicationException {
+        childToolkit.getDataFieldByColumnName(childColumnName);
+        return collect(streamQuery(connection, generateProjectionWithChildCountQuery(projection, childToolkit, childColumnName),
+                getResultColumnPositions(projection, List.of(CHILD_COUNT_COLUMN_NAME)), null, defaultFetchSize, projection::map));
+    }
+
+    /**
+     * @return positions of the projection's columns followed by the given additional columns, starting with 1.
+     */
+    private static Map<String, Integer> getResultColumnPositions(Projection<?> projection, List<String> additionalColumnNames) {
+        Map<String, Integer> positions = new HashMap<>();
+        List<String> resultColumnNames = new ArrayList<>(projection.getColumnNames());
+        resultColumnNames.addAll(additionalColumnNames);
+        for(int i = 0; i < resultColumnNames.size(); i++) {
+            positions.put(resultColumnNames.get(i), i + 1);
+        }
+        return positions;
+    }
+
+    /**
+     * Executes the given query and returns a stream mapping each row with the given function. Result set and statement
+     * are released when the stream is closed.
+     * @param columnPositions positions of the result columns used to address them within the rows.
+     * @param parameter the value to bind to the only parameter of the query or {@code null} if there is no parameter.
+     */
+    private <R> Stream<R> streamQuery(Connection connection, String query, Map<String, Integer> columnPositions, Object parameter,
+                                      int fetchSize, Projection.RowFunction<R> rowFunction) throws DatabaseCommunicationException {
+        StatementCache.Lease lease;
+        try {
+            lease = StatementCache.borrow(connection, query);
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not prepare " + query + ": " + e, e);
+        }
+        ResultSet resultSet;
+        try {
+            lease.getStatement().setFetchSize(fetchSize);
+            if(parameter != null) {
+                lease.getStatement().setObject(1, parameter);
             }
+            resultSet = lease.getStatement().executeQuery();
         } catch (SQLException e) {
-            throw new DatabaseCommunicationException("Error while executing " + generateFindAllQuery() + ": " + e, e);
+            try {
+                lease.close();
+            } catch (SQLException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw new DatabaseCommunicationException("Error while executing " + query + ": " + e, e);
+        }
+        EntityRow row = new EntityRow(columnPositions, resultSet);
+        Spliterator<R> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super R> action) {
+                try {
+                    if(!resultSet.next()) {
+                        return false;
+                    }
+                    action.accept(rowFunction.apply(row));
+                    return true;
+                } catch (SQLException e) {
+                    throw new DatabaseUnexpectedSituationException("Error while reading result of " + query + ": " + e, e);
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try (lease; resultSet) {
+                // closes the result set first and returns the statement afterwards
+            } catch (SQLException e) {
+                throw new DatabaseUnexpectedSituationException("Could not release result of " + query + ": " + e, e);
+            }
+        });
+    }
+
+    /**
+     * Collects and closes the given stream created by {@link #streamQuery}. Read errors are reported as
+     * {@link DatabaseCommunicationException}.
+     */
+    private static <R> List<R> collect(Stream<R> stream) throws DatabaseCommunicationException {
+        try (stream) {
+            return stream.collect(Collectors.toCollection(ArrayList::new));
+        } catch (DatabaseUnexpectedSituationException e) {
+            if(e.getCause() instanceof SQLException) {
+                throw new DatabaseCommunicationException(e.getMessage(), e.getCause());
+            }
+            throw e;
         }
-        return out;
     }
 
     public void deleteAllEntries(Connection connection) throws DatabaseCommunicationException {
         try (Statement statement = connection.createStatement()) {
             statement.execute(generateClearQuery());
             connection.commit();
+            forgetAllPersistedStates();
         } catch (SQLException e) {
             throw new DatabaseCommunicationException("Error while executing " + generateClearQuery() + ": " + e, e);
         }
@@ -410,56 +876,342 @@ public class DatabaseToolkit<T> {
     }
 
     /**
-     * Transforms each entry of the Result set in a Map of column names to column values and stores them in al list.
+     * Adds all columns declared by this toolkit's type that are missing in an existing table, e.g. because the table was
+     * created by an older version. Constraints are not applied to added columns, hence rows that existed before hold
+     * {@code null} in them.
+     */
+    public final void addMissingColumns(Connection connection) throws DatabaseInitialisationException {
+        try (Statement statement = connection.createStatement()) {
+            Set<String> existingColumnNames = new HashSet<>();
+            try (ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + tableName + ")")) {
+                while(resultSet.next()) {
+                    existingColumnNames.add(resultSet.getString("name"));
+                }
+            }
+            for(DataFieldInfo dfi : dataFieldList) {
+                if(!existingColumnNames.contains(dfi.columnName)) {
+                    statement.execute("ALTER TABLE " + tableName + " ADD COLUMN " + dfi.columnName + " " + dfi.sqliteType.getType());
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new DatabaseInitialisationException("Could not add missing columns to table " + tableName + ": " + e, e);
+        }
+    }
+
+    /**
+     * Creates all indexes declared via {@link DataField#indexes()} that do not exist yet.
+     */
+    public final void createIndexesIfNotExist(Connection connection) throws DatabaseInitialisationException {
+        try (Statement initStatement = connection.createStatement()) {
+            for(String query : generateCreateIndexQueries()) {
+                initStatement.execute(query);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new DatabaseInitialisationException("Could not create indexes on table " + tableName + ": " + e, e);
+        }
+    }
+
+    /**
+     * Reads the database representation of a BLOB column of the row that holds the given id value via
+     * {@link ResultSet#getBinaryStream(int)} without applying the column's transformer.
+     * @param reader reads the value from the given stream. The stream is closed afterwards.
+     * @return the read value. The Optional is empty if there is no such row or if the column holds no bytes.
      */
-    private List<Map<String, Object>> getRowsAsMap(ResultSet resultSet) throws SQLException {
-        if(resultSet == null) {
-            throw new IllegalArgumentException("Given result set was null");
+    public <T> Optional<T> readBlobColumnById(Connection connection, String columnName, Object id, Function<InputStream, T> reader) throws DatabaseCommunicationException {
+        DataFieldInfo dfi = getDataFieldByColumnName(columnName);
+        if(dfi.sqliteType != SQLiteType.BLOB) {
+            throw new IllegalArgumentException("Column " + columnName + " of table " + tableName + " is no BLOB column");
         }
-        List<Map<String, Object>> out = new LinkedList<>();
-        while(resultSet.next()) {
-            Map<String, Object> row = new HashMap<>();
-            for(String colName : getColumnNames()) {
-                row.put(colName, resultSet.getObject(colName));
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, selectColumnByIdTemplates.get(columnName))) {
+            lease.getStatement().setObject(1, id, primaryKeyField.sqliteType.getJavaSqlType());
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                InputStream inputStream = resultSet.getBinaryStream(1);
+                if(inputStream == null) {
+                    return Optional.empty();
+                }
+                try (PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream)) {
+                    int firstByte = pushbackInputStream.read();
+                    if(firstByte < 0) {
+                        return Optional.empty();
+                    }
+                    pushbackInputStream.unread(firstByte);
+                    return Optional.of(reader.apply(pushbackInputStream));
+                }
             }
-            out.add(row);
+        } catch (SQLException | IOException | SerDeException e) {
+            throw new DatabaseCommunicationException("Error while reading column " + columnName + " of row with id " + id + ": " + e, e);
         }
-        return out;
+    }
+
+    private DataFieldInfo getDataFieldByColumnName(String columnName) {
+        DataFieldInfo dfi = dataFieldsByColumnName.get(columnName);
+        if(dfi == null) {
+            throw new IllegalArgumentException("The requested column name " + columnName + " is not registered for this toolkit");
+        }
+        return dfi;
+    }
+
+    private void checkIdType(Object id) {
+        if(!primaryKeyField.field.getType().isInstance(id)) {
+            throw new IllegalArgumentException("id value is of type " + id.getClass() + " but needs to be of type " + primaryKeyField.field.getType());
+        }
+    }
+
+    /**
+     * @return the values of all data fields of the given object in declaration order as held by the object.
+     */
+    private Object[] getFieldValues(T object) throws DatabaseCommunicationException {
+        if(entityMapper != null) {
+            return entityMapper.getFieldValues(object);
+        }
+        Object[] fieldValues = new Object[dataFieldList.size()];
+        for(int i = 0; i < fieldValues.length; i++) {
+            fieldValues[i] = dataFieldList.get(i).getRawFieldValue(object);
+        }
+        return fieldValues;
     }
 
     /**
-     * Tries to construct an object from a result set representing exactly one row from the table associated
-     * with this toolkit.
+     * @return the database representation of the primary key value of the given object.
      */
-    private T createObjectFromRow(Map<String, Object> resultRow) {
+    private Object getIdValue(T object) throws DatabaseCommunicationException {
+        if(entityMapper != null) {
+            return primaryKeyField.toDb(entityMapper.getFieldValues(object));
+        }
+        return primaryKeyField.getFieldValueForDatabase(object);
+    }
+
+    /**
+     * Binds all column values of an object to the given statement created from {@link #generateInsertTemplate()}
+     * or {@link #generateUpsertTemplate()}.
+     * @param fieldValues all field values of the object as returned by {@link #getFieldValues(Object)}.
+     * @return the estimated amount of bytes bound to the statement.
+     */
+    private long bindInsertValues(PreparedStatement statement, Object[] fieldValues) throws SQLException {
+        long boundBytes = 0;
+        int pointer = 0;  // will start with 1
+        for(DataFieldInfo dfi : dataFieldList) {
+            pointer++;
+            Object value = dfi.toDb(fieldValues);
+            statement.setObject(pointer, value, dfi.getSqliteType().getJavaSqlType());
+            boundBytes += estimateSizeInBytes(value);
+        }
+        return boundBytes;
+    }
+
+    /**
+     * Binds the values of the given data fields followed by the primary key of an object to the given statement.
+     * @param fieldValues all field values of the object as returned by {@link #getFieldValues(Object)}.
+     * @return the estimated amount of bytes bound to the statement.
+     */
+    private long bindUpdateValues(PreparedStatement statement, List<DataFieldInfo> dataFieldsToSet, Object[] fieldValues) throws SQLException {
+        long boundBytes = 0;
+        int pointer = 1;
+        // set set-values
+        for(DataFieldInfo dfi : dataFieldsToSet) {
+            Object value = dfi.toDb(fieldValues);
+            statement.setObject(pointer++, value, dfi.sqliteType.getJavaSqlType());
+            boundBytes += estimateSizeInBytes(value);
+        }
+        // set where-values at the last indexes
+        Object id = primaryKeyField.toDb(fieldValues);
+        statement.setObject(pointer, id, primaryKeyField.sqliteType.getJavaSqlType());
+        return boundBytes + estimateSizeInBytes(id);
+    }
+
+    /**
+     * Updates only the given updatable columns of all given objects within one batch.
+     * @param changedColumns indexes of the columns to update within the updatable data fields.
+     * @return the estimated amount of bytes bound to the update statements.
+     */
+    private long updateColumns(Connection connection, BitSet changedColumns, List<T> objectsToUpdate) throws SQLException {
+        List<DataFieldInfo> dataFieldsToSet = changedColumns.stream().mapToObj(updatableDataFields::get).collect(Collectors.toList());
+        String template = partialUpdateTemplates.computeIfAbsent(changedColumns, key -> "UPDATE " + getTableName() + " SET " +
+                dataFieldsToSet.stream().map(dfi -> dfi.columnName + " = ?").collect(Collectors.joining(", ")) +
+                " WHERE " + primaryKeyField.columnName + " = ?");
+        long boundBytes = 0;
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, template)) {
+            for(T objectToUpdate : objectsToUpdate) {
+                boundBytes += bindUpdateValues(lease.getStatement(), dataFieldsToSet, getFieldValues(objectToUpdate));
+                lease.getStatement().addBatch();
+            }
+            lease.getStatement().executeBatch();
+        }
+        return boundBytes;
+    }
+
+    /**
+     * @param fieldValues all field values of an object as returned by {@link #getFieldValues(Object)}.
+     * @return the database representations of all updatable column values of that object.
+     */
+    private Object[] getPersistableState(Object[] fieldValues) {
+        Object[] state = new Object[updatableDataFields.size()];
+        for(int i = 0; i < state.length; i++) {
+            state[i] = updatableDataFields.get(i).toDb(fieldValues);
+        }
+        return state;
+    }
+
+    /**
+     * @return the indexes of all values that differ between the two given states.
+     */
+    private static BitSet getChangedColumns(Object[] persistedState, Object[] currentState) {
+        BitSet changedColumns = new BitSet(currentState.length);
+        for(int i = 0; i < currentState.length; i++) {
+            if(!valuesEqual(persistedState[i], currentState[i])) {
+                changedColumns.set(i);
+            }
+        }
+        return changedColumns;
+    }
+
+    /**
+     * Compares two database representations of column values. Numbers are compared by their long values and byte arrays
+     * by their content.
+     */
+    private static boolean valuesEqual(Object first, Object second) {
+        if(first instanceof Number && second instanceof Number) {
+            return ((Number) first).longValue() == ((Number) second).longValue();
+        } else if(first instanceof byte[] && second instanceof byte[]) {
+            return Arrays.equals((byte[]) first, (byte[]) second);
+        }
+        return Objects.equals(first, second);
+    }
+
+    /**
+     * @return the approximate amount of bytes needed to store the given database representation of some column value.
+     */
+    private static long estimateSizeInBytes(Object value) {
+        if(value == null) {
+            return 0;
+        } else if(value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if(value instanceof String) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return Long.BYTES;
+    }
+
+    private void forgetPersistedStatesOfIds(Collection<?> ids) throws DatabaseCommunicationException {
+        Set<Object> idSet = new HashSet<>(ids);
+        synchronized (persistedStates) {
+            Iterator<T> iterator = persistedStates.keySet().iterator();
+            while(iterator.hasNext()) {
+                if(idSet.contains(getIdValue(iterator.next()))) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param fieldValues all field values of an object as returned by {@link #getFieldValues(Object)}.
+     * @return true, if the object holds {@code null} in any of the fields declared with {@link DataField#loadOnDemand()}.
+     */
+    private boolean hasMissingOnDemandValues(Object[] fieldValues) {
+        for(DataFieldInfo dfi : dataFieldList) {
+            if(dfi.loadOnDemand && fieldValues[dfi.index] == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Constructs an object from the current row of the given result set. The row is expected to hold the values of all
+     * eagerly loaded columns in declaration order as selected by {@link #generateFindAllQuery()}.
+     */
+    private T createObjectFromRow(EntityRow row) throws SQLException {
         T out;
-        List<Object> objectCreatorArgs = new LinkedList<>();
-        getConstructorRelevantDataFields()
-                .stream()
-                .sorted(Comparator.comparing(DataFieldInfo::getConstructorIndex))
-                // extract sorted values from row result, backwards transform them and put them in the argument list
-                .forEach(dfi -> objectCreatorArgs.add(dfi.getTransformer().fromDb(resultRow.get(dfi.columnName))));
+        if(entityMapper != null) {
+            out = entityMapper.createFromRow(row);
+            persistedStates.put(out, getPersistableState(getFieldValues(out)));
+            return out;
+        }
+        ResultSet resultSet = row.getResultSet();
+        Object[] objectCreatorArgs = new Object[constructorRelevantDataFields.size()];
+        for(int i = 0; i < objectCreatorArgs.length; i++) {
+            int rowIndex = constructorArgumentRowIndexes[i];
+            // columns loaded on demand are not part of the row
+            objectCreatorArgs[i] = rowIndex < 0 ? null : constructorRelevantDataFields.get(i).getTransformer().fromDb(resultSet.getObject(rowIndex + 1));
+        }
         try{
-            out = objectCreator.createFromArgs(objectCreatorArgs.toArray());
+            out = objectCreator.createFromArgs(objectCreatorArgs);
         } catch(ObjectCreatorException e) {
             throw new DatabaseUnexpectedSituationException(String.format("Could not create object with arguments %s: %s",
-                    objectCreatorArgs.stream().map(Object::getClass).collect(Collectors.toList()), e),
+                    Arrays.stream(objectCreatorArgs).map(arg -> arg == null ? null : arg.getClass()).collect(Collectors.toList()), e),
                     e);
         }
+        persistedStates.put(out, getPersistableState(getFieldValues(out)));
         return out;
     }
 
     // ----------------- Helper Class
 
+    /**
+     * Simple info container about an index declared by one or more data fields.
+     */
+    private static class IndexInfo {
+        private final String name;
+        private final boolean unique;
+        private final List<String> columnNames;
+
+        /**
+         * Collects the indexes declared by the given data fields. Declarations of the same name are merged into one index.
+         */
+        private static List<IndexInfo> forDataFields(String tableName, List<DataFieldInfo> dataFieldList) {
+            Map<String, List<DataFieldInfo>> columnsByIndexName = new LinkedHashMap<>();
+            Map<String, DataField.Index> declarationsByColumnAndIndexName = new HashMap<>();
+            for(DataFieldInfo dfi : dataFieldList) {
+                for(DataField.Index index : dfi.indexes) {
+                    String indexName = index.name().isEmpty() ? "idx_" + tableName + "_" + dfi.columnName : index.name();
+                    columnsByIndexName.computeIfAbsent(indexName, key -> new ArrayList<>()).add(dfi);
+                    declarationsByColumnAndIndexName.put(indexName + "." + dfi.columnName, index);
+                }
+            }
+            List<IndexInfo> out = new ArrayList<>();
+            for(Map.Entry<String, List<DataFieldInfo>> entry : columnsByIndexName.entrySet()) {
+                String indexName = entry.getKey();
+                List<DataField.Index> declarations = entry.getValue().stream()
+                        .map(dfi -> declarationsByColumnAndIndexName.get(indexName + "." + dfi.columnName))
+                        .collect(Collectors.toList());
+                boolean unique = declarations.get(0).unique();
+                if(declarations.stream().anyMatch(declaration -> declaration.unique() != unique)) {
+                    throw new IllegalArgumentException("The columns of index " + indexName + " do not agree on its uniqueness");
+                }
+                List<String> columnNames = entry.getValue().stream()
+                        .sorted(Comparator.comparing(dfi -> declarationsByColumnAndIndexName.get(indexName + "." + dfi.columnName).position()))
+                        .map(DataFieldInfo::getColumnName)
+                        .collect(Collectors.toList());
+                out.add(new IndexInfo(indexName, unique, columnNames));
+            }
+            return out;
+        }
+
+        private IndexInfo(String name, boolean unique, List<String> columnNames) {
+            this.name = name;
+            this.unique = unique;
+            this.columnNames = columnNames;
+        }
+    }
+
     /**
      * Simple info container about a data field, e.g. e field annotated with {@link DataField}.
      */
     private static class DataFieldInfo {
+        private final int index;
         private final Field field;
         private final String columnName;
         private final SQLiteType sqliteType;
         private final SQLiteConstraint[] sqliteConstraints;
         private final int constructorIndex;
+        private final boolean loadOnDemand;
+        private final DataField.Index[] indexes;
         private final Transformer transformer;
 
         /**
@@ -483,11 +1235,14 @@ public class DatabaseToolkit<T> {
                         f.getType(),
                         declaredAnnotation.sqliteType()
                 ));
-                out.add(new DataFieldInfo(f,
+                out.add(new DataFieldInfo(out.size(),
+                        f,
                         colName,
                         declaredAnnotation.sqliteType(),
                         declaredAnnotation.sqliteConstraints(),
                         declaredAnnotation.constructorArgumentPositionIndex(),
+                        declaredAnnotation.loadOnDemand(),
+                        declaredAnnotation.indexes(),
                         transformer
                         )
                 );
@@ -495,25 +1250,40 @@ public class DatabaseToolkit<T> {
             return out;
         }
 
-        private DataFieldInfo(Field field, String columnName, SQLiteType sqliteType, SQLiteConstraint[] sqliteConstraints, int constructorIndex, Transformer transformer) {
+        private DataFieldInfo(int index, Field field, String columnName, SQLiteType sqliteType, SQLiteConstraint[] sqliteConstraints, int constructorIndex, boolean loadOnDemand, DataField.Index[] indexes, Transformer transformer) {
+            this.index = index;
             this.field = field;
+            // access checks are turned off once instead of upon every access
+            this.field.trySetAccessible();
             this.columnName = columnName;
             this.sqliteType = sqliteType;
             this.sqliteConstraints = sqliteConstraints;
             this.constructorIndex = constructorIndex;
+            this.loadOnDemand = loadOnDemand;
+            this.indexes = indexes;
             this.transformer = transformer;
         }
 
         private Object getFieldValueForDatabase(Object objectToTakeValueFrom) throws DatabaseCommunicationException {
+            return transformer.toDb(getRawFieldValue(objectToTakeValueFrom));
+        }
+
+        /**
+         * @param fieldValues all field values of an object in declaration order.
+         * @return the database representation of this field's value.
+         */
+        private Object toDb(Object[] fieldValues) {
+            return transformer.toDb(fieldValues[index]);
+        }
+
+        private Object getRawFieldValue(Object objectToTakeValueFrom) throws DatabaseCommunicationException {
             Object fieldValue;
             try {
-                field.trySetAccessible();
                 fieldValue = field.get(objectToTakeValueFrom);
-                field.setAccessible(false);  // turn access checks back on
             } catch (IllegalAccessException e) {
                 throw new DatabaseCommunicationException("Could not extract field value of data field: " + e, e);
             }
-            return transformer.toDb(fieldValue);
+            return fieldValue;
         }
 
         public Field getField() {
@@ -536,6 +1306,10 @@ public class DatabaseToolkit<T> {
             return constructorIndex;
         }
 
+        public boolean isLoadOnDemand() {
+            return loadOnDemand;
+        }
+
         public Transformer getTransformer() {
             return transformer;
         }
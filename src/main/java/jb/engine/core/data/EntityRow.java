@@ -0,0 +1,81 @@
+package jb.engine.core.data;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Typed read access to the current row of a result set produced by a {@link DatabaseToolkit}. Columns are addressed by
+ * their names and converted the same way their {@link Transformer} would convert them.
+ */
+public class EntityRow {
+
+    private final Map<String, Integer> columnPositions;
+    private final ResultSet resultSet;
+
+    EntityRow(Map<String, Integer> columnPositions, ResultSet resultSet) {
+        this.columnPositions = columnPositions;
+        this.resultSet = resultSet;
+    }
+
+    ResultSet getResultSet() {
+        return resultSet;
+    }
+
+    public String getString(String columnName) throws SQLException {
+        return resultSet.getString(getPosition(columnName));
+    }
+
+    public Integer getInteger(String columnName) throws SQLException {
+        int value = resultSet.getInt(getPosition(columnName));
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public Long getLong(String columnName) throws SQLException {
+        long value = resultSet.getLong(getPosition(columnName));
+        return resultSet.wasNull() ? null : value;
+    }
+
+    public Boolean getBoolean(String columnName) throws SQLException {
+        Integer value = getInteger(columnName);
+        return value == null ? null : value == 1;
+    }
+
+    public byte[] getBytes(String columnName) throws SQLException {
+        return resultSet.getBytes(getPosition(columnName));
+    }
+
+    /**
+     * Reads a {@link Path} stored as text.
+     */
+    public Path getPath(String columnName) throws SQLException {
+        String value = getString(columnName);
+        return value == null ? null : Path.of(value);
+    }
+
+    /**
+     * Reads an {@link Instant} stored as epoch seconds.
+     */
+    public Instant getInstant(String columnName) throws SQLException {
+        long value = resultSet.getLong(getPosition(columnName));
+        return resultSet.wasNull() ? null : Instant.ofEpochSecond(value);
+    }
+
+    /**
+     * Reads a {@link CopyType} stored as its ordinal.
+     */
+    public CopyType getCopyType(String columnName) throws SQLException {
+        Integer value = getInteger(columnName);
+        return value == null ? null : CopyType.values()[value];
+    }
+
+    private int getPosition(String columnName) {
+        Integer position = columnPositions.get(columnName);
+        if(position == null) {
+            throw new IllegalArgumentException("Column " + columnName + " is not part of this row");
+        }
+        return position;
+    }
+}
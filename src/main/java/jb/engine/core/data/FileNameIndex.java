@@ -0,0 +1,183 @@
+package jb.engine.core.data;
+
+import jb.engine.core.FileNameMatch;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text index over the names of all files and directories of all snapshots. Entries are kept in a plain table and
+ * indexed by an FTS5 table using that table as external content. Triggers keep both in sync, hence entries are only
+ * inserted into and deleted from the plain table.
+ * <p>Names and directories are split into words at every character that is neither a letter nor a digit. A search
+ * matches entries containing words starting with each word of the query.</p>
+ * <p>The FTS5 table additionally indexes the hex encoded context id of each entry as a single word. Searches match
+ * that word, hence only entries of the searched context are matched and ranked.</p>
+ * <p>Snapshots whose entries were written are recorded separately since a snapshot may have no entries at all and its
+ * entries may be written by several transactions.</p>
+ */
+class FileNameIndex {
+
+    static final String ENTRY_TABLE_NAME = "file_name_entry";
+    static final String SEARCH_TABLE_NAME = "file_name_search";
+    static final String INDEXED_SNAPSHOT_TABLE_NAME = "file_name_snapshot";
+
+    private static final Pattern WORD_SEPARATOR_PATTERN = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final String CONTEXT_TOKEN_COLUMN_NAME = "context_token";
+    private static final String SEARCH_COLUMNS = "name, directory, " + CONTEXT_TOKEN_COLUMN_NAME;
+
+    private static final List<String> CREATE_QUERIES = List.of(
+            "CREATE TABLE IF NOT EXISTS " + ENTRY_TABLE_NAME + " (id INTEGER PRIMARY KEY, snapshot_info_id TEXT NOT NULL, " +
+                    "context_id TEXT NOT NULL, name TEXT NOT NULL, directory TEXT NOT NULL, " + CONTEXT_TOKEN_COLUMN_NAME + " TEXT)",
+            "CREATE INDEX IF NOT EXISTS idx_" + ENTRY_TABLE_NAME + "_snapshot_info_id ON " + ENTRY_TABLE_NAME + " (snapshot_info_id)",
+            "CREATE VIRTUAL TABLE IF NOT EXISTS " + SEARCH_TABLE_NAME + " USING fts5(" + SEARCH_COLUMNS + ", content = '" + ENTRY_TABLE_NAME + "', " +
+                    "content_rowid = 'id', tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3')",
+            "CREATE TRIGGER IF NOT EXISTS " + ENTRY_TABLE_NAME + "_after_insert AFTER INSERT ON " + ENTRY_TABLE_NAME + " BEGIN " +
+                    "INSERT INTO " + SEARCH_TABLE_NAME + " (rowid, " + SEARCH_COLUMNS + ") VALUES (new.id, new.name, new.directory, new." + CONTEXT_TOKEN_COLUMN_NAME + "); END",
+            "CREATE TRIGGER IF NOT EXISTS " + ENTRY_TABLE_NAME + "_after_delete AFTER DELETE ON " + ENTRY_TABLE_NAME + " BEGIN " +
+                    "INSERT INTO " + SEARCH_TABLE_NAME + " (" + SEARCH_TABLE_NAME + ", rowid, " + SEARCH_COLUMNS + ") " +
+                    "VALUES ('delete', old.id, old.name, old.directory, old." + CONTEXT_TOKEN_COLUMN_NAME + "); END",
+            "CREATE TABLE IF NOT EXISTS " + INDEXED_SNAPSHOT_TABLE_NAME + " (snapshot_info_id TEXT PRIMARY KEY)"
+    );
+    private static final String INSERT_TEMPLATE = "INSERT INTO " + ENTRY_TABLE_NAME + " (snapshot_info_id, context_id, name, directory, " +
+            CONTEXT_TOKEN_COLUMN_NAME + ") VALUES (?1, ?2, ?3, ?4, hex(?2))";
+    private static final String DELETE_TEMPLATE = "DELETE FROM " + ENTRY_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String INSERT_INDEXED_SNAPSHOT_TEMPLATE = "INSERT OR IGNORE INTO " + INDEXED_SNAPSHOT_TABLE_NAME + " (snapshot_info_id) VALUES (?)";
+    private static final String DELETE_INDEXED_SNAPSHOT_TEMPLATE = "DELETE FROM " + INDEXED_SNAPSHOT_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String IS_INDEXED_TEMPLATE = "SELECT 1 FROM " + INDEXED_SNAPSHOT_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String SEARCH_TEMPLATE = "SELECT e.snapshot_info_id, e.directory, e.name FROM " + SEARCH_TABLE_NAME + " s " +
+            "JOIN " + ENTRY_TABLE_NAME + " e ON e.id = s.rowid " +
+            "WHERE " + SEARCH_TABLE_NAME + " MATCH ? ORDER BY s.rank LIMIT ?";
+
+    private FileNameIndex() {
+    }
+
+    static void createIfNotExists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for(String query : CREATE_QUERIES) {
+                statement.execute(query);
+            }
+        }
+    }
+
+    /**
+     * Inserts entries for the given paths of the given snapshot without committing. The run target directory itself and
+     * paths outside of it are skipped.
+     * @param paths absolute paths located in the given run target directory.
+     * @return the number of inserted entries.
+     */
+    static int insertAll(Connection connection, String contextId, String snapshotInfoId, Path runTargetDirectory, Collection<Path> paths) throws SQLException {
+        int insertedCount = 0;
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, INSERT_TEMPLATE)) {
+            PreparedStatement statement = lease.getStatement();
+            for(Path path : paths) {
+                if(!path.startsWith(runTargetDirectory) || path.equals(runTargetDirectory)) {
+                    continue;
+                }
+                Path relativePath = runTargetDirectory.relativize(path);
+                statement.setString(1, snapshotInfoId);
+                statement.setString(2, contextId);
+                statement.setString(3, relativePath.getFileName().toString());
+                statement.setString(4, relativePath.getParent() == null ? "" : relativePath.getParent().toString());
+                statement.addBatch();
+                insertedCount++;
+            }
+            statement.executeBatch();
+        }
+        return insertedCount;
+    }
+
+    /**
+     * Deletes all entries of the given snapshots and their marks without committing.
+     */
+    static void deleteAll(Connection connection, Collection<?> snapshotInfoIds) throws SQLException {
+        if(snapshotInfoIds.isEmpty()) {
+            return;
+        }
+        for(String template : List.of(DELETE_TEMPLATE, DELETE_INDEXED_SNAPSHOT_TEMPLATE)) {
+            try (StatementCache.Lease lease = StatementCache.borrow(connection, template)) {
+                for(Object snapshotInfoId : snapshotInfoIds) {
+                    lease.getStatement().setObject(1, snapshotInfoId);
+                    lease.getStatement().addBatch();
+                }
+                lease.getStatement().executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Records that all entries of the given snapshot were inserted, without committing.
+     */
+    static void markIndexed(Connection connection, String snapshotInfoId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, INSERT_INDEXED_SNAPSHOT_TEMPLATE)) {
+            lease.getStatement().setString(1, snapshotInfoId);
+            lease.getStatement().execute();
+        }
+    }
+
+    static boolean isIndexed(Connection connection, Object snapshotInfoId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, IS_INDEXED_TEMPLATE)) {
+            lease.getStatement().setObject(1, snapshotInfoId);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * @return at most the given number of entries of the given context matching the given query, best matches first.
+     * The list is empty if the query contains no words.
+     */
+    static List<FileNameMatch> search(Connection connection, String contextId, String query, int limit) throws SQLException {
+        String matchExpression = toMatchExpression(query);
+        List<FileNameMatch> matches = new ArrayList<>();
+        if(matchExpression.isEmpty()) {
+            return matches;
+        }
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, SEARCH_TEMPLATE)) {
+            lease.getStatement().setString(1, toContextTerm(contextId) + " AND " + matchExpression);
+            lease.getStatement().setInt(2, limit);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                while(resultSet.next()) {
+                    String directory = resultSet.getString(2);
+                    String name = resultSet.getString(3);
+                    matches.add(new FileNameMatch(resultSet.getString(1), directory.isEmpty() ? Path.of(name) : Path.of(directory, name)));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Turns the given user input into an FTS5 query of quoted prefix terms restricted to the name and directory columns,
+     * which can not contain any query syntax.
+     */
+    static String toMatchExpression(String query) {
+        return WORD_SEPARATOR_PATTERN.splitAsStream(query == null ? "" : query)
+                .filter(word -> !word.isEmpty())
+                .map(word -> "{name directory} : \"" + word + "\"*")
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * @return an FTS5 term matching the context token of all entries of the given context, see {@code hex()} in SQLite.
+     */
+    private static String toContextTerm(String contextId) {
+        StringBuilder sb = new StringBuilder(CONTEXT_TOKEN_COLUMN_NAME).append(" : \"");
+        for(byte b : contextId.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(String.format("%02X", b));
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,110 @@
+package jb.engine.core.data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.exceptions.ManifestException;
+import jb.engine.services.HashService;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Adds the file names of all snapshots created before the {@link FileNameIndex} existed to that index. A single snapshot
+ * may already hold millions of files, hence each batch inserts at most the batch size of paths read from the mapped
+ * manifest of one snapshot. The position holds the id of the snapshot and, while it is not completely indexed, the
+ * offset of its next path. Snapshots that were indexed in the meantime are skipped.
+ */
+class FileNameIndexMigration implements DataMigration {
+
+    private static final Logger logger = Logger.getLogger(FileNameIndexMigration.class.getName());
+
+    /**
+     * Separates the id of a partially indexed snapshot from the offset of its next path within a position.
+     */
+    private static final char OFFSET_SEPARATOR = ':';
+
+    private final DatabaseToolkit<SnapshotInfo> toolkit;
+
+    FileNameIndexMigration(DatabaseToolkit<SnapshotInfo> toolkit) {
+        this.toolkit = toolkit;
+    }
+
+    @Override
+    public String getName() {
+        return "index_" + toolkit.getTableName() + "_file_names";
+    }
+
+    @Override
+    public Optional<String> migrateBatch(Connection connection, String position, int batchSize) throws SQLException {
+        String snapshotInfoId;
+        int pathOffset = 0;
+        int separatorIndex = position == null ? -1 : position.lastIndexOf(OFFSET_SEPARATOR);
+        if(separatorIndex >= 0) {
+            snapshotInfoId = position.substring(0, separatorIndex);
+            pathOffset = Integer.parseInt(position.substring(separatorIndex + 1));
+        } else {
+            Optional<String> nextSnapshotInfoId = findNextId(connection, position);
+            if(nextSnapshotInfoId.isEmpty()) {
+                return Optional.empty();
+            }
+            snapshotInfoId = nextSnapshotInfoId.get();
+        }
+        if(FileNameIndex.isIndexed(connection, snapshotInfoId)) {
+            return Optional.of(snapshotInfoId);
+        }
+        Optional<SnapshotInfo> snapshotInfo = toolkit.findById(connection, snapshotInfoId);
+        if(snapshotInfo.isEmpty()) {
+            return Optional.of(snapshotInfoId);
+        }
+        String contextId = snapshotInfo.get().getAssociatedContextId();
+        Path runTargetDirectory = snapshotInfo.get().getRunTargetDirectory();
+        if(snapshotInfo.get().getManifestReference().isPresent()) {
+            try (ChecksumManifest manifest = ChecksumManifest.open(snapshotInfo.get().getManifestReference().get())) {
+                int start = Math.min(pathOffset, manifest.size());
+                int end = (int) Math.min(manifest.size(), (long) start + batchSize);
+                FileNameIndex.insertAll(connection, contextId, snapshotInfoId, runTargetDirectory, manifest.getPaths().subList(start, end));
+                if(end < manifest.size()) {
+                    return Optional.of(snapshotInfoId + OFFSET_SEPARATOR + end);
+                }
+                logger.fine("Indexed " + manifest.size() + " file names of snapshot " + snapshotInfoId);
+            } catch (ManifestException e) {
+                // the snapshot stays unindexed and is retried when its context is loaded
+                logger.warning("Could not index file names of snapshot " + snapshotInfoId + ": " + e);
+                return Optional.of(snapshotInfoId);
+            }
+        } else {
+            // the manifest of this snapshot could not be written by the legacy migration, its checksum map is read at once
+            Optional<Collection<Path>> paths = toolkit.findColumnValueById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfoId)
+                    .map(checksumMap -> HashService.asChecksumMap(checksumMap).keySet());
+            if(paths.isEmpty()) {
+                return Optional.of(snapshotInfoId);
+            }
+            int count = FileNameIndex.insertAll(connection, contextId, snapshotInfoId, runTargetDirectory, paths.get());
+            logger.fine("Indexed " + count + " file names of snapshot " + snapshotInfoId);
+        }
+        FileNameIndex.markIndexed(connection, snapshotInfoId);
+        return Optional.of(snapshotInfoId);
+    }
+
+    /**
+     * @param previousId the id of the last snapshot handled or null if there is none.
+     * @return the id of the snapshot following the given one.
+     */
+    private Optional<String> findNextId(Connection connection, String previousId) throws SQLException {
+        String selectIdQuery = "SELECT id FROM " + toolkit.getTableName() + (previousId == null ? "" : " WHERE id > ?") + " ORDER BY id LIMIT 1";
+        try (PreparedStatement statement = connection.prepareStatement(selectIdQuery)) {
+            if(previousId != null) {
+                statement.setString(1, previousId);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Optional.of(resultSet.getString(1)) : Optional.empty();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package jb.engine.core.data;
+
+import jb.engine.core.FileVersion;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.ManifestDiff;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of the change points of every path across the snapshots of a context. A snapshot holds an entry for a path if
+ * the path's digest differs from the one in the previous snapshot of the same context, including paths that are new
+ * or have disappeared. The history of a path is therefore read with one indexed range query and costs one row per
+ * version, regardless of the number of snapshots.
+ * <p>Snapshots whose entries were written are recorded separately since a snapshot without changes has no entries.</p>
+ */
+class FileVersionIndex {
+
+    static final String TABLE_NAME = "file_version";
+    static final String INDEXED_SNAPSHOT_TABLE_NAME = "file_version_snapshot";
+
+    private static final List<String> CREATE_QUERIES = List.of(
+            "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (context_id TEXT NOT NULL, relative_path TEXT NOT NULL, " +
+                    "created_time INTEGER NOT NULL, snapshot_info_id TEXT NOT NULL, digest BLOB)",
+            "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_path ON " + TABLE_NAME + " (context_id, relative_path, created_time)",
+            // unique so that indexing a snapshot twice, e.g. by the backfill and after a deletion, replaces its entries
+            "CREATE UNIQUE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_snapshot_path ON " + TABLE_NAME + " (snapshot_info_id, relative_path)",
+            "CREATE TABLE IF NOT EXISTS " + INDEXED_SNAPSHOT_TABLE_NAME + " (snapshot_info_id TEXT PRIMARY KEY)"
+    );
+    private static final String INSERT_TEMPLATE = "INSERT OR REPLACE INTO " + TABLE_NAME + " (context_id, relative_path, created_time, snapshot_info_id, digest) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_INDEXED_SNAPSHOT_TEMPLATE = "INSERT OR IGNORE INTO " + INDEXED_SNAPSHOT_TABLE_NAME + " (snapshot_info_id) VALUES (?)";
+    private static final String DELETE_TEMPLATE = "DELETE FROM " + TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String DELETE_INDEXED_SNAPSHOT_TEMPLATE = "DELETE FROM " + INDEXED_SNAPSHOT_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String IS_INDEXED_TEMPLATE = "SELECT 1 FROM " + INDEXED_SNAPSHOT_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String SELECT_HISTORY_TEMPLATE = "SELECT snapshot_info_id, created_time, digest FROM " + TABLE_NAME +
+            " WHERE context_id = ? AND relative_path = ? ORDER BY created_time";
+
+    private FileVersionIndex() {
+    }
+
+    /**
+     * A path whose digest changed in a snapshot. The digest is {@code null} if the path disappeared.
+     */
+    static class Change {
+        private final String relativePath;
+        private final byte[] digest;
+
+        private Change(String relativePath, byte[] digest) {
+            this.relativePath = relativePath;
+            this.digest = digest;
+        }
+    }
+
+    static void createIfNotExists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for(String query : CREATE_QUERIES) {
+                statement.execute(query);
+            }
+        }
+    }
+
+    /**
+     * @param redirectedChecksumMap checksum map of a snapshot with absolute paths located in the given run target directory.
+     * @return the given map with paths relative to the given run target directory. The directory itself and paths
+     * outside of it are dropped.
+     */
+    static Map<String, byte[]> toRelativeChecksumMap(Map<String, byte[]> redirectedChecksumMap, Path runTargetDirectory) {
+        Map<String, byte[]> relativeChecksumMap = new HashMap<>((int) (redirectedChecksumMap.size() / 0.75f) + 1);
+        redirectedChecksumMap.forEach((pathString, digest) -> {
+            Path path = Path.of(pathString);
+            if(path.startsWith(runTargetDirectory) && !path.equals(runTargetDirectory)) {
+                relativeChecksumMap.put(runTargetDirectory.relativize(path).toString(), digest);
+            }
+        });
+        return relativeChecksumMap;
+    }
+
+    /**
+     * @param previous relative checksum map of the previous snapshot, empty if there is none.
+     * @return all paths of the given current relative checksum map whose digests differ from the previous one, together
+     * with all paths of the previous map that disappeared.
+     */
+    static List<Change> diff(Map<String, byte[]> previous, Map<String, byte[]> current) {
+        List<Change> changes = new ArrayList<>();
+        current.forEach((relativePath, digest) -> {
+            if(!Arrays.equals(digest, previous.get(relativePath))) {
+                changes.add(new Change(relativePath, digest));
+            }
+        });
+        previous.keySet().stream()
+                .filter(relativePath -> !current.containsKey(relativePath))
+                .forEach(relativePath -> changes.add(new Change(relativePath, null)));
+        return changes;
+    }
+
+    /**
+     * Like {@link #diff(Map, Map)} but compares the manifests top-down, so that unchanged directories are skipped as a
+     * whole.
+     * @param previous manifest of the previous snapshot or {@code null} if there is none.
+     */
+    static List<Change> diff(ChecksumManifest previous, ChecksumManifest current) {
+        return streamDiff(previous, current).collect(Collectors.toList());
+    }
+
+    /**
+     * Like {@link #diff(ChecksumManifest, ChecksumManifest)} but evaluates the changes lazily while the returned stream
+     * is consumed, hence the heap used does not grow with the number of changes. The manifests need to stay open until
+     * then.
+     */
+    static Stream<Change> streamDiff(ChecksumManifest previous, ChecksumManifest current) {
+        return ManifestDiff.stream(previous, current, true).map(entry -> new Change(entry.getRelativePath(), entry.getCurrentDigest()));
+    }
+
+    /**
+     * Inserts the given changes of the given snapshot without committing. Entries of the same snapshot and path are
+     * replaced.
+     */
+    static int insertAll(Connection connection, String contextId, String snapshotInfoId, Instant createdTime, List<Change> changes) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, INSERT_TEMPLATE)) {
+            PreparedStatement statement = lease.getStatement();
+            for(Change change : changes) {
+                statement.setString(1, contextId);
+                statement.setString(2, change.relativePath);
+                statement.setLong(3, createdTime.getEpochSecond());
+                statement.setString(4, snapshotInfoId);
+                if(change.digest == null) {
+                    statement.setNull(5, Types.BLOB);
+                } else {
+                    statement.setBytes(5, change.digest);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        return changes.size();
+    }
+
+    /**
+     * Records that all changes of the given snapshot were inserted, without committing.
+     */
+    static void markIndexed(Connection connection, String snapshotInfoId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, INSERT_INDEXED_SNAPSHOT_TEMPLATE)) {
+            lease.getStatement().setString(1, snapshotInfoId);
+            lease.getStatement().execute();
+        }
+    }
+
+    static boolean isIndexed(Connection connection, Object snapshotInfoId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, IS_INDEXED_TEMPLATE)) {
+            lease.getStatement().setObject(1, snapshotInfoId);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    /**
+     * Deletes all changes of the given snapshots and their marks without committing.
+     */
+    static void deleteAll(Connection connection, Collection<?> snapshotInfoIds) throws SQLException {
+        if(snapshotInfoIds.isEmpty()) {
+            return;
+        }
+        for(String template : List.of(DELETE_TEMPLATE, DELETE_INDEXED_SNAPSHOT_TEMPLATE)) {
+            try (StatementCache.Lease lease = StatementCache.borrow(connection, template)) {
+                for(Object snapshotInfoId : snapshotInfoIds) {
+                    lease.getStatement().setObject(1, snapshotInfoId);
+                    lease.getStatement().addBatch();
+                }
+                lease.getStatement().executeBatch();
+            }
+        }
+    }
+
+    /**
+     * @return all versions of the given relative path within the given context, oldest first.
+     */
+    static List<FileVersion> findHistory(Connection connection, String contextId, String relativePath) throws SQLException {
+        List<FileVersion> versions = new ArrayList<>();
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, SELECT_HISTORY_TEMPLATE)) {
+            lease.getStatement().setString(1, contextId);
+            lease.getStatement().setString(2, relativePath);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                while(resultSet.next()) {
+                    versions.add(new FileVersion(resultSet.getString(1), Instant.ofEpochSecond(resultSet.getLong(2)), resultSet.getBytes(3)));
+                }
+            }
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,125 @@
+package jb.engine.core.data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.exceptions.ManifestException;
+import jb.engine.services.HashService;
+import jb.engine.utils.SerDeUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Adds the changes of all snapshots created before the {@link FileVersionIndex} existed to that index. Each batch
+ * compares one snapshot with the snapshot preceding it within its context. Snapshots that were indexed in the meantime
+ * are skipped.
+ */
+class FileVersionIndexMigration implements DataMigration {
+
+    private static final Logger logger = Logger.getLogger(FileVersionIndexMigration.class.getName());
+
+    private final DatabaseToolkit<SnapshotInfo> toolkit;
+
+    FileVersionIndexMigration(DatabaseToolkit<SnapshotInfo> toolkit) {
+        this.toolkit = toolkit;
+    }
+
+    @Override
+    public String getName() {
+        return "index_" + toolkit.getTableName() + "_file_versions";
+    }
+
+    @Override
+    public Optional<String> migrateBatch(Connection connection, String position, int batchSize) throws SQLException {
+        String selectIdQuery = "SELECT id FROM " + toolkit.getTableName() + (position == null ? "" : " WHERE id > ?") + " ORDER BY id LIMIT 1";
+        String snapshotInfoId;
+        try (PreparedStatement statement = connection.prepareStatement(selectIdQuery)) {
+            if(position != null) {
+                statement.setString(1, position);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                snapshotInfoId = resultSet.getString(1);
+            }
+        }
+        if(FileVersionIndex.isIndexed(connection, snapshotInfoId)) {
+            return Optional.of(snapshotInfoId);
+        }
+        Optional<SnapshotInfo> snapshotInfo = toolkit.findById(connection, snapshotInfoId);
+        if(snapshotInfo.isEmpty()) {
+            return Optional.of(snapshotInfoId);
+        }
+        Optional<SnapshotInfo> previousSnapshotInfo = findPrevious(connection, snapshotInfo.get());
+        try {
+            List<FileVersionIndex.Change> changes = computeChanges(connection, snapshotInfo.get(), previousSnapshotInfo.orElse(null));
+            FileVersionIndex.insertAll(connection, snapshotInfo.get().getAssociatedContextId(), snapshotInfoId, snapshotInfo.get().getCreatedTime(), changes);
+            FileVersionIndex.markIndexed(connection, snapshotInfoId);
+        } catch (ManifestException e) {
+            logger.warning("Could not index file versions of snapshot " + snapshotInfoId + ": " + e);
+        }
+        return Optional.of(snapshotInfoId);
+    }
+
+    /**
+     * @return the snapshot of the same context created right before the given one.
+     */
+    private Optional<SnapshotInfo> findPrevious(Connection connection, SnapshotInfo snapshotInfo) throws SQLException {
+        String selectPreviousIdQuery = "SELECT id FROM " + toolkit.getTableName() + " WHERE " + SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME + " = ?" +
+                " AND (created_time < ? OR (created_time = ? AND id < ?)) ORDER BY created_time DESC, id DESC LIMIT 1";
+        try (PreparedStatement statement = connection.prepareStatement(selectPreviousIdQuery)) {
+            statement.setString(1, snapshotInfo.getAssociatedContextId());
+            statement.setLong(2, snapshotInfo.getCreatedTime().getEpochSecond());
+            statement.setLong(3, snapshotInfo.getCreatedTime().getEpochSecond());
+            statement.setString(4, snapshotInfo.getId());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return toolkit.findById(connection, resultSet.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Compares the manifests of the given snapshots top-down if both have one. Otherwise, their checksum maps are
+     * compared.
+     * @param previousSnapshotInfo the snapshot preceding the given one or {@code null} if there is none.
+     */
+    private List<FileVersionIndex.Change> computeChanges(Connection connection, SnapshotInfo snapshotInfo, SnapshotInfo previousSnapshotInfo) throws SQLException {
+        if(snapshotInfo.getManifestReference().isPresent() && (previousSnapshotInfo == null || previousSnapshotInfo.getManifestReference().isPresent())) {
+            try (ChecksumManifest current = ChecksumManifest.open(snapshotInfo.getManifestReference().get());
+                 ChecksumManifest previous = previousSnapshotInfo == null ? null : ChecksumManifest.open(previousSnapshotInfo.getManifestReference().get())) {
+                return FileVersionIndex.diff(previous, current);
+            }
+        }
+        Map<String, byte[]> previous = previousSnapshotInfo == null ? Map.of() : loadRelativeChecksumMap(connection, previousSnapshotInfo);
+        return FileVersionIndex.diff(previous, loadRelativeChecksumMap(connection, snapshotInfo));
+    }
+
+    /**
+     * @return the checksum map of the given snapshot from its manifest or, for snapshots created before manifests were
+     * introduced, from the database, with paths relative to its run target directory.
+     */
+    private Map<String, byte[]> loadRelativeChecksumMap(Connection connection, SnapshotInfo snapshotInfo) throws SQLException {
+        HashMap<String, byte[]> redirectedChecksumMap;
+        if(snapshotInfo.getManifestReference().isPresent()) {
+            try (ChecksumManifest manifest = ChecksumManifest.open(snapshotInfo.getManifestReference().get())) {
+                redirectedChecksumMap = manifest.toChecksumMap();
+            }
+        } else {
+            redirectedChecksumMap = toolkit.readBlobColumnById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfo.getId(),
+                            inputStream -> HashService.asSerializableChecksumMap(SerDeUtils.deserializeFrom(inputStream, HashMap.class)))
+                    .orElseGet(HashMap::new);
+        }
+        return FileVersionIndex.toRelativeChecksumMap(redirectedChecksumMap, snapshotInfo.getRunTargetDirectory());
+    }
+}
@@ -0,0 +1,101 @@
+package jb.engine.core.data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.DigestFilter;
+import jb.engine.core.manifest.DigestIndex;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.exceptions.ManifestException;
+import jb.engine.services.HashService;
+import jb.engine.utils.SerDeUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Writes a manifest, digest index and digest filter for every snapshot created before manifests were introduced and
+ * references the manifest from the snapshot's row. The serialized checksum map held inline by the row is cleared
+ * afterwards. Each batch handles one snapshot since a single snapshot may already hold millions of files.
+ * <p>Snapshots whose run target directory does not exist anymore or whose files can not be written keep their
+ * serialized checksum map and are skipped with a warning.</p>
+ */
+class LegacyManifestMigration implements DataMigration {
+
+    private static final Logger logger = Logger.getLogger(LegacyManifestMigration.class.getName());
+
+    private final DatabaseToolkit<SnapshotInfo> toolkit;
+
+    LegacyManifestMigration(DatabaseToolkit<SnapshotInfo> toolkit) {
+        this.toolkit = toolkit;
+    }
+
+    @Override
+    public String getName() {
+        return "write_" + toolkit.getTableName() + "_manifests";
+    }
+
+    @Override
+    public Optional<String> migrateBatch(Connection connection, String position, int batchSize) throws SQLException {
+        String selectIdQuery = "SELECT id FROM " + toolkit.getTableName() + " WHERE manifest_path IS NULL" + (position == null ? "" : " AND id > ?") +
+                " ORDER BY id LIMIT 1";
+        String snapshotInfoId;
+        try (PreparedStatement statement = connection.prepareStatement(selectIdQuery)) {
+            if(position != null) {
+                statement.setString(1, position);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                snapshotInfoId = resultSet.getString(1);
+            }
+        }
+        Optional<SnapshotInfo> snapshotInfo = toolkit.findById(connection, snapshotInfoId);
+        if(snapshotInfo.isEmpty()) {
+            return Optional.of(snapshotInfoId);
+        }
+        Path runTargetDirectory = snapshotInfo.get().getRunTargetDirectory();
+        if(!Files.isDirectory(runTargetDirectory)) {
+            logger.warning("Could not write manifest of snapshot " + snapshotInfoId + ": there is no run target directory at " + runTargetDirectory);
+            return Optional.of(snapshotInfoId);
+        }
+        Optional<HashMap<String, byte[]>> checksumMap = toolkit.readBlobColumnById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfoId,
+                inputStream -> HashService.asSerializableChecksumMap(SerDeUtils.deserializeFrom(inputStream, HashMap.class)));
+        if(checksumMap.isEmpty()) {
+            return Optional.of(snapshotInfoId);
+        }
+        ManifestReference manifestReference;
+        try {
+            manifestReference = ChecksumManifest.write(checksumMap.get(), ChecksumManifest.getManifestPathFor(runTargetDirectory));
+            DigestIndex.write(checksumMap.get(), DigestIndex.getIndexPathFor(runTargetDirectory));
+            DigestFilter.write(checksumMap.get().values(), DigestFilter.getFilterPathFor(runTargetDirectory));
+        } catch (ManifestException e) {
+            logger.warning("Could not write manifest of snapshot " + snapshotInfoId + ": " + e);
+            return Optional.of(snapshotInfoId);
+        }
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE " + toolkit.getTableName() +
+                " SET manifest_path = ?, manifest_length = ?, manifest_checksum = ? WHERE id = ?")) {
+            statement.setString(1, manifestReference.getPath().toString());
+            statement.setLong(2, manifestReference.getLength());
+            statement.setInt(3, manifestReference.getChecksum());
+            statement.setString(4, snapshotInfoId);
+            statement.execute();
+        }
+        // the map is read from the manifest from now on
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE " + toolkit.getTableName() +
+                " SET " + SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME + " = ? WHERE id = ?")) {
+            statement.setBytes(1, new byte[0]);
+            statement.setString(2, snapshotInfoId);
+            statement.execute();
+        }
+        logger.fine("Wrote manifest of " + checksumMap.get().size() + " paths for snapshot " + snapshotInfoId);
+        return Optional.of(snapshotInfoId);
+    }
+}
@@ -0,0 +1,50 @@
+package jb.engine.core.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * One step of the database schema. Steps are applied in the order of their versions, each within its own transaction,
+ * and recorded in the schema version table.
+ */
+public interface Migration {
+
+    /**
+     * @return the schema version reached after applying this step. Versions start at 1 and must be consecutive.
+     */
+    int getVersion();
+
+    String getDescription();
+
+    /**
+     * Applies this step using the given connection without committing.
+     */
+    void apply(Connection connection) throws SQLException;
+
+    static Migration of(int version, String description, Step step) {
+        return new Migration() {
+            @Override
+            public int getVersion() {
+                return version;
+            }
+
+            @Override
+            public String getDescription() {
+                return description;
+            }
+
+            @Override
+            public void apply(Connection connection) throws SQLException {
+                step.apply(connection);
+            }
+        };
+    }
+
+    /**
+     * The changes of a migration.
+     */
+    @FunctionalInterface
+    interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,245 @@
+package jb.engine.core.data;
+
+import jb.engine.core.CoreInfo;
+import jb.engine.exceptions.DatabaseCommunicationException;
+import jb.engine.exceptions.DatabaseInitialisationException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Brings a database to the latest schema version and converts existing data afterwards.
+ * <p>The schema version of a database is the highest version recorded in the table {@value #SCHEMA_VERSION_TABLE_NAME}.
+ * All {@link Migration} steps above that version are applied on startup, each within its own transaction.</p>
+ * <p>{@link DataMigration}s run after that in small batches, each batch being one write of the database's executor.
+ * Other writes are therefore delayed by one batch at most and the application stays usable. Their progress is stored
+ * in the table {@value #DATA_MIGRATION_TABLE_NAME} together with each batch.</p>
+ */
+public class MigrationRunner {
+
+    static final String SCHEMA_VERSION_TABLE_NAME = "schema_version";
+    static final String DATA_MIGRATION_TABLE_NAME = "data_migration";
+
+    private static final Logger logger = Logger.getLogger(MigrationRunner.class.getName());
+
+    private static final String BATCH_SIZE_PROPERTY_KEY = "database_migration_batch_size";
+    private static final String BATCH_PAUSE_PROPERTY_KEY = "database_migration_pause_ms";
+    private static final long DEFAULT_BATCH_SIZE = 16;
+    private static final long DEFAULT_BATCH_PAUSE_MS = 100;
+
+    private static final String CREATE_SCHEMA_VERSION_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS " + SCHEMA_VERSION_TABLE_NAME +
+            " (version INTEGER PRIMARY KEY, description TEXT NOT NULL, applied_time INTEGER NOT NULL)";
+    private static final String CREATE_DATA_MIGRATION_TABLE_QUERY = "CREATE TABLE IF NOT EXISTS " + DATA_MIGRATION_TABLE_NAME +
+            " (name TEXT PRIMARY KEY, position TEXT, completed INTEGER NOT NULL, updated_time INTEGER NOT NULL)";
+    private static final String SELECT_SCHEMA_VERSION_QUERY = "SELECT coalesce(max(version), 0) FROM " + SCHEMA_VERSION_TABLE_NAME;
+    private static final String INSERT_SCHEMA_VERSION_TEMPLATE = "INSERT INTO " + SCHEMA_VERSION_TABLE_NAME + " (version, description, applied_time) VALUES (?, ?, ?)";
+    private static final String SELECT_DATA_MIGRATION_TEMPLATE = "SELECT position, completed FROM " + DATA_MIGRATION_TABLE_NAME + " WHERE name = ?";
+    private static final String UPSERT_DATA_MIGRATION_TEMPLATE = "INSERT INTO " + DATA_MIGRATION_TABLE_NAME + " (name, position, completed, updated_time) VALUES (?, ?, ?, ?)" +
+            " ON CONFLICT (name) DO UPDATE SET position = excluded.position, completed = excluded.completed, updated_time = excluded.updated_time";
+
+    private final List<Migration> migrations;
+    private final List<DataMigration> dataMigrations;
+    private final int batchSize = (int) Math.max(1, CoreInfo.getLongProperty(BATCH_SIZE_PROPERTY_KEY, DEFAULT_BATCH_SIZE));
+    private final long batchPauseMillis = Math.max(0, CoreInfo.getLongProperty(BATCH_PAUSE_PROPERTY_KEY, DEFAULT_BATCH_PAUSE_MS));
+
+    /**
+     * @param migrations schema steps ordered by version, starting at version 1 without gaps.
+     * @param dataMigrations conversions of existing data, run one after another in the given order.
+     */
+    public MigrationRunner(List<Migration> migrations, List<DataMigration> dataMigrations) {
+        for(int i = 0; i < migrations.size(); i++) {
+            if(migrations.get(i).getVersion() != i + 1) {
+                throw new IllegalArgumentException("Migration " + migrations.get(i).getDescription() + " has version " + migrations.get(i).getVersion() + " instead of " + (i + 1));
+            }
+        }
+        this.migrations = List.copyOf(migrations);
+        this.dataMigrations = List.copyOf(dataMigrations);
+    }
+
+    /**
+     * @return the version reached after applying all known schema steps.
+     */
+    public int getLatestVersion() {
+        return migrations.size();
+    }
+
+    /**
+     * @return the schema version of the database of the given connection. Databases that were created before schema
+     * versions were recorded have version 0.
+     */
+    public static int getSchemaVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_SCHEMA_VERSION_TABLE_QUERY);
+            try (ResultSet resultSet = statement.executeQuery(SELECT_SCHEMA_VERSION_QUERY)) {
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Applies all schema steps above the current version of the database of the given connection. A failing step is
+     * rolled back, steps applied before remain.
+     * @throws DatabaseInitialisationException if a step fails or the database was written by a newer version of this
+     * application.
+     */
+    public void migrateSchema(Connection connection) throws DatabaseInitialisationException {
+        int currentVersion;
+        try {
+            currentVersion = getSchemaVersion(connection);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_DATA_MIGRATION_TABLE_QUERY);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new DatabaseInitialisationException("Could not read schema version: " + e, e);
+        }
+        if(currentVersion > getLatestVersion()) {
+            throw new DatabaseInitialisationException("Database has schema version " + currentVersion + " but this application only knows versions up to " + getLatestVersion());
+        }
+        for(Migration migration : migrations.subList(currentVersion, migrations.size())) {
+            try {
+                migration.apply(connection);
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_SCHEMA_VERSION_TEMPLATE)) {
+                    statement.setInt(1, migration.getVersion());
+                    statement.setString(2, migration.getDescription());
+                    statement.setLong(3, Instant.now().getEpochSecond());
+                    statement.execute();
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+                throw new DatabaseInitialisationException("Could not migrate schema to version " + migration.getVersion() + " (" + migration.getDescription() + "): " + e, e);
+            }
+            logger.info("Migrated schema to version " + migration.getVersion() + ": " + migration.getDescription());
+        }
+    }
+
+    /**
+     * Runs all data migrations that are not completed yet on the given store in the background. Each batch is submitted
+     * after the previous one was committed and a short pause. Stops silently once the store is closed.
+     * @return a future completing after all data migrations are completed or a batch failed. It never completes
+     * exceptionally.
+     */
+    CompletableFuture<Void> startDataMigrations(DatabaseStore store) {
+        CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+        for(DataMigration dataMigration : dataMigrations) {
+            result = result.thenCompose(ignored -> runInBatches(store, dataMigration));
+        }
+        return result.exceptionally(e -> {
+            logger.warning("Data migration on " + store.getUrl() + " stopped and continues upon next start: " + e);
+            return null;
+        });
+    }
+
+    /**
+     * Runs one batch of the given data migration and commits it together with the position reached. A failing batch is
+     * rolled back.
+     * @return true, if the migration is completed.
+     */
+    public boolean migrateDataBatch(Connection connection, DataMigration dataMigration) throws DatabaseCommunicationException {
+        try {
+            boolean completed = runBatch(connection, dataMigration);
+            connection.commit();
+            return completed;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                e.addSuppressed(rollbackException);
+            }
+            if(e instanceof DatabaseCommunicationException) {
+                throw (DatabaseCommunicationException) e;
+            }
+            throw new DatabaseCommunicationException("Could not run data migration " + dataMigration.getName() + ": " + e, e);
+        }
+    }
+
+    /**
+     * Runs all data migrations that are not completed yet on the calling thread.
+     */
+    public void migrateAllData(Connection connection) throws DatabaseCommunicationException {
+        for(DataMigration dataMigration : dataMigrations) {
+            while(!migrateDataBatch(connection, dataMigration)) {
+                // next batch
+            }
+        }
+    }
+
+    /**
+     * @return the names of all data migrations that are not completed yet.
+     */
+    public List<String> findPendingDataMigrations(Connection connection) throws DatabaseCommunicationException {
+        List<String> pendingNames = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_DATA_MIGRATION_TEMPLATE)) {
+            for(DataMigration dataMigration : dataMigrations) {
+                statement.setString(1, dataMigration.getName());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if(!resultSet.next() || !resultSet.getBoolean(2)) {
+                        pendingNames.add(dataMigration.getName());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Could not read progress of data migrations: " + e, e);
+        }
+        return pendingNames;
+    }
+
+    /**
+     * Runs one batch of the given data migration and stores the position reached without committing.
+     * @return true, if the migration is completed.
+     */
+    private boolean runBatch(Connection connection, DataMigration dataMigration) throws SQLException {
+        Optional<String> position = Optional.empty();
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_DATA_MIGRATION_TEMPLATE)) {
+            statement.setString(1, dataMigration.getName());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if(resultSet.next()) {
+                    if(resultSet.getBoolean(2)) {
+                        return true;
+                    }
+                    position = Optional.ofNullable(resultSet.getString(1));
+                }
+            }
+        }
+        Optional<String> reachedPosition = dataMigration.migrateBatch(connection, position.orElse(null), batchSize);
+        try (PreparedStatement statement = connection.prepareStatement(UPSERT_DATA_MIGRATION_TEMPLATE)) {
+            statement.setString(1, dataMigration.getName());
+            statement.setString(2, reachedPosition.orElse(position.orElse(null)));
+            statement.setBoolean(3, reachedPosition.isEmpty());
+            statement.setLong(4, Instant.now().getEpochSecond());
+            statement.execute();
+        }
+        if(reachedPosition.isEmpty()) {
+            logger.info("Completed data migration " + dataMigration.getName());
+        }
+        return reachedPosition.isEmpty();
+    }
+
+    private CompletableFuture<Void> runInBatches(DatabaseStore store, DataMigration dataMigration) {
+        // each batch is committed by the executor, possibly together with other queued writes
+        return store.submitWrite(null, writer -> runBatch(writer, dataMigration))
+                .thenCompose(completed -> {
+                    if(completed) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    Executor pause = CompletableFuture.delayedExecutor(batchPauseMillis, TimeUnit.MILLISECONDS);
+                    return CompletableFuture.supplyAsync(() -> null, pause).thenCompose(ignored -> runInBatches(store, dataMigration));
+                });
+    }
+}
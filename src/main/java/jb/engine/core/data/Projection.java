@@ -0,0 +1,47 @@
+package jb.engine.core.data;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A typed selection of some columns of the table belonging to a {@link DatabaseToolkit}. Projections are used to read
+ * only the values needed by a caller instead of complete objects.
+ * @param <R> the type each selected row is mapped to.
+ */
+public class Projection<R> {
+
+    private final List<String> columnNames;
+    private final RowFunction<R> rowFunction;
+
+    /**
+     * @param rowFunction function mapping a row holding the values of the given columns to the result type.
+     * @param columnNames names of the selected columns.
+     */
+    public static <R> Projection<R> of(RowFunction<R> rowFunction, String... columnNames) {
+        if(columnNames.length == 0) {
+            throw new IllegalArgumentException("A projection needs to select at least one column");
+        }
+        return new Projection<>(List.of(columnNames), rowFunction);
+    }
+
+    private Projection(List<String> columnNames, RowFunction<R> rowFunction) {
+        this.columnNames = columnNames;
+        this.rowFunction = rowFunction;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    R map(EntityRow row) throws SQLException {
+        return rowFunction.apply(row);
+    }
+
+    /**
+     * Maps a single row of a projection to some result.
+     */
+    @FunctionalInterface
+    public interface RowFunction<R> {
+        R apply(EntityRow row) throws SQLException;
+    }
+}
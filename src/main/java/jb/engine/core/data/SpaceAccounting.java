@@ -0,0 +1,477 @@
+package jb.engine.core.data;
+
+import jb.engine.core.SpaceUsage;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Incremental accounting of the disk space used by the snapshots of a context. Every checksum of an accounted snapshot
+ * is recorded once per context together with the size of the file stored for it and the snapshot storing that file, if
+ * known, and the number of accounted snapshots referencing it, either by storing or by linking it. The counters of each
+ * snapshot and context are updated whenever a snapshot is accounted or released, hence reading them is a single primary
+ * key lookup.
+ * <p>A snapshot's exclusive bytes are the bytes of the files it stores whose checksums are referenced by no other
+ * snapshot. To find the snapshot left as the only one referencing a checksum after another one was released, each
+ * checksum also holds the sum of the keys of its referencing snapshots: with a single reference, the sum is that
+ * snapshot's key. Releasing the snapshot storing a file deletes the file together with its run directory, hence its
+ * checksum is forgotten even if other snapshots still link it. Files are counted once per checksum and snapshot.
+ * Snapshots created before the accounting existed are not accounted.</p>
+ * <p>The checksums of a snapshot are accounted and released in batches so that other writes are not held up. Each
+ * snapshot records how many of its checksums, taken in the order they are passed in, are accounted, hence batches can
+ * be resumed after a failure and a snapshot is only reported once all of its checksums are accounted.</p>
+ * <p>The sizes of the files stored by a snapshot are staged in a table of their own before its checksums are accounted,
+ * so that neither is held in memory. Staged sizes are deleted once the snapshot is accounted.</p>
+ */
+class SpaceAccounting {
+
+    static final String DIGEST_TABLE_NAME = "space_digest";
+    static final String SNAPSHOT_TABLE_NAME = "space_snapshot";
+    static final String CONTEXT_TABLE_NAME = "space_context";
+    static final String STORED_TABLE_NAME = "space_stored";
+
+    private static final List<String> CREATE_QUERIES = List.of(
+            "CREATE TABLE IF NOT EXISTS " + DIGEST_TABLE_NAME + " (context_id TEXT NOT NULL, digest BLOB NOT NULL, byte_count INTEGER, storing_key INTEGER, " +
+                    "reference_count INTEGER NOT NULL, referencing_key_sum INTEGER NOT NULL, PRIMARY KEY (context_id, digest))",
+            "CREATE TABLE IF NOT EXISTS " + SNAPSHOT_TABLE_NAME + " (snapshot_key INTEGER PRIMARY KEY, snapshot_info_id TEXT NOT NULL UNIQUE, " +
+                    "context_id TEXT NOT NULL, logical_byte_count INTEGER NOT NULL, stored_byte_count INTEGER NOT NULL, " +
+                    "exclusive_byte_count INTEGER NOT NULL, digest_count INTEGER NOT NULL, accounted_digest_count INTEGER NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS idx_" + SNAPSHOT_TABLE_NAME + "_context_id ON " + SNAPSHOT_TABLE_NAME + " (context_id)",
+            "CREATE TABLE IF NOT EXISTS " + CONTEXT_TABLE_NAME + " (context_id TEXT PRIMARY KEY, " +
+                    "logical_byte_count INTEGER NOT NULL, stored_byte_count INTEGER NOT NULL, exclusive_byte_count INTEGER NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS " + STORED_TABLE_NAME + " (context_id TEXT NOT NULL, snapshot_info_id TEXT NOT NULL, digest BLOB NOT NULL, " +
+                    "byte_count INTEGER NOT NULL, PRIMARY KEY (snapshot_info_id, digest))"
+    );
+    private static final String SELECT_DIGEST_TEMPLATE = "SELECT byte_count, storing_key, reference_count, referencing_key_sum FROM " + DIGEST_TABLE_NAME +
+            " WHERE context_id = ? AND digest = ?";
+    private static final String INSERT_DIGEST_TEMPLATE = "INSERT INTO " + DIGEST_TABLE_NAME +
+            " (context_id, digest, byte_count, storing_key, reference_count, referencing_key_sum) VALUES (?, ?, ?, ?, 1, ?)";
+    private static final String UPDATE_DIGEST_TEMPLATE = "UPDATE " + DIGEST_TABLE_NAME + " SET reference_count = reference_count + ?," +
+            " referencing_key_sum = referencing_key_sum + ?, byte_count = coalesce(byte_count, ?), storing_key = coalesce(storing_key, ?)" +
+            " WHERE context_id = ? AND digest = ?";
+    private static final String DELETE_DIGEST_TEMPLATE = "DELETE FROM " + DIGEST_TABLE_NAME + " WHERE context_id = ? AND digest = ?";
+    private static final String DELETE_OWN_DIGESTS_TEMPLATE = "DELETE FROM " + DIGEST_TABLE_NAME +
+            " WHERE context_id = ?1 AND (storing_key = ?2 OR (reference_count = 1 AND referencing_key_sum = ?2))";
+    private static final String SELECT_SNAPSHOT_TEMPLATE = "SELECT snapshot_key, context_id, logical_byte_count, stored_byte_count, exclusive_byte_count," +
+            " digest_count, accounted_digest_count FROM " + SNAPSHOT_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String INSERT_SNAPSHOT_TEMPLATE = "INSERT INTO " + SNAPSHOT_TABLE_NAME +
+            " (snapshot_info_id, context_id, logical_byte_count, stored_byte_count, exclusive_byte_count, digest_count, accounted_digest_count)" +
+            " VALUES (?, ?, ?, ?, 0, ?, 0)";
+    private static final String UPDATE_ACCOUNTED_DIGEST_COUNT_TEMPLATE = "UPDATE " + SNAPSHOT_TABLE_NAME + " SET accounted_digest_count = ?" +
+            " WHERE snapshot_key = ?";
+    private static final String UPDATE_SNAPSHOT_EXCLUSIVE_TEMPLATE = "UPDATE " + SNAPSHOT_TABLE_NAME + " SET exclusive_byte_count = exclusive_byte_count + ?" +
+            " WHERE snapshot_key = ?";
+    private static final String DELETE_SNAPSHOT_TEMPLATE = "DELETE FROM " + SNAPSHOT_TABLE_NAME + " WHERE snapshot_key = ?";
+    private static final String SELECT_CONTEXT_TEMPLATE = "SELECT logical_byte_count, stored_byte_count, exclusive_byte_count FROM " + CONTEXT_TABLE_NAME +
+            " WHERE context_id = ?";
+    private static final String INSERT_STORED_TEMPLATE = "INSERT OR REPLACE INTO " + STORED_TABLE_NAME +
+            " (context_id, snapshot_info_id, digest, byte_count) VALUES (?, ?, ?, ?)";
+    private static final String SELECT_STORED_TEMPLATE = "SELECT byte_count FROM " + STORED_TABLE_NAME + " WHERE snapshot_info_id = ? AND digest = ?";
+    private static final String DELETE_STORED_TEMPLATE = "DELETE FROM " + STORED_TABLE_NAME + " WHERE snapshot_info_id = ?";
+    private static final String UPSERT_CONTEXT_TEMPLATE = "INSERT INTO " + CONTEXT_TABLE_NAME +
+            " (context_id, logical_byte_count, stored_byte_count, exclusive_byte_count) VALUES (?, ?, ?, ?)" +
+            " ON CONFLICT (context_id) DO UPDATE SET logical_byte_count = logical_byte_count + excluded.logical_byte_count," +
+            " stored_byte_count = stored_byte_count + excluded.stored_byte_count, exclusive_byte_count = exclusive_byte_count + excluded.exclusive_byte_count";
+
+    private SpaceAccounting() {
+    }
+
+    static void createIfNotExists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for(String query : CREATE_QUERIES) {
+                statement.execute(query);
+            }
+        }
+    }
+
+    /**
+     * Stages the sizes of files stored by the given snapshot without committing. Staging the same checksum again
+     * replaces its size.
+     * @param storedDigestSizes the size of each file copied into the snapshot's run target directory by its checksum.
+     */
+    static void stageStoredSizes(Connection connection, String contextId, String snapshotInfoId,
+                                 Collection<Map.Entry<ByteBuffer, Long>> storedDigestSizes) throws SQLException {
+        try (StatementCache.Lease insert = StatementCache.borrow(connection, INSERT_STORED_TEMPLATE)) {
+            for(Map.Entry<ByteBuffer, Long> storedDigestSize : storedDigestSizes) {
+                insert.getStatement().setString(1, contextId);
+                insert.getStatement().setString(2, snapshotInfoId);
+                insert.getStatement().setBytes(3, toBytes(storedDigestSize.getKey()));
+                insert.getStatement().setLong(4, storedDigestSize.getValue());
+                insert.getStatement().addBatch();
+            }
+            insert.getStatement().executeBatch();
+        }
+    }
+
+    /**
+     * Starts accounting a new snapshot without committing. Its checksums are accounted by
+     * {@link #accountBatch(Connection, String, List, int)} afterwards.
+     * @param digestCount the number of distinct checksums of all files and directories of the snapshot.
+     * @return false, if the snapshot was accounted before or is being accounted.
+     */
+    static boolean begin(Connection connection, String contextId, String snapshotInfoId, long logicalByteCount, long storedByteCount,
+                         int digestCount) throws SQLException {
+        if(findSnapshotEntry(connection, snapshotInfoId).isPresent()) {
+            return false;
+        }
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, INSERT_SNAPSHOT_TEMPLATE)) {
+            lease.getStatement().setString(1, snapshotInfoId);
+            lease.getStatement().setString(2, contextId);
+            lease.getStatement().setLong(3, logicalByteCount);
+            lease.getStatement().setLong(4, storedByteCount);
+            lease.getStatement().setInt(5, digestCount);
+            lease.getStatement().execute();
+        }
+        updateContext(connection, contextId, logicalByteCount, storedByteCount, 0);
+        return true;
+    }
+
+    /**
+     * Accounts the next checksums of the given snapshot that are not accounted yet without committing. Checksums that
+     * are not known yet are recorded together with their stored size, if the snapshot stored them, see
+     * {@link #stageStoredSizes(Connection, String, String, Collection)}. All others are referenced by the snapshot.
+     * The staged sizes are deleted once all checksums are accounted.
+     * @param digests the distinct checksums of all files and directories of the snapshot, in the same order for all
+     *                batches.
+     * @param batchSize the maximum number of checksums to account.
+     * @return true, if all checksums of the snapshot are accounted afterwards.
+     */
+    static boolean accountBatch(Connection connection, String snapshotInfoId, List<ByteBuffer> digests, int batchSize) throws SQLException {
+        Optional<SnapshotEntry> snapshotEntry = findSnapshotEntry(connection, snapshotInfoId);
+        if(snapshotEntry.isEmpty()) {
+            return false;
+        }
+        String contextId = snapshotEntry.get().contextId;
+        long snapshotKey = snapshotEntry.get().snapshotKey;
+        int start = snapshotEntry.get().accountedDigestCount;
+        int end = Math.min(digests.size(), start + batchSize);
+        Map<Long, Long> exclusiveDeltas = new HashMap<>();
+        try (StatementCache.Lease select = StatementCache.borrow(connection, SELECT_DIGEST_TEMPLATE);
+             StatementCache.Lease selectStored = StatementCache.borrow(connection, SELECT_STORED_TEMPLATE);
+             StatementCache.Lease insert = StatementCache.borrow(connection, INSERT_DIGEST_TEMPLATE);
+             StatementCache.Lease update = StatementCache.borrow(connection, UPDATE_DIGEST_TEMPLATE)) {
+            // the checksums are distinct, hence their rows are not changed by the statements added to the batches
+            for(ByteBuffer digest : digests.subList(start, end)) {
+                Long storedSize = findStoredSize(selectStored.getStatement(), snapshotInfoId, digest);
+                Optional<DigestEntry> entry = findDigest(select.getStatement(), contextId, digest);
+                if(entry.isEmpty()) {
+                    insert.getStatement().setString(1, contextId);
+                    insert.getStatement().setBytes(2, toBytes(digest));
+                    insert.getStatement().setObject(3, storedSize);
+                    insert.getStatement().setObject(4, storedSize == null ? null : snapshotKey);
+                    insert.getStatement().setLong(5, snapshotKey);
+                    insert.getStatement().addBatch();
+                    exclusiveDeltas.merge(snapshotKey, storedSize == null ? 0 : storedSize, Long::sum);
+                    continue;
+                }
+                addDigestUpdate(update.getStatement(), contextId, digest, 1, snapshotKey, storedSize, storedSize == null ? null : snapshotKey);
+                if(entry.get().referenceCount == 1 && entry.get().isStoredBy(entry.get().referencingKeySum)) {
+                    // the only snapshot referencing this checksum shares its file from now on
+                    exclusiveDeltas.merge(entry.get().referencingKeySum, -entry.get().getByteCount(), Long::sum);
+                }
+            }
+            insert.getStatement().executeBatch();
+            update.getStatement().executeBatch();
+        }
+        updateAccountedDigestCount(connection, snapshotKey, end);
+        updateContext(connection, contextId, 0, 0, applyExclusiveDeltas(connection, exclusiveDeltas));
+        if(end < snapshotEntry.get().digestCount) {
+            return false;
+        }
+        deleteStoredSizes(connection, snapshotInfoId);
+        return true;
+    }
+
+    /**
+     * Releases the last accounted checksums of a snapshot that is about to be deleted without committing. Checksums
+     * referenced only by the snapshot or whose files it stores are forgotten, all others are no longer referenced by
+     * it. Once all of its checksums are released, the snapshot is forgotten.
+     * @param digests the checksums passed to {@link #accountBatch(Connection, String, List, int)} or an empty list
+     *                to forget the snapshot right away, keeping its references to files of other snapshots.
+     * @param batchSize the maximum number of checksums to release.
+     * @return false, if the snapshot is not accounted (anymore).
+     */
+    static boolean releaseBatch(Connection connection, String snapshotInfoId, List<ByteBuffer> digests, int batchSize) throws SQLException {
+        Optional<SnapshotEntry> snapshotEntry = findSnapshotEntry(connection, snapshotInfoId);
+        if(snapshotEntry.isEmpty()) {
+            return false;
+        }
+        String contextId = snapshotEntry.get().contextId;
+        long snapshotKey = snapshotEntry.get().snapshotKey;
+        int end = Math.min(digests.size(), snapshotEntry.get().accountedDigestCount);
+        int start = Math.max(0, end - batchSize);
+        Map<Long, Long> exclusiveDeltas = new HashMap<>();
+        try (StatementCache.Lease select = StatementCache.borrow(connection, SELECT_DIGEST_TEMPLATE);
+             StatementCache.Lease update = StatementCache.borrow(connection, UPDATE_DIGEST_TEMPLATE);
+             StatementCache.Lease delete = StatementCache.borrow(connection, DELETE_DIGEST_TEMPLATE)) {
+            for(ByteBuffer digest : digests.subList(start, end)) {
+                Optional<DigestEntry> entry = findDigest(select.getStatement(), contextId, digest);
+                if(entry.isEmpty()) {
+                    continue;
+                }
+                if(entry.get().referenceCount == 1 || entry.get().isStoredBy(snapshotKey)) {
+                    // links of other snapshots to a file deleted together with this snapshot do not keep the file
+                    delete.getStatement().setString(1, contextId);
+                    delete.getStatement().setBytes(2, toBytes(digest));
+                    delete.getStatement().addBatch();
+                    if(entry.get().referenceCount == 1 && entry.get().isStoredBy(snapshotKey)) {
+                        exclusiveDeltas.merge(snapshotKey, -entry.get().getByteCount(), Long::sum);
+                    }
+                    continue;
+                }
+                addDigestUpdate(update.getStatement(), contextId, digest, -1, -snapshotKey, null, null);
+                long remainingKey = entry.get().referencingKeySum - snapshotKey;
+                if(entry.get().referenceCount == 2 && entry.get().isStoredBy(remainingKey)) {
+                    // the snapshot storing the file is the only one referencing this checksum from now on
+                    exclusiveDeltas.merge(remainingKey, entry.get().getByteCount(), Long::sum);
+                }
+            }
+            delete.getStatement().executeBatch();
+            update.getStatement().executeBatch();
+        }
+        long exclusiveDelta = applyExclusiveDeltas(connection, exclusiveDeltas);
+        if(start > 0) {
+            updateAccountedDigestCount(connection, snapshotKey, start);
+            updateContext(connection, contextId, 0, 0, exclusiveDelta);
+            return true;
+        }
+        // the exclusive bytes of the snapshot itself are subtracted as a whole
+        forget(connection, snapshotEntry.get(), exclusiveDelta - exclusiveDeltas.getOrDefault(snapshotKey, 0L));
+        return true;
+    }
+
+    /**
+     * Forgets the given snapshots, the checksums referenced only by them and those of the files they store without
+     * committing. Unlike {@link #releaseBatch(Connection, String, List, int)}, references to files of other snapshots
+     * are kept.
+     */
+    static void deleteAll(Connection connection, Collection<?> snapshotInfoIds) throws SQLException {
+        for(Object snapshotInfoId : snapshotInfoIds) {
+            Optional<SnapshotEntry> snapshotEntry = findSnapshotEntry(connection, snapshotInfoId.toString());
+            if(snapshotEntry.isPresent()) {
+                forget(connection, snapshotEntry.get(), 0);
+            } else {
+                // sizes staged before accounting the snapshot began
+                deleteStoredSizes(connection, snapshotInfoId.toString());
+            }
+        }
+    }
+
+    /**
+     * Deletes all accounting data of the given context without committing.
+     */
+    static void deleteContext(Connection connection, String contextId) throws SQLException {
+        for(String tableName : List.of(DIGEST_TABLE_NAME, SNAPSHOT_TABLE_NAME, CONTEXT_TABLE_NAME, STORED_TABLE_NAME)) {
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + tableName + " WHERE context_id = ?")) {
+                statement.setString(1, contextId);
+                statement.execute();
+            }
+        }
+    }
+
+    /**
+     * @return the space used by the given snapshot. Empty if it is not accounted or not all of its checksums are.
+     */
+    static Optional<SpaceUsage> findSnapshotUsage(Connection connection, String snapshotInfoId) throws SQLException {
+        return findSnapshotEntry(connection, snapshotInfoId)
+                .filter(entry -> entry.accountedDigestCount == entry.digestCount)
+                .map(entry -> entry.usage);
+    }
+
+    static Optional<SpaceUsage> findContextUsage(Connection connection, String contextId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, SELECT_CONTEXT_TEMPLATE)) {
+            lease.getStatement().setString(1, contextId);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new SpaceUsage(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3)));
+            }
+        }
+    }
+
+    /**
+     * @return the size of each of the given checksums copied by an accounted snapshot of the given context. Checksums
+     * of unknown size are left out.
+     */
+    static Map<ByteBuffer, Long> findByteCounts(Connection connection, String contextId, Collection<ByteBuffer> digests) throws SQLException {
+        Map<ByteBuffer, Long> byteCounts = new HashMap<>();
+        try (StatementCache.Lease select = StatementCache.borrow(connection, SELECT_DIGEST_TEMPLATE)) {
+            for(ByteBuffer digest : digests) {
+                Optional<DigestEntry> digestEntry = findDigest(select.getStatement(), contextId, digest);
+                if(digestEntry.isPresent() && digestEntry.get().byteCount != null) {
+                    byteCounts.put(digest, digestEntry.get().byteCount);
+                }
+            }
+        }
+        return byteCounts;
+    }
+
+    /**
+     * @param exclusiveDeltaOfOthers the change of the exclusive bytes of other snapshots caused by releasing the given one.
+     */
+    private static void forget(Connection connection, SnapshotEntry snapshotEntry, long exclusiveDeltaOfOthers) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, DELETE_OWN_DIGESTS_TEMPLATE)) {
+            lease.getStatement().setString(1, snapshotEntry.contextId);
+            lease.getStatement().setLong(2, snapshotEntry.snapshotKey);
+            lease.getStatement().execute();
+        }
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, DELETE_SNAPSHOT_TEMPLATE)) {
+            lease.getStatement().setLong(1, snapshotEntry.snapshotKey);
+            lease.getStatement().execute();
+        }
+        // sizes of a snapshot released before all of its checksums were accounted
+        deleteStoredSizes(connection, snapshotEntry.snapshotInfoId);
+        SpaceUsage usage = snapshotEntry.usage;
+        updateContext(connection, snapshotEntry.contextId, -usage.getLogicalByteCount(), -usage.getStoredByteCount(),
+                exclusiveDeltaOfOthers - usage.getExclusiveByteCount());
+    }
+
+    private static Optional<DigestEntry> findDigest(PreparedStatement select, String contextId, ByteBuffer digest) throws SQLException {
+        select.setString(1, contextId);
+        select.setBytes(2, toBytes(digest));
+        try (ResultSet resultSet = select.executeQuery()) {
+            if(!resultSet.next()) {
+                return Optional.empty();
+            }
+            long byteCount = resultSet.getLong(1);
+            Long nullableByteCount = resultSet.wasNull() ? null : byteCount;
+            long storingKey = resultSet.getLong(2);
+            return Optional.of(new DigestEntry(nullableByteCount, resultSet.wasNull() ? null : storingKey, resultSet.getLong(3), resultSet.getLong(4)));
+        }
+    }
+
+    /**
+     * @return the size staged for the given checksum of the given snapshot or {@code null} if the snapshot did not store it.
+     */
+    private static Long findStoredSize(PreparedStatement select, String snapshotInfoId, ByteBuffer digest) throws SQLException {
+        select.setString(1, snapshotInfoId);
+        select.setBytes(2, toBytes(digest));
+        try (ResultSet resultSet = select.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : null;
+        }
+    }
+
+    private static void deleteStoredSizes(Connection connection, String snapshotInfoId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, DELETE_STORED_TEMPLATE)) {
+            lease.getStatement().setString(1, snapshotInfoId);
+            lease.getStatement().execute();
+        }
+    }
+
+    private static Optional<SnapshotEntry> findSnapshotEntry(Connection connection, String snapshotInfoId) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, SELECT_SNAPSHOT_TEMPLATE)) {
+            lease.getStatement().setString(1, snapshotInfoId);
+            try (ResultSet resultSet = lease.getStatement().executeQuery()) {
+                if(!resultSet.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new SnapshotEntry(resultSet.getLong(1), snapshotInfoId, resultSet.getString(2),
+                        new SpaceUsage(resultSet.getLong(3), resultSet.getLong(4), resultSet.getLong(5)), resultSet.getInt(6), resultSet.getInt(7)));
+            }
+        }
+    }
+
+    private static void addDigestUpdate(PreparedStatement update, String contextId, ByteBuffer digest, int referenceDelta, long keyDelta,
+                                        Long byteCount, Long storingKey) throws SQLException {
+        update.setInt(1, referenceDelta);
+        update.setLong(2, keyDelta);
+        update.setObject(3, byteCount);
+        update.setObject(4, storingKey);
+        update.setString(5, contextId);
+        update.setBytes(6, toBytes(digest));
+        update.addBatch();
+    }
+
+    private static void updateAccountedDigestCount(Connection connection, long snapshotKey, int accountedDigestCount) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, UPDATE_ACCOUNTED_DIGEST_COUNT_TEMPLATE)) {
+            lease.getStatement().setInt(1, accountedDigestCount);
+            lease.getStatement().setLong(2, snapshotKey);
+            lease.getStatement().execute();
+        }
+    }
+
+    /**
+     * @return the sum of all applied deltas.
+     */
+    private static long applyExclusiveDeltas(Connection connection, Map<Long, Long> exclusiveDeltas) throws SQLException {
+        long sum = 0;
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, UPDATE_SNAPSHOT_EXCLUSIVE_TEMPLATE)) {
+            for(Map.Entry<Long, Long> exclusiveDelta : exclusiveDeltas.entrySet()) {
+                lease.getStatement().setLong(1, exclusiveDelta.getValue());
+                lease.getStatement().setLong(2, exclusiveDelta.getKey());
+                lease.getStatement().execute();
+                sum += exclusiveDelta.getValue();
+            }
+        }
+        return sum;
+    }
+
+    private static void updateContext(Connection connection, String contextId, long logicalDelta, long storedDelta, long exclusiveDelta) throws SQLException {
+        try (StatementCache.Lease lease = StatementCache.borrow(connection, UPSERT_CONTEXT_TEMPLATE)) {
+            lease.getStatement().setString(1, contextId);
+            lease.getStatement().setLong(2, logicalDelta);
+            lease.getStatement().setLong(3, storedDelta);
+            lease.getStatement().setLong(4, exclusiveDelta);
+            lease.getStatement().execute();
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer digest) {
+        byte[] bytes = new byte[digest.remaining()];
+        digest.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static class DigestEntry {
+        private final Long byteCount;
+        private final Long storingKey;
+        private final long referenceCount;
+        private final long referencingKeySum;
+
+        private DigestEntry(Long byteCount, Long storingKey, long referenceCount, long referencingKeySum) {
+            this.byteCount = byteCount;
+            this.storingKey = storingKey;
+            this.referenceCount = referenceCount;
+            this.referencingKeySum = referencingKeySum;
+        }
+
+        /**
+         * @return the size of the file stored for this checksum or 0 if it is unknown.
+         */
+        private long getByteCount() {
+            return byteCount == null ? 0 : byteCount;
+        }
+
+        private boolean isStoredBy(long snapshotKey) {
+            return storingKey != null && storingKey == snapshotKey;
+        }
+    }
+
+    private static class SnapshotEntry {
+        private final long snapshotKey;
+        private final String snapshotInfoId;
+        private final String contextId;
+        private final SpaceUsage usage;
+        private final int digestCount;
+        private final int accountedDigestCount;
+
+        private SnapshotEntry(long snapshotKey, String snapshotInfoId, String contextId, SpaceUsage usage, int digestCount, int accountedDigestCount) {
+            this.snapshotKey = snapshotKey;
+            this.snapshotInfoId = snapshotInfoId;
+            this.contextId = contextId;
+            this.usage = usage;
+            this.digestCount = digestCount;
+            this.accountedDigestCount = accountedDigestCount;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package jb.engine.core.data;
+
+import jb.engine.core.CoreInfo;
+import jb.engine.exceptions.DatabaseCommunicationException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Connections to one SQLite database file in WAL mode: a single writer connection whose usage is serialized and a small
+ * pool of read-only connections. Since readers in WAL mode are not blocked by the writer, reads proceed while a
+ * long-running write transaction is open.
+ * <p>The pragmas applied to all connections are read from the application properties.</p>
+ */
+class SqliteDatabase implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(SqliteDatabase.class.getName());
+
+    private static final String READER_COUNT_PROPERTY_KEY = "database_reader_count";
+    private static final String SYNCHRONOUS_PROPERTY_KEY = "database_synchronous";
+    private static final String CACHE_SIZE_PROPERTY_KEY = "database_cache_size_kb";
+    private static final String MMAP_SIZE_PROPERTY_KEY = "database_mmap_size_mb";
+    private static final String TEMP_STORE_PROPERTY_KEY = "database_temp_store";
+    private static final String BUSY_TIMEOUT_PROPERTY_KEY = "database_busy_timeout_ms";
+
+    private static final long DEFAULT_READER_COUNT = 2;
+    private static final String DEFAULT_SYNCHRONOUS = "NORMAL";
+    private static final long DEFAULT_CACHE_SIZE_KB = 16 * 1024;
+    private static final long DEFAULT_MMAP_SIZE_MB = 256;
+    private static final String DEFAULT_TEMP_STORE = "MEMORY";
+    private static final long DEFAULT_BUSY_TIMEOUT_MS = 5000;
+
+    private static final Set<String> SYNCHRONOUS_VALUES = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final Set<String> TEMP_STORE_VALUES = Set.of("DEFAULT", "FILE", "MEMORY");
+
+    private final Connection writer;
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final List<Connection> readers = new ArrayList<>();
+    private final BlockingQueue<Connection> idleReaders;
+
+    /**
+     * Opens all connections to the database at the given url and switches the database to WAL mode.
+     */
+    SqliteDatabase(String url) throws SQLException {
+        int readerCount = (int) Math.max(1, CoreInfo.getLongProperty(READER_COUNT_PROPERTY_KEY, DEFAULT_READER_COUNT));
+        idleReaders = new ArrayBlockingQueue<>(readerCount);
+        writer = DriverManager.getConnection(url);
+        try {
+            applyPragmas(writer);
+            executePragma(writer, "journal_mode = WAL");
+            executePragma(writer, "synchronous = " + getEnumProperty(SYNCHRONOUS_PROPERTY_KEY, DEFAULT_SYNCHRONOUS, SYNCHRONOUS_VALUES));
+            writer.setAutoCommit(false);
+            for(int i = 0; i < readerCount; i++) {
+                Connection reader = DriverManager.getConnection(url);
+                readers.add(reader);
+                applyPragmas(reader);
+                executePragma(reader, "query_only = ON");
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the only connection allowed to write. Writes should be done within {@link #runExclusively(SqlAction)}.
+     */
+    Connection getWriter() {
+        return writer;
+    }
+
+    /**
+     * Runs the given action while no other thread is allowed to run actions via this method. Used to serialize all
+     * transactions on the writer connection.
+     */
+    <X> X runExclusively(SqlAction<X> action) throws SQLException {
+        writerLock.lock();
+        try {
+            return action.execute(writer);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Runs the given action with an idle read-only connection. Waits if all readers are in use. The action must not
+     * request another reader since this may block forever.
+     */
+    <X> X read(SqlAction<X> action) throws DatabaseCommunicationException {
+        Connection reader;
+        try {
+            reader = idleReaders.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseCommunicationException("Interrupted while waiting for a database reader", e);
+        }
+        try {
+            return action.execute(reader);
+        } catch (DatabaseCommunicationException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw new DatabaseCommunicationException("Error while reading from database: " + e, e);
+        } finally {
+            idleReaders.add(reader);
+        }
+    }
+
+    int getReaderCount() {
+        return readers.size();
+    }
+
+    /**
+     * @return the journal mode the database is currently in.
+     */
+    String getJournalMode() throws SQLException {
+        try (Statement statement = writer.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA journal_mode")) {
+            return resultSet.getString(1);
+        }
+    }
+
+    boolean isValid() {
+        try {
+            return writer.isValid(10);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rolls back open writes and closes all connections.
+     */
+    @Override
+    public void close() throws SQLException {
+        SQLException failure = null;
+        List<Connection> connections = new ArrayList<>(readers);
+        connections.add(writer);
+        for(Connection connection : connections) {
+            try {
+                if(!connection.getAutoCommit()) {
+                    connection.rollback();
+                }
+                StatementCache.closeAll(connection);
+                connection.close();
+            } catch (SQLException e) {
+                if(failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void applyPragmas(Connection connection) throws SQLException {
+        executePragma(connection, "busy_timeout = " + CoreInfo.getLongProperty(BUSY_TIMEOUT_PROPERTY_KEY, DEFAULT_BUSY_TIMEOUT_MS));
+        // negative values are interpreted as kibibytes by sqlite
+        executePragma(connection, "cache_size = -" + CoreInfo.getLongProperty(CACHE_SIZE_PROPERTY_KEY, DEFAULT_CACHE_SIZE_KB));
+        executePragma(connection, "mmap_size = " + CoreInfo.getLongProperty(MMAP_SIZE_PROPERTY_KEY, DEFAULT_MMAP_SIZE_MB) * 1024 * 1024);
+        executePragma(connection, "temp_store = " + getEnumProperty(TEMP_STORE_PROPERTY_KEY, DEFAULT_TEMP_STORE, TEMP_STORE_VALUES));
+    }
+
+    private static void executePragma(Connection connection, String pragma) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA " + pragma);
+        }
+    }
+
+    private static String getEnumProperty(String key, String defaultValue, Set<String> allowedValues) {
+        String value = CoreInfo.PROPERTIES.getOrDefault(key, defaultValue).toUpperCase(Locale.ROOT);
+        if(!allowedValues.contains(value)) {
+            logger.warning("Property " + key + " has invalid value " + value + ", using " + defaultValue + " instead. Allowed values: " + allowedValues);
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Some action using a connection.
+     */
+    @FunctionalInterface
+    interface SqlAction<X> {
+        X execute(Connection connection) throws SQLException;
+    }
+}
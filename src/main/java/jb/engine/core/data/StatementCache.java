@@ -0,0 +1,131 @@
+package jb.engine.core.data;
+
+import jb.engine.core.CoreInfo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Bounded least-recently-used cache of prepared statements belonging to one connection.
+ * <p>Statements are lent out via {@link #borrow(Connection, String)} and handed back by closing the returned {@link Lease}. A lent out
+ * statement is not part of the cache, so concurrent users of the same query never share a statement.</p>
+ */
+class StatementCache {
+
+    private static final Logger logger = Logger.getLogger(StatementCache.class.getName());
+
+    private static final String CAPACITY_PROPERTY_KEY = "statement_cache_size";
+    private static final long DEFAULT_CAPACITY = 64;
+
+    private static final Map<Connection, StatementCache> CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Takes the statement for the given sql out of the cache of the given connection or prepares a new one if there is
+     * none. The cache of a connection is created upon the first call for this connection.
+     */
+    static Lease borrow(Connection connection, String sql) throws SQLException {
+        // caches must not reference their connection, otherwise the weak keys would never be cleared
+        return CACHES.computeIfAbsent(connection, key -> new StatementCache((int) CoreInfo.getLongProperty(CAPACITY_PROPERTY_KEY, DEFAULT_CAPACITY)))
+                .borrowFrom(connection, sql);
+    }
+
+    /**
+     * Closes all cached statements of the given connection and drops its cache. This needs to be called before the
+     * connection is closed.
+     */
+    static void closeAll(Connection connection) {
+        StatementCache cache = CACHES.remove(connection);
+        if(cache != null) {
+            cache.close();
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    private StatementCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    private Lease borrowFrom(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement;
+        synchronized (this) {
+            statement = statements.remove(sql);
+        }
+        if(statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+        }
+        return new Lease(sql, statement);
+    }
+
+    private void giveBack(String sql, PreparedStatement statement) throws SQLException {
+        if(statement.isClosed()) {
+            return;
+        }
+        statement.clearParameters();
+        statement.clearBatch();
+        PreparedStatement statementToClose = statement;
+        synchronized (this) {
+            if(capacity > 0 && !statements.containsKey(sql)) {
+                statements.put(sql, statement);
+                statementToClose = removeEldestIfFull();
+            }
+        }
+        if(statementToClose != null) {
+            statementToClose.close();
+        }
+    }
+
+    /**
+     * @return the evicted statement or null if the capacity is not exceeded.
+     */
+    private PreparedStatement removeEldestIfFull() {
+        if(statements.size() <= capacity) {
+            return null;
+        }
+        Iterator<PreparedStatement> iterator = statements.values().iterator();
+        PreparedStatement eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    private void close() {
+        List<PreparedStatement> statementsToClose;
+        synchronized (this) {
+            statementsToClose = new ArrayList<>(statements.values());
+            statements.clear();
+        }
+        for(PreparedStatement statement : statementsToClose) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                logger.warning("Could not close cached statement: " + e);
+            }
+        }
+    }
+
+    /**
+     * A statement lent out by a {@link StatementCache}. Closing the lease returns the statement to the cache.
+     */
+    class Lease implements AutoCloseable {
+        private final String sql;
+        private final PreparedStatement statement;
+
+        private Lease(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+
+        PreparedStatement getStatement() {
+            return statement;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            giveBack(sql, statement);
+        }
+    }
+}
@@ -15,6 +15,12 @@ enum Transformer {
      * No transformation is made.
      */
     NONE(Function.identity(), Function.identity()),
+    /**
+     * Only applicable to {@link Long} fields. Small values are read as {@link Integer} by the driver and widened.
+     */
+    NUMBER_TO_LONG(Function.identity(),
+            object -> applyMethodWithTypeCast(Number.class, Number::longValue, object)
+    ),
     /**
      * Only applicable to {@link Boolean} fields. Maps {@link Boolean#TRUE} to {@code 1} and eevery other possible value to {@code 0}.
      */
@@ -34,10 +40,12 @@ enum Transformer {
             object -> applyMethodWithTypeCast(String.class, Path::of, object)
     ),
     /**
-     * Only applicable to {@link HashMap} fields. Serializes the field value to a byte array.
+     * Only applicable to {@link HashMap} fields. Serializes the field value to a byte array. Empty maps are stored as
+     * empty byte arrays.
      */
-    HASHMAP_OF_STRING_BYTEBUFFER_TO_BYTE(object -> applyMethodWithTypeCast(HashMap.class, SerDeUtils::serialize, object),
-            object -> applyMethodWithTypeCast(byte[].class, blob -> HashService.toCopySnapInternalChecksumMap(SerDeUtils.deserialize(blob, HashMap.class)), object)
+    HASHMAP_OF_STRING_BYTEBUFFER_TO_BYTE(object -> applyMethodWithTypeCast(HashMap.class, map -> map.isEmpty() ? new byte[0] : SerDeUtils.serialize(map), object),
+            object -> applyMethodWithTypeCast(byte[].class, blob -> blob.length == 0 ? new HashMap<>() : HashService.toCopySnapInternalChecksumMap(
+                    HashService.asSerializableChecksumMap(SerDeUtils.deserialize(blob, HashMap.class))), object)
     ),
     /**
      * Only applicable to {@link CopyType} fields. Serializes the field value to an integer.
@@ -58,6 +66,7 @@ enum Transformer {
     private static final Map<JavaClassSqlTypePair, Transformer> JAVA_AND_SQLTYPE_TO_TRANSFORMER_MAP = Map.ofEntries(
             Map.entry(JavaClassSqlTypePair.of(String.class, SQLiteType.TEXT), NONE),
             Map.entry(JavaClassSqlTypePair.of(Integer.class, SQLiteType.INTEGER), NONE),
+            Map.entry(JavaClassSqlTypePair.of(Long.class, SQLiteType.INTEGER), NUMBER_TO_LONG),
             Map.entry(JavaClassSqlTypePair.of(byte[].class, SQLiteType.BLOB), NONE),
             Map.entry(JavaClassSqlTypePair.of(Boolean.class, SQLiteType.INTEGER), BOOLEAN_TO_INT),
             Map.entry(JavaClassSqlTypePair.of(Instant.class, SQLiteType.INTEGER), INSTANT_TO_INT),
@@ -83,17 +92,17 @@ enum Transformer {
     }
 
     /**
-     * Transforms the given value to the type used in the database.
+     * Transforms the given value to the type used in the database. {@code null} is kept as is.
      */
     public Object toDb(Object o) {
-        return toDbTransformer.apply(o);
+        return o == null ? null : toDbTransformer.apply(o);
     }
 
     /**
-     * Transforms the given object, assuming it comes from the database.
+     * Transforms the given object, assuming it comes from the database. {@code null} is kept as is.
      */
     public Object fromDb(Object o) {
-        return fromDbTransformer.apply(o);
+        return o == null ? null : fromDbTransformer.apply(o);
     }
 
     /**
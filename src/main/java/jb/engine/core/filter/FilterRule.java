@@ -0,0 +1,188 @@
+package jb.engine.core.filter;
+
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * One compiled line of {@link FilterRules}. Patterns without wildcards are compared directly and patterns of the form
+ * {@code *.ext} by suffix. Only the remaining patterns are matched by a regular expression.
+ */
+class FilterRule {
+
+    private static final String GLOB_CHARACTERS = "*?[\\";
+    private static final String REGEX_CHARACTERS = "\\.[]{}()<>*+-=!?^$|&";
+
+    private enum Kind {
+        LITERAL, SUFFIX, REGEX
+    }
+
+    private final Kind kind;
+    private final String literal;
+    private final Pattern regex;
+    private final boolean negated;
+    private final boolean directoryOnly;
+    /**
+     * Anchored rules are matched against the relative path instead of the name.
+     */
+    private final boolean anchored;
+
+    private FilterRule(Kind kind, String literal, Pattern regex, boolean negated, boolean directoryOnly, boolean anchored) {
+        this.kind = kind;
+        this.literal = literal;
+        this.regex = regex;
+        this.negated = negated;
+        this.directoryOnly = directoryOnly;
+        this.anchored = anchored;
+    }
+
+    /**
+     * @param line a non-blank rule that is not a comment or directive.
+     * @throws IllegalArgumentException if the pattern is invalid.
+     */
+    static FilterRule compile(String line) {
+        String pattern = line;
+        boolean negated = false;
+        if(pattern.length() > 1 && pattern.charAt(0) == '\\' && "#!@".indexOf(pattern.charAt(1)) >= 0) {
+            pattern = pattern.substring(1);
+        } else if(pattern.startsWith("!")) {
+            negated = true;
+            pattern = pattern.substring(1);
+        }
+        boolean directoryOnly = false;
+        while(pattern.endsWith("/")) {
+            directoryOnly = true;
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if(pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if(pattern.isEmpty()) {
+            throw new IllegalArgumentException("empty pattern");
+        }
+        if(!containsAny(pattern, GLOB_CHARACTERS)) {
+            return new FilterRule(Kind.LITERAL, pattern, null, negated, directoryOnly, anchored);
+        }
+        if(!anchored && pattern.charAt(0) == '*' && !containsAny(pattern.substring(1), GLOB_CHARACTERS)) {
+            return new FilterRule(Kind.SUFFIX, pattern.substring(1), null, negated, directoryOnly, false);
+        }
+        return new FilterRule(Kind.REGEX, null, Pattern.compile(toRegex(pattern)), negated, directoryOnly, anchored);
+    }
+
+    boolean matches(String relativePath, String name, BooleanSupplier directory) {
+        String matched = anchored ? relativePath : name;
+        boolean matches;
+        switch(kind) {
+            case LITERAL:
+                matches = matched.equals(literal);
+                break;
+            case SUFFIX:
+                matches = matched.endsWith(literal);
+                break;
+            default:
+                matches = regex.matcher(matched).matches();
+                break;
+        }
+        return matches && (!directoryOnly || directory.getAsBoolean());
+    }
+
+    boolean isNegated() {
+        return negated;
+    }
+
+    boolean isAnchored() {
+        return anchored;
+    }
+
+    private static String toRegex(String pattern) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while(i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if(c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                boolean startsSegment = i == 0 || pattern.charAt(i - 1) == '/';
+                if(startsSegment && i + 2 == pattern.length()) {
+                    // trailing "**" matches everything below
+                    sb.append(".*");
+                    i += 2;
+                } else if(startsSegment && pattern.charAt(i + 2) == '/') {
+                    // "**/" matches zero or more directories
+                    sb.append("(?:.*/)?");
+                    i += 3;
+                } else {
+                    sb.append("[^/]*");
+                    i += 2;
+                }
+            } else if(c == '*') {
+                sb.append("[^/]*");
+                i++;
+            } else if(c == '?') {
+                sb.append("[^/]");
+                i++;
+            } else if(c == '[') {
+                i = appendCharacterClass(pattern, i, sb);
+            } else if(c == '\\') {
+                if(i + 1 == pattern.length()) {
+                    throw new IllegalArgumentException("trailing backslash");
+                }
+                appendLiteral(pattern.charAt(i + 1), sb);
+                i += 2;
+            } else {
+                appendLiteral(c, sb);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the character class starting at the given position.
+     * @return the position after the class.
+     */
+    private static int appendCharacterClass(String pattern, int start, StringBuilder sb) {
+        int i = start + 1;
+        sb.append('[');
+        if(i < pattern.length() && (pattern.charAt(i) == '!' || pattern.charAt(i) == '^')) {
+            sb.append('^');
+            i++;
+        }
+        boolean first = true;
+        while(i < pattern.length() && (first || pattern.charAt(i) != ']')) {
+            char c = pattern.charAt(i);
+            if(c == '\\' && i + 1 < pattern.length()) {
+                appendLiteral(pattern.charAt(i + 1), sb);
+                i += 2;
+            } else {
+                // ranges stay ranges, everything else is taken literally
+                if(c == '-' && !first && i + 1 < pattern.length() && pattern.charAt(i + 1) != ']') {
+                    sb.append(c);
+                } else {
+                    appendLiteral(c, sb);
+                }
+                i++;
+            }
+            first = false;
+        }
+        if(i == pattern.length()) {
+            throw new IllegalArgumentException("unclosed character class");
+        }
+        sb.append(']');
+        return i + 1;
+    }
+
+    private static void appendLiteral(char c, StringBuilder sb) {
+        if(REGEX_CHARACTERS.indexOf(c) >= 0) {
+            sb.append('\\');
+        }
+        sb.append(c);
+    }
+
+    private static boolean containsAny(String s, String characters) {
+        for(int i = 0; i < s.length(); i++) {
+            if(characters.indexOf(s.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package jb.engine.core.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.OptionalLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Rules excluding paths from copies and snapshots, written in a gitignore-like syntax. One rule per line:
+ * <ul>
+ *     <li>Blank lines and lines starting with {@code #} are ignored. Surrounding whitespace is ignored.</li>
+ *     <li>{@code *} matches any characters but {@code /}, {@code ?} matches one such character, {@code [...]} matches
+ *     one character of a class and {@code **} matches any number of directories.</li>
+ *     <li>A pattern without {@code /} matches the name of a path in any directory. Otherwise, it is matched against the
+ *     path relative to the directory the rules belong to. A leading {@code /} only anchors the pattern.</li>
+ *     <li>A trailing {@code /} restricts the pattern to directories.</li>
+ *     <li>A leading {@code !} includes paths excluded by earlier rules again.</li>
+ *     <li>{@code @max-size 100M} excludes regular files larger than the given size. {@code K}, {@code M} and {@code G}
+ *     are accepted as suffixes.</li>
+ *     <li>A leading {@code \} escapes {@code #}, {@code !} and {@code @}.</li>
+ * </ul>
+ * The last matching rule decides. Excluded directories are not entered, hence their contents can not be included again.
+ */
+public class FilterRules {
+
+    /**
+     * Name of the file holding additional rules for the directory it is located in.
+     */
+    public static final String IGNORE_FILE_NAME = ".copysnapignore";
+
+    public static final FilterRules NONE = new FilterRules("", Collections.emptyList(), -1);
+
+    private static final String MAX_SIZE_DIRECTIVE = "@max-size";
+
+    private final String text;
+    private final List<FilterRule> rules;
+    private final long maxFileSize;
+    private final boolean anchored;
+
+    private FilterRules(String text, List<FilterRule> rules, long maxFileSize) {
+        this.text = text;
+        this.rules = rules;
+        this.maxFileSize = maxFileSize;
+        this.anchored = rules.stream().anyMatch(FilterRule::isAnchored);
+    }
+
+    /**
+     * @param text the rules, one per line. May be {@code null}.
+     * @throws IllegalArgumentException if a line is not a valid rule.
+     */
+    public static FilterRules parse(String text) {
+        if(text == null || text.isBlank()) {
+            return NONE;
+        }
+        List<FilterRule> rules = new ArrayList<>();
+        long maxFileSize = -1;
+        String[] lines = text.split("\\R");
+        for(int i = 0; i < lines.length; i++) {
+            String line = lines[i].strip();
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                if(line.startsWith(MAX_SIZE_DIRECTIVE)) {
+                    maxFileSize = parseSize(line.substring(MAX_SIZE_DIRECTIVE.length()).strip());
+                } else if(line.startsWith("@")) {
+                    throw new IllegalArgumentException("unknown directive " + line.split("\\s")[0]);
+                } else {
+                    rules.add(FilterRule.compile(line));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid filter rule in line " + (i + 1) + " '" + line + "': " + e.getMessage(), e);
+            }
+        }
+        return new FilterRules(text.strip(), List.copyOf(rules), maxFileSize);
+    }
+
+    /**
+     * @param relativePath the path relative to the directory these rules belong to, separated by {@code /}. Only read
+     *                     by anchored rules, hence it may be {@code null} if there are none, see {@link #hasAnchoredRules()}.
+     * @param name the name of the path.
+     * @param directory tells whether the path is a directory. Only evaluated for rules restricted to directories.
+     * @return {@link Boolean#TRUE} if the last matching rule excludes the path, {@link Boolean#FALSE} if it includes it
+     * again and {@code null} if no rule matches.
+     */
+    Boolean decide(String relativePath, String name, BooleanSupplier directory) {
+        for(int i = rules.size() - 1; i >= 0; i--) {
+            FilterRule rule = rules.get(i);
+            if(rule.matches(relativePath, name, directory)) {
+                return !rule.isNegated();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the size in bytes beyond which regular files are excluded. Empty if there is no limit.
+     */
+    public OptionalLong getMaxFileSize() {
+        return maxFileSize < 0 ? OptionalLong.empty() : OptionalLong.of(maxFileSize);
+    }
+
+    /**
+     * @return true if a rule is matched against the relative path instead of the name.
+     */
+    boolean hasAnchoredRules() {
+        return anchored;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty() && maxFileSize < 0;
+    }
+
+    /**
+     * @return the text these rules were parsed from. Parsing it again yields equal rules.
+     */
+    public String getText() {
+        return text;
+    }
+
+    private static long parseSize(String sizeString) {
+        if(sizeString.isEmpty()) {
+            throw new IllegalArgumentException("missing size");
+        }
+        String upperCaseSize = sizeString.toUpperCase(Locale.ROOT);
+        long factor = 1;
+        char suffix = upperCaseSize.charAt(upperCaseSize.length() - 1);
+        if(suffix == 'K' || suffix == 'M' || suffix == 'G') {
+            factor = suffix == 'K' ? 1L << 10 : suffix == 'M' ? 1L << 20 : 1L << 30;
+            upperCaseSize = upperCaseSize.substring(0, upperCaseSize.length() - 1).strip();
+        }
+        long size;
+        try {
+            size = Long.parseLong(upperCaseSize);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid size " + sizeString);
+        }
+        if(size < 0 || size > Long.MAX_VALUE / factor) {
+            throw new IllegalArgumentException("invalid size " + sizeString);
+        }
+        return size * factor;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
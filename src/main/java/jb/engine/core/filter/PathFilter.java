@@ -0,0 +1,136 @@
+package jb.engine.core.filter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Decides which paths below a directory are excluded, combining the rules of a context with the
+ * {@value FilterRules#IGNORE_FILE_NAME} files found while walking down. Rules of deeper directories are evaluated first,
+ * rules of the context last. Instances are immutable: walks call {@link #enter(Path, List)} for each listed directory
+ * and test its contents against the returned filter before touching them.
+ * <p>An applied {@value FilterRules#IGNORE_FILE_NAME} file is never excluded itself, so that it is part of the copy or
+ * snapshot whose contents it decided upon. Ignore files excluded by the rules of enclosing directories are not
+ * applied.</p>
+ */
+public class PathFilter {
+
+    private static final Logger logger = Logger.getLogger(PathFilter.class.getName());
+
+    /**
+     * Excludes nothing and ignores {@value FilterRules#IGNORE_FILE_NAME} files.
+     */
+    public static final PathFilter NONE = new PathFilter(null, null, FilterRules.NONE, false, null);
+
+    private final PathFilter parent;
+    private final Path baseDirectory;
+    private final FilterRules rules;
+    private final boolean readsIgnoreFiles;
+    /**
+     * The {@value FilterRules#IGNORE_FILE_NAME} file the rules were read from or {@code null}.
+     */
+    private final Path ignoreFile;
+
+    private PathFilter(PathFilter parent, Path baseDirectory, FilterRules rules, boolean readsIgnoreFiles, Path ignoreFile) {
+        this.parent = parent;
+        this.baseDirectory = baseDirectory;
+        this.rules = rules;
+        this.readsIgnoreFiles = readsIgnoreFiles;
+        this.ignoreFile = ignoreFile;
+    }
+
+    /**
+     * @param sourceDirectory the directory the given rules are relative to.
+     * @return a filter applying the given rules and all {@value FilterRules#IGNORE_FILE_NAME} files below the given directory.
+     */
+    public static PathFilter of(Path sourceDirectory, FilterRules rules) {
+        return new PathFilter(null, sourceDirectory, rules, true, null);
+    }
+
+    /**
+     * @param directory a directory that is not excluded.
+     * @param contents the listed contents of the given directory.
+     * @return the filter for the contents of the given directory: this filter or, if the directory contains a
+     * {@value FilterRules#IGNORE_FILE_NAME} file that is not excluded by this filter, this filter extended by its rules.
+     * Unreadable or invalid files are skipped with a warning.
+     */
+    public PathFilter enter(Path directory, List<Path> contents) {
+        if(!readsIgnoreFiles) {
+            return this;
+        }
+        for(Path path : contents) {
+            if(FilterRules.IGNORE_FILE_NAME.equals(path.getFileName().toString())) {
+                try {
+                    if(excludes(path, () -> Files.isDirectory(path)) || excludesFileSize(path, Files.size(path))) {
+                        logger.info("Skipping excluded filter rules at " + path);
+                        return this;
+                    }
+                    return new PathFilter(this, directory, FilterRules.parse(Files.readString(path)), true, path);
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.warning("Skipping filter rules at " + path + ": " + e);
+                    return this;
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param path a path within the directory this filter was entered for.
+     * @param directory tells whether the given path is a directory. Only evaluated if a rule restricted to directories
+     *                  matches the path's name, hence most paths are decided upon without accessing them.
+     */
+    public boolean excludes(Path path, BooleanSupplier directory) {
+        if(path.equals(ignoreFile)) {
+            return false;
+        }
+        String name = path.getFileName().toString();
+        for(PathFilter filter = this; filter != null; filter = filter.parent) {
+            if(filter.rules.isEmpty()) {
+                continue;
+            }
+            // relative paths are only needed by anchored rules, most rules match names
+            String relativePath = filter.rules.hasAnchoredRules() ? toRuleString(filter.baseDirectory.relativize(path)) : null;
+            Boolean decision = filter.rules.decide(relativePath, name, directory);
+            if(decision != null) {
+                return decision;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param path a regular file within the directory this filter was entered for.
+     * @return true if the given file is excluded by the size limit of the innermost rules declaring one.
+     */
+    public boolean excludesFileSize(Path path, long size) {
+        if(path.equals(ignoreFile)) {
+            return false;
+        }
+        for(PathFilter filter = this; filter != null; filter = filter.parent) {
+            OptionalLong maxFileSize = filter.rules.getMaxFileSize();
+            if(maxFileSize.isPresent()) {
+                return size > maxFileSize.getAsLong();
+            }
+        }
+        return false;
+    }
+
+    private static String toRuleString(Path relativePath) {
+        if(relativePath.getNameCount() == 1) {
+            return relativePath.toString();
+        }
+        StringBuilder sb = new StringBuilder();
+        for(Path name : relativePath) {
+            if(sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+}
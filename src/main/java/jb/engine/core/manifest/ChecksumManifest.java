@@ -0,0 +1,568 @@
+package jb.engine.core.manifest;
+
+import jb.engine.exceptions.ManifestException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-only view on a checksum manifest file. A manifest holds the checksum map of one snapshot in a form that can be
+ * searched without deserializing it:
+ * <pre>
+ * header   magic, version, entry count, digest length, path separator, heap offset, heap length
+ * records  one fixed-width record per path: heap offset of the path, path length, subtree end, digest
+ * heap     UTF-8 bytes of all paths
+ * </pre>
+ * Heap offsets are 64-bit, hence the size of a manifest is only limited by its number of paths.
+ * Records are sorted in pre-order, i.e. by path where the separator sorts before every other character. Hence every
+ * directory is directly followed by the records of its contents and the subtree end of a record is the index of the
+ * first record not contained in it.
+ * <p>The file is mapped into memory upon opening, see {@link MappedFile}. Lookups by path are binary searches on the
+ * mapped records.</p>
+ * <p>The checksum of a manifest is computed once per process: when it is written or when it is opened for the first
+ * time. Later openings only compare the length and modification time of the file with the verified state.</p>
+ */
+public class ChecksumManifest implements AutoCloseable {
+
+    public static final String FILE_EXTENSION = ".manifest";
+
+    private static final int MAGIC = 0x43534D46;  // "CSMF"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int RECORD_FIXED_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+    /**
+     * Manifests whose checksum was computed by this process, by their normalized absolute path.
+     */
+    private static final Map<Path, VerifiedState> VERIFIED_MANIFESTS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedFile file;
+    private final int entryCount;
+    private final int digestLength;
+    private final byte separator;
+    private final int recordSize;
+    private final long heapOffset;
+
+    // ----------------- Writing
+
+    /**
+     * @return the location of the manifest belonging to the given run target directory: a sibling file named like
+     * the directory.
+     */
+    public static Path getManifestPathFor(Path runTargetDirectory) {
+        return runTargetDirectory.resolveSibling(runTargetDirectory.getFileName() + FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the given checksum map to a manifest file at the given location. An existing file is replaced atomically.
+     * @param checksumMap maps path strings to digests. All digests need to be of equal length.
+     */
+    public static ManifestReference write(Map<String, byte[]> checksumMap, Path manifestPath) {
+        int digestLength = getCommonDigestLength(checksumMap);
+        List<byte[]> sortedEntries = new ArrayList<>(checksumMap.size());
+        long heapLength = 0;
+        for(Map.Entry<String, byte[]> entry : checksumMap.entrySet()) {
+            byte[] encodedPath = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            sortedEntries.add(encodeEntry(entry.getValue(), encodedPath));
+            heapLength += encodedPath.length;
+        }
+        sortedEntries.sort(getPathOrderOfEntries(digestLength));
+        return write(sortedEntries.iterator(), sortedEntries.size(), heapLength, digestLength, manifestPath);
+    }
+
+    /**
+     * Writes a manifest of the given entries, see {@link #encodeEntry(byte[], byte[])}. The entries are read once. The
+     * file is mapped while writing so that the subtree end of a record is filled in as soon as the first path not
+     * contained in it is read.
+     * @param sortedEntries the entries sorted by {@link #getPathOrderOfEntries(int)}.
+     * @param entryCount the number of the given entries.
+     * @param heapLength the summed length of all encoded paths.
+     */
+    static ManifestReference write(Iterator<byte[]> sortedEntries, int entryCount, long heapLength, int digestLength, Path manifestPath) {
+        byte separator = (byte) File.separatorChar;
+        int recordSize = RECORD_FIXED_SIZE + digestLength;
+        long heapOffset = HEADER_SIZE + (long) recordSize * entryCount;
+        long size = heapOffset + heapLength;
+        CRC32C crc = new CRC32C();
+        try {
+            ManifestFiles.writeMappedAtomically(manifestPath, size, file -> {
+                file.putInt(0, MAGIC);
+                file.putInt(4, VERSION);
+                file.putInt(8, entryCount);
+                file.putInt(12, digestLength);
+                file.putInt(16, separator);
+                file.putInt(20, 0);  // reserved
+                file.putLong(24, heapOffset);
+                file.putLong(32, heapLength);
+                long heapPosition = heapOffset;
+                Deque<Integer> openAncestors = new ArrayDeque<>();
+                Deque<byte[]> openAncestorPaths = new ArrayDeque<>();
+                int index = 0;
+                while(sortedEntries.hasNext()) {
+                    byte[] entry = sortedEntries.next();
+                    byte[] encodedPath = Arrays.copyOfRange(entry, digestLength, entry.length);
+                    if(index >= entryCount || encodedPath.length > size - heapPosition) {
+                        throw new IOException("Entries exceed the announced count of " + entryCount + " or heap length of " + heapLength);
+                    }
+                    while(!openAncestors.isEmpty() && !isContainedIn(encodedPath, openAncestorPaths.peek(), separator)) {
+                        openAncestorPaths.pop();
+                        file.putInt(HEADER_SIZE + (long) openAncestors.pop() * recordSize + Long.BYTES + Integer.BYTES, index);
+                    }
+                    openAncestors.push(index);
+                    openAncestorPaths.push(encodedPath);
+                    long recordOffset = HEADER_SIZE + (long) index * recordSize;
+                    file.putLong(recordOffset, heapPosition - heapOffset);
+                    file.putInt(recordOffset + Long.BYTES, encodedPath.length);
+                    file.putInt(recordOffset + Long.BYTES + Integer.BYTES, 0);  // subtree end, filled in once known
+                    file.put(recordOffset + RECORD_FIXED_SIZE, entry, 0, digestLength);
+                    file.put(heapPosition, encodedPath, 0, encodedPath.length);
+                    heapPosition += encodedPath.length;
+                    index++;
+                }
+                if(index != entryCount || heapPosition != size) {
+                    throw new IOException("Entries fall short of the announced count of " + entryCount + " or heap length of " + heapLength);
+                }
+                while(!openAncestors.isEmpty()) {
+                    file.putInt(HEADER_SIZE + (long) openAncestors.pop() * recordSize + Long.BYTES + Integer.BYTES, entryCount);
+                }
+                file.updateChecksum(crc);
+            });
+        } catch (IOException | UncheckedIOException e) {
+            throw new ManifestException("Could not write manifest to " + manifestPath + ": " + e, e);
+        }
+        ManifestReference reference = new ManifestReference(manifestPath, size, (int) crc.getValue());
+        markVerified(reference);
+        return reference;
+    }
+
+    /**
+     * @return the length shared by all digests of the given map or 0 if the map is empty.
+     * @throws ManifestException if the digests are of unequal length.
+     */
+    static int getCommonDigestLength(Map<String, byte[]> checksumMap) {
+        int digestLength = -1;
+        for(byte[] digest : checksumMap.values()) {
+            if(digestLength < 0) {
+                digestLength = digest.length;
+            } else if(digestLength != digest.length) {
+                throw new ManifestException("Digests of unequal length can not be written to a manifest: " + digestLength + " and " + digest.length);
+            }
+        }
+        return Math.max(0, digestLength);
+    }
+
+    /**
+     * @return an entry written by {@link #write(Iterator, int, long, int, Path)}: the digest directly followed by the
+     * encoded path.
+     */
+    static byte[] encodeEntry(byte[] digest, byte[] encodedPath) {
+        byte[] entry = Arrays.copyOf(digest, digest.length + encodedPath.length);
+        System.arraycopy(encodedPath, 0, entry, digest.length, encodedPath.length);
+        return entry;
+    }
+
+    /**
+     * @return the manifest order of entries with digests of the given length, see {@link #encodeEntry(byte[], byte[])}.
+     */
+    static Comparator<byte[]> getPathOrderOfEntries(int digestLength) {
+        byte separator = (byte) File.separatorChar;
+        return (first, second) -> comparePaths(first, digestLength, second, digestLength, separator);
+    }
+
+    private static boolean isContainedIn(byte[] path, byte[] ancestor, byte separator) {
+        if(path.length <= ancestor.length) {
+            return false;
+        }
+        for(int i = 0; i < ancestor.length; i++) {
+            if(path[i] != ancestor[i]) {
+                return false;
+            }
+        }
+        return ancestor.length > 0 && (ancestor[ancestor.length - 1] == separator || path[ancestor.length] == separator);
+    }
+
+    /**
+     * Compares two encoded paths in manifest order, each starting at the given offset and ending with its array. Bytes
+     * are compared unsigned, the separator is treated as the smallest byte.
+     */
+    static int comparePaths(byte[] first, int firstOffset, byte[] second, int secondOffset, byte separator) {
+        int firstLength = first.length - firstOffset;
+        int secondLength = second.length - secondOffset;
+        int commonLength = Math.min(firstLength, secondLength);
+        for(int i = 0; i < commonLength; i++) {
+            int comparison = Integer.compare(sortKey(first[firstOffset + i], separator), sortKey(second[secondOffset + i], separator));
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(firstLength, secondLength);
+    }
+
+    /**
+     * Like {@link #comparePaths(byte[], int, byte[], int, byte)} but with the first path starting at 0 and the second path read from the given file.
+     */
+    private static int comparePaths(byte[] first, MappedFile file, long secondPosition, int secondLength, byte separator) {
+        int commonLength = Math.min(first.length, secondLength);
+        for(int i = 0; i < commonLength; i++) {
+            int comparison = Integer.compare(sortKey(first[i], separator), sortKey(file.get(secondPosition + i), separator));
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(first.length, secondLength);
+    }
+
+    private static int sortKey(byte b, byte separator) {
+        return b == separator ? -1 : Byte.toUnsignedInt(b);
+    }
+
+    // ----------------- Reading
+
+    /**
+     * Opens and maps the manifest at the given location.
+     */
+    public static ChecksumManifest open(Path manifestPath) {
+        try {
+            return new ChecksumManifest(manifestPath);
+        } catch (IOException e) {
+            throw new ManifestException("Could not open manifest at " + manifestPath + ": " + e, e);
+        }
+    }
+
+    /**
+     * Opens and maps the referenced manifest and checks its length. Its checksum is only computed if it was not
+     * verified by this process before or the file was modified since.
+     */
+    public static ChecksumManifest open(ManifestReference reference) {
+        ChecksumManifest manifest = open(reference.getPath());
+        try {
+            if(manifest.file.size() != reference.getLength()) {
+                throw new ManifestException("Manifest at " + reference.getPath() + " has length " + manifest.file.size() + " but " + reference.getLength() + " was expected");
+            }
+            if(!isVerified(reference)) {
+                int checksum = manifest.computeChecksum();
+                if(checksum != reference.getChecksum()) {
+                    throw new ManifestException("Manifest at " + reference.getPath() + " has checksum " + Integer.toHexString(checksum) + " but "
+                            + Integer.toHexString(reference.getChecksum()) + " was expected");
+                }
+                markVerified(reference);
+            }
+        } catch (RuntimeException e) {
+            manifest.close();
+            throw e;
+        }
+        return manifest;
+    }
+
+    /**
+     * Remembers the referenced manifest as verified in its current state. If its modification time can not be read,
+     * it is verified again upon the next opening.
+     */
+    private static void markVerified(ManifestReference reference) {
+        Path key = reference.getPath().toAbsolutePath().normalize();
+        try {
+            VERIFIED_MANIFESTS.put(key, new VerifiedState(reference.getLength(), reference.getChecksum(), Files.getLastModifiedTime(key)));
+        } catch (IOException e) {
+            VERIFIED_MANIFESTS.remove(key);
+        }
+    }
+
+    private static boolean isVerified(ManifestReference reference) {
+        Path key = reference.getPath().toAbsolutePath().normalize();
+        VerifiedState state = VERIFIED_MANIFESTS.get(key);
+        if(state == null || state.length != reference.getLength() || state.checksum != reference.getChecksum()) {
+            return false;
+        }
+        try {
+            return state.lastModifiedTime.equals(Files.getLastModifiedTime(key));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ChecksumManifest(Path path) throws IOException {
+        this.path = path;
+        this.channel = ManifestFiles.openForMapping(path, HEADER_SIZE, Long.MAX_VALUE);
+        MappedFile mappedFile = null;
+        try {
+            long size = channel.size();
+            mappedFile = MappedFile.map(channel, FileChannel.MapMode.READ_ONLY, size);
+            this.file = mappedFile;
+            if(file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+                throw new ManifestException("File at " + path + " is not a manifest of version " + VERSION);
+            }
+            this.entryCount = file.getInt(8);
+            this.digestLength = file.getInt(12);
+            this.separator = (byte) file.getInt(16);
+            this.recordSize = RECORD_FIXED_SIZE + digestLength;
+            this.heapOffset = file.getLong(24);
+            long heapLength = file.getLong(32);
+            if(entryCount < 0 || digestLength < 0 || heapOffset != HEADER_SIZE + (long) recordSize * entryCount || heapOffset + heapLength != size) {
+                throw new ManifestException("Manifest at " + path + " is truncated or corrupt");
+            }
+        } catch (IOException | RuntimeException e) {
+            if(mappedFile != null) {
+                mappedFile.unmap();
+            }
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of paths held by this manifest.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @return the path of the record at the given index.
+     */
+    public String getPathString(int index) {
+        return getPathString(index, 0);
+    }
+
+    /**
+     * @return a copy of the digest of the record at the given index.
+     */
+    public byte[] getDigest(int index) {
+        byte[] digest = new byte[digestLength];
+        file.get(getDigestPosition(getRecordOffset(index)), digest);
+        return digest;
+    }
+
+    /**
+     * @return the index of the first record after the given one that is not contained in the path of the given record.
+     */
+    public int getSubtreeEnd(int index) {
+        return file.getInt(getRecordOffset(index) + Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * @return the path of the record at the given index without its first bytes.
+     */
+    String getPathString(int index, int fromByte) {
+        long recordOffset = getRecordOffset(index);
+        byte[] encodedPath = new byte[getPathLength(recordOffset) - fromByte];
+        file.get(getPathPosition(recordOffset) + fromByte, encodedPath);
+        return new String(encodedPath, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the position of the first byte of the file name within the encoded path of the record at the given index.
+     */
+    int getNameOffset(int index) {
+        long recordOffset = getRecordOffset(index);
+        long pathPosition = getPathPosition(recordOffset);
+        int pathLength = getPathLength(recordOffset);
+        for(int i = pathLength - 2; i >= 0; i--) {
+            if(file.get(pathPosition + i) == separator) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compares the file names of the given records the way siblings are ordered within a manifest.
+     */
+    int compareNames(int index, ChecksumManifest other, int otherIndex) {
+        long recordOffset = getRecordOffset(index);
+        long otherRecordOffset = other.getRecordOffset(otherIndex);
+        int nameOffset = getNameOffset(index);
+        int otherNameOffset = other.getNameOffset(otherIndex);
+        long nameStart = getPathPosition(recordOffset) + nameOffset;
+        long otherNameStart = other.getPathPosition(otherRecordOffset) + otherNameOffset;
+        int nameLength = getPathLength(recordOffset) - nameOffset;
+        int otherNameLength = other.getPathLength(otherRecordOffset) - otherNameOffset;
+        for(int i = 0; i < Math.min(nameLength, otherNameLength); i++) {
+            int comparison = Integer.compare(Byte.toUnsignedInt(file.get(nameStart + i)), Byte.toUnsignedInt(other.file.get(otherNameStart + i)));
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(nameLength, otherNameLength);
+    }
+
+    /**
+     * @return true, if the given records hold the same digest.
+     */
+    boolean hasSameDigest(int index, ChecksumManifest other, int otherIndex) {
+        if(digestLength != other.digestLength) {
+            return false;
+        }
+        long digestPosition = getDigestPosition(getRecordOffset(index));
+        long otherDigestPosition = other.getDigestPosition(other.getRecordOffset(otherIndex));
+        for(int i = 0; i < digestLength; i++) {
+            if(file.get(digestPosition + i) != other.file.get(otherDigestPosition + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the record holding the given path or a negative value if there is no such record.
+     */
+    public int indexOf(String pathString) {
+        byte[] encodedPath = pathString.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = entryCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            long recordOffset = getRecordOffset(middle);
+            int comparison = comparePaths(encodedPath, file, getPathPosition(recordOffset), getPathLength(recordOffset), separator);
+            if(comparison > 0) {
+                low = middle + 1;
+            } else if(comparison < 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the digest of the given path. The Optional is empty if this manifest does not hold that path.
+     */
+    public Optional<byte[]> findDigest(String pathString) {
+        int index = indexOf(pathString);
+        return index < 0 ? Optional.empty() : Optional.of(getDigest(index));
+    }
+
+    /**
+     * @return all paths and digests of this manifest in the serializable form used by {@link jb.engine.core.SnapshotInfo}.
+     */
+    public HashMap<String, byte[]> toChecksumMap() {
+        HashMap<String, byte[]> checksumMap = new HashMap<>((int) (entryCount / 0.75f) + 1);
+        for(int i = 0; i < entryCount; i++) {
+            checksumMap.put(getPathString(i), getDigest(i));
+        }
+        return checksumMap;
+    }
+
+    /**
+     * @return all paths of this manifest in manifest order.
+     */
+    public List<Path> toPathList() {
+        List<Path> paths = new ArrayList<>(entryCount);
+        for(int i = 0; i < entryCount; i++) {
+            paths.add(Path.of(getPathString(i)));
+        }
+        return paths;
+    }
+
+    /**
+     * @return a view on all paths of this manifest in manifest order, read from the mapped file on access. Unlike
+     * {@link #toPathList()}, the paths are not held in memory. Only valid while this manifest is open.
+     */
+    public List<Path> getPaths() {
+        return new AbstractList<>() {
+            @Override
+            public Path get(int index) {
+                Objects.checkIndex(index, entryCount);
+                return Path.of(getPathString(index));
+            }
+
+            @Override
+            public int size() {
+                return entryCount;
+            }
+        };
+    }
+
+    /**
+     * @return all digests of this manifest mapped to their paths. If several paths share a digest, the last one in
+     * manifest order wins.
+     */
+    public HashMap<ByteBuffer, Path> toInverseChecksumMap() {
+        HashMap<ByteBuffer, Path> inverseChecksumMap = new HashMap<>((int) (entryCount / 0.75f) + 1);
+        for(int i = 0; i < entryCount; i++) {
+            inverseChecksumMap.put(ByteBuffer.wrap(getDigest(i)), Path.of(getPathString(i)));
+        }
+        return inverseChecksumMap;
+    }
+
+    /**
+     * Unmaps the file right away, so that it can be deleted or replaced, also on Windows. Views like
+     * {@link #getPaths()} must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        file.unmap();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new ManifestException("Could not close manifest at " + path + ": " + e, e);
+        }
+    }
+
+    private long getRecordOffset(int index) {
+        if(index < 0 || index >= entryCount) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for manifest with " + entryCount + " entries");
+        }
+        return HEADER_SIZE + (long) index * recordSize;
+    }
+
+    /**
+     * @return the position of the first byte of the path of the record at the given offset.
+     */
+    private long getPathPosition(long recordOffset) {
+        return heapOffset + file.getLong(recordOffset);
+    }
+
+    private int getPathLength(long recordOffset) {
+        return file.getInt(recordOffset + Long.BYTES);
+    }
+
+    private long getDigestPosition(long recordOffset) {
+        return recordOffset + RECORD_FIXED_SIZE;
+    }
+
+    private static class VerifiedState {
+        private final long length;
+        private final int checksum;
+        private final FileTime lastModifiedTime;
+
+        private VerifiedState(long length, int checksum, FileTime lastModifiedTime) {
+            this.length = length;
+            this.checksum = checksum;
+            this.lastModifiedTime = lastModifiedTime;
+        }
+    }
+
+    private int computeChecksum() {
+        CRC32C crc = new CRC32C();
+        file.updateChecksum(crc);
+        return (int) crc.getValue();
+    }
+}
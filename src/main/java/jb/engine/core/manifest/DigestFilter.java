@@ -0,0 +1,226 @@
+package jb.engine.core.manifest;
+
+import jb.engine.core.CoreInfo;
+import jb.engine.exceptions.ManifestException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.logging.Logger;
+
+/**
+ * Memory-mapped Bloom filter over the digests of one snapshot. It tells for a digest either that the snapshot
+ * definitely does not hold it or that it might hold it. Used in front of a {@link DigestIndex} so that lookups of new
+ * content do not need to search the index.
+ * <pre>
+ * header   magic, version, hash count, reserved, bit count, digest count
+ * bits     the bit array as big-endian longs
+ * </pre>
+ * The filter is sized for the false positive rate declared in the application properties. Its size is capped by a
+ * property as well, in which case the expected false positive rate is higher.
+ */
+public class DigestFilter implements AutoCloseable {
+
+    public static final String FILE_EXTENSION = ".bloom";
+
+    private static final Logger logger = Logger.getLogger(DigestFilter.class.getName());
+
+    private static final String FALSE_POSITIVE_PPM_PROPERTY_KEY = "digest_filter_false_positive_ppm";
+    private static final String MAX_SIZE_PROPERTY_KEY = "digest_filter_max_size_kb";
+    private static final long DEFAULT_FALSE_POSITIVE_PPM = 10_000;
+    private static final long DEFAULT_MAX_SIZE_KB = 64 * 1024;
+
+    private static final int MAGIC = 0x43534246;  // "CSBF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAX_HASH_COUNT = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final LongBuffer bits;
+    private final int hashCount;
+    private final long bitCount;
+    private final long digestCount;
+
+    /**
+     * @return the location of the filter belonging to the given run target directory: a sibling file named like the
+     * directory.
+     */
+    public static Path getFilterPathFor(Path runTargetDirectory) {
+        return runTargetDirectory.resolveSibling(runTargetDirectory.getFileName() + FILE_EXTENSION);
+    }
+
+    /**
+     * @return the false positive rate filters are sized for.
+     */
+    public static double getConfiguredFalsePositiveRate() {
+        long ppm = CoreInfo.getLongProperty(FALSE_POSITIVE_PPM_PROPERTY_KEY, DEFAULT_FALSE_POSITIVE_PPM);
+        if(ppm <= 0 || ppm >= 1_000_000) {
+            logger.warning("Property " + FALSE_POSITIVE_PPM_PROPERTY_KEY + " has invalid value " + ppm + ", using " + DEFAULT_FALSE_POSITIVE_PPM + " instead");
+            ppm = DEFAULT_FALSE_POSITIVE_PPM;
+        }
+        return ppm / 1_000_000.0;
+    }
+
+    /**
+     * Writes a filter holding all given digests to the given location. An existing file is replaced atomically.
+     */
+    public static void write(Collection<byte[]> digests, Path filterPath) {
+        long digestCount = Math.max(1, digests.size());
+        long maxBitCount = Math.max(1, CoreInfo.getLongProperty(MAX_SIZE_PROPERTY_KEY, DEFAULT_MAX_SIZE_KB)) * 1024 * Byte.SIZE;
+        // optimal bit and hash counts: m = -n ln(p) / ln(2)^2, k = m/n ln(2)
+        long optimalBitCount = (long) Math.ceil(-digestCount * Math.log(getConfiguredFalsePositiveRate()) / (Math.log(2) * Math.log(2)));
+        long bitCount = roundUpToWords(Math.min(maxBitCount, Math.max(Long.SIZE, optimalBitCount)));
+        int hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round((double) bitCount / digestCount * Math.log(2))));
+        if(HEADER_SIZE + bitCount / Byte.SIZE > Integer.MAX_VALUE) {
+            throw new ManifestException("Digest filter at " + filterPath + " would exceed the maximum size of " + Integer.MAX_VALUE + " bytes");
+        }
+        long[] words = new long[(int) (bitCount / Long.SIZE)];
+        for(byte[] digest : digests) {
+            long firstHash = hash(ByteBuffer.wrap(digest), 0x9E3779B97F4A7C15L);
+            long secondHash = hash(ByteBuffer.wrap(digest), 0xC2B2AE3D27D4EB4FL);
+            for(int i = 0; i < hashCount; i++) {
+                long bit = Long.remainderUnsigned(firstHash + i * secondHash, bitCount);
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+        try {
+            ManifestFiles.writeAtomically(filterPath, fileOut -> {
+                DataOutputStream out = new DataOutputStream(fileOut);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(hashCount);
+                out.writeInt(0);  // reserved
+                out.writeLong(bitCount);
+                out.writeLong(digests.size());
+                for(long word : words) {
+                    out.writeLong(word);
+                }
+                out.flush();
+            });
+        } catch (IOException e) {
+            throw new ManifestException("Could not write digest filter to " + filterPath + ": " + e, e);
+        }
+    }
+
+    /**
+     * Opens and maps the filter at the given location.
+     */
+    public static DigestFilter open(Path filterPath) {
+        try {
+            return new DigestFilter(filterPath);
+        } catch (IOException e) {
+            throw new ManifestException("Could not open digest filter at " + filterPath + ": " + e, e);
+        }
+    }
+
+    private DigestFilter(Path path) throws IOException {
+        this.path = path;
+        this.channel = ManifestFiles.openForMapping(path, HEADER_SIZE, Integer.MAX_VALUE);
+        MappedByteBuffer buffer = null;
+        try {
+            long size = channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.mapping = buffer;
+            if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new ManifestException("File at " + path + " is not a digest filter of version " + VERSION);
+            }
+            this.hashCount = buffer.getInt(8);
+            this.bitCount = buffer.getLong(16);
+            this.digestCount = buffer.getLong(24);
+            if(hashCount <= 0 || bitCount <= 0 || bitCount % Long.SIZE != 0 || HEADER_SIZE + bitCount / Byte.SIZE != size) {
+                throw new ManifestException("Digest filter at " + path + " is truncated or corrupt");
+            }
+            this.bits = buffer.position(HEADER_SIZE).slice().asLongBuffer();
+        } catch (IOException | RuntimeException e) {
+            if(buffer != null) {
+                MappedFile.unmap(buffer);
+            }
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return false, if the snapshot of this filter definitely does not hold the given digest.
+     */
+    public boolean mightContain(ByteBuffer digest) {
+        long firstHash = hash(digest, 0x9E3779B97F4A7C15L);
+        long secondHash = hash(digest, 0xC2B2AE3D27D4EB4FL);
+        for(int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(firstHash + i * secondHash, bitCount);
+            if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @return the size of the bit array in bytes.
+     */
+    public long getSizeInBytes() {
+        return bitCount / Byte.SIZE;
+    }
+
+    /**
+     * @return the false positive rate to expect for the number of digests held by this filter and its actual size.
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) digestCount / bitCount), hashCount);
+    }
+
+    /**
+     * Unmaps the file right away, so that it can be deleted or replaced, also on Windows. Lookups must not run
+     * concurrently or afterwards.
+     */
+    @Override
+    public void close() {
+        MappedFile.unmap(mapping);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new ManifestException("Could not close digest filter at " + path + ": " + e, e);
+        }
+    }
+
+    private static long roundUpToWords(long bitCount) {
+        return (bitCount + Long.SIZE - 1) / Long.SIZE * Long.SIZE;
+    }
+
+    /**
+     * Hashes the remaining bytes of the given digest without changing its position. Digests are cryptographic hashes
+     * already, the mixing only derives independent values from them.
+     */
+    private static long hash(ByteBuffer digest, long seed) {
+        long hash = seed;
+        for(int i = digest.position(); i < digest.limit(); i++) {
+            hash = (hash ^ digest.get(i)) * 0x100000001B3L;
+        }
+        // finalizer of MurmurHash3
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
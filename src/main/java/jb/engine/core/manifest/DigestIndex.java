@@ -0,0 +1,278 @@
+package jb.engine.core.manifest;
+
+import jb.engine.exceptions.ManifestException;
+import jb.engine.services.DigestLookup;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Memory-mapped index from digests to paths of one snapshot. It is the inverted form of a {@link ChecksumManifest} and
+ * is used to find unchanged files of the latest snapshot without building an inverted checksum map in memory:
+ * <pre>
+ * header   magic, version, entry count, digest length, heap offset, heap length
+ * records  one fixed-width record per digest: digest, heap offset of the path, path length
+ * heap     UTF-8 bytes of all paths
+ * </pre>
+ * Heap offsets are 64-bit.
+ * Records are sorted by digest and lookups are binary searches on the mapped records. If several paths share a digest,
+ * only the first one in path order is indexed.
+ * <p>The index is derived from the manifest and can be rebuilt from it at any time. Therefore, opening it only checks
+ * its header and size so that it takes constant time.</p>
+ */
+public class DigestIndex implements DigestLookup {
+
+    public static final String FILE_EXTENSION = ".digests";
+
+    private static final int MAGIC = 0x43534449;  // "CSDI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_FIXED_SIZE = Long.BYTES + Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedFile file;
+    private final int entryCount;
+    private final int digestLength;
+    private final int recordSize;
+    private final long heapOffset;
+
+    /**
+     * @return the location of the digest index belonging to the given run target directory: a sibling file named like
+     * the directory.
+     */
+    public static Path getIndexPathFor(Path runTargetDirectory) {
+        return runTargetDirectory.resolveSibling(runTargetDirectory.getFileName() + FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the inverted form of the given checksum map to an index file at the given location. An existing file is
+     * replaced atomically.
+     * @param checksumMap maps path strings to digests. All digests need to be of equal length.
+     */
+    public static void write(Map<String, byte[]> checksumMap, Path indexPath) {
+        int digestLength = ChecksumManifest.getCommonDigestLength(checksumMap);
+        List<byte[]> sortedEntries = new ArrayList<>(checksumMap.size());
+        for(Map.Entry<String, byte[]> entry : checksumMap.entrySet()) {
+            sortedEntries.add(ChecksumManifest.encodeEntry(entry.getValue(), entry.getKey().getBytes(StandardCharsets.UTF_8)));
+        }
+        sortedEntries.sort(getDigestOrderOfEntries(digestLength));
+        List<byte[]> indexedEntries = new ArrayList<>(sortedEntries.size());
+        long heapLength = 0;
+        for(byte[] entry : sortedEntries) {
+            if(indexedEntries.isEmpty() || !hasSameDigest(indexedEntries.get(indexedEntries.size() - 1), entry, digestLength)) {
+                indexedEntries.add(entry);
+                heapLength += entry.length - digestLength;
+            }
+        }
+        write(indexedEntries, indexedEntries.size(), heapLength, digestLength, indexPath);
+    }
+
+    /**
+     * Writes an index of the given entries, see {@link ChecksumManifest#encodeEntry(byte[], byte[])}. The entries are
+     * iterated twice: once for the records and once for the heap.
+     * @param indexedEntries the entries sorted by {@link #getDigestOrderOfEntries(int)}, holding only the first entry of
+     *                       each digest.
+     * @param entryCount the number of the given entries.
+     * @param heapLength the summed length of all encoded paths.
+     */
+    static void write(Iterable<byte[]> indexedEntries, int entryCount, long heapLength, int digestLength, Path indexPath) {
+        long heapOffset = HEADER_SIZE + (long) (RECORD_FIXED_SIZE + digestLength) * entryCount;
+        try {
+            ManifestFiles.writeAtomically(indexPath, fileOut -> {
+                DataOutputStream out = new DataOutputStream(fileOut);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entryCount);
+                out.writeInt(digestLength);
+                out.writeLong(heapOffset);
+                out.writeLong(heapLength);
+                long pathOffset = 0;
+                int writtenCount = 0;
+                for(byte[] entry : indexedEntries) {
+                    out.write(entry, 0, digestLength);
+                    out.writeLong(pathOffset);
+                    out.writeInt(entry.length - digestLength);
+                    pathOffset += entry.length - digestLength;
+                    writtenCount++;
+                }
+                if(writtenCount != entryCount || pathOffset != heapLength) {
+                    throw new IOException("Entries do not match the announced count of " + entryCount + " and heap length of " + heapLength);
+                }
+                for(byte[] entry : indexedEntries) {
+                    out.write(entry, digestLength, entry.length - digestLength);
+                }
+                out.flush();
+            });
+        } catch (IOException | UncheckedIOException e) {
+            throw new ManifestException("Could not write digest index to " + indexPath + ": " + e, e);
+        }
+    }
+
+    /**
+     * @return the index order of entries with digests of the given length: by digest, then in manifest order.
+     */
+    static Comparator<byte[]> getDigestOrderOfEntries(int digestLength) {
+        Comparator<byte[]> pathOrder = ChecksumManifest.getPathOrderOfEntries(digestLength);
+        return (first, second) -> {
+            int comparison = Arrays.compareUnsigned(first, 0, digestLength, second, 0, digestLength);
+            return comparison != 0 ? comparison : pathOrder.compare(first, second);
+        };
+    }
+
+    static boolean hasSameDigest(byte[] firstEntry, byte[] secondEntry, int digestLength) {
+        return Arrays.equals(firstEntry, 0, digestLength, secondEntry, 0, digestLength);
+    }
+
+    /**
+     * Opens and maps the digest index at the given location.
+     */
+    public static DigestIndex open(Path indexPath) {
+        try {
+            return new DigestIndex(indexPath);
+        } catch (IOException e) {
+            throw new ManifestException("Could not open digest index at " + indexPath + ": " + e, e);
+        }
+    }
+
+    private DigestIndex(Path path) throws IOException {
+        this.path = path;
+        this.channel = ManifestFiles.openForMapping(path, HEADER_SIZE, Long.MAX_VALUE);
+        MappedFile mappedFile = null;
+        try {
+            long size = channel.size();
+            mappedFile = MappedFile.map(channel, FileChannel.MapMode.READ_ONLY, size);
+            this.file = mappedFile;
+            if(file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+                throw new ManifestException("File at " + path + " is not a digest index of version " + VERSION);
+            }
+            this.entryCount = file.getInt(8);
+            this.digestLength = file.getInt(12);
+            this.recordSize = RECORD_FIXED_SIZE + digestLength;
+            this.heapOffset = file.getLong(16);
+            long heapLength = file.getLong(24);
+            if(entryCount < 0 || digestLength < 0 || heapOffset != HEADER_SIZE + (long) recordSize * entryCount || heapOffset + heapLength != size) {
+                throw new ManifestException("Digest index at " + path + " is truncated or corrupt");
+            }
+        } catch (IOException | RuntimeException e) {
+            if(mappedFile != null) {
+                mappedFile.unmap();
+            }
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of distinct digests held by this index.
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @return the digest of the record at the given index.
+     */
+    public byte[] getDigest(int index) {
+        byte[] digest = new byte[digestLength];
+        file.get(HEADER_SIZE + (long) index * recordSize, digest);
+        return digest;
+    }
+
+    /**
+     * @return a view on the distinct digests held by this index, read from the mapped file on access. Only valid while
+     * this index is open.
+     */
+    public List<ByteBuffer> getDigests() {
+        return new AbstractList<>() {
+            @Override
+            public ByteBuffer get(int index) {
+                Objects.checkIndex(index, entryCount);
+                return ByteBuffer.wrap(getDigest(index));
+            }
+
+            @Override
+            public int size() {
+                return entryCount;
+            }
+        };
+    }
+
+    /**
+     * @return the index of the record holding the given digest or a negative value if there is no such record.
+     */
+    public int indexOf(ByteBuffer digest) {
+        if(digest.remaining() != digestLength) {
+            return -1;
+        }
+        int low = 0;
+        int high = entryCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareDigest(digest, HEADER_SIZE + (long) middle * recordSize);
+            if(comparison > 0) {
+                low = middle + 1;
+            } else if(comparison < 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Path findPath(ByteBuffer digest) {
+        int index = indexOf(digest);
+        if(index < 0) {
+            return null;
+        }
+        long recordOffset = HEADER_SIZE + (long) index * recordSize;
+        long pathPosition = heapOffset + file.getLong(recordOffset + digestLength);
+        byte[] encodedPath = new byte[file.getInt(recordOffset + digestLength + Long.BYTES)];
+        file.get(pathPosition, encodedPath);
+        return Path.of(new String(encodedPath, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Unmaps the file right away, so that it can be deleted or replaced, also on Windows.
+     */
+    @Override
+    public void close() {
+        file.unmap();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new ManifestException("Could not close digest index at " + path + ": " + e, e);
+        }
+    }
+
+    /**
+     * Compares the given digest with the digest stored at the given offset. Bytes are compared unsigned.
+     */
+    private int compareDigest(ByteBuffer digest, long recordOffset) {
+        for(int i = 0; i < digestLength; i++) {
+            int comparison = Integer.compare(Byte.toUnsignedInt(digest.get(digest.position() + i)), Byte.toUnsignedInt(file.get(recordOffset + i)));
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,270 @@
+package jb.engine.core.manifest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts byte records within a memory budget. Records are buffered until the budget is used up. The buffer is then
+ * sorted and written to a temporary run file in the spill directory. Reading the sorted records merges the runs, so
+ * the heap holds one record and one read buffer per run at a time. The number of runs merged at once is bounded by the
+ * budget and by a fixed maximum of open files; beyond it, runs are first merged into larger runs in intermediate
+ * passes. As long as all records fit into the budget, no file is written.
+ */
+class ExternalSorter implements AutoCloseable {
+
+    /**
+     * Estimated heap used by a buffered record besides its bytes: array header and list reference.
+     */
+    private static final int RECORD_OVERHEAD = 24;
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MIN_FAN_IN = 2;
+    private static final int MAX_FAN_IN = 64;
+
+    private final Comparator<byte[]> order;
+    private final Path spillDirectory;
+    private final long memoryBudget;
+    /**
+     * The maximum number of runs read at once, each holding a read buffer.
+     */
+    private final int fanIn;
+    private final List<byte[]> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long bufferedBytes = 0;
+    private long size = 0;
+
+    ExternalSorter(Comparator<byte[]> order, Path spillDirectory, long memoryBudget) {
+        this.order = order;
+        this.spillDirectory = spillDirectory;
+        this.memoryBudget = memoryBudget;
+        this.fanIn = (int) Math.max(MIN_FAN_IN, Math.min(MAX_FAN_IN, memoryBudget / READ_BUFFER_SIZE));
+    }
+
+    void add(byte[] record) throws IOException {
+        buffer.add(record);
+        bufferedBytes += record.length + RECORD_OVERHEAD;
+        size++;
+        if(bufferedBytes >= memoryBudget) {
+            spill();
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of run files held. Runs merged by an intermediate pass are counted as one.
+     */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Returns all added records in order. May be called repeatedly, each call reads all records anew. Records must not
+     * be added afterwards. Reading failures are thrown as {@link UncheckedIOException}.
+     */
+    SortedRecords sorted() throws IOException {
+        if(runs.isEmpty()) {
+            buffer.sort(order);
+            return new SortedRecords(buffer.iterator());
+        }
+        if(!buffer.isEmpty()) {
+            // the buffer is released instead of being held during the merge
+            spill();
+        }
+        while(runs.size() > fanIn) {
+            mergeFirstRuns();
+        }
+        return new SortedRecords(openRuns(runs), order);
+    }
+
+    /**
+     * Deletes all run files.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException firstException = null;
+        for(Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                if(firstException == null) {
+                    firstException = e;
+                } else {
+                    firstException.addSuppressed(e);
+                }
+            }
+        }
+        runs.clear();
+        buffer.clear();
+        if(firstException != null) {
+            throw firstException;
+        }
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(order);
+        Path run = Files.createTempFile(spillDirectory, "sort-", ".run");
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for(byte[] record : buffer) {
+                writeRecord(out, record);
+            }
+        }
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Merges the first runs, as many as are read at once, into a new run appended to all runs and deletes them.
+     */
+    private void mergeFirstRuns() throws IOException {
+        List<Path> mergedRuns = new ArrayList<>(runs.subList(0, fanIn));
+        Path run = Files.createTempFile(spillDirectory, "sort-", ".run");
+        runs.add(run);
+        try (SortedRecords records = new SortedRecords(openRuns(mergedRuns), order);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            while(records.hasNext()) {
+                writeRecord(out, records.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for(Path mergedRun : mergedRuns) {
+            Files.deleteIfExists(mergedRun);
+            runs.remove(mergedRun);
+        }
+    }
+
+    /**
+     * @return readers of the given runs. Already opened readers are closed if one can not be opened.
+     */
+    private static List<RunReader> openRuns(List<Path> runs) throws IOException {
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        try {
+            for(Path run : runs) {
+                readers.add(new RunReader(run));
+            }
+        } catch (IOException e) {
+            for(RunReader reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        return readers;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    /**
+     * Sequential reader of one run file, holding its next record.
+     */
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private byte[] head;
+
+        private RunReader(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), READ_BUFFER_SIZE));
+            advance();
+        }
+
+        private void advance() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                head = null;
+                return;
+            }
+            head = in.readNBytes(length);
+            if(head.length != length) {
+                throw new EOFException("Run file ended within a record");
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // run files are deleted afterwards
+            }
+        }
+    }
+
+    /**
+     * Records in sorted order, either from the sorted buffer or merged from run files.
+     */
+    static class SortedRecords implements Iterator<byte[]>, Closeable {
+        private final Iterator<byte[]> bufferIterator;
+        private final List<RunReader> readers;
+        private final PriorityQueue<RunReader> queue;
+
+        private SortedRecords(Iterator<byte[]> bufferIterator) {
+            this.bufferIterator = bufferIterator;
+            this.readers = List.of();
+            this.queue = null;
+        }
+
+        private SortedRecords(List<RunReader> readers, Comparator<byte[]> order) {
+            this.bufferIterator = null;
+            this.readers = readers;
+            this.queue = new PriorityQueue<>(Math.max(1, readers.size()), (first, second) -> order.compare(first.head, second.head));
+            for(RunReader reader : readers) {
+                if(reader.head != null) {
+                    queue.add(reader);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return bufferIterator != null ? bufferIterator.hasNext() : !queue.isEmpty();
+        }
+
+        @Override
+        public byte[] next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if(bufferIterator != null) {
+                return bufferIterator.next();
+            }
+            RunReader reader = queue.poll();
+            byte[] record = reader.head;
+            try {
+                reader.advance();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if(reader.head != null) {
+                queue.add(reader);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() {
+            for(RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package jb.engine.core.manifest;
+
+import jb.engine.reporting.DigestFilterMetrics;
+import jb.engine.services.DigestLookup;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Digest lookup that asks a {@link DigestFilter} before searching the underlying lookup. Counts how often the filter
+ * answered on its own and how often it let a digest pass that turned out to be new.
+ * <p>Instances are meant to be used by one thread.</p>
+ */
+public class FilteredDigestLookup implements DigestLookup {
+
+    private final DigestFilter filter;
+    private final DigestLookup delegate;
+    private long probeCount = 0;
+    private long rejectedCount = 0;
+    private long falsePositiveCount = 0;
+
+    /**
+     * Both the filter and the delegate are closed together with the created lookup.
+     */
+    public FilteredDigestLookup(DigestFilter filter, DigestLookup delegate) {
+        this.filter = filter;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Path findPath(ByteBuffer digest) {
+        probeCount++;
+        if(!filter.mightContain(digest)) {
+            rejectedCount++;
+            return null;
+        }
+        Path path = delegate.findPath(digest);
+        if(path == null) {
+            falsePositiveCount++;
+        }
+        return path;
+    }
+
+    public DigestFilterMetrics getMetrics() {
+        return new DigestFilterMetrics(probeCount, rejectedCount, falsePositiveCount, filter.getExpectedFalsePositiveRate(),
+                filter.getSizeInBytes(), filter.getHashCount());
+    }
+
+    @Override
+    public void close() {
+        try {
+            filter.close();
+        } finally {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package jb.engine.core.manifest;
+
+import jb.engine.exceptions.ManifestException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Collects the checksums of one snapshot while it is hashed and writes its manifest, digest index and digest filter
+ * afterwards. Unlike writing from a checksum map, the heap used does not grow with the number of paths: entries are
+ * sorted within a memory budget and spilled to temporary run files beyond it, see {@link ExternalSorter}. The runs are
+ * merged while writing, in manifest order for the manifest and in digest order for the digest index.
+ */
+public class ManifestBuilder implements AutoCloseable {
+
+    private final Path spillDirectory;
+    private final long memoryBudget;
+    /**
+     * Created upon the first added checksum, which determines the digest length.
+     */
+    private ExternalSorter pathSorter = null;
+    private int digestLength = 0;
+    private long heapLength = 0;
+
+    /**
+     * @param spillDirectory the directory run files are written to. They take about twice the size of the manifest
+     *                       and are deleted upon closing.
+     * @param memoryBudget the number of bytes each of the two sorts holds in memory before spilling.
+     */
+    public ManifestBuilder(Path spillDirectory, long memoryBudget) {
+        this.spillDirectory = spillDirectory;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Adds the checksum of one path. Each path may be added once. All digests need to be of equal length.
+     * @throws ManifestException if a manifest can not hold another path. This fails the run while hashing, before
+     * anything is written.
+     */
+    public void add(String pathString, byte[] digest) {
+        if(size() >= Integer.MAX_VALUE) {
+            throw new ManifestException("A manifest can not hold more than " + Integer.MAX_VALUE + " entries");
+        }
+        if(pathSorter == null) {
+            digestLength = digest.length;
+            pathSorter = new ExternalSorter(ChecksumManifest.getPathOrderOfEntries(digestLength), spillDirectory, memoryBudget);
+        } else if(digestLength != digest.length) {
+            throw new ManifestException("Digests of unequal length can not be written to a manifest: " + digestLength + " and " + digest.length);
+        }
+        byte[] encodedPath = pathString.getBytes(StandardCharsets.UTF_8);
+        heapLength += encodedPath.length;
+        try {
+            pathSorter.add(ChecksumManifest.encodeEntry(digest, encodedPath));
+        } catch (IOException e) {
+            throw new ManifestException("Could not spill checksums to " + spillDirectory + ": " + e, e);
+        }
+    }
+
+    /**
+     * @return the number of added checksums.
+     */
+    public long size() {
+        return pathSorter == null ? 0 : pathSorter.size();
+    }
+
+    /**
+     * @return the number of run files written so far.
+     */
+    public int getSpilledRunCount() {
+        return pathSorter == null ? 0 : pathSorter.getRunCount();
+    }
+
+    /**
+     * Writes the manifest, the digest index and the digest filter of all added checksums. Existing files are replaced
+     * atomically. Checksums must not be added afterwards.
+     * @return the reference to the written manifest.
+     */
+    public ManifestReference write(Path manifestPath, Path indexPath, Path filterPath) {
+        if(pathSorter == null) {
+            pathSorter = new ExternalSorter(ChecksumManifest.getPathOrderOfEntries(digestLength), spillDirectory, memoryBudget);
+        }
+        int entryCount = (int) pathSorter.size();
+        ManifestReference manifestReference;
+        try (ExternalSorter digestSorter = new ExternalSorter(DigestIndex.getDigestOrderOfEntries(digestLength), spillDirectory, memoryBudget)) {
+            try (ExternalSorter.SortedRecords sortedEntries = pathSorter.sorted()) {
+                // the digest sort is fed while the manifest is written
+                Iterator<byte[]> forwardingEntries = new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return sortedEntries.hasNext();
+                    }
+
+                    @Override
+                    public byte[] next() {
+                        byte[] entry = sortedEntries.next();
+                        try {
+                            digestSorter.add(entry);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return entry;
+                    }
+                };
+                manifestReference = ChecksumManifest.write(forwardingEntries, entryCount, heapLength, digestLength, manifestPath);
+            }
+            writeDigestIndex(digestSorter, digestLength, indexPath);
+        } catch (IOException | UncheckedIOException e) {
+            throw new ManifestException("Could not merge spilled checksums in " + spillDirectory + ": " + e, e);
+        }
+        writeDigestFilter(indexPath, filterPath);
+        return manifestReference;
+    }
+
+    /**
+     * Writes the digest index and the digest filter of the given manifest, e.g. to rebuild them once they are missing.
+     * The entries of the manifest are read from the mapped file and sorted within the given memory budget, hence the
+     * heap used does not grow with the size of the manifest. Existing files are replaced atomically.
+     * @param spillDirectory the directory run files are written to. They are deleted afterwards.
+     */
+    public static void writeIndexAndFilter(ChecksumManifest manifest, Path indexPath, Path filterPath, Path spillDirectory, long memoryBudget) {
+        int digestLength = manifest.size() == 0 ? 0 : manifest.getDigest(0).length;
+        try (ExternalSorter digestSorter = new ExternalSorter(DigestIndex.getDigestOrderOfEntries(digestLength), spillDirectory, memoryBudget)) {
+            for(int i = 0; i < manifest.size(); i++) {
+                digestSorter.add(ChecksumManifest.encodeEntry(manifest.getDigest(i), manifest.getPathString(i).getBytes(StandardCharsets.UTF_8)));
+            }
+            writeDigestIndex(digestSorter, digestLength, indexPath);
+        } catch (IOException | UncheckedIOException e) {
+            throw new ManifestException("Could not sort checksums of manifest at " + manifest.getPath() + " in " + spillDirectory + ": " + e, e);
+        }
+        writeDigestFilter(indexPath, filterPath);
+    }
+
+    /**
+     * Deletes all run files.
+     */
+    @Override
+    public void close() {
+        if(pathSorter == null) {
+            return;
+        }
+        try {
+            pathSorter.close();
+        } catch (IOException e) {
+            throw new ManifestException("Could not delete spilled checksums in " + spillDirectory + ": " + e, e);
+        }
+    }
+
+    /**
+     * Writes the digest filter from the distinct digests of the written digest index.
+     */
+    private static void writeDigestFilter(Path indexPath, Path filterPath) {
+        try (DigestIndex index = DigestIndex.open(indexPath)) {
+            DigestFilter.write(new AbstractList<>() {
+                @Override
+                public byte[] get(int i) {
+                    return index.getDigest(i);
+                }
+
+                @Override
+                public int size() {
+                    return index.size();
+                }
+            }, filterPath);
+        }
+    }
+
+    /**
+     * Writes the digest index from the given sort. Its runs are merged three times: to count the indexed entries, to
+     * write the records and to write the heap. Each merge is closed once it was read, so only one is open at a time.
+     */
+    private static void writeDigestIndex(ExternalSorter digestSorter, int digestLength, Path indexPath) {
+        List<ExternalSorter.SortedRecords> openedRecords = new ArrayList<>();
+        try {
+            Iterable<byte[]> indexedEntries = () -> openIndexedEntries(digestSorter, digestLength, openedRecords);
+            int entryCount = 0;
+            long indexHeapLength = 0;
+            for(byte[] entry : indexedEntries) {
+                entryCount++;
+                indexHeapLength += entry.length - digestLength;
+            }
+            DigestIndex.write(indexedEntries, entryCount, indexHeapLength, digestLength, indexPath);
+        } finally {
+            openedRecords.forEach(ExternalSorter.SortedRecords::close);
+        }
+    }
+
+    /**
+     * @return the sorted entries of the given sort, holding only the first entry of each digest. The underlying merge
+     * is closed and removed from the given opened records once all entries were read.
+     */
+    private static Iterator<byte[]> openIndexedEntries(ExternalSorter digestSorter, int digestLength, List<ExternalSorter.SortedRecords> openedRecords) {
+        ExternalSorter.SortedRecords sortedEntries;
+        try {
+            sortedEntries = digestSorter.sorted();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        openedRecords.add(sortedEntries);
+        return new Iterator<>() {
+            private byte[] previousEntry = null;
+            private byte[] nextEntry = null;
+
+            @Override
+            public boolean hasNext() {
+                while(nextEntry == null && sortedEntries.hasNext()) {
+                    byte[] entry = sortedEntries.next();
+                    if(previousEntry == null || !DigestIndex.hasSameDigest(previousEntry, entry, digestLength)) {
+                        nextEntry = entry;
+                    }
+                    previousEntry = entry;
+                }
+                if(nextEntry == null && openedRecords.remove(sortedEntries)) {
+                    sortedEntries.close();
+                }
+                return nextEntry != null;
+            }
+
+            @Override
+            public byte[] next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] entry = nextEntry;
+                nextEntry = null;
+                return entry;
+            }
+        };
+    }
+}
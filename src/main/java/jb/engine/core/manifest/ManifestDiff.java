@@ -0,0 +1,205 @@
+package jb.engine.core.manifest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Compares two manifests top-down. The digest of a directory covers the names and contents of everything below it, so
+ * two directories of equal digest are identical and the comparison does not descend into them. Only the children of
+ * directories whose digests differ are compared with each other, matched by name.
+ * <p>Since the records of a manifest are sorted in pre-order, the children of a record are found by jumping from one
+ * subtree end to the next. Diffing two large manifests with few changes therefore reads the records along the changed
+ * paths and their siblings only.</p>
+ * <p>Entries are produced lazily in pre-order. Paths are given relative to the parent of the root of each manifest,
+ * e.g. {@code Source/sub/file.txt}.</p>
+ */
+public class ManifestDiff implements Iterator<ManifestDiff.Entry> {
+
+    public enum Type {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * One differing path. Directories are told from files by having contents, hence empty directories appear as files.
+     */
+    public static class Entry {
+        private final Type type;
+        private final String relativePath;
+        private final byte[] previousDigest;
+        private final byte[] currentDigest;
+        private final boolean directory;
+
+        private Entry(Type type, String relativePath, byte[] previousDigest, byte[] currentDigest, boolean directory) {
+            this.type = type;
+            this.relativePath = relativePath;
+            this.previousDigest = previousDigest;
+            this.currentDigest = currentDigest;
+            this.directory = directory;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getRelativePath() {
+            return relativePath;
+        }
+
+        /**
+         * @return the digest in the previous manifest or {@code null} if the path was added.
+         */
+        public byte[] getPreviousDigest() {
+            return previousDigest;
+        }
+
+        /**
+         * @return the digest in the current manifest or {@code null} if the path was removed.
+         */
+        public byte[] getCurrentDigest() {
+            return currentDigest;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + relativePath;
+        }
+    }
+
+    /**
+     * The children of a previous and a current record that still need to be matched. A side without record has an
+     * empty range.
+     */
+    private static class Frame {
+        private int previousCursor;
+        private final int previousEnd;
+        private int currentCursor;
+        private final int currentEnd;
+
+        private Frame(int previousStart, int previousEnd, int currentStart, int currentEnd) {
+            this.previousCursor = previousStart;
+            this.previousEnd = previousEnd;
+            this.currentCursor = currentStart;
+            this.currentEnd = currentEnd;
+        }
+    }
+
+    private final ChecksumManifest previous;
+    private final ChecksumManifest current;
+    private final boolean expandSubtrees;
+    private final int previousRootNameOffset;
+    private final int currentRootNameOffset;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private Entry nextEntry;
+
+    /**
+     * @param previous the manifest compared against or {@code null} to report every path of the current manifest as
+     *                 added.
+     * @param current the manifest or {@code null} to report every path of the previous manifest as removed.
+     * @param expandSubtrees if true, every path within an added or removed directory is reported as well. Otherwise,
+     *                       only the directory itself is reported.
+     */
+    public ManifestDiff(ChecksumManifest previous, ChecksumManifest current, boolean expandSubtrees) {
+        this.previous = previous;
+        this.current = current;
+        this.expandSubtrees = expandSubtrees;
+        int previousSize = previous == null ? 0 : previous.size();
+        int currentSize = current == null ? 0 : current.size();
+        this.previousRootNameOffset = previousSize == 0 ? 0 : previous.getNameOffset(0);
+        this.currentRootNameOffset = currentSize == 0 ? 0 : current.getNameOffset(0);
+        // the roots are matched like the children of a common parent
+        frames.push(new Frame(0, Math.min(previousSize, 1), 0, Math.min(currentSize, 1)));
+    }
+
+    /**
+     * @return all differences of the given manifests as lazily evaluated stream, see {@link #ManifestDiff(ChecksumManifest, ChecksumManifest, boolean)}.
+     */
+    public static Stream<Entry> stream(ChecksumManifest previous, ChecksumManifest current, boolean expandSubtrees) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ManifestDiff(previous, current, expandSubtrees),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(nextEntry == null) {
+            nextEntry = computeNext();
+        }
+        return nextEntry != null;
+    }
+
+    @Override
+    public Entry next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry entry = nextEntry;
+        nextEntry = null;
+        return entry;
+    }
+
+    /**
+     * Matches children of the top frame until one of them differs.
+     * @return the next differing path or {@code null} if there is none.
+     */
+    private Entry computeNext() {
+        while(!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            boolean previousLeft = frame.previousCursor < frame.previousEnd;
+            boolean currentLeft = frame.currentCursor < frame.currentEnd;
+            if(!previousLeft && !currentLeft) {
+                frames.pop();
+                continue;
+            }
+            int comparison;
+            if(!previousLeft) {
+                comparison = 1;
+            } else if(!currentLeft) {
+                comparison = -1;
+            } else {
+                comparison = previous.compareNames(frame.previousCursor, current, frame.currentCursor);
+            }
+            if(comparison < 0) {
+                int index = frame.previousCursor;
+                int subtreeEnd = previous.getSubtreeEnd(index);
+                frame.previousCursor = subtreeEnd;
+                if(expandSubtrees) {
+                    frames.push(new Frame(index + 1, subtreeEnd, 0, 0));
+                }
+                return new Entry(Type.REMOVED, previous.getPathString(index, previousRootNameOffset), previous.getDigest(index), null,
+                        subtreeEnd > index + 1);
+            }
+            if(comparison > 0) {
+                int index = frame.currentCursor;
+                int subtreeEnd = current.getSubtreeEnd(index);
+                frame.currentCursor = subtreeEnd;
+                if(expandSubtrees) {
+                    frames.push(new Frame(0, 0, index + 1, subtreeEnd));
+                }
+                return new Entry(Type.ADDED, current.getPathString(index, currentRootNameOffset), null, current.getDigest(index),
+                        subtreeEnd > index + 1);
+            }
+            int previousIndex = frame.previousCursor;
+            int currentIndex = frame.currentCursor;
+            int previousSubtreeEnd = previous.getSubtreeEnd(previousIndex);
+            int currentSubtreeEnd = current.getSubtreeEnd(currentIndex);
+            frame.previousCursor = previousSubtreeEnd;
+            frame.currentCursor = currentSubtreeEnd;
+            if(!previous.hasSameDigest(previousIndex, current, currentIndex)) {
+                // a file replaced by a directory or vice versa ends up with one empty side here
+                frames.push(new Frame(previousIndex + 1, previousSubtreeEnd, currentIndex + 1, currentSubtreeEnd));
+                return new Entry(Type.CHANGED, current.getPathString(currentIndex, currentRootNameOffset), previous.getDigest(previousIndex),
+                        current.getDigest(currentIndex), previousSubtreeEnd > previousIndex + 1 || currentSubtreeEnd > currentIndex + 1);
+            }
+        }
+        return null;
+    }
+}
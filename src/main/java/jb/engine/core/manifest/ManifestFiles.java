@@ -0,0 +1,96 @@
+package jb.engine.core.manifest;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File handling shared by all files written beside a run target directory.
+ */
+class ManifestFiles {
+
+    private ManifestFiles() {
+    }
+
+    /**
+     * Writes a file via a temporary sibling file that is moved to the given location afterwards. Hence the file at the
+     * given location is either the old or the completely written new one.
+     */
+    static void writeAtomically(Path target, ContentWriter contentWriter) throws IOException {
+        writeViaTemporaryFile(target, temporaryPath -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+                contentWriter.write(out);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #writeAtomically(Path, ContentWriter)} but the content is written to a mapping of the whole file of the
+     * given size. Hence it may be written in any order.
+     */
+    static void writeMappedAtomically(Path target, long size, MappedContentWriter contentWriter) throws IOException {
+        writeViaTemporaryFile(target, temporaryPath -> {
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedFile file = MappedFile.map(channel, FileChannel.MapMode.READ_WRITE, size);
+                try {
+                    contentWriter.write(file);
+                    file.force();
+                } finally {
+                    // the temporary file can not be moved on Windows while it is mapped
+                    file.unmap();
+                }
+            }
+        });
+    }
+
+    private static void writeViaTemporaryFile(Path target, TemporaryFileWriter temporaryFileWriter) throws IOException {
+        Path temporaryPath = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            temporaryFileWriter.write(temporaryPath);
+            Files.move(temporaryPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temporaryPath);
+            } catch (IOException e2) {
+                e.addSuppressed(e2);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the given file for reading and checks that its size lies within the given bounds.
+     * @param maximumSize the largest size that can be mapped by the caller, e.g. {@link Integer#MAX_VALUE} for files
+     *                    mapped into one buffer.
+     */
+    static FileChannel openForMapping(Path path, int minimumSize, long maximumSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        if(size < minimumSize || size > maximumSize) {
+            channel.close();
+            throw new IOException("File at " + path + " has invalid size " + size);
+        }
+        return channel;
+    }
+
+    @FunctionalInterface
+    interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface MappedContentWriter {
+        void write(MappedFile file) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface TemporaryFileWriter {
+        void write(Path temporaryPath) throws IOException;
+    }
+}
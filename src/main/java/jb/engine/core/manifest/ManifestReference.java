@@ -0,0 +1,48 @@
+package jb.engine.core.manifest;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Location, length and checksum of a written {@link ChecksumManifest}. The length and checksum are used to detect
+ * manifests that were modified or truncated after they were written.
+ */
+public class ManifestReference {
+
+    private final Path path;
+    private final long length;
+    private final int checksum;
+
+    public ManifestReference(Path path, long length, int checksum) {
+        this.path = Objects.requireNonNull(path);
+        this.length = length;
+        this.checksum = checksum;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the length of the manifest file in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the CRC32C checksum of the whole manifest file.
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "ManifestReference{" +
+                "path=" + path +
+                ", length=" + length +
+                ", checksum=" + Integer.toHexString(checksum) +
+                '}';
+    }
+}
@@ -0,0 +1,196 @@
+package jb.engine.core.manifest;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/**
+ * Memory mapping of a whole file of any size. A single buffer can not map more than 2 GiB, hence the file is mapped in
+ * segments and all positions are 64-bit. Values crossing the border of two segments are read and written byte by byte.
+ * <p>Mappings are released explicitly by {@link #unmap()} instead of once they are garbage collected, since Windows
+ * refuses to delete or replace a file while it is mapped.</p>
+ */
+class MappedFile {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private static final Logger logger = Logger.getLogger(MappedFile.class.getName());
+
+    /**
+     * Releases the mapping of a buffer, {@code null} if the runtime does not offer it. Mappings are then only released
+     * once they are garbage collected.
+     */
+    private static final MethodHandle UNMAPPER = findUnmapper();
+
+    /**
+     * Empty once unmapped, hence later reads fail instead of accessing released memory.
+     */
+    private MappedByteBuffer[] segments;
+    private final long size;
+
+    private MappedFile(MappedByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Maps the first bytes of the given channel. In write mode, the file is extended to the given size.
+     */
+    static MappedFile map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for(int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(mode, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return new MappedFile(segments, size);
+    }
+
+    /**
+     * Releases the mappings of all segments right away. The file must not be accessed afterwards, neither by this thread
+     * nor concurrently by others.
+     */
+    void unmap() {
+        MappedByteBuffer[] mappedSegments = segments;
+        segments = new MappedByteBuffer[0];
+        for(MappedByteBuffer segment : mappedSegments) {
+            unmap(segment);
+        }
+    }
+
+    /**
+     * Releases the mapping of the given buffer right away. It must not be accessed afterwards.
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if(UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.invokeExact((ByteBuffer) buffer);
+        } catch (RuntimeException e) {
+            logger.warning("Could not unmap file, it is unmapped once garbage collected: " + e);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle findUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            return MethodHandles.lookup().findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(unsafeField.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warning("Mapped files can not be unmapped explicitly, they are unmapped once garbage collected: " + e);
+            return null;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+    }
+
+    int getInt(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if(offset + Integer.BYTES <= segment.capacity()) {
+            return segment.getInt(offset);
+        }
+        int value = 0;
+        for(int i = 0; i < Integer.BYTES; i++) {
+            value = (value << Byte.SIZE) | Byte.toUnsignedInt(get(position + i));
+        }
+        return value;
+    }
+
+    long getLong(long position) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if(offset + Long.BYTES <= segment.capacity()) {
+            return segment.getLong(offset);
+        }
+        return ((long) getInt(position) << Integer.SIZE) | Integer.toUnsignedLong(getInt(position + Integer.BYTES));
+    }
+
+    /**
+     * Fills the given array with the bytes starting at the given position.
+     */
+    void get(long position, byte[] destination) {
+        int copied = 0;
+        while(copied < destination.length) {
+            MappedByteBuffer segment = segments[(int) ((position + copied) >>> SEGMENT_SHIFT)];
+            int offset = (int) ((position + copied) & SEGMENT_MASK);
+            int length = Math.min(destination.length - copied, segment.capacity() - offset);
+            segment.duplicate().position(offset).get(destination, copied, length);
+            copied += length;
+        }
+    }
+
+    void put(long position, byte value) {
+        segments[(int) (position >>> SEGMENT_SHIFT)].put((int) (position & SEGMENT_MASK), value);
+    }
+
+    void putInt(long position, int value) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        int offset = (int) (position & SEGMENT_MASK);
+        if(offset + Integer.BYTES <= segment.capacity()) {
+            segment.putInt(offset, value);
+            return;
+        }
+        for(int i = 0; i < Integer.BYTES; i++) {
+            put(position + i, (byte) (value >>> (Integer.SIZE - Byte.SIZE * (i + 1))));
+        }
+    }
+
+    void putLong(long position, long value) {
+        putInt(position, (int) (value >>> Integer.SIZE));
+        putInt(position + Integer.BYTES, (int) value);
+    }
+
+    /**
+     * Writes the given bytes of the given array starting at the given position.
+     */
+    void put(long position, byte[] source, int sourceOffset, int length) {
+        int copied = 0;
+        while(copied < length) {
+            MappedByteBuffer segment = segments[(int) ((position + copied) >>> SEGMENT_SHIFT)];
+            int offset = (int) ((position + copied) & SEGMENT_MASK);
+            int segmentLength = Math.min(length - copied, segment.capacity() - offset);
+            segment.duplicate().position(offset).put(source, sourceOffset + copied, segmentLength);
+            copied += segmentLength;
+        }
+    }
+
+    /**
+     * Updates the given checksum with all bytes of the file.
+     */
+    void updateChecksum(Checksum checksum) {
+        for(MappedByteBuffer segment : segments) {
+            checksum.update(segment.duplicate().clear());
+        }
+    }
+
+    /**
+     * Writes changes of a writable mapping to the file.
+     */
+    void force() {
+        for(MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+}
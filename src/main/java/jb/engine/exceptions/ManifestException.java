@@ -0,0 +1,17 @@
+package jb.engine.exceptions;
+
+/**
+ * Thrown when a checksum manifest can not be written or read or does not match its reference.
+ */
+public class ManifestException extends RuntimeException {
+    public ManifestException() {
+    }
+
+    public ManifestException(String message) {
+        super(message);
+    }
+
+    public ManifestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,68 @@
+package jb.engine.reporting;
+
+/**
+ * Immutable snapshot of the counters of some cache at the time this object was created.
+ */
+public class CacheMetrics {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int residentEntryCount;
+    private final long residentBytes;
+    private final long byteBudget;
+
+    public CacheMetrics(long hitCount, long missCount, long evictionCount, int residentEntryCount, long residentBytes, long byteBudget) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.residentEntryCount = residentEntryCount;
+        this.residentBytes = residentBytes;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * @return the ratio of hits to all requests in [0, 1]. Returns 0 if there were no requests at all.
+     */
+    public double getHitRatio() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 0.0 : (double) hitCount / requestCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public int getResidentEntryCount() {
+        return residentEntryCount;
+    }
+
+    /**
+     * @return the estimated amount of heap bytes occupied by all resident entries.
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hitCount +
+                ", misses=" + missCount +
+                ", evictions=" + evictionCount +
+                ", residentEntries=" + residentEntryCount +
+                ", residentBytes=" + residentBytes +
+                ", byteBudget=" + byteBudget;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.function.Consumer;
 
 /**
  * Class to represent the current progress status of a job being executed (for example using {@link jb.engine.services.CopyService}).
+ * Counts may be increased by several threads, e.g. by the hashing and the copy thread of a snapshot.
  */
 public class CopyProgress {
 
@@ -17,6 +18,7 @@ public class CopyProgress {
     private final Consumer<CopyProgress> updateConsumer;
     private Long totalFileCount = 0L;
     private Long trueFileCount = 0L;
+    private Long trueFileByteCount = 0L;
     private Long directoryCount = 0L;
     private Long processedCount = 0L;
 
@@ -45,7 +47,7 @@ public class CopyProgress {
     /**
      * Increase the total analyzed directory count of this CopyProgress by one and notify the attached Consumer.
      */
-    public void increaseDirectoryCountAndNotify() {
+    public synchronized void increaseDirectoryCountAndNotify() {
         directoryCount += 1;
         totalFileCount += 1;
         updateConsumer.accept(this);
@@ -54,20 +56,38 @@ public class CopyProgress {
     /**
      * Increase the total analyzed (true) file count of this CopyProgress by one and notify the attached Consumer.
      */
-    public void increaseTrueFileCountAndNotify() {
+    public synchronized void increaseTrueFileCountAndNotify() {
+        increaseTrueFileCountAndNotify(0);
+    }
+
+    /**
+     * Increase the total analyzed (true) file count of this CopyProgress by one, add the given size of that file to the
+     * total analyzed byte count and notify the attached Consumer.
+     */
+    public synchronized void increaseTrueFileCountAndNotify(long byteCount) {
         trueFileCount += 1;
         totalFileCount += 1;
+        trueFileByteCount += byteCount;
         updateConsumer.accept(this);
     }
 
     /**
      * Increase the total processed file count of this CopyProgress by one and notify the attached Consumer.
      */
-    public void increaseProcessedFileCountAndNotify() {
+    public synchronized void increaseProcessedFileCountAndNotify() {
         processedCount += 1;
         updateConsumer.accept(this);
     }
 
+    /**
+     * Sets the processed file count of this CopyProgress to the total file count and notify the attached Consumer. Used
+     * by jobs that skip unchanged directories without visiting their contents.
+     */
+    public synchronized void completeProcessingAndNotify() {
+        processedCount = totalFileCount;
+        updateConsumer.accept(this);
+    }
+
     // ---------- Calculations
 
     /**
@@ -99,6 +119,10 @@ public class CopyProgress {
         return trueFileCount;
     }
 
+    public Long getTrueFileByteCount() {
+        return trueFileByteCount;
+    }
+
     public Long getDirectoryCount() {
         return directoryCount;
     }
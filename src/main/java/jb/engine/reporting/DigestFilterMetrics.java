@@ -0,0 +1,73 @@
+package jb.engine.reporting;
+
+/**
+ * Immutable snapshot of the counters of a digest filter used during one snapshot run.
+ */
+public class DigestFilterMetrics {
+
+    private final long probeCount;
+    private final long rejectedCount;
+    private final long falsePositiveCount;
+    private final double expectedFalsePositiveRate;
+    private final long sizeInBytes;
+    private final int hashCount;
+
+    public DigestFilterMetrics(long probeCount, long rejectedCount, long falsePositiveCount, double expectedFalsePositiveRate, long sizeInBytes, int hashCount) {
+        this.probeCount = probeCount;
+        this.rejectedCount = rejectedCount;
+        this.falsePositiveCount = falsePositiveCount;
+        this.expectedFalsePositiveRate = expectedFalsePositiveRate;
+        this.sizeInBytes = sizeInBytes;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * @return the ratio of false positives to all probes of digests not held by the filtered snapshot in [0, 1]. Returns 0
+     * if there were no such probes.
+     */
+    public double getObservedFalsePositiveRate() {
+        long absentCount = rejectedCount + falsePositiveCount;
+        return absentCount == 0 ? 0.0 : (double) falsePositiveCount / absentCount;
+    }
+
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    /**
+     * @return the number of probes answered by the filter alone since the digest was definitely new.
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return the number of probes the filter let pass although the digest was not held by the snapshot.
+     */
+    public long getFalsePositiveCount() {
+        return falsePositiveCount;
+    }
+
+    public double getExpectedFalsePositiveRate() {
+        return expectedFalsePositiveRate;
+    }
+
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    @Override
+    public String toString() {
+        return "probes=" + probeCount +
+                ", rejected=" + rejectedCount +
+                ", falsePositives=" + falsePositiveCount +
+                ", observedFalsePositiveRate=" + getObservedFalsePositiveRate() +
+                ", expectedFalsePositiveRate=" + expectedFalsePositiveRate +
+                ", sizeInBytes=" + sizeInBytes +
+                ", hashCount=" + hashCount;
+    }
+}
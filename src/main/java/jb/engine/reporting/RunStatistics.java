@@ -0,0 +1,177 @@
+package jb.engine.reporting;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Immutable statistics of one copy or snapshot run, recorded while the run is executed and stored with its snapshot.
+ * Counts of new and changed paths only include regular files. Linked paths are the symbolic links created by a snapshot,
+ * each covering an unchanged file or a whole unchanged directory.
+ */
+public class RunStatistics {
+
+    private final long scannedFileCount;
+    private final long newFileCount;
+    private final long changedFileCount;
+    private final long linkedCount;
+    private final long copiedByteCount;
+    private final long linkedByteCount;
+    private final Duration hashDuration;
+    private final Duration copyDuration;
+    private final Duration indexDuration;
+
+    public RunStatistics(long scannedFileCount, long newFileCount, long changedFileCount, long linkedCount, long copiedByteCount,
+                         long linkedByteCount, Duration hashDuration, Duration copyDuration, Duration indexDuration) {
+        this.scannedFileCount = scannedFileCount;
+        this.newFileCount = newFileCount;
+        this.changedFileCount = changedFileCount;
+        this.linkedCount = linkedCount;
+        this.copiedByteCount = copiedByteCount;
+        this.linkedByteCount = linkedByteCount;
+        this.hashDuration = hashDuration;
+        this.copyDuration = copyDuration;
+        this.indexDuration = indexDuration;
+    }
+
+    /**
+     * @return the number of regular files hashed in the source directory.
+     */
+    public long getScannedFileCount() {
+        return scannedFileCount;
+    }
+
+    /**
+     * @return the number of copied files that did not exist in the compared snapshot.
+     */
+    public long getNewFileCount() {
+        return newFileCount;
+    }
+
+    /**
+     * @return the number of copied files whose content differs from the compared snapshot.
+     */
+    public long getChangedFileCount() {
+        return changedFileCount;
+    }
+
+    public long getLinkedCount() {
+        return linkedCount;
+    }
+
+    public long getCopiedByteCount() {
+        return copiedByteCount;
+    }
+
+    /**
+     * @return the number of bytes of scanned files that were linked instead of copied.
+     */
+    public long getLinkedByteCount() {
+        return linkedByteCount;
+    }
+
+    /**
+     * @return the time spent computing the checksums of the source directory.
+     */
+    public Duration getHashDuration() {
+        return hashDuration;
+    }
+
+    /**
+     * @return the time spent copying files and creating links.
+     */
+    public Duration getCopyDuration() {
+        return copyDuration;
+    }
+
+    /**
+     * @return the time spent writing the manifest, digest index and digest filter of the run.
+     */
+    public Duration getIndexDuration() {
+        return indexDuration;
+    }
+
+    @Override
+    public String toString() {
+        return "scannedFiles=" + scannedFileCount +
+                ", newFiles=" + newFileCount +
+                ", changedFiles=" + changedFileCount +
+                ", linked=" + linkedCount +
+                ", copiedBytes=" + copiedByteCount +
+                ", linkedBytes=" + linkedByteCount +
+                ", hashDuration=" + hashDuration +
+                ", copyDuration=" + copyDuration +
+                ", indexDuration=" + indexDuration;
+    }
+
+    /**
+     * Collects the statistics of a run while it is executed. Instances are meant to be used by one thread. The size of
+     * each copied file is passed on to a listener instead of being collected, hence the heap used does not grow with
+     * the number of copied files.
+     */
+    public static class Recorder {
+
+        private long newFileCount = 0;
+        private long changedFileCount = 0;
+        private long linkedCount = 0;
+        private long copiedByteCount = 0;
+        private Duration hashDuration = Duration.ZERO;
+        private Duration copyDuration = Duration.ZERO;
+        private final CopiedFileListener copiedFileListener;
+
+        /**
+         * Creates a recorder discarding the sizes of single copied files.
+         */
+        public Recorder() {
+            this((sourcePath, byteCount) -> {});
+        }
+
+        public Recorder(CopiedFileListener copiedFileListener) {
+            this.copiedFileListener = copiedFileListener;
+        }
+
+        public void recordNewFile(Path sourcePath, long byteCount) {
+            newFileCount++;
+            recordCopiedFile(sourcePath, byteCount);
+        }
+
+        public void recordChangedFile(Path sourcePath, long byteCount) {
+            changedFileCount++;
+            recordCopiedFile(sourcePath, byteCount);
+        }
+
+        public void recordLink() {
+            linkedCount++;
+        }
+
+        public void setHashDuration(Duration hashDuration) {
+            this.hashDuration = hashDuration;
+        }
+
+        public void setCopyDuration(Duration copyDuration) {
+            this.copyDuration = copyDuration;
+        }
+
+        /**
+         * @param copyProgress the progress updated while hashing the source directory. Provides the number and size of
+         *                     all scanned files.
+         * @param indexDuration the time spent writing the index files of the run.
+         */
+        public RunStatistics toStatistics(CopyProgress copyProgress, Duration indexDuration) {
+            long scannedByteCount = copyProgress.getTrueFileByteCount();
+            return new RunStatistics(copyProgress.getTrueFileCount(), newFileCount, changedFileCount, linkedCount, copiedByteCount,
+                    Math.max(0, scannedByteCount - copiedByteCount), hashDuration, copyDuration, indexDuration);
+        }
+
+        private void recordCopiedFile(Path sourcePath, long byteCount) {
+            copiedByteCount += byteCount;
+            copiedFileListener.copied(sourcePath, byteCount);
+        }
+    }
+
+    /**
+     * Receives the size of each file copied by a run, on the thread recording it.
+     */
+    public interface CopiedFileListener {
+        void copied(Path sourcePath, long byteCount);
+    }
+}
@@ -0,0 +1,74 @@
+package jb.engine.reporting;
+
+/**
+ * Immutable summary of the rows and bytes written to the database by one or more write operations.
+ */
+public class WriteStatistics {
+
+    public static final WriteStatistics EMPTY = new WriteStatistics(0, 0, 0, 0, 0);
+
+    private final long insertedRowCount;
+    private final long updatedRowCount;
+    private final long skippedRowCount;
+    private final long deletedRowCount;
+    private final long bytesWritten;
+
+    public WriteStatistics(long insertedRowCount, long updatedRowCount, long skippedRowCount, long deletedRowCount, long bytesWritten) {
+        this.insertedRowCount = insertedRowCount;
+        this.updatedRowCount = updatedRowCount;
+        this.skippedRowCount = skippedRowCount;
+        this.deletedRowCount = deletedRowCount;
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * @return new statistics holding the sums of this and the given statistics' values.
+     */
+    public WriteStatistics plus(WriteStatistics other) {
+        return new WriteStatistics(
+                insertedRowCount + other.insertedRowCount,
+                updatedRowCount + other.updatedRowCount,
+                skippedRowCount + other.skippedRowCount,
+                deletedRowCount + other.deletedRowCount,
+                bytesWritten + other.bytesWritten
+        );
+    }
+
+    /**
+     * @return number of rows that were inserted or upserted.
+     */
+    public long getInsertedRowCount() {
+        return insertedRowCount;
+    }
+
+    public long getUpdatedRowCount() {
+        return updatedRowCount;
+    }
+
+    /**
+     * @return number of rows that were not written since their objects did not change.
+     */
+    public long getSkippedRowCount() {
+        return skippedRowCount;
+    }
+
+    public long getDeletedRowCount() {
+        return deletedRowCount;
+    }
+
+    /**
+     * @return the approximate amount of bytes of all column values bound to write statements.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return "inserted=" + insertedRowCount +
+                ", updated=" + updatedRowCount +
+                ", skipped=" + skippedRowCount +
+                ", deleted=" + deletedRowCount +
+                ", bytesWritten=" + bytesWritten;
+    }
+}
@@ -1,21 +1,25 @@
 package jb.engine.services;
 
+import jb.engine.core.filter.PathFilter;
 import jb.engine.exceptions.UnresolvableFileException;
 import jb.engine.reporting.CopyProgress;
 import jb.engine.reporting.ProblemReport;
+import jb.engine.reporting.RunStatistics;
 import jb.engine.utils.PathComparator;
+import jb.engine.utils.PathUtils;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.ByteBuffer;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -23,27 +27,47 @@ public class CopyService {
 
     private final Path targetBasePath;
     private final Path sourceBasePath;
+    private final PathFilter pathFilter;
 
     public static CopyService createCopyService(Path targetBasePath, Path sourceBasePath) {
-        return new CopyService(targetBasePath, sourceBasePath);
+        return new CopyService(targetBasePath, sourceBasePath, PathFilter.NONE);
     }
-    private CopyService(Path targetBasePath, Path sourceBasePath) {
+
+    /**
+     * Same as {@link #createCopyService(Path, Path)} but plain copies skip paths excluded by the given filter. Snapshot
+     * copies only visit paths with checksum, hence the same filter needs to be applied when hashing the source.
+     */
+    public static CopyService createCopyService(Path targetBasePath, Path sourceBasePath, PathFilter pathFilter) {
+        return new CopyService(targetBasePath, sourceBasePath, pathFilter);
+    }
+
+    private CopyService(Path targetBasePath, Path sourceBasePath, PathFilter pathFilter) {
         this.targetBasePath = targetBasePath;
         this.sourceBasePath = sourceBasePath;
+        this.pathFilter = pathFilter;
     }
 
     public ProblemReport plainCopy() {
-        return plainCopyRec(sourceBasePath, new ProblemReport(100), false);
+        return plainCopy(new RunStatistics.Recorder());
+    }
+
+    /**
+     * Same as {@link #plainCopy()} but records every copied file as new file in the given recorder.
+     */
+    public ProblemReport plainCopy(RunStatistics.Recorder recorder) {
+        return plainCopyRec(sourceBasePath, Files.isDirectory(sourceBasePath), pathFilter, new ProblemReport(100), false, recorder);
     }
 
     public ProblemReport plainCopyOverride() {
-        return plainCopyRec(sourceBasePath, new ProblemReport(100), true);
+        return plainCopyRec(sourceBasePath, Files.isDirectory(sourceBasePath), pathFilter, new ProblemReport(100), true, new RunStatistics.Recorder());
     }
 
     /**
      * Recursively copies all files from {@code currentSourceFilePath} into the target location
+     * @param currentPathFilter the filter of the directory containing the given path.
      */
-    private ProblemReport plainCopyRec(Path currentSourcePath, ProblemReport problemReport, boolean overrideExistingFiles) {
+    private ProblemReport plainCopyRec(Path currentSourcePath, boolean isDirectory, PathFilter currentPathFilter, ProblemReport problemReport,
+                                       boolean overrideExistingFiles, RunStatistics.Recorder recorder) {
         Path relativeSourcePath;
         Path parentOfSourceBasePath = sourceBasePath.getParent();
         if(parentOfSourceBasePath == null) {
@@ -51,9 +75,10 @@ public class CopyService {
         } else {
             relativeSourcePath = parentOfSourceBasePath.relativize(currentSourcePath);
         }
-        if(Files.isDirectory(currentSourcePath)) {
+        if(isDirectory) {
             // be sure the order in which the paths are processed is the same each time.
             try (Stream<Path> dirStream = Files.list(currentSourcePath).sorted(new PathComparator())) {
+                List<Path> contents = dirStream.collect(Collectors.toList());
                 try {
                     Files.createDirectory(targetBasePath.resolve(relativeSourcePath));
                 } catch(FileAlreadyExistsException e) {
@@ -64,7 +89,19 @@ public class CopyService {
                         throw e;
                     }
                 }
-                dirStream.forEach(path -> this.plainCopyRec(path, problemReport, overrideExistingFiles));
+                PathFilter contentsFilter = currentPathFilter.enter(currentSourcePath, contents);
+                for(Path path : contents) {
+                    // excluded paths are decided upon by name, before they are accessed
+                    Supplier<BasicFileAttributes> attributesOnce = PathUtils.readAttributesOrNullOnce(path);
+                    if(contentsFilter.excludes(path, () -> attributesOnce.get() != null && attributesOnce.get().isDirectory())) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = attributesOnce.get();
+                    if(attributes != null && attributes.isRegularFile() && contentsFilter.excludesFileSize(path, attributes.size())) {
+                        continue;
+                    }
+                    plainCopyRec(path, attributes != null && attributes.isDirectory(), contentsFilter, problemReport, overrideExistingFiles, recorder);
+                }
             } catch(IOException e) {
                 // skip this directory
                 handleProblem(problemReport, e, currentSourcePath, targetBasePath.resolve(relativeSourcePath), "Tried to perform a plain copy");
@@ -76,6 +113,7 @@ public class CopyService {
                 } else {
                     Files.copy(currentSourcePath, targetBasePath.resolve(relativeSourcePath));
                 }
+                recorder.recordNewFile(currentSourcePath, Files.size(targetBasePath.resolve(relativeSourcePath)));
             } catch(IOException e) {
                 // skip this file
                 handleProblem(problemReport, e, currentSourcePath, targetBasePath.resolve(relativeSourcePath), "Tried to perform a plain copy");
@@ -85,90 +123,86 @@ public class CopyService {
     }
 
     /**
-     * <p>This method creates a delta-copy of this classes source path. A delta-copy is file-system similar to the source file
+     * <p>Starts the creation of a delta-copy of this classes source path. A delta-copy is file-system similar to the source file
      * system where unchanged files or directories are replaced with symbolic links.</p><br>
      * The following copy policy is implemented:
-     * <p>For each source path registered in this copy service the following two conditions are checked:<br>
-     *     1. Is the path of this file registered in the comparison checksum-map?<br>
-     *     2. If yes, are the checksums identical?
-     * </p>
-     * <p>In the case that both conditions hold true, a symbolic link to the previously registered and saved comparison-file is created and
-     * all possibly contained files are skipped. Otherwise, the respective source-file is copied to the target location - or simply newly created if
-     * it is a directory. In the latter case, the copy process will continue normally for all contained files.</p>
-     * @param sourceChecksumMap the map of checksums of the directory that is currently being copied
-     * @param comparisonChecksumMapInverse the map of checksums used for detecting changed files
-     * @param copyProgress the copy progress object to be updated during the execution of this method.
+     * <p>For each hashed source path it is checked whether its checksum is known to the comparison lookup. If so, a
+     * symbolic link to the previously saved comparison-file is created and all possibly contained files are skipped.
+     * Otherwise, the respective source-file is copied to the target location - or simply newly created if it is a
+     * directory. Paths without checksum, e.g. paths excluded while hashing, are skipped.</p>
+     * <p>Copying overlaps with hashing the source directory: the returned pipeline needs to be passed as
+     * {@link HashService.HashListener} to {@link HashService#computeChecksums(Path, PathFilter, CopyProgress, HashService.HashListener)}
+     * and finished afterwards.</p>
+     * @param comparisonLookup finds files of the comparison snapshot by checksum. Used for detecting changed files.
+     * @param comparisonContains tells whether a path relative to the parent of the source directory exists in the
+     *                           comparison snapshot. Used for telling new files from changed files in the given recorder.
+     * @param copyProgress the copy progress object to be updated for each processed path.
+     * @param recorder records copied files and created links.
+     * @param queueCapacity the maximum number of operations waiting for the copy stage. Hashing waits while the queue is full.
      */
-    public ProblemReport createSnapshotCopy(HashMap<Path, ByteBuffer> sourceChecksumMap, HashMap<ByteBuffer, Path> comparisonChecksumMapInverse, CopyProgress copyProgress) {
-        ProblemReport problemReport = new ProblemReport(100);
-        String currentUnchangedParentDirectoryString = null;
-        List<Path> keySetSorted = sourceChecksumMap.keySet().stream().sorted(new PathComparator()).collect(Collectors.toList());
-
-        for(Path currentSourceFilePath : keySetSorted) {
-            // increase progress
-            copyProgress.increaseProcessedFileCountAndNotify();
-            // check if the parent path was unchanged
-            if(currentUnchangedParentDirectoryString != null && currentSourceFilePath.toString().startsWith(currentUnchangedParentDirectoryString)) {
-                continue;
-            }
-            // --- Get paths of interest
-            // compute the relative path of the current file
-            Path relativeSourcePath;
-            Path parentOfSourceBasePath = sourceBasePath.getParent();
-            if(parentOfSourceBasePath == null) {
-                relativeSourcePath = Path.of("/");
-            } else {
-                relativeSourcePath = parentOfSourceBasePath.relativize(currentSourceFilePath);
-            }
-            // compute the target file path
-            Path targetFilePath = targetBasePath.resolve(relativeSourcePath);
-            // --- Check if there were changes and act accordingly
-            ByteBuffer sourceFileChecksum = sourceChecksumMap.get(currentSourceFilePath);
-            if(comparisonChecksumMapInverse.containsKey(sourceFileChecksum)) {
-                if(Files.isDirectory(currentSourceFilePath)) {
-                    currentUnchangedParentDirectoryString = currentSourceFilePath.toString();
-                }
-                try {
-                    Path targetOfSymbolicLink = comparisonChecksumMapInverse.get(sourceFileChecksum);
-                    Files.createSymbolicLink(targetFilePath, targetOfSymbolicLink);
-                } catch (IOException e) {
-                    handleProblem(problemReport, e, currentSourceFilePath, targetFilePath, "Tried to set symbolic link");
-                }
+    public SnapshotCopyPipeline startSnapshotCopyPipeline(DigestLookup comparisonLookup, Predicate<Path> comparisonContains, CopyProgress copyProgress,
+                                                          RunStatistics.Recorder recorder, int queueCapacity) {
+        SnapshotCopyPipeline pipeline = new SnapshotCopyPipeline(this, sourceBasePath, comparisonLookup, comparisonContains, copyProgress, recorder, queueCapacity);
+        pipeline.start();
+        return pipeline;
+    }
+
+    /**
+     * @return the given source path relative to the parent of the source directory, i.e. its path within the target
+     * directory.
+     */
+    Path toRelativeSourcePath(Path sourcePath) {
+        Path parentOfSourceBasePath = sourceBasePath.getParent();
+        if(parentOfSourceBasePath == null) {
+            return Path.of("/");
+        }
+        return parentOfSourceBasePath.relativize(sourcePath);
+    }
+
+    public Path toTargetPath(Path sourcePath) {
+        return targetBasePath.resolve(toRelativeSourcePath(sourcePath));
+    }
+
+    void createLink(Path sourcePath, Path targetFilePath, Path targetOfSymbolicLink, RunStatistics.Recorder recorder, ProblemReport problemReport) {
+        try {
+            Files.createSymbolicLink(targetFilePath, targetOfSymbolicLink);
+            recorder.recordLink();
+        } catch (IOException e) {
+            handleProblem(problemReport, e, sourcePath, targetFilePath, "Tried to set symbolic link");
+        }
+    }
+
+    /**
+     * Copies the given source file and records it as changed or new file, depending on whether the comparison snapshot
+     * contains its path.
+     */
+    void copyFile(Path sourcePath, Path targetFilePath, Predicate<Path> comparisonContains, RunStatistics.Recorder recorder, ProblemReport problemReport) {
+        if(!Files.isRegularFile(sourcePath)) {
+            handleProblem(
+                    problemReport,
+                    new UnresolvableFileException(sourcePath),
+                    sourcePath,
+                    targetFilePath,
+                    "File was not a directory and not a regular file"
+            );
+            return;
+        }
+        try (BufferedOutputStream outStream = new BufferedOutputStream(Files.newOutputStream(targetFilePath))) {
+            long byteCount = Files.copy(sourcePath, outStream);
+            if(comparisonContains.test(toRelativeSourcePath(sourcePath))) {
+                recorder.recordChangedFile(sourcePath, byteCount);
             } else {
-                currentUnchangedParentDirectoryString = null;
-                // the file was changed or does not exist in the comparison directory
-                if(Files.isDirectory(currentSourceFilePath)) {
-                    // source path is a directory: create a new directory at the target location
-                    try {
-                        Files.createDirectory(targetFilePath);
-                    } catch (IOException e) {
-                        handleProblem(problemReport, e, currentSourceFilePath, targetFilePath, "Tried to create new directory");
-                    }
-                } else if (Files.isRegularFile(currentSourceFilePath)) {
-                    // source path is a regular file: copy the given file to the target location
-                    try (BufferedOutputStream outStream = new BufferedOutputStream(Files.newOutputStream(targetFilePath))) {
-                        Files.copy(currentSourceFilePath, outStream);
-                    } catch (IOException e) {
-                        handleProblem(problemReport, e, currentSourceFilePath, targetFilePath, "Tried to copy file");
-                    }
-                } else {
-                    handleProblem(
-                            problemReport,
-                            new UnresolvableFileException(currentSourceFilePath),
-                            currentSourceFilePath,
-                            targetFilePath,
-                            "File was not a directory and not a regular file"
-                    );
-                }
+                recorder.recordNewFile(sourcePath, byteCount);
             }
+        } catch (IOException e) {
+            handleProblem(problemReport, e, sourcePath, targetFilePath, "Tried to copy file");
         }
-        return problemReport;
     }
 
     /**
      * Creates a new Problem and stores it in the handed Problemreport.
      */
-    private void handleProblem(ProblemReport problemReport, Exception e, Path sourcePath, Path desiredTargetPath, String infoText) {
+    void handleProblem(ProblemReport problemReport, Exception e, Path sourcePath, Path desiredTargetPath, String infoText) {
         System.out.println(e.toString());
         problemReport.addProblem(new ProblemReport.Problem(sourcePath, desiredTargetPath, e, infoText));
     }
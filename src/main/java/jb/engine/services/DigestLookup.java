@@ -0,0 +1,30 @@
+package jb.engine.services;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Finds the path of a file of an earlier snapshot by its checksum. Used by {@link CopyService} to detect unchanged files.
+ */
+public interface DigestLookup extends AutoCloseable {
+
+    /**
+     * @return the path of some file holding the given checksum or {@code null} if there is no such file.
+     */
+    Path findPath(ByteBuffer digest);
+
+    /**
+     * Releases resources held by this lookup. Does nothing by default.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @return a lookup backed by the given inverted checksum map.
+     */
+    static DigestLookup of(Map<ByteBuffer, Path> inverseChecksumMap) {
+        return inverseChecksumMap::get;
+    }
+}
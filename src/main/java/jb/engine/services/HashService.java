@@ -1,10 +1,12 @@
 package jb.engine.services;
 
 
+import jb.engine.core.filter.PathFilter;
 import jb.engine.exceptions.IntegrityException;
 import jb.engine.exceptions.NotARegularFileException;
 import jb.engine.reporting.CopyProgress;
 import jb.engine.utils.PathComparator;
+import jb.engine.utils.PathUtils;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -12,10 +14,14 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -27,7 +33,30 @@ public class HashService {
     private static final String HASHING_FUNCTION_NAME = "SHA1";
     private static final int BYTE_BUFFER_SIZE = (int) Math.pow(2,16);
 
-    private final HashMap<Path, ByteBuffer> sourceChecksumMap = new HashMap<>();
+    private final HashListener hashListener;
+
+    /**
+     * Notified about each hashed path as soon as its checksum is final. Directories are notified after all of their
+     * contents, i.e. in post-order.
+     */
+    @FunctionalInterface
+    public interface HashListener {
+        void hashed(Path path, ByteBuffer checksum, boolean directory);
+
+        /**
+         * @return a listener notifying this listener first and the given listener afterwards.
+         */
+        default HashListener andThen(HashListener next) {
+            return (path, checksum, directory) -> {
+                hashed(path, checksum, directory);
+                next.hashed(path, checksum, directory);
+            };
+        }
+    }
+
+    private HashService(HashListener hashListener) {
+        this.hashListener = hashListener;
+    }
 
     public static HashMap<Path, ByteBuffer> computeChecksumMap(Path path) throws FileNotFoundException {
         return computeChecksumMap(path, CopyProgress.withoutConsumer());
@@ -37,13 +66,31 @@ public class HashService {
      * Same as {@link #computeChecksumMap(Path)} but with a {@link CopyProgress} that is updated for each analyzed file.
      */
     public static HashMap<Path, ByteBuffer> computeChecksumMap(Path path, CopyProgress copyProgress) throws FileNotFoundException {
+        HashMap<Path, ByteBuffer> checksumMap = new HashMap<>();
+        computeChecksums(path, copyProgress, (hashedPath, checksum, directory) -> checksumMap.put(hashedPath, checksum));
+        return checksumMap;
+    }
+
+    /**
+     * Same as {@link #computeChecksumMap(Path, CopyProgress)} but the checksums are only handed to the given listener
+     * while hashing instead of being collected. Hence the memory used does not grow with the number of hashed paths.
+     */
+    public static void computeChecksums(Path path, CopyProgress copyProgress, HashListener hashListener) throws FileNotFoundException {
+        computeChecksums(path, PathFilter.NONE, copyProgress, hashListener);
+    }
+
+    /**
+     * Same as {@link #computeChecksums(Path, CopyProgress, HashListener)} but paths excluded by the given filter are
+     * skipped: they are not hashed, not handed to the listener and do not contribute to the checksum of their directory.
+     * Excluded directories are not entered.
+     */
+    public static void computeChecksums(Path path, PathFilter pathFilter, CopyProgress copyProgress, HashListener hashListener) throws FileNotFoundException {
         if(!Files.isReadable(path)) {
             throw new FileNotFoundException(path.toString());
         }
-        HashService hc = new HashService();
+        HashService hc = new HashService(hashListener);
 
-        hc.updateHashMap(path, copyProgress);
-        return hc.sourceChecksumMap;
+        hc.computeChecksum(path, Files.isDirectory(path), pathFilter, copyProgress);
     }
 
     public static void saveRedirectedChecksumMap(HashMap<Path, ByteBuffer> map, Path targetFilePath, Path someBasePath) throws IOException {
@@ -65,11 +112,7 @@ public class HashService {
 
         }
         if(loadedMap instanceof HashMap) {
-            try {
-                ((HashMap<String, byte[]>) loadedMap).forEach((key, value) -> outMap.put(Path.of(key), ByteBuffer.wrap(value)));
-            } catch (ClassCastException e) {
-                throw new IntegrityException("Could not cast loaded object to HashMap<String, byte[]>", e);
-            }
+            asSerializableChecksumMap(loadedMap).forEach((key, value) -> outMap.put(Path.of(key), ByteBuffer.wrap(value)));
         }
         return outMap;
     }
@@ -87,11 +130,7 @@ public class HashService {
 
         }
         if(loadedMap instanceof HashMap) {
-            try {
-                ((HashMap<String, byte[]>) loadedMap).forEach((key, value) -> outMap.put(ByteBuffer.wrap(value), Path.of(key)));
-            } catch (ClassCastException e) {
-                throw new IntegrityException("Could not cast loaded object to HashMap<String, byte[]>", e);
-            }
+            asSerializableChecksumMap(loadedMap).forEach((key, value) -> outMap.put(ByteBuffer.wrap(value), Path.of(key)));
         }
         return outMap;
     }
@@ -156,6 +195,41 @@ public class HashService {
         return new HashMap<>(map.entrySet().stream().collect(Collectors.toMap(entry -> entry.getKey().toString(), entry -> entry.getValue().array())));
     }
 
+    /**
+     * Casts a deserialized object to the serializable representation of a checksum map.
+     * @throws IntegrityException if the object is not a {@code HashMap<String, byte[]>}.
+     */
+    public static HashMap<String, byte[]> asSerializableChecksumMap(Object object) {
+        return castHashMap(object, String.class, byte[].class);
+    }
+
+    /**
+     * Casts an object to a checksum map as used within CopySnap.
+     * @throws IntegrityException if the object is not a {@code HashMap<Path, ByteBuffer>}.
+     */
+    public static HashMap<Path, ByteBuffer> asChecksumMap(Object object) {
+        return castHashMap(object, Path.class, ByteBuffer.class);
+    }
+
+    /**
+     * Checks every mapping of the given map, hence the unchecked cast is safe.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, V> HashMap<K, V> castHashMap(Object object, Class<K> keyType, Class<V> valueType) {
+        if(!(object instanceof HashMap)) {
+            throw new IntegrityException("Expected a HashMap<" + keyType.getSimpleName() + ", " + valueType.getSimpleName()
+                    + "> but got " + (object == null ? "null" : object.getClass().getName()));
+        }
+        HashMap<?, ?> map = (HashMap<?, ?>) object;
+        for(Map.Entry<?, ?> entry : map.entrySet()) {
+            if(!keyType.isInstance(entry.getKey()) || !valueType.isInstance(entry.getValue())) {
+                throw new IntegrityException("Could not cast loaded object to HashMap<" + keyType.getSimpleName() + ", "
+                        + valueType.getSimpleName() + ">: found mapping of " + entry.getKey() + " to " + entry.getValue());
+            }
+        }
+        return (HashMap<K, V>) map;
+    }
+
     /**
      * Wraps the {@code byte[]} values to their {@link ByteBuffer} representation and returns a new map consisting of
      * these new mappings.
@@ -166,10 +240,11 @@ public class HashService {
 
     /**
      * Runs recursively through the given path structure and computes a hash value for every encountered file or directory.
-     * The computed values are stored in this objects field {@code sourceChecksumMap}.
+     * The computed values are handed to this object's {@link HashListener}.
      * <p>Hashing includes the filename and its contents.</p>
+     * @param pathFilter the filter of the directory containing the given path.
      */
-    private byte[] updateHashMap(Path currentPath, CopyProgress copyProgress) {
+    private byte[] computeChecksum(Path currentPath, boolean isDirectory, PathFilter pathFilter, CopyProgress copyProgress) {
         MessageDigest md;
         try {
             md = MessageDigest.getInstance(HASHING_FUNCTION_NAME);
@@ -178,30 +253,54 @@ public class HashService {
         }
         md.update(currentPath.getFileName().toString().getBytes(StandardCharsets.UTF_8));  // add file name of current path to hash
         byte[] digestValue;
-        if(Files.isDirectory(currentPath)) {
+        if(isDirectory) {
             // be sure the order in which the paths are processed is the same each time.
+            List<Path> contents = null;
             try (Stream<Path> dirStream = Files.list(currentPath).sorted(new PathComparator())) {
-                dirStream.forEach(path -> md.update(updateHashMap(path, copyProgress)));
-                copyProgress.increaseDirectoryCountAndNotify();
+                contents = dirStream.collect(Collectors.toList());
             } catch(IOException e) {
                 // skip this directory
                 md.update(new byte[0]);
             }
+            if(contents != null) {
+                hashContents(contents, currentPath, pathFilter, md, copyProgress);
+                copyProgress.increaseDirectoryCountAndNotify();
+            }
         } else {
             try(InputStream reader = Files.newInputStream(currentPath)) {
+                long byteCount = 0;
                 for(byte[] readBytes = reader.readNBytes(BYTE_BUFFER_SIZE); readBytes.length > 0; readBytes = reader.readNBytes(BYTE_BUFFER_SIZE)) {
                     md.update(readBytes);
+                    byteCount += readBytes.length;
                 }
-                copyProgress.increaseTrueFileCountAndNotify();
+                copyProgress.increaseTrueFileCountAndNotify(byteCount);
             } catch(IOException e) {
                 // skip this file
                 md.update(new byte [0]);
             }
         }
         digestValue = md.digest();
-        ByteBuffer bufferedDigestValue = ByteBuffer.wrap(digestValue);
-        sourceChecksumMap.put(currentPath, bufferedDigestValue);
+        hashListener.hashed(currentPath, ByteBuffer.wrap(digestValue), isDirectory);
         return digestValue;
     }
 
+    /**
+     * Hashes the given contents of a directory into the given digest, skipping paths excluded by the directory's filter.
+     */
+    private void hashContents(List<Path> contents, Path directory, PathFilter pathFilter, MessageDigest md, CopyProgress copyProgress) {
+        PathFilter contentsFilter = pathFilter.enter(directory, contents);
+        for(Path path : contents) {
+            // excluded paths are decided upon by name, before they are accessed
+            Supplier<BasicFileAttributes> attributesOnce = PathUtils.readAttributesOrNullOnce(path);
+            if(contentsFilter.excludes(path, () -> attributesOnce.get() != null && attributesOnce.get().isDirectory())) {
+                continue;
+            }
+            BasicFileAttributes attributes = attributesOnce.get();
+            if(attributes != null && attributes.isRegularFile() && contentsFilter.excludesFileSize(path, attributes.size())) {
+                continue;
+            }
+            md.update(computeChecksum(path, attributes != null && attributes.isDirectory(), contentsFilter, copyProgress));
+        }
+    }
+
 }
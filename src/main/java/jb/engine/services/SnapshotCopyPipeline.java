@@ -0,0 +1,199 @@
+package jb.engine.services;
+
+import jb.engine.reporting.CopyProgress;
+import jb.engine.reporting.ProblemReport;
+import jb.engine.reporting.RunStatistics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Copy stage of a snapshot run that works while the source directory is still being hashed. Paths are decided upon as
+ * soon as their checksums are final and the resulting operations are executed by a separate copy thread. A bounded
+ * queue between both stages makes hashing wait whenever copying falls behind.
+ * <p>A path is linked if its checksum is known to the comparison snapshot and none of its parents is linked.
+ * Otherwise, it is copied or, if it is a directory, created. Since the checksum of a directory covers its contents, a path with unknown checksum never has a linked
+ * parent and is queued right away. Links of paths with known checksum are held back until the checksum of their
+ * parent is final. They are dropped if the parent is linked as a whole.</p>
+ */
+public class SnapshotCopyPipeline implements HashService.HashListener, AutoCloseable {
+
+    private static final Operation END_OF_OPERATIONS = new Operation(null, null, null);
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    private final CopyService copyService;
+    private final Path sourceBasePath;
+    private final DigestLookup comparisonLookup;
+    private final Predicate<Path> comparisonContains;
+    private final CopyProgress copyProgress;
+    private final RunStatistics.Recorder recorder;
+    private final BlockingQueue<Operation> operations;
+    private final Thread copyThread;
+    /**
+     * Held back links by the directory containing them. Only used by the hashing thread.
+     */
+    private final HashMap<Path, List<Operation>> pendingLinksByParent = new HashMap<>();
+    /**
+     * Only used by the copy thread until it is joined.
+     */
+    private final ProblemReport problemReport = new ProblemReport(100);
+    private long copyNanos = 0;
+    private boolean closed = false;
+
+    private enum Kind {
+        CREATE_DIRECTORY, COPY, LINK
+    }
+
+    private static class Operation {
+        private final Kind kind;
+        private final Path sourcePath;
+        private final Path targetOfSymbolicLink;
+
+        private Operation(Kind kind, Path sourcePath, Path targetOfSymbolicLink) {
+            this.kind = kind;
+            this.sourcePath = sourcePath;
+            this.targetOfSymbolicLink = targetOfSymbolicLink;
+        }
+    }
+
+    SnapshotCopyPipeline(CopyService copyService, Path sourceBasePath, DigestLookup comparisonLookup, Predicate<Path> comparisonContains,
+                         CopyProgress copyProgress, RunStatistics.Recorder recorder, int queueCapacity) {
+        this.copyService = copyService;
+        this.sourceBasePath = sourceBasePath;
+        this.comparisonLookup = comparisonLookup;
+        this.comparisonContains = comparisonContains;
+        this.copyProgress = copyProgress;
+        this.recorder = recorder;
+        this.operations = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.copyThread = new Thread(this::processOperations, "snapshot-copy");
+        this.copyThread.setDaemon(true);
+    }
+
+    void start() {
+        copyThread.start();
+    }
+
+    /**
+     * Decides upon the given path and queues the resulting operations. Called by the hashing thread.
+     */
+    @Override
+    public void hashed(Path path, ByteBuffer checksum, boolean directory) {
+        List<Operation> pendingLinksOfContents = directory ? pendingLinksByParent.remove(path) : null;
+        Path targetOfSymbolicLink = comparisonLookup.findPath(checksum);
+        if(targetOfSymbolicLink != null) {
+            Operation link = new Operation(Kind.LINK, path, targetOfSymbolicLink);
+            if(path.equals(sourceBasePath)) {
+                enqueue(link);
+            } else {
+                pendingLinksByParent.computeIfAbsent(path.getParent(), parent -> new ArrayList<>()).add(link);
+            }
+            return;
+        }
+        enqueue(new Operation(directory ? Kind.CREATE_DIRECTORY : Kind.COPY, path, null));
+        if(pendingLinksOfContents != null) {
+            pendingLinksOfContents.forEach(this::enqueue);
+        }
+    }
+
+    /**
+     * Waits for all queued operations to be executed and completes the given copy progress. Call after hashing is done.
+     * @return the problems encountered while copying.
+     */
+    public ProblemReport finish() {
+        close();
+        copyProgress.completeProcessingAndNotify();
+        return problemReport;
+    }
+
+    /**
+     * @return the time the copy thread spent executing operations. Available after {@link #finish()}.
+     */
+    public Duration getCopyDuration() {
+        return Duration.ofNanos(copyNanos);
+    }
+
+    /**
+     * Stops the copy thread after all queued operations are executed and waits for it.
+     */
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        enqueue(END_OF_OPERATIONS);
+        try {
+            copyThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the copy stage of the snapshot", e);
+        }
+    }
+
+    private void enqueue(Operation operation) {
+        try {
+            while(!operations.offer(operation, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if(!copyThread.isAlive()) {
+                    throw new IllegalStateException("Copy stage of the snapshot stopped unexpectedly");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing copy operations", e);
+        }
+    }
+
+    private void processOperations() {
+        while(true) {
+            Operation operation;
+            try {
+                operation = operations.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if(operation == END_OF_OPERATIONS) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                execute(operation);
+            } catch (RuntimeException e) {
+                copyService.handleProblem(problemReport, e, operation.sourcePath, copyService.toTargetPath(operation.sourcePath), "Tried to process copy operation");
+            }
+            copyNanos += System.nanoTime() - startNanos;
+            copyProgress.increaseProcessedFileCountAndNotify();
+        }
+    }
+
+    private void execute(Operation operation) {
+        Path targetFilePath = copyService.toTargetPath(operation.sourcePath);
+        try {
+            // contents may be decided upon before their directory, which is created here in that case
+            Files.createDirectories(operation.kind == Kind.CREATE_DIRECTORY ? targetFilePath : targetFilePath.getParent());
+        } catch (IOException e) {
+            copyService.handleProblem(problemReport, e, operation.sourcePath, targetFilePath, "Tried to create new directory");
+            return;
+        }
+        switch(operation.kind) {
+            case LINK:
+                copyService.createLink(operation.sourcePath, targetFilePath, operation.targetOfSymbolicLink, recorder, problemReport);
+                break;
+            case COPY:
+                copyService.copyFile(operation.sourcePath, targetFilePath, comparisonContains, recorder, problemReport);
+                break;
+            default:
+                // directory was created above
+                break;
+        }
+    }
+}
@@ -6,7 +6,9 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Comparator;
+import java.util.function.Supplier;
 
 /**
  * Collection of utility functions concerning Path objects that are important to CopySnap.
@@ -39,4 +41,35 @@ public class PathUtils {
             }
         });
     }
+
+    /**
+     * @return the attributes of the given path, following symbolic links, or {@code null} if they can not be read.
+     */
+    public static BasicFileAttributes readAttributesOrNull(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a supplier reading the attributes of the given path like {@link #readAttributesOrNull(Path)} upon its
+     * first call. Later calls return the same attributes, hence the path is accessed once at most.
+     */
+    public static Supplier<BasicFileAttributes> readAttributesOrNullOnce(Path path) {
+        return new Supplier<>() {
+            private boolean read = false;
+            private BasicFileAttributes attributes;
+
+            @Override
+            public BasicFileAttributes get() {
+                if(!read) {
+                    attributes = readAttributesOrNull(path);
+                    read = true;
+                }
+                return attributes;
+            }
+        };
+    }
 }
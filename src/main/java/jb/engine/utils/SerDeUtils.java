@@ -25,8 +25,16 @@ public class SerDeUtils {
      * Deserializes a byte array to a java object and tries to convert it to the given type.
      */
     public static <T> T deserialize(byte[] data, Class<T> targetType) {
+        return deserializeFrom(new ByteArrayInputStream(data), targetType);
+    }
+
+    /**
+     * Deserializes a java object from the given stream and tries to convert it to the given type. The given stream is
+     * closed afterwards.
+     */
+    public static <T> T deserializeFrom(InputStream inputStream, Class<T> targetType) {
         Object o;
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data); ObjectInputStream ois = new ObjectInputStream(bis)) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(inputStream, BUFFER_SIZE))) {
              o = ois.readObject();
         } catch (IOException | ClassNotFoundException e) {
             throw new SerDeException("Could not deserialize bytes to an object of type " + targetType + ": " + e, e);
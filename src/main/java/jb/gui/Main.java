@@ -1,6 +1,7 @@
 package jb.gui;
 
 import jb.engine.core.data.DatabaseManager;
+import jb.engine.exceptions.DatabaseCommunicationException;
 import jb.gui.exceptions.GlobalExceptionHandler;
 import jb.gui.windows.MainWindow;
 
@@ -13,6 +14,8 @@ public class Main {
         setUIDefaults();
         Thread.setDefaultUncaughtExceptionHandler(new GlobalExceptionHandler());
         DatabaseManager.initializeDefaultManager();
+        // queued database writes are executed before the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Main::disconnectFromDatabase, "database-shutdown"));
         javax.swing.SwingUtilities.invokeLater(() -> {
             MainWindow mainWindow = new MainWindow();
             mainWindow.pack();
@@ -21,6 +24,14 @@ public class Main {
         });
     }
 
+    private static void disconnectFromDatabase() {
+        try {
+            DatabaseManager.getInstance().disconnect();
+        } catch (DatabaseCommunicationException e) {
+            System.err.println("Could not disconnect from database: " + e);
+        }
+    }
+
     private static void setUIDefaults() throws ClassNotFoundException, UnsupportedLookAndFeelException, InstantiationException, IllegalAccessException {
         UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         UIManager.put("swing.boldMetal", Boolean.FALSE);
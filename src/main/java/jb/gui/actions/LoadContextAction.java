@@ -2,14 +2,14 @@ package jb.gui.actions;
 
 import jb.engine.core.Context;
 import jb.engine.core.ContextInfoContainer;
-import jb.engine.exceptions.DatabaseCommunicationException;
-import jb.engine.exceptions.NotFoundException;
 import jb.gui.exceptions.CopySnapException;
 import jb.gui.windows.MainWindow;
 
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 public class LoadContextAction implements ActionListener {
@@ -24,16 +24,31 @@ public class LoadContextAction implements ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        dialogResultConsumingAction.accept(show(linkedFrame));
+        show(linkedFrame).whenComplete((loadedContext, failure) -> SwingUtilities.invokeLater(() -> {
+            if(failure != null) {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                throw new CopySnapException("Could not load context: " + cause, cause);
+            }
+            dialogResultConsumingAction.accept(loadedContext);
+        }));
     }
 
-    public Context show(JFrame parent) {
-        ContextInfoContainer[] contextHomePaths;
-        try {
-            contextHomePaths = Context.getStoredContextInfo().toArray(new ContextInfoContainer[0]);
-        } catch(DatabaseCommunicationException e) {
-            throw new CopySnapException("Could not determine existing Contexts: " + e, e);
-        }
+    /**
+     * Lists the stored contexts in the background, lets the user choose one on the event dispatch thread once they
+     * are listed and loads it in the background.
+     * @return a future completing with the loaded context or with null if the dialog was cancelled.
+     */
+    public CompletableFuture<Context> show(JFrame parent) {
+        return Context.getStoredContextInfoAsync()
+                .exceptionally(failure -> {
+                    Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                    throw new CopySnapException("Could not determine existing Contexts: " + cause, cause);
+                })
+                .thenComposeAsync(contextInfoList -> chooseAndLoad(parent, contextInfoList.toArray(new ContextInfoContainer[0])),
+                        SwingUtilities::invokeLater);
+    }
+
+    private CompletableFuture<Context> chooseAndLoad(JFrame parent, ContextInfoContainer[] contextHomePaths) {
         if(contextHomePaths.length == 0) {
             JOptionPane.showConfirmDialog(parent,
                     "There are no contexts to load",
@@ -41,7 +56,7 @@ public class LoadContextAction implements ActionListener {
                     JOptionPane.DEFAULT_OPTION,
                     JOptionPane.INFORMATION_MESSAGE
                     );
-            return null;
+            return CompletableFuture.completedFuture(null);
         }
         ContextInfoContainer chosenContextInfoContainer = (ContextInfoContainer) JOptionPane.showInputDialog(parent,
                 "Choose a context to load:",
@@ -53,15 +68,9 @@ public class LoadContextAction implements ActionListener {
         );
         if(chosenContextInfoContainer == null) {
             // cancel-option
-            return null;
-        }
-        Context loadedContext;
-        try {
-            loadedContext = Context.loadContextById(chosenContextInfoContainer.getId());
-        } catch (NotFoundException | DatabaseCommunicationException e) {
-            throw new CopySnapException("Could not load context with id: " + chosenContextInfoContainer.getId() + ": " + e, e);
+            return CompletableFuture.completedFuture(null);
         }
-        return loadedContext;
+        return Context.loadContextByIdAsync(chosenContextInfoContainer.getId());
     }
 
 }
@@ -1,27 +1,39 @@
 package jb.gui.components;
 
 import jb.engine.core.Context;
+import jb.engine.core.SnapshotDifference;
 import jb.engine.core.SnapshotInfo;
-import jb.engine.exceptions.DatabaseCommunicationException;
+import jb.engine.core.SpaceUsage;
+import jb.engine.core.filter.FilterRules;
 import jb.engine.reporting.CopyProgress;
 import jb.gui.constants.CopySnapGeometry;
 import jb.gui.exceptions.CopySnapException;
+import jb.gui.exceptions.InvalidUserInputException;
 import jb.gui.utils.LayoutUtils;
 import jb.gui.utils.MessageUtils;
 import jb.gui.worker.BackgroundWorker;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public class CopySnapSidebar extends JPanel {
 
     private static final String ANALYZED_FILE_COUNT_STRING_TEMPLATE = "Analyzed files: %s (%s regular files, %s directories)";
+    private static final String FILTER_RULES_HELP_TEXT = "One pattern per line, e.g. node_modules/, *.tmp, /build/, !keep.tmp or @max-size 100M.\n" +
+            "Directories may contain a " + FilterRules.IGNORE_FILE_NAME + " file with further rules.";
 
     private final JPanel snapshotInfoPanel;
+    private final FileSearchPanel fileSearchPanel;
     private final BiConsumer<Context, SnapshotInfo> contextSnapshotInfoBiConsumer;
     protected final JButton buttonCopy;
     protected final JButton buttonSnapshot;
@@ -48,6 +60,7 @@ public class CopySnapSidebar extends JPanel {
         buttonSnapshot.setPreferredSize(new Dimension(60, CopySnapGeometry.BUTTON_HEIGHT));
         this.snapshotInfoPanel = new JPanel(new GridBagLayout());
         this.snapshotInfoPanel.setBackground(Color.WHITE);
+        this.fileSearchPanel = new FileSearchPanel(this::selectSnapshot);
         this.setPreferredSize(new Dimension(400, this.getPreferredSize().height));
         arrangeContents();
     }
@@ -56,9 +69,10 @@ public class CopySnapSidebar extends JPanel {
         GridBagConstraints c = new GridBagConstraints();
         c.gridx = 0;
         c.gridy = 0;
+        c.gridwidth = 2;
         c.fill = GridBagConstraints.HORIZONTAL;
-        c.insets = new Insets(20, 20, 20, 0);
-        this.add(Box.createRigidArea(new Dimension()), c);
+        c.insets = new Insets(20, 20, 0, 0);
+        this.add(fileSearchPanel, c);
         c = new GridBagConstraints();
         c = new GridBagConstraints();
         c.gridx = 0;
@@ -93,23 +107,35 @@ public class CopySnapSidebar extends JPanel {
 
     public void setContext(Context context) {
         this.context = context;
+        fileSearchPanel.setContext(context);
         refreshListDisplay();
     }
 
+    /**
+     * Selects the item of the given snapshot info as if its button was pressed.
+     */
+    public void selectSnapshot(SnapshotInfo snapshotInfo) {
+        snapshotInfoList.stream()
+                .filter(item -> item.getSnapshotInfo() == snapshotInfo)
+                .findFirst()
+                .ifPresent(SnapshotInfoGUIItem::clickButton);
+    }
+
     private void refreshListDisplayAndSaveContext() {
         refreshListDisplay();
-        BackgroundWorker.builderForJob(this::saveThisContext).build().executeSilently();
+        saveThisContext();
     }
 
     private void saveThisContext() {
         if (context == null) {
             return;
         }
-        try {
-            context.save();
-        } catch (DatabaseCommunicationException e) {
-            throw new CopySnapException("Could not save currently loaded context: " + e, e);
-        }
+        context.saveAsync().exceptionally(e -> {
+            SwingUtilities.invokeLater(() -> {
+                throw new CopySnapException("Could not save currently loaded context: " + e, e);
+            });
+            return null;
+        });
     }
 
     private void refreshListDisplay() {
@@ -204,13 +230,141 @@ public class CopySnapSidebar extends JPanel {
         }
     }
 
+    /**
+     * Lets the user edit the filter rules of the current context and saves them. They apply to the next run.
+     */
+    public void editFilterRules() {
+        if (context == null) {
+            return;
+        }
+        JTextArea textArea = new JTextArea(context.getFilterRules().getText(), 15, 50);
+        JPanel panel = new JPanel(new BorderLayout(0, 10));
+        panel.add(new JLabel("<html>" + FILTER_RULES_HELP_TEXT.replace("\n", "<br>") + "</html>"), BorderLayout.NORTH);
+        panel.add(new JScrollPane(textArea), BorderLayout.CENTER);
+        int result = JOptionPane.showConfirmDialog(null, panel, "Filter rules of " + context.getName(),
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        FilterRules filterRules;
+        try {
+            filterRules = FilterRules.parse(textArea.getText());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidUserInputException(e.getMessage(), e);
+        }
+        context.setFilterRules(filterRules);
+        saveThisContext();
+    }
+
+    /**
+     * Lets the user choose another snapshot and shows the differences between it and the selected snapshot, from the
+     * earlier to the later one.
+     */
+    public void compareSelectedSnapshot() {
+        if (context == null || currentSelectedSnapshot == null) {
+            return;
+        }
+        SnapshotInfo selectedSnapshot = currentSelectedSnapshot;
+        List<SnapshotInfo> otherSnapshots = new ArrayList<>(context.getSnapshotInfoList());
+        otherSnapshots.remove(selectedSnapshot);
+        if (otherSnapshots.isEmpty()) {
+            JOptionPane.showMessageDialog(null,
+                    "There is no other snapshot to compare to",
+                    "Compare snapshots",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        otherSnapshots.sort(Collections.reverseOrder());
+        SnapshotEntry[] entries = otherSnapshots.stream().map(SnapshotEntry::new).toArray(SnapshotEntry[]::new);
+        // preselect the snapshot preceding the selected one
+        SnapshotEntry initialEntry = Arrays.stream(entries)
+                .filter(entry -> entry.snapshotInfo.compareTo(selectedSnapshot) < 0)
+                .findFirst()
+                .orElse(entries[0]);
+        SnapshotEntry chosenEntry = (SnapshotEntry) JOptionPane.showInputDialog(null,
+                "Compare snapshot " + selectedSnapshot.getName() + " with:",
+                "Compare snapshots",
+                JOptionPane.PLAIN_MESSAGE,
+                null,
+                entries,
+                initialEntry
+        );
+        if (chosenEntry == null) {
+            // cancel-option
+            return;
+        }
+        SnapshotInfo previous = chosenEntry.snapshotInfo.compareTo(selectedSnapshot) < 0 ? chosenEntry.snapshotInfo : selectedSnapshot;
+        SnapshotInfo current = previous == selectedSnapshot ? chosenEntry.snapshotInfo : selectedSnapshot;
+        // opening the manifests and digest indexes may rebuild them, which takes a while for large snapshots
+        BackgroundWorker.builderForJob(() -> context.diff(previous, current))
+                .withJobName("Comparing snapshots")
+                .withResultConsumer(differences -> showSnapshotDiff(previous, current, differences))
+                .build()
+                .executeAndShow();
+    }
+
+    private void showSnapshotDiff(SnapshotInfo previous, SnapshotInfo current, Stream<SnapshotDifference> differences) {
+        SnapshotDiffPanel diffPanel;
+        try {
+            diffPanel = new SnapshotDiffPanel(differences);
+        } catch (RuntimeException e) {
+            differences.close();
+            throw new CopySnapException("Could not compare snapshots " + previous.getName() + " and " + current.getName() + ": " + e, e);
+        }
+        JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(this), "Changes from " + previous.getName() + " to " + current.getName());
+        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                diffPanel.close();
+            }
+        });
+        dialog.setContentPane(diffPanel);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Reads the space used by the given snapshot and its context in the background.
+     * @return a future completing with lines telling how much space deleting the given snapshot frees or with an empty
+     * line if it is not accounted or could not be read.
+     */
+    private CompletableFuture<String> loadSpaceUsageMessage(Context context, SnapshotInfo snapshotInfo) {
+        CompletableFuture<Optional<SpaceUsage>> contextUsage = context.getSpaceUsageAsync();
+        return context.getSpaceUsageAsync(snapshotInfo)
+                .thenCombine(contextUsage, (snapshotUsageOpt, contextUsageOpt) -> {
+                    if(snapshotUsageOpt.isEmpty() || contextUsageOpt.isEmpty()) {
+                        return "\n";
+                    }
+                    return String.format("\n This frees %s, of which %s are not linked by other snapshots.\n Deduplication ratio of this context: %.2f\n\n",
+                            MessageUtils.toByteCountString(snapshotUsageOpt.get().getStoredByteCount()),
+                            MessageUtils.toByteCountString(snapshotUsageOpt.get().getExclusiveByteCount()),
+                            contextUsageOpt.get().getDeduplicationRatio());
+                })
+                .exceptionally(e -> "\n");
+    }
+
     public void deleteSelectedSnapshot() {
         if (context == null || currentSelectedSnapshot == null) {
             return;
         }
+        Context contextOfSnapshot = context;
+        SnapshotInfo snapshotToDelete = currentSelectedSnapshot;
+        loadSpaceUsageMessage(contextOfSnapshot, snapshotToDelete)
+                .thenAcceptAsync(spaceUsageMessage -> confirmAndDeleteSnapshot(contextOfSnapshot, snapshotToDelete, spaceUsageMessage),
+                        SwingUtilities::invokeLater);
+    }
+
+    private void confirmAndDeleteSnapshot(Context contextOfSnapshot, SnapshotInfo snapshotToDelete, String spaceUsageMessage) {
+        if (context != contextOfSnapshot) {
+            // another context was loaded in the meantime
+            return;
+        }
         int result = JOptionPane.showConfirmDialog(null,
                 MessageUtils.getMessageContentScrollPane(
-                        String.format("You are about to delete snapshot \n  %s\n including all attached files on this filesystem.\n\n Do you want to continue?", currentSelectedSnapshot.getName()),
+                        String.format("You are about to delete snapshot \n  %s\n including all attached files on this filesystem.\n%s\n Do you want to continue?",
+                                snapshotToDelete.getName(), spaceUsageMessage),
                         true
                 ),
                 "Confirm deletion",
@@ -219,11 +373,24 @@ public class CopySnapSidebar extends JPanel {
         if (result != JOptionPane.YES_OPTION) {
             return;
         }
-        BackgroundWorker.builderForJob(() -> context.deleteSnapshotAndSave(currentSelectedSnapshot))
+        BackgroundWorker.builderForJob(() -> contextOfSnapshot.deleteSnapshotAndSave(snapshotToDelete))
                 .withJobName("Deleting snapshot")
                 .withDoneRunnable(this::refreshListDisplay)
                 .build()
                 .executeAndShow();
     }
 
+    private static class SnapshotEntry {
+        private final SnapshotInfo snapshotInfo;
+
+        private SnapshotEntry(SnapshotInfo snapshotInfo) {
+            this.snapshotInfo = snapshotInfo;
+        }
+
+        @Override
+        public String toString() {
+            return snapshotInfo.getName();
+        }
+    }
+
 }
@@ -0,0 +1,201 @@
+package jb.gui.components;
+
+import jb.engine.core.Context;
+import jb.engine.core.FileNameMatch;
+import jb.engine.core.FileVersion;
+import jb.engine.core.SnapshotInfo;
+import jb.engine.exceptions.DatabaseCommunicationException;
+import jb.gui.components.contextmenus.ContextMenu;
+import jb.gui.components.listeners.ContextMenuListener;
+import jb.gui.constants.CopySnapFonts;
+import jb.gui.exceptions.CopySnapException;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Search box for file and directory names across all snapshots of the current context. Searching happens in the
+ * background upon pressing enter. Double-clicking a match selects its snapshot, the context menu of a match lists all
+ * versions of its file.
+ */
+public class FileSearchPanel extends JPanel {
+
+    private static final int MAX_RESULT_COUNT = 200;
+    private static final int VISIBLE_RESULT_ROW_COUNT = 8;
+    private final static DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final JTextField searchField = new JTextField(20);
+    private final DefaultListModel<FileNameMatch> resultListModel = new DefaultListModel<>();
+    private final JList<FileNameMatch> resultList = new JList<>(resultListModel);
+    private final JScrollPane resultScrollPane = new JScrollPane(resultList);
+    private final Consumer<SnapshotInfo> snapshotInfoConsumer;
+    private Context context = null;
+
+    /**
+     * @param snapshotInfoConsumer called with the snapshot of a match chosen by the user.
+     */
+    public FileSearchPanel(Consumer<SnapshotInfo> snapshotInfoConsumer) {
+        super(new BorderLayout(0, 5));
+        this.snapshotInfoConsumer = snapshotInfoConsumer;
+        searchField.setFont(CopySnapFonts.TEXT_FIELD_FONT);
+        searchField.setToolTipText("Search file names in all snapshots");
+        searchField.addActionListener(a -> search());
+        resultList.setFont(CopySnapFonts.TEXT_FIELD_FONT);
+        resultList.setVisibleRowCount(VISIBLE_RESULT_ROW_COUNT);
+        resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        resultList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, toDisplayString((FileNameMatch) value), index, isSelected, cellHasFocus);
+            }
+        });
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                // select the match under the cursor before its context menu is shown
+                int index = resultList.locationToIndex(e.getPoint());
+                if(e.isPopupTrigger() && index >= 0) {
+                    resultList.setSelectedIndex(index);
+                }
+            }
+
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if(e.getClickCount() == 2 && resultList.getSelectedValue() != null) {
+                    chooseMatch(resultList.getSelectedValue());
+                }
+            }
+        });
+        resultList.addMouseListener(new ContextMenuListener(createNewContextMenu()));
+        resultScrollPane.setVisible(false);
+        this.add(searchField, BorderLayout.NORTH);
+        this.add(resultScrollPane, BorderLayout.CENTER);
+    }
+
+    public void setContext(Context context) {
+        this.context = context;
+        resultListModel.clear();
+        resultScrollPane.setVisible(false);
+        revalidate();
+    }
+
+    private void search() {
+        if(context == null) {
+            return;
+        }
+        Context searchedContext = context;
+        String query = searchField.getText();
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return searchedContext.searchFileNames(query, MAX_RESULT_COUNT);
+            } catch (DatabaseCommunicationException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((matches, e) -> SwingUtilities.invokeLater(() -> {
+            if(e != null) {
+                throw new CopySnapException("Could not search file names: " + e, e);
+            }
+            if(searchedContext == context) {
+                showMatches(matches);
+            }
+        }));
+    }
+
+    private ContextMenu<FileSearchPanel> createNewContextMenu() {
+        return ContextMenu.of(this)
+                .addAction("Show versions...", FileSearchPanel::showVersionsOfSelectedMatch);
+    }
+
+    private void showVersionsOfSelectedMatch() {
+        FileNameMatch match = resultList.getSelectedValue();
+        if(context == null || match == null) {
+            return;
+        }
+        Context searchedContext = context;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return searchedContext.getFileHistory(match.getRelativePath());
+            } catch (DatabaseCommunicationException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((versions, e) -> SwingUtilities.invokeLater(() -> {
+            if(e != null) {
+                throw new CopySnapException("Could not read versions of " + match.getRelativePath() + ": " + e, e);
+            }
+            if(searchedContext == context) {
+                chooseVersion(match, versions);
+            }
+        }));
+    }
+
+    private void chooseVersion(FileNameMatch match, List<FileVersion> versions) {
+        if(versions.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "There are no versions of " + match.getRelativePath() + " yet",
+                    "Versions",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        VersionEntry[] entries = versions.stream()
+                .map(version -> new VersionEntry(version, toDisplayString(version)))
+                .toArray(VersionEntry[]::new);
+        VersionEntry chosenEntry = (VersionEntry) JOptionPane.showInputDialog(this,
+                "Versions of " + match.getRelativePath() + ":",
+                "Versions",
+                JOptionPane.PLAIN_MESSAGE,
+                null,
+                entries,
+                entries[entries.length - 1]
+        );
+        if(chosenEntry == null) {
+            // cancel-option
+            return;
+        }
+        context.findSnapshotInfo(chosenEntry.version.getSnapshotInfoId()).ifPresent(snapshotInfoConsumer);
+    }
+
+    private void showMatches(List<FileNameMatch> matches) {
+        resultListModel.clear();
+        resultListModel.addAll(matches);
+        resultScrollPane.setVisible(!matches.isEmpty());
+        revalidate();
+        repaint();
+    }
+
+    private void chooseMatch(FileNameMatch match) {
+        context.findSnapshotInfo(match.getSnapshotInfoId()).ifPresent(snapshotInfoConsumer);
+    }
+
+    private String toDisplayString(FileNameMatch match) {
+        String snapshotName = context == null ? "" : context.findSnapshotInfo(match.getSnapshotInfoId()).map(SnapshotInfo::getName).orElse("");
+        return snapshotName + ": " + match.getRelativePath();
+    }
+
+    private String toDisplayString(FileVersion version) {
+        String snapshotName = context.findSnapshotInfo(version.getSnapshotInfoId()).map(SnapshotInfo::getName).orElse("");
+        return DATE_TIME_FORMATTER.format(version.getCreatedTime()) + ", " + snapshotName + ": " + (version.isDeleted() ? "deleted" : "changed");
+    }
+
+    private static class VersionEntry {
+        private final FileVersion version;
+        private final String displayString;
+
+        private VersionEntry(FileVersion version, String displayString) {
+            this.version = version;
+            this.displayString = displayString;
+        }
+
+        @Override
+        public String toString() {
+            return displayString;
+        }
+    }
+}
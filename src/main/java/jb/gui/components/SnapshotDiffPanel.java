@@ -0,0 +1,114 @@
+package jb.gui.components;
+
+import jb.engine.core.SnapshotDifference;
+import jb.gui.constants.CopySnapFonts;
+import jb.gui.exceptions.CopySnapException;
+import jb.gui.utils.MessageUtils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Lists the differences between two snapshots. Differences are read page by page in the background: the first page
+ * upon creation, each further page once the list is scrolled to its end. Hence, large differences are shown right away
+ * and only read as far as they are looked at.
+ */
+public class SnapshotDiffPanel extends JPanel {
+
+    private static final int PAGE_SIZE = 200;
+    private static final int VISIBLE_ROW_COUNT = 20;
+
+    private final DefaultListModel<SnapshotDifference> differenceListModel = new DefaultListModel<>();
+    private final JList<SnapshotDifference> differenceList = new JList<>(differenceListModel);
+    private final JLabel statusLabel = new JLabel();
+    private final Stream<SnapshotDifference> differences;
+    private final Iterator<SnapshotDifference> differenceIterator;
+    private boolean loading = false;
+    private boolean complete = false;
+
+    /**
+     * @param differences the differences to show. The stream is closed by {@link #close()}.
+     */
+    public SnapshotDiffPanel(Stream<SnapshotDifference> differences) {
+        super(new BorderLayout(0, 5));
+        this.differences = differences;
+        this.differenceIterator = differences.iterator();
+        differenceList.setFont(CopySnapFonts.TEXT_FIELD_FONT);
+        differenceList.setVisibleRowCount(VISIBLE_ROW_COUNT);
+        differenceList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, toDisplayString((SnapshotDifference) value), index, isSelected, cellHasFocus);
+            }
+        });
+        JScrollPane scrollPane = new JScrollPane(differenceList);
+        scrollPane.setPreferredSize(new Dimension(700, 400));
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar scrollBar = scrollPane.getVerticalScrollBar();
+            if(!e.getValueIsAdjusting() && scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum()) {
+                loadNextPage();
+            }
+        });
+        this.add(statusLabel, BorderLayout.NORTH);
+        this.add(scrollPane, BorderLayout.CENTER);
+        loadNextPage();
+    }
+
+    /**
+     * Releases the files held by the shown differences. Pages still being read are discarded.
+     */
+    public void close() {
+        complete = true;
+        differences.close();
+    }
+
+    private void loadNextPage() {
+        if(loading || complete) {
+            return;
+        }
+        loading = true;
+        statusLabel.setText("Reading differences...");
+        CompletableFuture.supplyAsync(() -> {
+            List<SnapshotDifference> page = new ArrayList<>(PAGE_SIZE);
+            while(page.size() < PAGE_SIZE && differenceIterator.hasNext()) {
+                page.add(differenceIterator.next());
+            }
+            return page;
+        }).whenComplete((page, e) -> SwingUtilities.invokeLater(() -> {
+            loading = false;
+            if(complete) {
+                return;
+            }
+            if(e != null) {
+                complete = true;
+                statusLabel.setText("Could not read all differences");
+                throw new CopySnapException("Could not read differences: " + e, e);
+            }
+            differenceListModel.addAll(page);
+            complete = page.size() < PAGE_SIZE;
+            statusLabel.setText(complete
+                    ? differenceListModel.size() + " differences"
+                    : differenceListModel.size() + " differences so far, scroll down for more");
+        }));
+    }
+
+    private static String toDisplayString(SnapshotDifference difference) {
+        String byteCountString = difference.getByteCount().isPresent() ? " (" + MessageUtils.toByteCountString(difference.getByteCount().getAsLong()) + ")" : "";
+        String pathString = difference.getRelativePath() + (difference.isDirectory() ? "/" : "") + byteCountString;
+        switch(difference.getType()) {
+            case ADDED:
+                return "+ " + pathString;
+            case REMOVED:
+                return "- " + pathString;
+            case MOVED:
+                return "> " + difference.getPreviousRelativePath() + " -> " + pathString;
+            default:
+                return "~ " + pathString;
+        }
+    }
+}
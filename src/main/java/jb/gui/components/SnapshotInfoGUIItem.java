@@ -1,12 +1,17 @@
 package jb.gui.components;
 
 import jb.engine.core.SnapshotInfo;
+import jb.engine.core.filter.FilterRules;
+import jb.engine.reporting.RunStatistics;
 import jb.gui.components.contextmenus.ContextMenu;
 import jb.gui.components.listeners.ContextMenuListener;
+import jb.gui.constants.CopySnapFonts;
+import jb.gui.utils.MessageUtils;
 
 import javax.swing.*;
 import javax.swing.border.EtchedBorder;
 import java.awt.*;
+import java.time.Duration;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.function.Consumer;
@@ -35,7 +40,7 @@ public class SnapshotInfoGUIItem extends JPanel {
         infoButton.setText(snapshotInfo.getName());
         infoButton.addActionListener(action -> snapshotInfoGUIItemConsumer.accept(this));
         arrangeContents();
-        this.setMaximumSize(new Dimension(this.getPreferredSize().width, 60));
+        this.setMaximumSize(new Dimension(this.getPreferredSize().width, snapshotInfo.getRunStatistics().isPresent() ? 80 : 60));
         this.addMouseListener(new ContextMenuListener(createNewContextMenu()));
     }
 
@@ -73,6 +78,49 @@ public class SnapshotInfoGUIItem extends JPanel {
         c.anchor = GridBagConstraints.EAST;
         c.insets = new Insets(2, 4, 2, 2);
         this.add(labelIsCopy, c);
+
+        // statistics are read from the snapshot info itself, hence showing them needs no disk access
+        snapshotInfo.getRunStatistics().ifPresent(runStatistics -> {
+            JLabel labelStatistics = new JLabel();
+            labelStatistics.setFont(CopySnapFonts.LABEL_TEXT_FONT_SMALL);
+            labelStatistics.setText(String.format("%d new, %d changed, %d linked, %s copied",
+                    runStatistics.getNewFileCount(), runStatistics.getChangedFileCount(), runStatistics.getLinkedCount(),
+                    MessageUtils.toByteCountString(runStatistics.getCopiedByteCount())));
+            labelStatistics.setToolTipText(toToolTipText(runStatistics, snapshotInfo.getFilterRules().orElse(null)));
+            GridBagConstraints statisticsConstraints = new GridBagConstraints();
+            statisticsConstraints.gridx = 0;
+            statisticsConstraints.gridy = 2;
+            statisticsConstraints.gridwidth = 2;
+            statisticsConstraints.anchor = GridBagConstraints.WEST;
+            statisticsConstraints.insets = new Insets(0, 2, 2, 2);
+            this.add(labelStatistics, statisticsConstraints);
+        });
+    }
+
+    private static String toToolTipText(RunStatistics runStatistics, FilterRules filterRules) {
+        return String.format("<html>%d files scanned<br>%s copied, %s linked<br>hashing: %s, copying: %s, indexing: %s%s</html>",
+                runStatistics.getScannedFileCount(),
+                MessageUtils.toByteCountString(runStatistics.getCopiedByteCount()), MessageUtils.toByteCountString(runStatistics.getLinkedByteCount()),
+                toDurationString(runStatistics.getHashDuration()), toDurationString(runStatistics.getCopyDuration()),
+                toDurationString(runStatistics.getIndexDuration()), toFilterRulesString(filterRules));
+    }
+
+    /**
+     * @return the given rules as tool tip lines, or an empty string if there are none.
+     */
+    private static String toFilterRulesString(FilterRules filterRules) {
+        if(filterRules == null || filterRules.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("<br>filter rules:");
+        filterRules.getText().lines()
+                .filter(line -> !line.isBlank())
+                .forEach(line -> sb.append("<br>&nbsp;&nbsp;").append(line.strip().replace("&", "&amp;").replace("<", "&lt;")));
+        return sb.toString();
+    }
+
+    private static String toDurationString(Duration duration) {
+        return String.format("%.1f s", duration.toMillis() / 1000.0);
     }
 
     public SnapshotInfo getSnapshotInfo() {
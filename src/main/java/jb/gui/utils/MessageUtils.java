@@ -60,6 +60,17 @@ public class MessageUtils {
         return scrollPane;
     }
 
+    /**
+     * @return the given byte count in binary units, e.g. "1.5 MB".
+     */
+    public static String toByteCountString(long byteCount) {
+        if(byteCount < 1024) {
+            return byteCount + " B";
+        }
+        int exponent = (int) (Math.log(byteCount) / Math.log(1024));
+        return String.format("%.1f %sB", byteCount / Math.pow(1024, exponent), "KMGTPE".charAt(exponent - 1));
+    }
+
     private static Dimension getDimensionRelativeToTextArea(JTextArea area) {
         int longestLineWidth = Arrays.stream(area.getText().split("\n")).mapToInt(String::length).max().orElse(-1);
         return new Dimension(
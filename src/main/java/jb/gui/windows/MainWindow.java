@@ -105,6 +105,10 @@ public class MainWindow extends JFrame {
         contextItemRestoreContext.addActionListener(new PathAction(this, this::reconstructContext));
         contextItemRestoreContext.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_R, KeyEvent.CTRL_DOWN_MASK));
         contextMenu.add(contextItemRestoreContext);
+        contextMenu.addSeparator();
+        JMenuItem contextItemFilterRules = new JMenuItem("Filter rules...");
+        contextItemFilterRules.addActionListener(action -> sidebar.editFilterRules());
+        contextMenu.add(contextItemFilterRules);
         // Action
         JMenu actionMenu = new JMenu("Action");
         menuBar.add(actionMenu);
@@ -119,6 +123,9 @@ public class MainWindow extends JFrame {
         JMenuItem restore = new JMenuItem("Restore...");
         restore.addActionListener(action -> display.restore());
         actionMenu.add(restore);
+        JMenuItem compareSnapshots = new JMenuItem("Compare snapshots...");
+        compareSnapshots.addActionListener(action -> sidebar.compareSelectedSnapshot());
+        actionMenu.add(compareSnapshots);
         actionMenu.addSeparator();
         JMenuItem deleteSnapshot = new JMenuItem("Delete snapshot...");
         deleteSnapshot.addActionListener(action -> sidebar.deleteSelectedSnapshot());
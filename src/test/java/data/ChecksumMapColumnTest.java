@@ -0,0 +1,88 @@
+package data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DatabaseToolkit;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.services.HashService;
+import jb.engine.utils.SerDeUtils;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChecksumMapColumnTest {
+
+    private static final int CHECKSUM_COUNT = 20_000;
+
+    @Test
+    public void checksumMapsOfSnapshotsWithManifestAreNotStored() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        SnapshotInfo snapshotInfo = SnapshotInfoFactory.createNew("context", "snapshot", Path.of("/target"),
+                new ManifestReference(Path.of("/target.manifest"), 10, 20), CopyType.SNAPSHOT, null);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            toolkit.createTableIfNotExists(connection);
+            toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.commit();
+            assertEquals(0, queryLong(connection, "SELECT length(" + SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME + ") FROM snapshot_info"));
+            assertTrue(HashService.asChecksumMap(toolkit.findColumnValueById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfo.getId())
+                    .orElseThrow()).isEmpty());
+            assertEquals(Optional.empty(), toolkit.readBlobColumnById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfo.getId(),
+                    inputStream -> SerDeUtils.deserializeFrom(inputStream, HashMap.class)));
+        }
+    }
+
+    @Test
+    public void legacyChecksumMapsAreReadInline() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        HashMap<Path, ByteBuffer> checksumMap = createChecksumMap();
+        SnapshotInfo snapshotInfo = SnapshotInfoFactory.createNew("context", "snapshot", Path.of("/target"), checksumMap, CopyType.SNAPSHOT);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            toolkit.createTableIfNotExists(connection);
+            toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.commit();
+            assertChecksumMapEquals(checksumMap, toolkit.findColumnValueById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfo.getId()).orElseThrow());
+            HashMap<String, byte[]> readMap = toolkit.readBlobColumnById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfo.getId(),
+                    inputStream -> HashService.asSerializableChecksumMap(SerDeUtils.deserializeFrom(inputStream, HashMap.class))).orElseThrow();
+            assertChecksumMapEquals(checksumMap, HashService.toCopySnapInternalChecksumMap(readMap));
+        }
+    }
+
+    private static HashMap<Path, ByteBuffer> createChecksumMap() {
+        HashMap<Path, ByteBuffer> checksumMap = new HashMap<>();
+        for(int i = 0; i < CHECKSUM_COUNT; i++) {
+            byte[] checksum = new byte[32];
+            checksum[0] = (byte) i;
+            checksum[1] = (byte) (i >> 8);
+            checksumMap.put(Path.of("/source/dir" + i % 100 + "/file" + i), ByteBuffer.wrap(checksum));
+        }
+        return checksumMap;
+    }
+
+    private static void assertChecksumMapEquals(HashMap<Path, ByteBuffer> expected, Object actual) {
+        Map<Path, ByteBuffer> actualMap = HashService.asChecksumMap(actual);
+        assertEquals(expected.size(), actualMap.size());
+        expected.forEach((path, checksum) -> assertArrayEquals(checksum.array(), actualMap.get(path).array()));
+    }
+
+    private static long queryLong(Connection connection, String query) throws Exception {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(query)) {
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package data;
+
+import jb.engine.core.*;
+import jb.engine.core.data.DatabaseToolkit;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class EntityMapperTest {
+
+    @Test
+    public void mappersMatchTheirDataFields() {
+        assertDoesNotThrow(() -> DatabaseToolkit.forMappedType(Context.class, new ContextFactory()));
+        assertDoesNotThrow(() -> DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory()));
+        assertDoesNotThrow(() -> DatabaseToolkit.forMappedType(LatestState.class, new LatestState.Mapper()));
+    }
+
+    @Test
+    public void mismatchingMapperIsRejected() {
+        LatestState.Mapper mapperWithSwappedColumns = new LatestState.Mapper() {
+            @Override
+            public List<String> getColumnNames() {
+                return List.of("last_used_context_id", "state_id");
+            }
+        };
+        assertThrows(IllegalArgumentException.class, () -> DatabaseToolkit.forMappedType(LatestState.class, mapperWithSwappedColumns));
+    }
+}
@@ -0,0 +1,83 @@
+package data;
+
+import jb.engine.core.Context;
+import jb.engine.core.FileNameMatch;
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DatabaseManager;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileNameSearchTest {
+
+    private static final String TEST_DB_NAME = "file_name_search_test.db";
+    private static final String TEST_DATABASE_MANAGER_NAME = "FileNameSearchTestManager";
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    public static void setupDatabaseManager() {
+        DatabaseManager.initializeCustomManager(TEST_DB_NAME, TEST_DATABASE_MANAGER_NAME);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        DatabaseManager.getInstance().deleteDatabase();
+    }
+
+    @Test
+    public void searchOnlyMatchesEntriesOfTheSearchedContext() throws Exception {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        Context context = Context.createNewContextInitialiseAndSave(source, tempDir.resolve("home1"));
+        Context otherContext = Context.createNewContextInitialiseAndSave(source, tempDir.resolve("home2"));
+
+        // the other context holds more matches than the limit, they must neither be returned nor use up the limit
+        List<String> otherPaths = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            otherPaths.add("dir" + i + "/report.txt");
+        }
+        SnapshotInfo otherSnapshotInfo = index(otherContext, otherPaths);
+        SnapshotInfo snapshotInfo = index(context, List.of("docs/report-2020.pdf", "docs/summary.txt", "report"));
+
+        List<FileNameMatch> matches = DatabaseManager.getInstance().searchFileNames(context, "report", 5);
+        assertEquals(Set.of(Path.of("docs", "report-2020.pdf"), Path.of("report")),
+                matches.stream().map(FileNameMatch::getRelativePath).collect(Collectors.toSet()));
+        assertTrue(matches.stream().allMatch(match -> match.getSnapshotInfoId().equals(snapshotInfo.getId())));
+
+        List<FileNameMatch> otherMatches = DatabaseManager.getInstance().searchFileNames(otherContext, "report", 5);
+        assertEquals(5, otherMatches.size());
+        assertTrue(otherMatches.stream().allMatch(match -> match.getSnapshotInfoId().equals(otherSnapshotInfo.getId())));
+
+        // words of the query are prefixes of words in the name or directory
+        assertEquals(List.of(Path.of("docs", "summary.txt")), DatabaseManager.getInstance().searchFileNames(context, "doc summ", 5).stream()
+                .map(FileNameMatch::getRelativePath).collect(Collectors.toList()));
+        assertEquals(List.of(), DatabaseManager.getInstance().searchFileNames(context, " - ", 5));
+        // hex digits of context ids are not matched by queries
+        assertEquals(List.of(), DatabaseManager.getInstance().searchFileNames(context, "3", 5));
+
+        context.delete();
+        otherContext.delete();
+    }
+
+    private static SnapshotInfo index(Context context, List<String> relativePaths) throws Exception {
+        Path runTargetDirectory = context.getHomePath().resolve("run");
+        SnapshotInfo snapshotInfo = SnapshotInfoFactory.createNew(context.getId(), "run", runTargetDirectory, null, CopyType.SNAPSHOT, null, null);
+        List<Path> paths = relativePaths.stream().map(runTargetDirectory::resolve).collect(Collectors.toList());
+        assertEquals((Integer) paths.size(), DatabaseManager.getInstance().indexFileNamesAsync(context, snapshotInfo, paths).get());
+        return snapshotInfo;
+    }
+}
@@ -0,0 +1,185 @@
+package data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DataMigration;
+import jb.engine.core.data.DatabaseToolkit;
+import jb.engine.core.data.Migration;
+import jb.engine.core.data.MigrationRunner;
+import jb.engine.core.filter.FilterRules;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.DigestFilter;
+import jb.engine.core.manifest.DigestIndex;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.exceptions.DatabaseInitialisationException;
+import jb.engine.reporting.RunStatistics;
+import jb.engine.services.HashService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MigrationTest {
+
+    private static final int SNAPSHOT_COUNT = 40;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void schemaStepsAreAppliedOnce() throws Exception {
+        List<Integer> appliedVersions = new ArrayList<>();
+        List<Migration> migrations = List.of(
+                Migration.of(1, "first", connection -> appliedVersions.add(1)),
+                Migration.of(2, "second", connection -> appliedVersions.add(2)));
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            new MigrationRunner(migrations.subList(0, 1), List.of()).migrateSchema(connection);
+            assertEquals(1, MigrationRunner.getSchemaVersion(connection));
+            new MigrationRunner(migrations, List.of()).migrateSchema(connection);
+            new MigrationRunner(migrations, List.of()).migrateSchema(connection);
+            assertEquals(List.of(1, 2), appliedVersions);
+            assertEquals(2, MigrationRunner.getSchemaVersion(connection));
+            // databases of newer versions are not touched
+            assertThrows(DatabaseInitialisationException.class, () -> new MigrationRunner(migrations.subList(0, 1), List.of()).migrateSchema(connection));
+        }
+    }
+
+    @Test
+    public void legacyChecksumMapsAreMovedToManifests() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        DataMigration dataMigration = DataMigration.writeManifestsOfLegacySnapshots(toolkit);
+        MigrationRunner runner = new MigrationRunner(List.of(), List.of(dataMigration));
+        HashMap<Path, ByteBuffer> checksumMap = new HashMap<>();
+        for(int i = 0; i < 100; i++) {
+            checksumMap.put(Path.of("/source/file" + i), ByteBuffer.wrap(new byte[] {(byte) i, 1, 2, 3}));
+        }
+        List<SnapshotInfo> snapshotInfoList = new ArrayList<>();
+        for(int i = 0; i < SNAPSHOT_COUNT; i++) {
+            Path runTargetDirectory = Files.createDirectory(tempDir.resolve("target" + i));
+            snapshotInfoList.add(SnapshotInfoFactory.createNew("context", "snapshot" + i, runTargetDirectory, checksumMap, CopyType.SNAPSHOT));
+        }
+        // the run target directory of this snapshot was deleted, hence it keeps its checksum map
+        SnapshotInfo deletedSnapshotInfo = SnapshotInfoFactory.createNew("context", "deleted", tempDir.resolve("deleted"), checksumMap, CopyType.SNAPSHOT);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            toolkit.createTableIfNotExists(connection);
+            runner.migrateSchema(connection);
+            toolkit.upsertAll(connection, snapshotInfoList);
+            // snapshots without manifest hold their checksum maps inline like rows of an old database
+            toolkit.upsertAll(connection, List.of(deletedSnapshotInfo));
+            connection.commit();
+
+            // the first batch is interrupted by reading the progress anew for the second one
+            assertFalse(runner.migrateDataBatch(connection, dataMigration));
+            assertTrue(queryLong(connection, "SELECT count(*) FROM snapshot_info WHERE manifest_path IS NOT NULL") <= 1);
+            assertEquals(List.of(dataMigration.getName()), runner.findPendingDataMigrations(connection));
+            runner.migrateAllData(connection);
+            assertEquals(List.of(), runner.findPendingDataMigrations(connection));
+
+            for(SnapshotInfo snapshotInfo : snapshotInfoList) {
+                ManifestReference manifestReference = toolkit.findById(connection, snapshotInfo.getId()).orElseThrow().getManifestReference().orElseThrow();
+                try (ChecksumManifest manifest = ChecksumManifest.open(manifestReference)) {
+                    assertChecksumMapEquals(checksumMap, HashService.toCopySnapInternalChecksumMap(manifest.toChecksumMap()));
+                }
+                assertTrue(Files.isRegularFile(DigestIndex.getIndexPathFor(snapshotInfo.getRunTargetDirectory())));
+                assertTrue(Files.isRegularFile(DigestFilter.getFilterPathFor(snapshotInfo.getRunTargetDirectory())));
+                assertTrue(HashService.asChecksumMap(toolkit.findColumnValueById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, snapshotInfo.getId())
+                        .orElseThrow()).isEmpty());
+            }
+            assertEquals(0, queryLong(connection, "SELECT count(*) FROM snapshot_info WHERE length(" + SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME + ") > 0 AND id <> '"
+                    + deletedSnapshotInfo.getId() + "'"));
+            assertTrue(toolkit.findById(connection, deletedSnapshotInfo.getId()).orElseThrow().getManifestReference().isEmpty());
+            assertChecksumMapEquals(checksumMap, toolkit.findColumnValueById(connection, SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME, deletedSnapshotInfo.getId()).orElseThrow());
+        }
+    }
+
+    @Test
+    public void runStatisticsColumnsAreAddedToOlderTables() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        SnapshotInfo oldSnapshotInfo = SnapshotInfoFactory.createNew("context", "old", Path.of("/target0"), new HashMap<>(), CopyType.SNAPSHOT);
+        RunStatistics runStatistics = new RunStatistics(50, 2, 1, 47, 3_000_000_000L, 12, Duration.ofMillis(1500), Duration.ofMillis(20), Duration.ofMillis(3));
+        SnapshotInfo newSnapshotInfo = SnapshotInfoFactory.createNew("context", "new", Path.of("/target1"),
+                new ManifestReference(Path.of("/target1.manifest"), 10, 20), CopyType.SNAPSHOT, runStatistics);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            // simulate a table created before statistics were recorded
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE snapshot_info (associated_context_id TEXT NOT NULL, name TEXT NOT NULL, run_target_directory TEXT NOT NULL UNIQUE, " +
+                        SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME + " BLOB NOT NULL, copy_type INTEGER, created_time INTEGER NOT NULL, id TEXT PRIMARY KEY, " +
+                        "manifest_path TEXT, manifest_length INTEGER, manifest_checksum INTEGER)");
+                statement.execute("INSERT INTO snapshot_info (associated_context_id, name, run_target_directory, " + SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME +
+                        ", copy_type, created_time, id) VALUES ('context', 'old', '/target0', x'', 2, 0, '" + oldSnapshotInfo.getId() + "')");
+            }
+            toolkit.createTableIfNotExists(connection);  // keeps the existing table
+            new MigrationRunner(List.of(Migration.of(1, "add columns", toolkit::addMissingColumns)), List.of()).migrateSchema(connection);
+            toolkit.upsertAll(connection, List.of(newSnapshotInfo));
+            connection.commit();
+
+            assertTrue(toolkit.findById(connection, oldSnapshotInfo.getId()).orElseThrow().getRunStatistics().isEmpty());
+            RunStatistics loadedRunStatistics = toolkit.findById(connection, newSnapshotInfo.getId()).orElseThrow().getRunStatistics().orElseThrow();
+            assertEquals(runStatistics.toString(), loadedRunStatistics.toString());
+        }
+    }
+
+    @Test
+    public void filterRulesColumnIsAddedToOlderTables() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        FilterRules filterRules = FilterRules.parse("node_modules/\n*.log\n@max-size 100M");
+        SnapshotInfo newSnapshotInfo = SnapshotInfoFactory.createNew("context", "new", Path.of("/target1"),
+                new ManifestReference(Path.of("/target1.manifest"), 10, 20), CopyType.SNAPSHOT, null, filterRules);
+        SnapshotInfo unfilteredSnapshotInfo = SnapshotInfoFactory.createNew("context", "unfiltered", Path.of("/target2"),
+                new ManifestReference(Path.of("/target2.manifest"), 10, 20), CopyType.SNAPSHOT, null, FilterRules.NONE);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            // simulate a table created before filter rules were recorded
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE snapshot_info (associated_context_id TEXT NOT NULL, name TEXT NOT NULL, run_target_directory TEXT NOT NULL UNIQUE, " +
+                        SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME + " BLOB NOT NULL, copy_type INTEGER, created_time INTEGER NOT NULL, id TEXT PRIMARY KEY, " +
+                        "manifest_path TEXT, manifest_length INTEGER, manifest_checksum INTEGER)");
+                statement.execute("INSERT INTO snapshot_info (associated_context_id, name, run_target_directory, " + SnapshotInfo.CHECKSUM_MAP_COLUMN_NAME +
+                        ", copy_type, created_time, id) VALUES ('context', 'old', '/target0', x'', 2, 0, 'old-id')");
+            }
+            toolkit.createTableIfNotExists(connection);  // keeps the existing table
+            new MigrationRunner(List.of(Migration.of(1, "add columns", toolkit::addMissingColumns)), List.of()).migrateSchema(connection);
+            toolkit.upsertAll(connection, List.of(newSnapshotInfo, unfilteredSnapshotInfo));
+            connection.commit();
+
+            assertTrue(toolkit.findById(connection, "old-id").orElseThrow().getFilterRules().isEmpty());
+            FilterRules loadedFilterRules = toolkit.findById(connection, newSnapshotInfo.getId()).orElseThrow().getFilterRules().orElseThrow();
+            assertEquals(filterRules.getText(), loadedFilterRules.getText());
+            assertEquals(100L << 20, loadedFilterRules.getMaxFileSize().orElseThrow());
+            assertTrue(toolkit.findById(connection, unfilteredSnapshotInfo.getId()).orElseThrow().getFilterRules().orElseThrow().isEmpty());
+        }
+    }
+
+    private static void assertChecksumMapEquals(HashMap<Path, ByteBuffer> expected, Object actual) {
+        Map<Path, ByteBuffer> actualMap = HashService.asChecksumMap(actual);
+        assertEquals(expected.size(), actualMap.size());
+        expected.forEach((path, checksum) -> assertArrayEquals(checksum.array(), actualMap.get(path).array()));
+    }
+
+    private static long queryLong(Connection connection, String query) throws Exception {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(query)) {
+            return resultSet.getLong(1);
+        }
+    }
+}
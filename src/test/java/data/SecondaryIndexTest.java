@@ -0,0 +1,69 @@
+package data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DatabaseToolkit;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that lookups of snapshot infos by their context id are answered through the declared index.
+ */
+public class SecondaryIndexTest {
+
+    private static final int CONTEXT_COUNT = 20;
+    private static final int SNAPSHOTS_PER_CONTEXT = 5;
+
+    @Test
+    public void lookupByContextIdUsesIndex() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            connection.setAutoCommit(false);
+            toolkit.createTableIfNotExists(connection);
+            assertFalse(explainLookup(connection, toolkit).contains(toolkit.getIndexNames().get(0)));
+
+            toolkit.createIndexesIfNotExist(connection);
+            List<SnapshotInfo> snapshotInfoList = new ArrayList<>();
+            for(int i = 0; i < CONTEXT_COUNT * SNAPSHOTS_PER_CONTEXT; i++) {
+                snapshotInfoList.add(SnapshotInfoFactory.createNew(contextId(i / SNAPSHOTS_PER_CONTEXT), "snapshot" + i,
+                        Path.of("/target/" + i), new HashMap<>(), CopyType.SNAPSHOT));
+            }
+            toolkit.upsertAll(connection, snapshotInfoList);
+            connection.commit();
+
+            String plan = explainLookup(connection, toolkit);
+            assertTrue(plan.contains("USING") && plan.contains(toolkit.getIndexNames().get(0)), plan);
+            assertFalse(plan.startsWith("SCAN " + toolkit.getTableName() + "\n"), plan);
+            assertEquals(SNAPSHOTS_PER_CONTEXT,
+                    toolkit.findAllIdsByValue(connection, SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME, contextId(3)).size());
+        }
+    }
+
+    private static String explainLookup(Connection connection, DatabaseToolkit<SnapshotInfo> toolkit) throws Exception {
+        StringBuilder plan = new StringBuilder();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("EXPLAIN QUERY PLAN " + toolkit.generateSelectIdByColumnTemplate(SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME).replace("?", "'x'"))) {
+            while(resultSet.next()) {
+                plan.append(resultSet.getString("detail")).append("\n");
+            }
+        }
+        return plan.toString();
+    }
+
+    private static String contextId(int index) {
+        return "context" + index;
+    }
+}
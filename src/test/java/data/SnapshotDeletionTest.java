@@ -0,0 +1,63 @@
+package data;
+
+import jb.engine.core.Context;
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.data.DatabaseManager;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.DigestFilter;
+import jb.engine.core.manifest.DigestIndex;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class SnapshotDeletionTest {
+
+    private static final String TEST_DB_NAME = "snapshot_deletion_test.db";
+    private static final String TEST_DATABASE_MANAGER_NAME = "SnapshotDeletionTestManager";
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    public static void setupDatabaseManager() {
+        DatabaseManager.initializeCustomManager(TEST_DB_NAME, TEST_DATABASE_MANAGER_NAME);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        DatabaseManager.getInstance().deleteDatabase();
+    }
+
+    @Test
+    public void snapshotWithOpenedManifestIsDeletedWithAllItsFiles() throws Exception {
+        Path source = Files.createDirectories(tempDir.resolve("source"));
+        Files.writeString(source.resolve("file.txt"), "content");
+        Context context = Context.createNewContextInitialiseAndSave(source, tempDir.resolve("home"));
+        context.snapshotAndSave("first", progress -> {});
+        context.snapshotAndSave("second", progress -> {});
+        SnapshotInfo first = context.getSnapshotInfoList().stream().filter(snapshotInfo -> snapshotInfo.getName().equals("first"))
+                .findFirst().orElseThrow();
+
+        // the manifest is mapped while it is read, Windows refuses to delete it as long as it stays mapped
+        try (ChecksumManifest manifest = ChecksumManifest.open(first.getManifestReference().orElseThrow())) {
+            assertFalse(manifest.getPaths().isEmpty());
+        }
+        context.deleteSnapshotAndSave(first);
+
+        Path runTargetDirectory = first.getRunTargetDirectory();
+        for(Path path : List.of(runTargetDirectory, ChecksumManifest.getManifestPathFor(runTargetDirectory),
+                DigestIndex.getIndexPathFor(runTargetDirectory), DigestFilter.getFilterPathFor(runTargetDirectory))) {
+            assertFalse(Files.exists(path), path + " still exists");
+        }
+        assertEquals(1, context.getSnapshotInfoList().size());
+        context.delete();
+    }
+}
@@ -0,0 +1,157 @@
+package data;
+
+import jb.engine.core.Context;
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.SpaceUsage;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DatabaseManager;
+import jb.engine.reporting.RunStatistics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpaceAccountingTest {
+
+    private static final String TEST_DB_NAME = "space_accounting_test.db";
+    private static final String TEST_DATABASE_MANAGER_NAME = "SpaceAccountingTestManager";
+
+    private static final ByteBuffer FILE_A = digest(1);
+    private static final ByteBuffer FILE_B = digest(2);
+    private static final ByteBuffer FILE_C = digest(3);
+    private static final ByteBuffer DIRECTORY = digest(4);
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    public static void setupDatabaseManager() {
+        DatabaseManager.initializeCustomManager(TEST_DB_NAME, TEST_DATABASE_MANAGER_NAME);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        DatabaseManager.getInstance().deleteDatabase();
+    }
+
+    @Test
+    public void createdSnapshotsOwnTheirNewFiles() throws Exception {
+        Context context = createContext("created");
+        SnapshotInfo first = account(context, List.of(FILE_A, FILE_B, DIRECTORY), Map.of(FILE_A, 10L, FILE_B, 20L), 30, 0);
+
+        assertUsage(30, 30, 30, DatabaseManager.getInstance().getSpaceUsage(context, first));
+        assertUsage(30, 30, 30, DatabaseManager.getInstance().getSpaceUsage(context));
+        // accounting the same snapshot again changes nothing
+        assertTrue(DatabaseManager.getInstance().accountSpaceAsync(context, first, List.of(FILE_A, FILE_B, DIRECTORY),
+                Map.of(FILE_A, 10L, FILE_B, 20L).entrySet().iterator()).get());
+        assertUsage(30, 30, 30, DatabaseManager.getInstance().getSpaceUsage(context));
+        assertEquals(Map.of(FILE_A, 10L), DatabaseManager.getInstance().findStoredByteCounts(context, List.of(FILE_A, DIRECTORY)));
+        context.delete();
+    }
+
+    @Test
+    public void sharedFilesAreOnlyExclusiveToTheSnapshotStoringThem() throws Exception {
+        Context context = createContext("shared");
+        List<ByteBuffer> firstDigests = List.of(FILE_A, FILE_B, DIRECTORY);
+        List<ByteBuffer> secondDigests = List.of(FILE_A, FILE_B, FILE_C, DIRECTORY);
+        SnapshotInfo first = account(context, firstDigests, Map.of(FILE_A, 10L, FILE_B, 20L), 30, 0);
+        SnapshotInfo second = account(context, secondDigests, Map.of(FILE_C, 30L), 30, 30);
+        SnapshotInfo third = account(context, List.of(FILE_B, DIRECTORY), Map.of(), 0, 20);
+
+        assertUsage(30, 30, 0, DatabaseManager.getInstance().getSpaceUsage(context, first));
+        assertUsage(60, 30, 30, DatabaseManager.getInstance().getSpaceUsage(context, second));
+        assertUsage(20, 0, 0, DatabaseManager.getInstance().getSpaceUsage(context, third));
+        assertUsage(110, 60, 30, DatabaseManager.getInstance().getSpaceUsage(context));
+
+        // FILE_A is only referenced by the first snapshot storing it afterwards, FILE_B still by two snapshots
+        assertTrue(DatabaseManager.getInstance().releaseSpace(context, second, secondDigests));
+        assertEquals(Optional.empty(), DatabaseManager.getInstance().getSpaceUsage(context, second));
+        assertUsage(30, 30, 10, DatabaseManager.getInstance().getSpaceUsage(context, first));
+        assertUsage(20, 0, 0, DatabaseManager.getInstance().getSpaceUsage(context, third));
+        assertUsage(50, 30, 10, DatabaseManager.getInstance().getSpaceUsage(context));
+
+        // FILE_B is deleted with the first snapshot, the third one linking it does not store it
+        assertTrue(DatabaseManager.getInstance().releaseSpace(context, first, firstDigests));
+        assertUsage(20, 0, 0, DatabaseManager.getInstance().getSpaceUsage(context, third));
+        assertUsage(20, 0, 0, DatabaseManager.getInstance().getSpaceUsage(context));
+        assertEquals(Map.of(), DatabaseManager.getInstance().findStoredByteCounts(context, firstDigests));
+        assertFalse(DatabaseManager.getInstance().releaseSpace(context, first, firstDigests));
+        context.delete();
+    }
+
+    @Test
+    public void deletedSnapshotsAreForgotten() throws Exception {
+        Context context = createContext("deleted");
+        List<ByteBuffer> digests = List.of(FILE_A, FILE_B);
+        SnapshotInfo snapshotInfo = account(context, digests, Map.of(FILE_A, 10L, FILE_B, 20L), 30, 0);
+        assertTrue(DatabaseManager.getInstance().releaseSpace(context, snapshotInfo, digests));
+        assertUsage(0, 0, 0, DatabaseManager.getInstance().getSpaceUsage(context));
+        assertEquals(Map.of(), DatabaseManager.getInstance().findStoredByteCounts(context, digests));
+
+        // a file stored again by a later snapshot is exclusive to it
+        SnapshotInfo later = account(context, digests, Map.of(FILE_A, 10L), 10, 20);
+        assertUsage(30, 10, 10, DatabaseManager.getInstance().getSpaceUsage(context, later));
+        context.delete();
+    }
+
+    @Test
+    public void largeSnapshotsAreAccountedAndReleasedInSeveralWrites() throws Exception {
+        Context context = createContext("large");
+        List<ByteBuffer> digests = new ArrayList<>();
+        Map<ByteBuffer, Long> storedDigestSizes = new HashMap<>();
+        for(int i = 0; i < 45_000; i++) {
+            ByteBuffer digest = ByteBuffer.allocate(Integer.BYTES).putInt(0, i + 1000);
+            digests.add(digest);
+            storedDigestSizes.put(digest, 2L);
+        }
+        SnapshotInfo first = account(context, digests, storedDigestSizes, 90_000, 0);
+        SnapshotInfo second = account(context, digests.subList(0, 30_000), Map.of(), 0, 60_000);
+        assertUsage(90_000, 90_000, 30_000, DatabaseManager.getInstance().getSpaceUsage(context, first));
+
+        assertTrue(DatabaseManager.getInstance().releaseSpace(context, second, digests.subList(0, 30_000)));
+        assertUsage(90_000, 90_000, 90_000, DatabaseManager.getInstance().getSpaceUsage(context, first));
+        assertUsage(90_000, 90_000, 90_000, DatabaseManager.getInstance().getSpaceUsage(context));
+        context.delete();
+    }
+
+    private static Context createContext(String name) throws Exception {
+        Path source = Files.createDirectories(tempDir.resolve(name).resolve("source"));
+        return Context.createNewContextInitialiseAndSave(source, tempDir.resolve(name).resolve("home"));
+    }
+
+    private static SnapshotInfo account(Context context, List<ByteBuffer> digests, Map<ByteBuffer, Long> storedDigestSizes,
+                                        long copiedByteCount, long linkedByteCount) throws Exception {
+        RunStatistics runStatistics = new RunStatistics(digests.size(), storedDigestSizes.size(), 0, 0, copiedByteCount, linkedByteCount,
+                Duration.ZERO, Duration.ZERO, Duration.ZERO);
+        SnapshotInfo snapshotInfo = SnapshotInfoFactory.createNew(context.getId(), "run", context.getHomePath().resolve("run"), null,
+                CopyType.SNAPSHOT, runStatistics);
+        assertTrue(DatabaseManager.getInstance().accountSpaceAsync(context, snapshotInfo, digests, storedDigestSizes.entrySet().iterator()).get());
+        return snapshotInfo;
+    }
+
+    private static void assertUsage(long logicalByteCount, long storedByteCount, long exclusiveByteCount, Optional<SpaceUsage> usage) {
+        assertTrue(usage.isPresent());
+        assertEquals(logicalByteCount, usage.get().getLogicalByteCount());
+        assertEquals(storedByteCount, usage.get().getStoredByteCount());
+        assertEquals(exclusiveByteCount, usage.get().getExclusiveByteCount());
+    }
+
+    private static ByteBuffer digest(int value) {
+        return ByteBuffer.wrap(new byte[] {(byte) value, 7, 7, 7});
+    }
+}
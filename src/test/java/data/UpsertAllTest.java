@@ -0,0 +1,112 @@
+package data;
+
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DatabaseToolkit;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.reporting.WriteStatistics;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UpsertAllTest {
+
+    @Test
+    public void unchangedObjectsAreSkipped() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        SnapshotInfo snapshotInfo = createSnapshotInfo();
+        try (Connection connection = createDatabase(toolkit)) {
+            assertEquals(1, toolkit.upsertAll(connection, List.of(snapshotInfo)).getInsertedRowCount());
+            connection.commit();
+
+            WriteStatistics statistics = toolkit.upsertAll(connection, List.of(snapshotInfo));
+            assertEquals(1, statistics.getSkippedRowCount());
+            assertEquals(0, statistics.getInsertedRowCount() + statistics.getUpdatedRowCount());
+            assertEquals(0, statistics.getBytesWritten());
+        }
+    }
+
+    @Test
+    public void renameOnlyUpdatesTheNameColumn() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        SnapshotInfo snapshotInfo = createSnapshotInfo();
+        try (Connection connection = createDatabase(toolkit)) {
+            toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.commit();
+            // records the columns named by the SET clause of each update
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE updated_column (name TEXT)");
+                for(String columnName : queryColumnNames(connection, toolkit.getTableName())) {
+                    statement.execute("CREATE TRIGGER update_of_" + columnName + " AFTER UPDATE OF " + columnName + " ON " + toolkit.getTableName() +
+                            " BEGIN INSERT INTO updated_column (name) VALUES ('" + columnName + "'); END");
+                }
+            }
+
+            snapshotInfo.setName("renamed");
+            WriteStatistics statistics = toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.commit();
+            assertEquals(1, statistics.getUpdatedRowCount());
+            assertEquals(0, statistics.getInsertedRowCount());
+            assertEquals(List.of("name"), queryStrings(connection, "SELECT name FROM updated_column"));
+            assertEquals("renamed", toolkit.findById(connection, snapshotInfo.getId()).orElseThrow().getName());
+        }
+    }
+
+    @Test
+    public void objectsAreWrittenCompletelyAfterTheirStatesWereForgotten() throws Exception {
+        DatabaseToolkit<SnapshotInfo> toolkit = DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory());
+        SnapshotInfo snapshotInfo = createSnapshotInfo();
+        try (Connection connection = createDatabase(toolkit)) {
+            toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.commit();
+
+            // the rename is remembered as written although it is rolled back
+            snapshotInfo.setName("renamed");
+            toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.rollback();
+            toolkit.forgetAllPersistedStates();
+
+            WriteStatistics statistics = toolkit.upsertAll(connection, List.of(snapshotInfo));
+            connection.commit();
+            assertEquals(1, statistics.getInsertedRowCount());
+            assertEquals(0, statistics.getSkippedRowCount() + statistics.getUpdatedRowCount());
+            assertEquals("renamed", toolkit.findById(connection, snapshotInfo.getId()).orElseThrow().getName());
+        }
+    }
+
+    private static SnapshotInfo createSnapshotInfo() {
+        return SnapshotInfoFactory.createNew("context", "snapshot", Path.of("/target"),
+                new ManifestReference(Path.of("/target.manifest"), 10, 20), CopyType.SNAPSHOT, null);
+    }
+
+    private static Connection createDatabase(DatabaseToolkit<SnapshotInfo> toolkit) throws Exception {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        connection.setAutoCommit(false);
+        toolkit.createTableIfNotExists(connection);
+        connection.commit();
+        return connection;
+    }
+
+    private static List<String> queryColumnNames(Connection connection, String tableName) throws Exception {
+        return queryStrings(connection, "SELECT name FROM pragma_table_info('" + tableName + "')");
+    }
+
+    private static List<String> queryStrings(Connection connection, String query) throws Exception {
+        List<String> values = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(query)) {
+            while(resultSet.next()) {
+                values.add(resultSet.getString(1));
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,141 @@
+package jb.engine.core.data;
+
+import jb.engine.core.Context;
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.SpaceUsage;
+import jb.engine.reporting.RunStatistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ContextDatabaseTest {
+
+    private static final String TEST_DB_NAME = "context_database_test.db";
+    private static final String TEST_DATABASE_MANAGER_NAME = "ContextDatabaseTestManager";
+    private static final String SNAPSHOT_INFO_TABLE_NAME =
+            DatabaseToolkit.forMappedType(SnapshotInfo.class, new SnapshotInfoFactory()).getTableName();
+
+    private static final ByteBuffer FILE_A = ByteBuffer.wrap(new byte[] {1, 7, 7, 7});
+    private static final ByteBuffer FILE_B = ByteBuffer.wrap(new byte[] {2, 7, 7, 7});
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        DatabaseManager.getInstance().deleteDatabase();
+    }
+
+    @Test
+    public void snapshotInfoAndSpaceAccountingAreMovedWithoutDuplicates() throws Exception {
+        switchManager(false);
+        Path homePath = tempDir.resolve("home");
+        Context context = Context.createNewContextInitialiseAndSave(Files.createDirectories(tempDir.resolve("source")), homePath);
+        SnapshotInfo snapshotInfo = SnapshotInfoFactory.createNew(context.getId(), "run", homePath.resolve("run"), null, CopyType.SNAPSHOT,
+                new RunStatistics(2, 2, 0, 0, 30, 0, Duration.ZERO, Duration.ZERO, Duration.ZERO));
+        context.getSnapshotInfoList().add(snapshotInfo);
+        context.save();
+        account(context, snapshotInfo);
+        SpaceUsage usage = DatabaseManager.getInstance().getSpaceUsage(context).orElseThrow();
+
+        switchManager(true);
+        assertMoved(context, usage);
+
+        // rows held by both databases, e.g. after an interrupted move, are moved again without being counted twice
+        switchManager(false);
+        context.save();
+        account(context, snapshotInfo);
+        assertEquals(1, countRows(DatabaseManager.getInstance().getConnection(), SNAPSHOT_INFO_TABLE_NAME, context.getId()));
+        switchManager(true);
+        assertMoved(context, usage);
+    }
+
+    @Test
+    public void movedContextDatabaseIsAdoptedAgain() throws Exception {
+        switchManager(true);
+        Path homePath = tempDir.resolve("home");
+        Context context = Context.createNewContextInitialiseAndSave(Files.createDirectories(tempDir.resolve("source")), homePath);
+        context.getSnapshotInfoList().add(SnapshotInfoFactory.createNew(context.getId(), "run", homePath.resolve("run"), null,
+                CopyType.SNAPSHOT, null));
+        context.save();
+
+        for(String movedHomeName : List.of("moved", "moved_again")) {
+            DatabaseManager.getInstance().disconnect();
+            Path movedHomePath = Files.move(homePath, tempDir.resolve(movedHomeName));
+            switchManager(true);
+
+            assertEquals(context.getId(), DatabaseManager.getInstance().findContextIdByHomePath(movedHomePath).orElseThrow());
+            Context adoptedContext = DatabaseManager.getInstance().loadContext(context.getId()).orElseThrow();
+            assertEquals(movedHomePath, adoptedContext.getHomePath());
+            assertEquals(1, adoptedContext.getSnapshotInfoList().size());
+            assertEquals(1, DatabaseManager.getInstance().getInfoOfAllContext().size());
+            homePath = movedHomePath;
+        }
+    }
+
+    /**
+     * Replaces the current manager by one connected to the same catalog.
+     */
+    private static void switchManager(boolean databasePerContext) throws Exception {
+        try {
+            DatabaseManager.getInstance().disconnect();
+        } catch (IllegalStateException e) {
+            // there is no manager yet
+        }
+        DatabaseManager.initializeCustomManager(TEST_DB_NAME, TEST_DATABASE_MANAGER_NAME, databasePerContext);
+    }
+
+    private static void account(Context context, SnapshotInfo snapshotInfo) throws Exception {
+        DatabaseManager.getInstance().accountSpaceAsync(context, snapshotInfo, List.of(FILE_A, FILE_B),
+                Map.of(FILE_A, 10L, FILE_B, 20L).entrySet().iterator()).get();
+    }
+
+    /**
+     * Asserts that loading the given context moved its only snapshot and its space accounting from the catalog to the
+     * context database.
+     */
+    private static void assertMoved(Context context, SpaceUsage usage) throws Exception {
+        assertEquals(1, DatabaseManager.getInstance().loadContext(context.getId()).orElseThrow().getSnapshotInfoList().size());
+        DatabaseManager.getInstance().flush();
+        Connection catalogConnection = DatabaseManager.getInstance().getConnection();
+        try (Connection contextConnection = DriverManager.getConnection("jdbc:sqlite:" + DatabaseManager.getContextDatabasePath(context.getHomePath()))) {
+            assertEquals(1, countRows(contextConnection, SNAPSHOT_INFO_TABLE_NAME, context.getId()));
+            assertEquals(0, countRows(catalogConnection, SNAPSHOT_INFO_TABLE_NAME, context.getId()));
+            for(String spaceTable : List.of(SpaceAccounting.DIGEST_TABLE_NAME, SpaceAccounting.SNAPSHOT_TABLE_NAME, SpaceAccounting.CONTEXT_TABLE_NAME)) {
+                assertEquals(0, countRows(catalogConnection, spaceTable, context.getId()), spaceTable);
+            }
+            assertEquals(2, countRows(contextConnection, SpaceAccounting.DIGEST_TABLE_NAME, context.getId()));
+            assertEquals(1, countRows(contextConnection, SpaceAccounting.SNAPSHOT_TABLE_NAME, context.getId()));
+            assertEquals(1, countRows(contextConnection, SpaceAccounting.CONTEXT_TABLE_NAME, context.getId()));
+        }
+        SpaceUsage movedUsage = DatabaseManager.getInstance().getSpaceUsage(context).orElseThrow();
+        assertEquals(usage.getLogicalByteCount(), movedUsage.getLogicalByteCount());
+        assertEquals(usage.getStoredByteCount(), movedUsage.getStoredByteCount());
+        assertEquals(usage.getExclusiveByteCount(), movedUsage.getExclusiveByteCount());
+    }
+
+    private static int countRows(Connection connection, String tableName, String contextId) throws Exception {
+        String contextIdColumnName = tableName.equals(SNAPSHOT_INFO_TABLE_NAME) ? SnapshotInfo.CONTEXT_IDENTIFYING_SNAPSHOT_COLUMN_NAME : "context_id";
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName + " WHERE " + contextIdColumnName + " = ?")) {
+            statement.setString(1, contextId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package jb.engine.core.data;
+
+import jb.engine.exceptions.DatabaseCommunicationException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DatabaseExecutorTest {
+
+    /**
+     * The names of the writes executed by each transaction, in order.
+     */
+    private final List<List<String>> transactions = new ArrayList<>();
+    private List<String> currentTransaction;
+
+    @Test
+    public void replacedWritesCompleteWithTheReplacingWrite() throws Exception {
+        try (DatabaseExecutor executor = createExecutor()) {
+            CompletableFuture<String> replaced = executor.submitWrite("key", write("first"));
+            CompletableFuture<String> replacing = executor.submitWrite("key", write("second"));
+
+            assertEquals("second", DatabaseExecutor.await(replacing));
+            assertEquals("second", DatabaseExecutor.await(replaced));
+            assertEquals(List.of(List.of("second")), getTransactions());
+        }
+    }
+
+    @Test
+    public void delayedWritesBecomeDueWithTheNextUndelayedWrite() throws Exception {
+        try (DatabaseExecutor executor = createExecutor()) {
+            CompletableFuture<String> delayed = executor.submitWrite("key", write("delayed"));
+            CompletableFuture<String> undelayed = executor.submitWrite(null, write("undelayed"));
+
+            assertEquals("undelayed", DatabaseExecutor.await(undelayed));
+            assertEquals("delayed", DatabaseExecutor.await(delayed));
+            assertEquals(List.of(List.of("delayed", "undelayed")), getTransactions());
+        }
+    }
+
+    @Test
+    public void writesOfAFailedBatchAreRetriedOneByOne() throws Exception {
+        try (DatabaseExecutor executor = createExecutor()) {
+            CompletableFuture<String> first = executor.submitWrite("first", write("first"));
+            CompletableFuture<String> failing = executor.submitWrite("failing", writer -> {
+                write("failing").execute(writer);
+                throw new SQLException("constraint violated");
+            });
+            CompletableFuture<String> last = executor.submitWrite(null, write("last"));
+
+            assertEquals("last", DatabaseExecutor.await(last));
+            assertEquals("first", DatabaseExecutor.await(first));
+            assertThrows(DatabaseCommunicationException.class, () -> DatabaseExecutor.await(failing));
+            assertEquals(List.of(List.of("first", "failing"), List.of("first"), List.of("failing"), List.of("last")), getTransactions());
+        }
+    }
+
+    /**
+     * @return an executor whose transactions only record the names of their writes. A failing write fails its whole
+     * transaction.
+     */
+    private DatabaseExecutor createExecutor() {
+        return new DatabaseExecutor(null, 1, batch -> {
+            synchronized (transactions) {
+                currentTransaction = new ArrayList<>();
+                transactions.add(currentTransaction);
+            }
+            try {
+                batch.execute(null);
+            } catch (SQLException e) {
+                throw new DatabaseCommunicationException("Transaction rolled back: " + e, e);
+            }
+        });
+    }
+
+    private SqliteDatabase.SqlAction<String> write(String name) {
+        return writer -> {
+            synchronized (transactions) {
+                currentTransaction.add(name);
+            }
+            return name;
+        };
+    }
+
+    private List<List<String>> getTransactions() {
+        synchronized (transactions) {
+            return List.copyOf(transactions);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package misc;
+
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.DigestFilter;
+import jb.engine.core.manifest.DigestIndex;
+import jb.engine.core.manifest.ManifestBuilder;
+import jb.engine.core.manifest.ManifestDiff;
+import jb.engine.core.manifest.ManifestReference;
+import jb.engine.exceptions.ManifestException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChecksumManifestTest {
+
+    private static final String SEPARATOR = File.separator;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void manifestHoldsAllChecksumsInPreOrder() {
+        HashMap<String, byte[]> checksumMap = new HashMap<>();
+        String root = SEPARATOR + "target";
+        for(String path : new String[] {root, root + SEPARATOR + "a", root + SEPARATOR + "a" + SEPARATOR + "x", root + SEPARATOR + "a-b",
+                root + SEPARATOR + "a" + SEPARATOR + "y", root + SEPARATOR + "b"}) {
+            checksumMap.put(path, new byte[] {(byte) path.length(), (byte) path.hashCode()});
+        }
+        ManifestReference reference = ChecksumManifest.write(checksumMap, ChecksumManifest.getManifestPathFor(tempDir.resolve("run")));
+        assertEquals(tempDir.resolve("run.manifest"), reference.getPath());
+
+        try (ChecksumManifest manifest = ChecksumManifest.open(reference)) {
+            assertEquals(checksumMap.size(), manifest.size());
+            for(Map.Entry<String, byte[]> entry : checksumMap.entrySet()) {
+                assertArrayEquals(entry.getValue(), manifest.findDigest(entry.getKey()).orElseThrow());
+            }
+            assertTrue(manifest.findDigest(root + SEPARATOR + "c").isEmpty());
+
+            // contents of a directory directly follow it
+            int directoryIndex = manifest.indexOf(root + SEPARATOR + "a");
+            assertEquals(root + SEPARATOR + "a" + SEPARATOR + "x", manifest.getPathString(directoryIndex + 1));
+            assertEquals(directoryIndex + 3, manifest.getSubtreeEnd(directoryIndex));
+            assertEquals(manifest.size(), manifest.getSubtreeEnd(manifest.indexOf(root)));
+
+            HashMap<ByteBuffer, Path> inverseChecksumMap = manifest.toInverseChecksumMap();
+            assertEquals(Path.of(root + SEPARATOR + "b"), inverseChecksumMap.get(ByteBuffer.wrap(checksumMap.get(root + SEPARATOR + "b"))));
+        }
+    }
+
+    @Test
+    public void modifiedManifestIsRejected() throws Exception {
+        ManifestReference reference = ChecksumManifest.write(Map.of(SEPARATOR + "file", new byte[] {1, 2, 3}), tempDir.resolve("run.manifest"));
+        byte[] content = Files.readAllBytes(reference.getPath());
+        content[content.length - 1]++;
+        Files.write(reference.getPath(), content);
+        assertThrows(ManifestException.class, () -> ChecksumManifest.open(reference));
+    }
+
+    @Test
+    public void closedFilesCanBeReplacedAndDeletedRightAway() throws Exception {
+        Path run = tempDir.resolve("run");
+        Map<String, byte[]> checksumMap = Map.of(run.resolve("file").toString(), new byte[] {1, 2});
+        ManifestReference reference = ChecksumManifest.write(checksumMap, ChecksumManifest.getManifestPathFor(run));
+        DigestIndex.write(checksumMap, DigestIndex.getIndexPathFor(run));
+        DigestFilter.write(checksumMap.values(), DigestFilter.getFilterPathFor(run));
+
+        ChecksumManifest manifest = ChecksumManifest.open(reference);
+        List<Path> paths = manifest.getPaths();
+        assertEquals(List.of(run.resolve("file")), paths);
+        manifest.close();
+        // reading a closed manifest fails instead of accessing unmapped memory
+        assertThrows(RuntimeException.class, () -> paths.get(0));
+        try (DigestIndex index = DigestIndex.open(DigestIndex.getIndexPathFor(run));
+             DigestFilter filter = DigestFilter.open(DigestFilter.getFilterPathFor(run))) {
+            assertEquals(run.resolve("file"), index.findPath(ByteBuffer.wrap(new byte[] {1, 2})));
+            assertTrue(filter.mightContain(ByteBuffer.wrap(new byte[] {1, 2})));
+        }
+
+        // Windows refuses both while a file is still mapped
+        ChecksumManifest.write(Map.of(run.resolve("other").toString(), new byte[] {3, 4}), reference.getPath());
+        for(Path path : List.of(reference.getPath(), DigestIndex.getIndexPathFor(run), DigestFilter.getFilterPathFor(run))) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void manifestDiffDescendsIntoChangedDirectoriesOnly() {
+        Map<String, byte[]> previousMap = new HashMap<>();
+        Map<String, byte[]> currentMap = new HashMap<>();
+        Path previousRun = tempDir.resolve("previous");
+        Path currentRun = tempDir.resolve("current");
+        for(String relativePath : new String[] {"Source", "Source/a", "Source/a/x", "Source/a/y", "Source/b", "Source/b/z", "Source/c", "Source/c/w"}) {
+            previousMap.put(previousRun.resolve(relativePath).toString(), new byte[] {(byte) relativePath.length(), 0});
+        }
+        for(String relativePath : new String[] {"Source", "Source/a", "Source/a/x"}) {
+            currentMap.put(currentRun.resolve(relativePath).toString(), new byte[] {(byte) relativePath.length(), 1});
+        }
+        for(String relativePath : new String[] {"Source/a/y", "Source/b", "Source/d"}) {
+            currentMap.put(currentRun.resolve(relativePath).toString(), new byte[] {(byte) relativePath.length(), 0});
+        }
+        // differs but is never compared since the digests of its directory are equal
+        currentMap.put(currentRun.resolve("Source/b/z").toString(), new byte[] {0, 2});
+
+        try (ChecksumManifest previous = ChecksumManifest.open(ChecksumManifest.write(previousMap, ChecksumManifest.getManifestPathFor(previousRun)));
+             ChecksumManifest current = ChecksumManifest.open(ChecksumManifest.write(currentMap, ChecksumManifest.getManifestPathFor(currentRun)))) {
+            List<String> differences = new ArrayList<>();
+            ManifestDiff.stream(previous, current, false).forEach(entry -> differences.add(entry.getType() + " " + Path.of(entry.getRelativePath())));
+            assertEquals(List.of("CHANGED Source", "CHANGED " + Path.of("Source/a"), "CHANGED " + Path.of("Source/a/x"),
+                    "REMOVED " + Path.of("Source/c"), "ADDED " + Path.of("Source/d")), differences);
+
+            assertEquals(6, ManifestDiff.stream(previous, current, true).count());
+            assertEquals(1, ManifestDiff.stream(null, current, false).count());
+            assertEquals(currentMap.size(), ManifestDiff.stream(null, current, true).count());
+        }
+    }
+
+    @Test
+    public void digestIndexFindsPathsByDigest() {
+        HashMap<String, byte[]> checksumMap = new HashMap<>();
+        for(int i = 0; i < 1000; i++) {
+            checksumMap.put(SEPARATOR + "file" + i, new byte[] {(byte) (i / 256), (byte) i});
+        }
+        Path indexPath = DigestIndex.getIndexPathFor(tempDir.resolve("run"));
+        DigestIndex.write(checksumMap, indexPath);
+        try (DigestIndex index = DigestIndex.open(indexPath)) {
+            assertEquals(checksumMap.size(), index.size());
+            for(Map.Entry<String, byte[]> entry : checksumMap.entrySet()) {
+                assertEquals(Path.of(entry.getKey()), index.findPath(ByteBuffer.wrap(entry.getValue())));
+            }
+            assertNull(index.findPath(ByteBuffer.wrap(new byte[] {(byte) 255, (byte) 255})));
+            assertNull(index.findPath(ByteBuffer.wrap(new byte[] {1})));
+        }
+    }
+
+    @Test
+    public void manifestBuilderWritesSameFilesAsChecksumMapBeyondMemoryBudget() throws Exception {
+        HashMap<String, byte[]> checksumMap = new HashMap<>();
+        Path run = tempDir.resolve("run");
+        checksumMap.put(run.resolve("Source").toString(), new byte[] {0, 0});
+        for(int i = 0; i < 20; i++) {
+            checksumMap.put(run.resolve("Source/dir" + i).toString(), new byte[] {1, (byte) i});
+            for(int j = 0; j < 10; j++) {
+                // files of equal name and content share their digest
+                checksumMap.put(run.resolve("Source/dir" + i + "/file" + j).toString(), new byte[] {2, (byte) j});
+            }
+        }
+        Path spillDirectory = Files.createDirectory(tempDir.resolve("spill"));
+        Path built = tempDir.resolve("built");
+        ManifestReference builtReference;
+        try (ManifestBuilder manifestBuilder = new ManifestBuilder(spillDirectory, 1024)) {
+            checksumMap.forEach(manifestBuilder::add);
+            assertTrue(manifestBuilder.getSpilledRunCount() > 1);
+            builtReference = manifestBuilder.write(ChecksumManifest.getManifestPathFor(built), DigestIndex.getIndexPathFor(built),
+                    DigestFilter.getFilterPathFor(built));
+        }
+        try (Stream<Path> spilledFiles = Files.list(spillDirectory)) {
+            assertEquals(0, spilledFiles.count());
+        }
+
+        ManifestReference reference = ChecksumManifest.write(checksumMap, ChecksumManifest.getManifestPathFor(run));
+        DigestIndex.write(checksumMap, DigestIndex.getIndexPathFor(run));
+        assertArrayEquals(Files.readAllBytes(reference.getPath()), Files.readAllBytes(builtReference.getPath()));
+        assertEquals(reference.getChecksum(), builtReference.getChecksum());
+        assertArrayEquals(Files.readAllBytes(DigestIndex.getIndexPathFor(run)), Files.readAllBytes(DigestIndex.getIndexPathFor(built)));
+        try (DigestFilter filter = DigestFilter.open(DigestFilter.getFilterPathFor(built))) {
+            checksumMap.values().forEach(digest -> assertTrue(filter.mightContain(ByteBuffer.wrap(digest))));
+        }
+    }
+
+    @Test
+    public void digestFilterHasNoFalseNegatives() {
+        List<byte[]> digests = new ArrayList<>();
+        for(int i = 0; i < 10_000; i++) {
+            digests.add(ByteBuffer.allocate(20).putInt(i).putInt(i * 31).array());
+        }
+        Path filterPath = DigestFilter.getFilterPathFor(tempDir.resolve("run"));
+        DigestFilter.write(digests, filterPath);
+        try (DigestFilter filter = DigestFilter.open(filterPath)) {
+            digests.forEach(digest -> assertTrue(filter.mightContain(ByteBuffer.wrap(digest))));
+            int falsePositiveCount = 0;
+            for(int i = digests.size(); i < 2 * digests.size(); i++) {
+                if(filter.mightContain(ByteBuffer.wrap(ByteBuffer.allocate(20).putInt(i).putInt(i * 31).array()))) {
+                    falsePositiveCount++;
+                }
+            }
+            assertTrue(falsePositiveCount < digests.size() * 5 * DigestFilter.getConfiguredFalsePositiveRate());
+        }
+    }
+}
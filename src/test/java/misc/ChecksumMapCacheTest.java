@@ -0,0 +1,56 @@
+package misc;
+
+import jb.engine.core.ChecksumMapCache;
+import jb.engine.reporting.CacheMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChecksumMapCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedMapsWhenBudgetIsExceeded() {
+        AtomicInteger loadCount = new AtomicInteger();
+        long singleMapSize = ChecksumMapCache.estimateSizeInBytes(createMap("a"));
+        ChecksumMapCache cache = new ChecksumMapCache(2 * singleMapSize, id -> {
+            loadCount.incrementAndGet();
+            return createMap(id);
+        });
+
+        cache.get("a");
+        cache.get("b");
+        cache.get("a");  // a is now the most recently used map
+        cache.get("c");  // evicts b
+        cache.get("a");
+        cache.get("b");  // reloads b
+
+        CacheMetrics metrics = cache.getMetrics();
+        assertEquals(4, loadCount.get());
+        assertEquals(2, metrics.getHitCount());
+        assertEquals(4, metrics.getMissCount());
+        assertEquals(2, metrics.getEvictionCount());
+        assertEquals(2, metrics.getResidentEntryCount());
+        assertTrue(metrics.getResidentBytes() <= metrics.getByteBudget());
+    }
+
+    @Test
+    public void doesNotCacheMapsExceedingTheBudget() {
+        ChecksumMapCache cache = new ChecksumMapCache(1, ChecksumMapCacheTest::createMap);
+        cache.get("a");
+        cache.get("a");
+        assertEquals(0, cache.getMetrics().getResidentEntryCount());
+        assertEquals(2, cache.getMetrics().getMissCount());
+    }
+
+    private static HashMap<String, byte[]> createMap(String prefix) {
+        HashMap<String, byte[]> map = new HashMap<>();
+        for(int i = 0; i < 10; i++) {
+            map.put("/some/path/" + prefix + i, new byte[20]);
+        }
+        return map;
+    }
+}
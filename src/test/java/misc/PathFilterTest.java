@@ -0,0 +1,143 @@
+package misc;
+
+import jb.engine.core.filter.FilterRules;
+import jb.engine.core.filter.PathFilter;
+import jb.engine.reporting.CopyProgress;
+import jb.engine.reporting.ProblemReport;
+import jb.engine.services.CopyService;
+import jb.engine.services.HashService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PathFilterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void rulesFollowGitignoreSyntax() {
+        Path source = tempDir.resolve("source");
+        PathFilter filter = PathFilter.of(source, FilterRules.parse(String.join("\n",
+                "# comment",
+                "node_modules/",
+                "*.log",
+                "!keep.log",
+                "/build",
+                "docs/**/*.tmp",
+                "cache?",
+                "[ab].bin")));
+
+        assertTrue(filter.excludes(source.resolve("node_modules"), () -> true));
+        assertTrue(filter.excludes(source.resolve("a").resolve("node_modules"), () -> true));
+        assertFalse(filter.excludes(source.resolve("node_modules"), () -> false));
+        assertTrue(filter.excludes(source.resolve("x").resolve("error.log"), () -> false));
+        assertFalse(filter.excludes(source.resolve("keep.log"), () -> false));
+        assertTrue(filter.excludes(source.resolve("build"), () -> true));
+        assertFalse(filter.excludes(source.resolve("a").resolve("build"), () -> true));
+        assertTrue(filter.excludes(source.resolve("docs").resolve("x.tmp"), () -> false));
+        assertTrue(filter.excludes(source.resolve("docs").resolve("a").resolve("b").resolve("x.tmp"), () -> false));
+        assertFalse(filter.excludes(source.resolve("x.tmp"), () -> false));
+        assertTrue(filter.excludes(source.resolve("cache1"), () -> true));
+        assertFalse(filter.excludes(source.resolve("cache12"), () -> true));
+        assertTrue(filter.excludes(source.resolve("b.bin"), () -> false));
+        assertFalse(filter.excludes(source.resolve("c.bin"), () -> false));
+    }
+
+    @Test
+    public void directoryIsOnlyAccessedForRulesRestrictedToDirectories() {
+        Path source = tempDir.resolve("source");
+        PathFilter filter = PathFilter.of(source, FilterRules.parse("*.o\ntarget/"));
+        assertTrue(filter.excludes(source.resolve("main.o"), () -> {
+            throw new AssertionError("directory flag requested");
+        }));
+        assertFalse(filter.excludes(source.resolve("main.c"), () -> {
+            throw new AssertionError("directory flag requested");
+        }));
+    }
+
+    @Test
+    public void invalidRulesAreRejectedWithTheirLine() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> FilterRules.parse("a\n[b\n"));
+        assertTrue(e.getMessage().contains("line 2"));
+        assertThrows(IllegalArgumentException.class, () -> FilterRules.parse("@max-size lots"));
+        assertThrows(IllegalArgumentException.class, () -> FilterRules.parse("@unknown 1"));
+        assertThrows(IllegalArgumentException.class, () -> FilterRules.parse("!"));
+        assertEquals(2L << 20, FilterRules.parse("@max-size 2M").getMaxFileSize().orElseThrow());
+        assertTrue(FilterRules.parse(" \n# only a comment\n").isEmpty());
+    }
+
+    @Test
+    public void hashingPrunesExcludedPathsAndReadsIgnoreFiles() throws IOException {
+        Path source = createSourceTree();
+        FilterRules rules = FilterRules.parse("node_modules/\n@max-size 40");
+
+        HashMap<Path, ByteBuffer> checksums = new HashMap<>();
+        HashService.computeChecksums(source, PathFilter.of(source, rules), CopyProgress.withoutConsumer(),
+                (path, checksum, directory) -> checksums.put(path, checksum));
+
+        assertEquals(Set.of(source, source.resolve("src"), source.resolve("src").resolve("main.c"), source.resolve("sub"),
+                        source.resolve("sub").resolve(FilterRules.IGNORE_FILE_NAME), source.resolve("sub").resolve("kept.txt")),
+                checksums.keySet());
+
+        // the checksum of the source equals the one of a copy containing only the included paths
+        Path copyTarget = Files.createDirectory(tempDir.resolve("copy"));
+        ProblemReport problemReport = CopyService.createCopyService(copyTarget, source, PathFilter.of(source, rules)).plainCopy();
+        assertTrue(problemReport.getProblems().isEmpty());
+        Path copiedSource = copyTarget.resolve(source.getFileName());
+        try (Stream<Path> copiedPaths = Files.walk(copiedSource)) {
+            assertEquals(checksums.keySet(), copiedPaths.map(path -> source.resolve(copiedSource.relativize(path))).collect(Collectors.toSet()));
+        }
+        HashMap<Path, ByteBuffer> copiedChecksums = HashService.computeChecksumMap(copiedSource);
+        assertArrayEquals(checksums.get(source).array(), copiedChecksums.get(copiedSource).array());
+    }
+
+    @Test
+    public void appliedIgnoreFilesAreKeptAndExcludedOnesSkipped() throws IOException {
+        Path source = Files.createDirectory(tempDir.resolve("source"));
+        Path applied = Files.createDirectory(source.resolve("applied"));
+        Files.writeString(applied.resolve(FilterRules.IGNORE_FILE_NAME), "*\n");
+        Files.writeString(applied.resolve("a.txt"), "a");
+        Path skipped = Files.createDirectory(source.resolve("skipped"));
+        Files.writeString(skipped.resolve(FilterRules.IGNORE_FILE_NAME), "*.txt\n");
+        Files.writeString(skipped.resolve("b.txt"), "b");
+
+        HashMap<Path, ByteBuffer> checksums = new HashMap<>();
+        HashService.computeChecksums(source, PathFilter.of(source, FilterRules.parse("skipped/" + FilterRules.IGNORE_FILE_NAME)),
+                CopyProgress.withoutConsumer(), (path, checksum, directory) -> checksums.put(path, checksum));
+
+        // an ignore file excluding everything still keeps itself, an excluded one is not applied
+        assertEquals(Set.of(source, applied, applied.resolve(FilterRules.IGNORE_FILE_NAME), skipped, skipped.resolve("b.txt")),
+                checksums.keySet());
+    }
+
+    private Path createSourceTree() throws IOException {
+        Path source = Files.createDirectory(tempDir.resolve("source"));
+        for(Path directory : List.of(source.resolve("node_modules").resolve("lib"), source.resolve("src"), source.resolve("sub").resolve("out"))) {
+            Files.createDirectories(directory);
+        }
+        Files.writeString(source.resolve("node_modules").resolve("lib").resolve("index.js"), "x");
+        Files.writeString(source.resolve("src").resolve("main.c"), "int x;");
+        Files.writeString(source.resolve("src").resolve("large.bin"), "x".repeat(41));
+        Files.writeString(source.resolve("sub").resolve(FilterRules.IGNORE_FILE_NAME), "out/\n*.txt\n!kept.txt\n");
+        Files.writeString(source.resolve("sub").resolve("kept.txt"), "kept");
+        Files.writeString(source.resolve("sub").resolve("dropped.txt"), "dropped");
+        Files.writeString(source.resolve("sub").resolve("out").resolve("a.o"), "o");
+        return source;
+    }
+}
@@ -0,0 +1,160 @@
+package misc;
+
+import jb.engine.reporting.CopyProgress;
+import jb.engine.reporting.ProblemReport;
+import jb.engine.reporting.RunStatistics;
+import jb.engine.services.CopyService;
+import jb.engine.services.DigestLookup;
+import jb.engine.services.HashService;
+import jb.engine.services.SnapshotCopyPipeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotCopyPipelineTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void finishedPipelineLinksUnchangedPathsAndCopiesTheRest() throws Exception {
+        Path source = tempDir.resolve("source");
+        Files.createDirectories(source.resolve("a"));
+        Files.createDirectories(source.resolve("b"));
+        Files.writeString(source.resolve("a").resolve("x.txt"), "unchanged");
+        Files.writeString(source.resolve("a").resolve("y.txt"), "changed");
+        Files.writeString(source.resolve("b").resolve("z.txt"), "unchanged directory");
+        HashMap<Path, ByteBuffer> checksumMap = HashService.computeChecksumMap(source);
+        Path previous = tempDir.resolve("previous").resolve("source");
+        // the comparison snapshot holds the unchanged file and directory
+        Map<ByteBuffer, Path> inverseComparisonMap = Map.of(
+                checksumMap.get(source.resolve("a").resolve("x.txt")), previous.resolve("a").resolve("x.txt"),
+                checksumMap.get(source.resolve("b")), previous.resolve("b"),
+                checksumMap.get(source.resolve("b").resolve("z.txt")), previous.resolve("b").resolve("z.txt"));
+
+        Path target = Files.createDirectory(tempDir.resolve("target"));
+        CopyProgress copyProgress = CopyProgress.withoutConsumer();
+        Map<Path, Long> copiedFileSizes = new HashMap<>();
+        RunStatistics.Recorder recorder = new RunStatistics.Recorder(copiedFileSizes::put);
+        ProblemReport problemReport;
+        try (SnapshotCopyPipeline pipeline = CopyService.createCopyService(target, source).startSnapshotCopyPipeline(DigestLookup.of(inverseComparisonMap),
+                relativePath -> false, copyProgress, recorder, 2)) {
+            HashService.computeChecksums(source, copyProgress, pipeline);
+            problemReport = pipeline.finish();
+        }
+
+        assertEquals(0, problemReport.getEncounteredProblemCount());
+        Path copiedSource = target.resolve("source");
+        assertTrue(Files.isDirectory(copiedSource.resolve("a"), LinkOption.NOFOLLOW_LINKS));
+        assertEquals(previous.resolve("a").resolve("x.txt"), Files.readSymbolicLink(copiedSource.resolve("a").resolve("x.txt")));
+        assertEquals("changed", Files.readString(copiedSource.resolve("a").resolve("y.txt")));
+        // contents of a linked directory are neither linked nor copied
+        assertEquals(previous.resolve("b"), Files.readSymbolicLink(copiedSource.resolve("b")));
+        assertEquals(Map.of(source.resolve("a").resolve("y.txt"), 7L), copiedFileSizes);
+        RunStatistics runStatistics = recorder.toStatistics(copyProgress, Duration.ZERO);
+        assertEquals(1, runStatistics.getNewFileCount());
+        assertEquals(2, runStatistics.getLinkedCount());
+        assertEquals(100, copyProgress.getPercentage().intValue());
+    }
+
+    @Test
+    public void hashingWaitsWhileTheQueueIsFull() throws Exception {
+        Path source = createSourceFiles(3);
+        CountDownLatch copyStarted = new CountDownLatch(1);
+        CountDownLatch copyReleased = new CountDownLatch(1);
+        Map<Path, Long> copiedFileSizes = new HashMap<>();
+        RunStatistics.Recorder recorder = new RunStatistics.Recorder(copiedFileSizes::put);
+        try (SnapshotCopyPipeline pipeline = CopyService.createCopyService(Files.createDirectory(tempDir.resolve("target")), source)
+                .startSnapshotCopyPipeline(DigestLookup.of(Map.of()), relativePath -> {
+                    copyStarted.countDown();
+                    try {
+                        copyReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return false;
+                }, CopyProgress.withoutConsumer(), recorder, 1)) {
+            pipeline.hashed(source.resolve("file0"), digest(0), false);
+            assertTrue(copyStarted.await(5, TimeUnit.SECONDS));
+            // the copy thread is blocked with the first file, the second one fills the queue
+            pipeline.hashed(source.resolve("file1"), digest(1), false);
+            CompletableFuture<Void> third = CompletableFuture.runAsync(() -> pipeline.hashed(source.resolve("file2"), digest(2), false));
+            Thread.sleep(300);
+            assertFalse(third.isDone());
+
+            copyReleased.countDown();
+            third.get(5, TimeUnit.SECONDS);
+            pipeline.hashed(source, digest(3), true);
+            assertEquals(0, pipeline.finish().getEncounteredProblemCount());
+        }
+        assertEquals(3, copiedFileSizes.size());
+    }
+
+    @Test
+    public void failedOperationsAreReportedAndLaterOnesExecuted() throws Exception {
+        Path source = createSourceFiles(2);
+        Path target = Files.createDirectory(tempDir.resolve("target"));
+        Map<Path, Long> copiedFileSizes = new HashMap<>();
+        RunStatistics.Recorder recorder = new RunStatistics.Recorder(copiedFileSizes::put);
+        ProblemReport problemReport;
+        try (SnapshotCopyPipeline pipeline = CopyService.createCopyService(target, source).startSnapshotCopyPipeline(DigestLookup.of(Map.of()),
+                relativePath -> {
+                    if(relativePath.endsWith("file0")) {
+                        throw new IllegalStateException("comparison snapshot unavailable");
+                    }
+                    return false;
+                }, CopyProgress.withoutConsumer(), recorder, 1)) {
+            pipeline.hashed(source.resolve("file0"), digest(0), false);
+            pipeline.hashed(source.resolve("file1"), digest(1), false);
+            pipeline.hashed(source, digest(2), true);
+            problemReport = pipeline.finish();
+        }
+        assertEquals(1, problemReport.getEncounteredProblemCount());
+        assertTrue(problemReport.getProblems().get(0).toString().startsWith("sourcePath=" + source.resolve("file0") + ","));
+        assertEquals(Map.of(source.resolve("file1"), 5L), copiedFileSizes);
+    }
+
+    @Test
+    public void hashingFailsOnceTheCopyThreadStopped() throws Exception {
+        Path source = createSourceFiles(1);
+        // progress is notified by the copy thread outside of any operation, failing there stops the thread
+        CopyProgress copyProgress = CopyProgress.withProgressConsumer(progress -> {
+            throw new IllegalStateException("progress display closed");
+        });
+        SnapshotCopyPipeline pipeline = CopyService.createCopyService(Files.createDirectory(tempDir.resolve("target")), source)
+                .startSnapshotCopyPipeline(DigestLookup.of(Map.of()), relativePath -> false, copyProgress, new RunStatistics.Recorder(), 1);
+        assertThrows(IllegalStateException.class, () -> {
+            for(int i = 0; i < 10; i++) {
+                pipeline.hashed(source.resolve("file0"), digest(i), false);
+            }
+        });
+        assertThrows(IllegalStateException.class, pipeline::finish);
+    }
+
+    private Path createSourceFiles(int count) throws Exception {
+        Path source = Files.createDirectory(tempDir.resolve("source"));
+        for(int i = 0; i < count; i++) {
+            Files.writeString(source.resolve("file" + i), "file" + i);
+        }
+        return source;
+    }
+
+    private static ByteBuffer digest(int value) {
+        return ByteBuffer.wrap(new byte[] {(byte) value, 7, 7, 7});
+    }
+}
@@ -0,0 +1,159 @@
+package misc;
+
+import jb.engine.core.Context;
+import jb.engine.core.SnapshotDifference;
+import jb.engine.core.SnapshotInfo;
+import jb.engine.core.SnapshotInfoFactory;
+import jb.engine.core.data.CopyType;
+import jb.engine.core.data.DatabaseManager;
+import jb.engine.core.manifest.ChecksumManifest;
+import jb.engine.core.manifest.DigestFilter;
+import jb.engine.core.manifest.DigestIndex;
+import jb.engine.core.manifest.ManifestReference;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotDiffTest {
+
+    private static final String TEST_DB_NAME = "snapshot_diff_test.db";
+    private static final String TEST_DATABASE_MANAGER_NAME = "SnapshotDiffTestManager";
+
+    @TempDir
+    static Path tempDir;
+
+    @BeforeAll
+    public static void setupDatabaseManager() {
+        DatabaseManager.initializeCustomManager(TEST_DB_NAME, TEST_DATABASE_MANAGER_NAME);
+    }
+
+    @AfterAll
+    public static void tearDown() throws Exception {
+        DatabaseManager.getInstance().deleteDatabase();
+    }
+
+    @Test
+    public void diffReportsChangesAndPairsMovedFiles() throws Exception {
+        Context context = createContext("changes");
+        Map<String, byte[]> previousDigests = new HashMap<>();
+        previousDigests.put("Source", digest(0, 0));
+        previousDigests.put("Source/a", digest(1, 0));
+        previousDigests.put("Source/a/kept.txt", digest(2, 0));
+        previousDigests.put("Source/a/changed.txt", digest(3, 0));
+        previousDigests.put("Source/a/moved.txt", digest(4, 0));
+        previousDigests.put("Source/b", digest(5, 0));
+        previousDigests.put("Source/b/other.txt", digest(6, 0));
+        previousDigests.put("Source/removed.txt", digest(7, 0));
+        Map<String, byte[]> currentDigests = new HashMap<>();
+        currentDigests.put("Source", digest(0, 1));
+        currentDigests.put("Source/a", digest(1, 1));
+        currentDigests.put("Source/a/kept.txt", digest(2, 0));
+        currentDigests.put("Source/a/changed.txt", digest(3, 1));
+        currentDigests.put("Source/b", digest(5, 1));
+        currentDigests.put("Source/b/other.txt", digest(6, 0));
+        currentDigests.put("Source/b/moved.txt", digest(4, 0));
+        currentDigests.put("Source/added.txt", digest(8, 0));
+        SnapshotInfo previous = createSnapshot(context, "previous", previousDigests);
+        SnapshotInfo current = createSnapshot(context, "current", currentDigests);
+
+        // the removed and the added end of the move are reported once, as moved
+        assertEquals(Set.of("MODIFIED " + Path.of("Source"), "MODIFIED " + Path.of("Source/a"), "MODIFIED " + Path.of("Source/a/changed.txt"),
+                        "MODIFIED " + Path.of("Source/b"), "MOVED " + Path.of("Source/b/moved.txt") + " from " + Path.of("Source/a/moved.txt"),
+                        "REMOVED " + Path.of("Source/removed.txt"), "ADDED " + Path.of("Source/added.txt")),
+                diff(context, previous, current));
+        assertEquals(Set.of("MODIFIED " + Path.of("Source"), "MODIFIED " + Path.of("Source/a"), "MODIFIED " + Path.of("Source/a/changed.txt"),
+                        "MODIFIED " + Path.of("Source/b"), "MOVED " + Path.of("Source/a/moved.txt") + " from " + Path.of("Source/b/moved.txt"),
+                        "ADDED " + Path.of("Source/removed.txt"), "REMOVED " + Path.of("Source/added.txt")),
+                diff(context, current, previous));
+        assertEquals(Set.of(), diff(context, previous, previous));
+        context.delete();
+    }
+
+    @Test
+    public void eachPathIsPartOfOneMoveAtMost() throws Exception {
+        Context context = createContext("duplicates");
+        Map<String, byte[]> previousDigests = new HashMap<>();
+        previousDigests.put("Source", digest(0, 0));
+        previousDigests.put("Source/a", digest(1, 0));
+        previousDigests.put("Source/a/copy.txt", digest(2, 0));
+        previousDigests.put("Source/b", digest(3, 0));
+        previousDigests.put("Source/b/copy.txt", digest(2, 0));
+        previousDigests.put("Source/c", digest(4, 0));
+        previousDigests.put("Source/c/other.txt", digest(5, 0));
+        Map<String, byte[]> currentDigests = new HashMap<>();
+        currentDigests.put("Source", digest(0, 1));
+        currentDigests.put("Source/a", digest(1, 1));
+        currentDigests.put("Source/b", digest(3, 1));
+        currentDigests.put("Source/c", digest(4, 1));
+        currentDigests.put("Source/c/other.txt", digest(5, 0));
+        currentDigests.put("Source/c/copy.txt", digest(2, 0));
+        // files of a removed directory are not moved since the directory is reported as a whole
+        previousDigests.put("Source/gone", digest(6, 0));
+        previousDigests.put("Source/gone/lost.txt", digest(7, 0));
+        currentDigests.put("Source/c/lost.txt", digest(7, 0));
+        SnapshotInfo previous = createSnapshot(context, "previous", previousDigests);
+        SnapshotInfo current = createSnapshot(context, "current", currentDigests);
+
+        List<SnapshotDifference> differences;
+        try (Stream<SnapshotDifference> stream = context.diff(previous, current)) {
+            differences = stream.collect(Collectors.toList());
+        }
+        List<SnapshotDifference> moves = differences.stream().filter(difference -> difference.getType() == SnapshotDifference.Type.MOVED)
+                .collect(Collectors.toList());
+        assertEquals(1, moves.size());
+        assertEquals(Path.of("Source/c/copy.txt"), moves.get(0).getRelativePath());
+        Path movedFrom = moves.get(0).getPreviousRelativePath();
+        assertTrue(Set.of(Path.of("Source/a/copy.txt"), Path.of("Source/b/copy.txt")).contains(movedFrom));
+        // the other copy is still reported as removed
+        Set<Path> removed = differences.stream().filter(difference -> difference.getType() == SnapshotDifference.Type.REMOVED)
+                .map(SnapshotDifference::getRelativePath).collect(Collectors.toSet());
+        Path otherCopy = movedFrom.equals(Path.of("Source/a/copy.txt")) ? Path.of("Source/b/copy.txt") : Path.of("Source/a/copy.txt");
+        assertEquals(Set.of(otherCopy, Path.of("Source/gone")), removed);
+        assertTrue(differences.stream().anyMatch(difference -> difference.getType() == SnapshotDifference.Type.ADDED
+                && difference.getRelativePath().equals(Path.of("Source/c/lost.txt"))));
+        context.delete();
+    }
+
+    private static Context createContext(String name) throws Exception {
+        Path source = Files.createDirectories(tempDir.resolve(name).resolve("source"));
+        return Context.createNewContextInitialiseAndSave(source, tempDir.resolve(name).resolve("home"));
+    }
+
+    /**
+     * Writes the manifest, digest index and digest filter of a snapshot holding the given relative paths.
+     */
+    private static SnapshotInfo createSnapshot(Context context, String name, Map<String, byte[]> relativeDigests) {
+        Path runTargetDirectory = context.getHomePath().resolve(name);
+        HashMap<String, byte[]> checksumMap = new HashMap<>();
+        relativeDigests.forEach((relativePath, digest) -> checksumMap.put(runTargetDirectory.resolve(relativePath).toString(), digest));
+        ManifestReference manifestReference = ChecksumManifest.write(checksumMap, ChecksumManifest.getManifestPathFor(runTargetDirectory));
+        DigestIndex.write(checksumMap, DigestIndex.getIndexPathFor(runTargetDirectory));
+        DigestFilter.write(checksumMap.values(), DigestFilter.getFilterPathFor(runTargetDirectory));
+        return SnapshotInfoFactory.createNew(context.getId(), name, runTargetDirectory, manifestReference, CopyType.SNAPSHOT, null);
+    }
+
+    private static Set<String> diff(Context context, SnapshotInfo previous, SnapshotInfo current) {
+        try (Stream<SnapshotDifference> differences = context.diff(previous, current)) {
+            return differences.map(difference -> difference.getType() + " " + difference.getRelativePath()
+                    + (difference.getPreviousRelativePath() == null ? "" : " from " + difference.getPreviousRelativePath()))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    private static byte[] digest(int path, int version) {
+        return new byte[] {(byte) path, (byte) version, 7, 7};
+    }
+}